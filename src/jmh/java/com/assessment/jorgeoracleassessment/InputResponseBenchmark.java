@@ -0,0 +1,60 @@
+package com.assessment.jorgeoracleassessment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.assessment.jorgeoracleassessment.models.input.InputResponse;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.repository.LocationPageParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Benchmark of the deserialization of a locations page: the data binding
+ * of InputResponse, configured as the RestTemplate's message converter does,
+ * against the streaming LocationPageParser.
+ * 
+ * @author Jorge Gonzalez
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputResponseBenchmark {
+    @Param({ "1000", "10000", "50000" })
+    private int locations;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private byte[] page;
+
+    @Setup
+    public void setUp() {
+        page = LocationFixtures.locationsPage(locations);
+    }
+
+    @Benchmark
+    public InputResponse bindInputResponse() throws IOException {
+        return objectMapper.readValue(page, InputResponse.class);
+    }
+
+    @Benchmark
+    public LocationPage parseLocationPage() throws IOException {
+        return LocationPageParser.parse(new ByteArrayInputStream(page), "pm25");
+    }
+}
@@ -0,0 +1,81 @@
+package com.assessment.jorgeoracleassessment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fixtures of the OpenAQ locations API used by the benchmarks. The pages
+ * follow the shape of the recorded /v2/locations responses (every field of
+ * a location, one to four parameters each, with their sensor metadata), and
+ * they are generated with a fixed seed so every run benchmarks the same
+ * bytes.
+ * 
+ * @author Jorge Gonzalez
+ */
+public final class LocationFixtures {
+    private static final String[] PARAMETERS = { "pm25", "pm10", "o3", "no2", "so2", "co" };
+
+    private static final String[] UNITS = { "\u00b5g/m\u00b3", "\u00b5g/m\u00b3", "ppm", "ppm", "ppm", "ppm" };
+
+    private static final String[] COUNTRIES = { "MX", "US", "IN", "CL", "DE", "FR", "GB", "TH" };
+
+    private LocationFixtures() {
+    }
+
+    /**
+     * @param locations Number of locations of the page.
+     * @return JSON of a locations page, as sent by the OpenAQ REST API.
+     */
+    public static byte[] locationsPage(int locations) {
+        Random random = new Random(locations);
+        StringBuilder json = new StringBuilder(locations * 1200);
+
+        json.append("{\"meta\":{\"name\":\"openaq-api\",\"license\":\"CC BY 4.0d\",")
+                .append("\"website\":\"api.openaq.org\",\"page\":1,\"limit\":").append(locations)
+                .append(",\"found\":").append(locations).append("},\"results\":[");
+
+        for (int i = 0; i < locations; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String country = COUNTRIES[random.nextInt(COUNTRIES.length)];
+            json.append("{\"id\":").append(1000 + i)
+                    .append(",\"city\":null,\"name\":\"Station ").append(i)
+                    .append("\",\"entity\":\"Governmental Organization\",\"country\":\"").append(country)
+                    .append("\",\"sources\":null,\"isMobile\":false,\"isAnalysis\":null,\"parameters\":[");
+
+            int parameters = 1 + random.nextInt(4);
+            int first = random.nextInt(PARAMETERS.length);
+            for (int p = 0; p < parameters; p++) {
+                int parameter = (first + p) % PARAMETERS.length;
+                if (p > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":").append(random.nextInt(1_000_000))
+                        .append(",\"unit\":\"").append(UNITS[parameter])
+                        .append("\",\"count\":").append(random.nextInt(50_000))
+                        .append(",\"average\":").append(format(random.nextDouble() * 80))
+                        .append(",\"lastValue\":").append(format(random.nextDouble() * 120 - 1))
+                        .append(",\"parameter\":\"").append(PARAMETERS[parameter])
+                        .append("\",\"displayName\":\"").append(PARAMETERS[parameter].toUpperCase(Locale.ROOT))
+                        .append("\",\"lastUpdated\":\"2023-11-20T18:00:00+00:00\",\"parameterId\":")
+                        .append(parameter + 1)
+                        .append(",\"firstUpdated\":\"2016-03-06T19:00:00+00:00\",\"manufacturers\":null}");
+            }
+
+            json.append("],\"sensorType\":\"reference grade\",\"coordinates\":{\"latitude\":")
+                    .append(format(random.nextDouble() * 170 - 85)).append(",\"longitude\":")
+                    .append(format(random.nextDouble() * 360 - 180))
+                    .append("},\"lastUpdated\":\"2023-11-20T18:00:00+00:00\",")
+                    .append("\"firstUpdated\":\"2016-03-06T19:00:00+00:00\",\"measurements\":")
+                    .append(random.nextInt(1_000_000)).append(",\"bounds\":null,\"manufacturers\":null}");
+        }
+
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
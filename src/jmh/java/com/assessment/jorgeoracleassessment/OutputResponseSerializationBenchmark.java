@@ -0,0 +1,80 @@
+package com.assessment.jorgeoracleassessment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.assessment.jorgeoracleassessment.controller.HeatmapHttpMessageConverter;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.repository.LocationPageParser;
+import com.assessment.jorgeoracleassessment.service.StatsAccumulator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Benchmark of the serialization of an OutputResponse with Jackson, as the
+ * controller writes it, both from the columnar data set and from a list of
+ * OutputRow objects, and of the binary heatmap format for comparison.
+ * 
+ * @author Jorge Gonzalez
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputResponseSerializationBenchmark {
+    @Param({ "1000", "10000", "50000" })
+    private int locations;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private OutputResponse columnarResponse;
+
+    private OutputResponse listResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        LocationPage page = LocationPageParser.parse(
+                new ByteArrayInputStream(LocationFixtures.locationsPage(locations)), "pm25");
+        StatsAccumulator stats = new StatsAccumulator();
+        stats.addAll(page.rows());
+
+        columnarResponse = new OutputResponse(stats.getMin(), stats.getMax(), "pm25", "PM2.5", stats.toStats(),
+                page.rows());
+        listResponse = new OutputResponse(stats.getMin(), stats.getMax(), "pm25", "PM2.5", stats.toStats(),
+                new ArrayList<OutputRow>(page.rows()));
+    }
+
+    @Benchmark
+    public void writeColumnarJson() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), columnarResponse);
+    }
+
+    @Benchmark
+    public void writeListJson() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), listResponse);
+    }
+
+    @Benchmark
+    public byte[] writeHeatmap() {
+        return HeatmapHttpMessageConverter.toBytes(columnarResponse);
+    }
+}
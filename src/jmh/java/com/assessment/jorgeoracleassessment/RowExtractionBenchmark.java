@@ -0,0 +1,79 @@
+package com.assessment.jorgeoracleassessment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.repository.LocationPageParser;
+import com.assessment.jorgeoracleassessment.service.StatsAccumulator;
+
+/**
+ * Benchmark of the row extraction of AQLocationServiceImp: each page of
+ * locations is parsed into rows of the air quality parameter, which are
+ * merged into the data set while their statistics are accumulated, as the
+ * crawl does for every page.
+ * 
+ * @author Jorge Gonzalez
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowExtractionBenchmark {
+    @Param({ "1000", "10000", "50000" })
+    private int locations;
+
+    private byte[] page;
+
+    private LocationPage parsedPage;
+
+    @Setup
+    public void setUp() throws IOException {
+        page = LocationFixtures.locationsPage(locations);
+        parsedPage = LocationPageParser.parse(new ByteArrayInputStream(page), "pm25");
+    }
+
+    /**
+     * Parsing, merging and statistics of a page, from its bytes.
+     */
+    @Benchmark
+    public OutputStats extractRows() throws IOException {
+        LocationPage parsed = LocationPageParser.parse(new ByteArrayInputStream(page), "pm25");
+        return collect(parsed);
+    }
+
+    /**
+     * Merging and statistics of an already parsed page.
+     */
+    @Benchmark
+    public OutputStats collectRows() {
+        return collect(parsedPage);
+    }
+
+    private static OutputStats collect(LocationPage parsed) {
+        MeasurementColumns rows = new MeasurementColumns();
+        StatsAccumulator stats = new StatsAccumulator();
+
+        stats.addAll(parsed.rows());
+        rows.addAll(parsed.rows());
+
+        return stats.toStats();
+    }
+}
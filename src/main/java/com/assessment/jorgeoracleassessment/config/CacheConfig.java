@@ -0,0 +1,97 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.assessment.jorgeoracleassessment.repository.FileSharedMeasurementStore;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore;
+import com.assessment.jorgeoracleassessment.service.DatasetVersions;
+import com.assessment.jorgeoracleassessment.service.MeasurementCache;
+import com.assessment.jorgeoracleassessment.service.StationIndexCache;
+
+/**
+ * Configuration of the caches used by our component.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Configuration
+public class CacheConfig {
+
+    /**
+     * @param ttl                  Time, in milliseconds, the measurements are
+     *                             fresh.
+     * @param staleTtl             Time, in milliseconds, the measurements are
+     *                             served stale while they are refreshed.
+     * @param maxBytes             Memory cap of the cache, in bytes.
+     * @param cacheRefreshExecutor Executor of the background refreshes.
+     * @param metricsRegistry      Registry of the cache metrics.
+     * @param sharedStore          Shared tier behind the cache.
+     * @return MeasurementCache used by the AQLocationService service.
+     */
+    @Bean
+    public MeasurementCache measurementCache(@Value("${cache.ttl:300000}") long ttl,
+            @Value("${cache.staleTtl:600000}") long staleTtl,
+            @Value("${cache.maxBytes:67108864}") long maxBytes,
+            @Qualifier("cacheRefreshExecutor") ExecutorService cacheRefreshExecutor,
+            MetricsRegistry metricsRegistry, SharedMeasurementStore sharedStore) {
+        return new MeasurementCache(ttl, staleTtl, maxBytes, cacheRefreshExecutor, Clock.systemUTC(),
+                metricsRegistry, sharedStore);
+    }
+
+    /**
+     * @param directory Directory shared by every instance, or empty to not
+     *                  share the measurements.
+     * @param leaseTime Time, in milliseconds, an instance holds the lease to
+     *                  refresh a query.
+     * @return SharedMeasurementStore behind the MeasurementCache.
+     */
+    @Bean
+    public SharedMeasurementStore sharedMeasurementStore(@Value("${cache.sharedDirectory:}") String directory,
+            @Value("${cache.leaseTime:60000}") long leaseTime) {
+        if (directory.isBlank()) {
+            return SharedMeasurementStore.none();
+        }
+        return new FileSharedMeasurementStore(Path.of(directory), leaseTime, Clock.systemUTC());
+    }
+
+    /**
+     * @param enabled            Flag which indicates if radius and nearest
+     *                           queries are answered from the local indexes.
+     * @param ttl                Time, in milliseconds, after which an index
+     *                           is rebuilt.
+     * @param staleAge           Age, in milliseconds, after which the answers
+     *                           of an index are flagged as stale.
+     * @param retryAfter         Time, in milliseconds, a client waits for an
+     *                           index which is not built yet.
+     * @param rateLimit          Upstream requests per second of the builds.
+     * @param indexBuildExecutor Executor of the background builds.
+     * @return StationIndexCache used by the AQLocationService service.
+     */
+    @Bean
+    public StationIndexCache stationIndexCache(@Value("${index.enabled:true}") boolean enabled,
+            @Value("${index.ttl:900000}") long ttl, @Value("${index.staleAge:300000}") long staleAge,
+            @Value("${index.retryAfter:30000}") long retryAfter, @Value("${index.rateLimit:1}") double rateLimit,
+            @Qualifier("indexBuildExecutor") ExecutorService indexBuildExecutor) {
+        return new StationIndexCache(enabled, ttl, staleAge, retryAfter,
+                new UpstreamRateLimiter(rateLimit, 1, 1, Duration.ZERO, Duration.ZERO, Clock.systemUTC()),
+                indexBuildExecutor, Clock.systemUTC());
+    }
+
+    /**
+     * @param history   Number of changes kept for each data set.
+     * @param maxScopes Maximum number of data sets versioned.
+     * @return DatasetVersions used by the AQLocationService service.
+     */
+    @Bean
+    public DatasetVersions datasetVersions(@Value("${changes.history:32}") int history,
+            @Value("${changes.maxScopes:4096}") int maxScopes) {
+        return new DatasetVersions(history, maxScopes, Clock.systemUTC());
+    }
+}
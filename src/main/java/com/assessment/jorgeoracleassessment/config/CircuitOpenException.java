@@ -0,0 +1,30 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Exception thrown instead of sending an upstream request while the
+ * UpstreamCircuitBreaker is open.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class CircuitOpenException extends RestClientException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    /**
+     * @param retryAfter Milliseconds until the circuit lets a request through.
+     */
+    public CircuitOpenException(long retryAfter) {
+        super("The upstream circuit is open");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return Milliseconds until the circuit lets a request through.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,121 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of the thread pools used by our component.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Bounded thread pool used to fetch the OpenAQ result pages
+     * concurrently. Its size is the maximum number of pages that are
+     * requested to OpenAQ at the same time.
+     * 
+     * @param concurrency Maximum number of concurrent page requests.
+     * @return ExecutorService used for the page requests.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService pageFetchExecutor(@Value("${page.fetchConcurrency:4}") int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, daemonThreadFactory("page-fetch-"));
+    }
+
+    /**
+     * Bounded thread pool used to refresh the stale cached measurements in
+     * the background.
+     * 
+     * @param concurrency Maximum number of concurrent refreshes.
+     * @return ExecutorService used for the refreshes.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService cacheRefreshExecutor(@Value("${cache.refreshConcurrency:2}") int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, daemonThreadFactory("cache-refresh-"));
+    }
+
+    /**
+     * Bounded thread pool used to bin the stations of the map tiles in
+     * parallel.
+     * 
+     * @param concurrency Maximum number of concurrent binning tasks.
+     * @return ExecutorService used for the tiles.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService tileExecutor(@Value("${tiles.concurrency:4}") int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, daemonThreadFactory("tile-"));
+    }
+
+    /**
+     * Bounded thread pool used to refresh the scopes of the measurements
+     * streams periodically.
+     * 
+     * @param concurrency Maximum number of concurrent refreshes.
+     * @return ScheduledExecutorService used for the stream refreshes.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService streamRefreshExecutor(@Value("${stream.refreshConcurrency:2}") int concurrency) {
+        return Executors.newScheduledThreadPool(concurrency, daemonThreadFactory("stream-refresh-"));
+    }
+
+    /**
+     * Bounded thread pool used to send the events of the measurements
+     * streams, so a slow client only holds one of its threads.
+     * 
+     * @param concurrency Maximum number of concurrent sends.
+     * @return ExecutorService used for the stream events.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService streamSendExecutor(@Value("${stream.sendConcurrency:8}") int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, daemonThreadFactory("stream-send-"));
+    }
+
+    /**
+     * Single thread which runs the ingestions, apart from the scheduler of
+     * the other periodic tasks, so a long ingestion doesn't delay them.
+     * 
+     * @return ScheduledExecutorService used for the ingestions.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService ingestionScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("ingestion-"));
+    }
+
+    /**
+     * Single thread which builds the station indexes, apart from the cache
+     * refreshes, so a worldwide crawl never delays them.
+     * 
+     * @return ExecutorService used for the index builds.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService indexBuildExecutor() {
+        return Executors.newSingleThreadExecutor(daemonThreadFactory("station-index-"));
+    }
+
+    /**
+     * Method which builds a thread factory of daemon threads with the
+     * given name prefix, so they don't block the shutdown of the
+     * application.
+     * 
+     * @param prefix Prefix of the thread names.
+     * @return ThreadFactory which builds named daemon threads.
+     */
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
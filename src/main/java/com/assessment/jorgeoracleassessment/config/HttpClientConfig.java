@@ -0,0 +1,124 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.net.http.HttpClient;
+import java.time.Clock;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Configuration of the HTTP client used to consume the OpenAQ REST API.
+ * A single client is shared by all the requests so the connections and
+ * message converters are reused.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Configuration
+public class HttpClientConfig {
+
+    /**
+     * @param connectTimeout Maximum time, in milliseconds, to establish a
+     *                       connection.
+     * @return HttpClient shared by all the upstream requests. It negotiates
+     *         HTTP/2 and keeps its connections alive in a pool.
+     */
+    @Bean
+    public HttpClient openAQHttpClient(@Value("${upstream.connectTimeout:5000}") long connectTimeout) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * @param rateLimit      Sustained upstream requests per second.
+     * @param burst          Upstream requests which can be sent at once.
+     * @param maxAttempts    Maximum number of attempts of each request.
+     * @param retryBaseDelay Delay, in milliseconds, before the first retry.
+     * @param retryMaxDelay  Maximum delay, in milliseconds, between retries.
+     * @return UpstreamRateLimiter shared by the blocking and the asynchronous
+     *         upstream requests.
+     */
+    @Bean
+    public UpstreamRateLimiter upstreamRateLimiter(@Value("${upstream.rateLimit:5}") double rateLimit,
+            @Value("${upstream.burst:10}") int burst,
+            @Value("${upstream.maxAttempts:3}") int maxAttempts,
+            @Value("${upstream.retryBaseDelay:500}") long retryBaseDelay,
+            @Value("${upstream.retryMaxDelay:30000}") long retryMaxDelay) {
+        return new UpstreamRateLimiter(rateLimit, burst, maxAttempts, Duration.ofMillis(retryBaseDelay),
+                Duration.ofMillis(retryMaxDelay), Clock.systemUTC());
+    }
+
+    /**
+     * @param windowSize            Number of upstream requests whose outcome
+     *                              is kept.
+     * @param minimumCalls          Requests needed before the circuit can
+     *                              open.
+     * @param failureRateThreshold  Rate of failed requests which opens the
+     *                              circuit.
+     * @param slowCallDuration      Milliseconds from which a request is slow.
+     * @param slowCallRateThreshold Rate of slow requests which opens the
+     *                              circuit.
+     * @param openDuration          Milliseconds the circuit stays open before
+     *                              a probe request.
+     * @return UpstreamCircuitBreaker shared by the blocking and the
+     *         asynchronous upstream requests.
+     */
+    @Bean
+    public UpstreamCircuitBreaker upstreamCircuitBreaker(@Value("${circuit.windowSize:20}") int windowSize,
+            @Value("${circuit.minimumCalls:10}") int minimumCalls,
+            @Value("${circuit.failureRateThreshold:0.5}") double failureRateThreshold,
+            @Value("${circuit.slowCallDuration:10000}") long slowCallDuration,
+            @Value("${circuit.slowCallRateThreshold:0.8}") double slowCallRateThreshold,
+            @Value("${circuit.openDuration:30000}") long openDuration) {
+        return new UpstreamCircuitBreaker(windowSize, minimumCalls, failureRateThreshold,
+                Duration.ofMillis(slowCallDuration), slowCallRateThreshold, Duration.ofMillis(openDuration),
+                Clock.systemUTC());
+    }
+
+    /**
+     * @param openAQHttpClient       Shared HttpClient.
+     * @param upstreamRateLimiter    Shared rate limiter.
+     * @param upstreamCircuitBreaker Shared circuit breaker.
+     * @param upstreamMetrics        Shared metrics of the upstream requests.
+     * @param readTimeout            Maximum time, in milliseconds, to wait
+     *                               for a response.
+     * @param maxConnections         Maximum number of upstream requests in
+     *                               flight.
+     * @return RestTemplate used by the OpenAQ REST API client.
+     */
+    @Bean
+    public RestTemplate openAQRestTemplate(HttpClient openAQHttpClient, UpstreamRateLimiter upstreamRateLimiter,
+            UpstreamCircuitBreaker upstreamCircuitBreaker, UpstreamMetrics upstreamMetrics,
+            @Value("${upstream.readTimeout:30000}") long readTimeout,
+            @Value("${upstream.maxConnections:16}") int maxConnections) {
+        return new RestTemplate(new JdkClientHttpRequestFactory(openAQHttpClient, Duration.ofMillis(readTimeout),
+                maxConnections, upstreamRateLimiter, upstreamCircuitBreaker, upstreamMetrics));
+    }
+
+    /**
+     * @param openAQHttpClient       Shared HttpClient.
+     * @param upstreamRateLimiter    Shared rate limiter.
+     * @param upstreamCircuitBreaker Shared circuit breaker.
+     * @param upstreamMetrics        Shared metrics of the upstream requests.
+     * @param readTimeout            Maximum time, in milliseconds, to wait
+     *                               for a response.
+     * @param maxConnections         Maximum number of asynchronous upstream
+     *                               requests in flight; the rest of them are
+     *                               queued without holding a thread.
+     * @return JdkAsyncHttpClient used by the asynchronous methods of the
+     *         OpenAQ REST API client.
+     */
+    @Bean
+    public JdkAsyncHttpClient openAQAsyncHttpClient(HttpClient openAQHttpClient,
+            UpstreamRateLimiter upstreamRateLimiter, UpstreamCircuitBreaker upstreamCircuitBreaker,
+            UpstreamMetrics upstreamMetrics, @Value("${upstream.readTimeout:30000}") long readTimeout,
+            @Value("${upstream.maxAsyncConnections:64}") int maxConnections) {
+        return new JdkAsyncHttpClient(openAQHttpClient, Duration.ofMillis(readTimeout), maxConnections,
+                upstreamRateLimiter, upstreamCircuitBreaker, upstreamMetrics);
+    }
+}
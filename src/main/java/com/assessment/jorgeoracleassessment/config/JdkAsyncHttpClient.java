@@ -0,0 +1,291 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Non-blocking counterpart of the JdkClientHttpRequestFactory, which sends
+ * the requests with HttpClient.sendAsync so no thread waits for the
+ * upstream. The number of requests in flight is bounded too, but the
+ * requests which exceed it are queued instead of blocking their callers;
+ * they are sent as the previous ones complete.
+ * 
+ * The responses are requested gzip compressed and their body is read whole
+ * before it's decompressed, so the parsers never block on the network. An
+ * unsuccessful status fails the request with the same exceptions the
+ * RestTemplate throws.
+ * 
+ * Like the blocking factory, every request waits for its turn in the
+ * UpstreamRateLimiter and the retryable failures are sent again after its
+ * backoff; the waits are scheduled, so they don't hold a thread either.
+ * Every attempt goes through the UpstreamCircuitBreaker, so they fail at
+ * once while the upstream is down, and is timed in the UpstreamMetrics
+ * until its whole body is received.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class JdkAsyncHttpClient {
+    private final HttpClient httpClient;
+
+    private final Duration readTimeout;
+
+    private final Semaphore permits;
+
+    private final UpstreamRateLimiter rateLimiter;
+
+    private final UpstreamCircuitBreaker circuitBreaker;
+
+    private final UpstreamMetrics metrics;
+
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param httpClient     Shared HttpClient.
+     * @param readTimeout    Maximum time to wait for a response.
+     * @param maxConnections Maximum number of requests in flight.
+     */
+    public JdkAsyncHttpClient(HttpClient httpClient, Duration readTimeout, int maxConnections) {
+        this(httpClient, readTimeout, maxConnections, UpstreamRateLimiter.unlimited(),
+                UpstreamCircuitBreaker.disabled());
+    }
+
+    /**
+     * @param httpClient     Shared HttpClient.
+     * @param readTimeout    Maximum time to wait for a response.
+     * @param maxConnections Maximum number of requests in flight.
+     * @param rateLimiter    Rate limiter shared by the upstream requests.
+     * @param circuitBreaker Circuit breaker shared by the upstream requests.
+     */
+    public JdkAsyncHttpClient(HttpClient httpClient, Duration readTimeout, int maxConnections,
+            UpstreamRateLimiter rateLimiter, UpstreamCircuitBreaker circuitBreaker) {
+        this(httpClient, readTimeout, maxConnections, rateLimiter, circuitBreaker, UpstreamMetrics.disabled());
+    }
+
+    /**
+     * @param httpClient     Shared HttpClient.
+     * @param readTimeout    Maximum time to wait for a response.
+     * @param maxConnections Maximum number of requests in flight.
+     * @param rateLimiter    Rate limiter shared by the upstream requests.
+     * @param circuitBreaker Circuit breaker shared by the upstream requests.
+     * @param metrics        Metrics of the upstream requests.
+     */
+    public JdkAsyncHttpClient(HttpClient httpClient, Duration readTimeout, int maxConnections,
+            UpstreamRateLimiter rateLimiter, UpstreamCircuitBreaker circuitBreaker, UpstreamMetrics metrics) {
+        this.httpClient = httpClient;
+        this.readTimeout = readTimeout;
+        this.permits = new Semaphore(maxConnections);
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Method that sends a GET request and reads its body when the response
+     * arrives.
+     * 
+     * @param uri    URI of the request.
+     * @param accept Accepted media type.
+     * @return Future of the decompressed body, which fails with a
+     *         RestClientResponseException if the status is not successful.
+     *         Cancelling it before the request is sent removes it from the
+     *         queue.
+     */
+    public CompletableFuture<InputStream> get(URI uri, String accept) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header(HttpHeaders.ACCEPT, accept)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .GET()
+                .build();
+
+        CompletableFuture<InputStream> result = new CompletableFuture<>();
+        attempt(request, 1, result);
+
+        return result;
+    }
+
+    /**
+     * @return Number of requests waiting for a permit.
+     */
+    public int queued() {
+        return waiting.size();
+    }
+
+    /**
+     * Method that queues an attempt of the request once the rate limiter
+     * gives it a slot.
+     */
+    private void attempt(HttpRequest request, int attempt, CompletableFuture<InputStream> result) {
+        long generation;
+        try {
+            generation = circuitBreaker.acquire();
+        } catch (CircuitOpenException ex) {
+            metrics.onRejected(request.uri());
+            result.completeExceptionally(ex);
+            return;
+        }
+
+        long delay = rateLimiter.reserve();
+        Runnable enqueue = () -> {
+            waiting.add(() -> send(request, attempt, generation, result));
+            drain();
+        };
+
+        if (delay > 0) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(enqueue);
+        } else {
+            enqueue.run();
+        }
+    }
+
+    /**
+     * Method that sends a request holding a permit, which is given back
+     * when the response completes. Its outcome is reported to the circuit
+     * breaker in the generation it was permitted in.
+     */
+    private void send(HttpRequest request, int attempt, long generation, CompletableFuture<InputStream> result) {
+        if (result.isDone()) {
+            // Cancelled while it was queued.
+            circuitBreaker.abandon(generation);
+            release();
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, ex) -> {
+                        release();
+                        long elapsed = System.nanoTime() - start;
+                        if (ex != null) {
+                            circuitBreaker.onResult(generation, true, elapsed / 1_000_000);
+                            metrics.onFailure(request.uri(), elapsed);
+                            onFailure(request, attempt, result, ex);
+                        } else {
+                            circuitBreaker.onResponse(generation, response.statusCode(), elapsed / 1_000_000);
+                            metrics.onResponse(request.uri(), response.statusCode(), elapsed);
+                            onResponse(request, attempt, result, response);
+                        }
+                    });
+        } catch (RuntimeException ex) {
+            circuitBreaker.abandon(generation);
+            release();
+            result.completeExceptionally(ex);
+        }
+    }
+
+    private void onFailure(HttpRequest request, int attempt, CompletableFuture<InputStream> result,
+            Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (rateLimiter.isRetryable(cause) && rateLimiter.canRetry(attempt)) {
+            metrics.onRetry(request.uri(), "IO_ERROR");
+            retry(request, attempt, null, result);
+        } else {
+            result.completeExceptionally(cause);
+        }
+    }
+
+    private void onResponse(HttpRequest request, int attempt, CompletableFuture<InputStream> result,
+            HttpResponse<byte[]> response) {
+        HttpHeaders headers = new HttpHeaders();
+        response.headers().map().forEach((name, values) -> {
+            // HTTP/2 pseudo headers (":status") are not real headers.
+            if (!name.startsWith(":")) {
+                headers.addAll(name, values);
+            }
+        });
+
+        rateLimiter.onResponse(response.statusCode(), headers);
+        if (rateLimiter.isRetryable(response.statusCode()) && rateLimiter.canRetry(attempt)) {
+            metrics.onRetry(request.uri(), Integer.toString(response.statusCode()));
+            retry(request, attempt, headers, result);
+            return;
+        }
+
+        try {
+            result.complete(toBody(response, headers));
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Method that schedules the next attempt of a request after the backoff
+     * of the failed one.
+     */
+    private void retry(HttpRequest request, int attempt, HttpHeaders headers, CompletableFuture<InputStream> result) {
+        if (result.isDone()) {
+            return;
+        }
+
+        CompletableFuture.delayedExecutor(rateLimiter.backoff(attempt, headers), TimeUnit.MILLISECONDS)
+                .execute(() -> attempt(request, attempt + 1, result));
+    }
+
+    /**
+     * Method that sends the queued requests while there are permits left.
+     * Whoever adds a request or gives a permit back drains the queue, so a
+     * request is never left queued with permits available.
+     */
+    private void drain() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Runnable next = waiting.poll();
+            if (next == null) {
+                permits.release();
+            } else {
+                next.run();
+            }
+        }
+    }
+
+    private void release() {
+        permits.release();
+        drain();
+    }
+
+    private static InputStream toBody(HttpResponse<byte[]> response, HttpHeaders headers) {
+        HttpStatusCode status = HttpStatusCode.valueOf(response.statusCode());
+        byte[] body = response.body();
+
+        if (status.is4xxClientError()) {
+            throw HttpClientErrorException.create(status, "", headers, body, StandardCharsets.UTF_8);
+        }
+        if (status.is5xxServerError()) {
+            throw HttpServerErrorException.create(status, "", headers, body, StandardCharsets.UTF_8);
+        }
+        if (!status.is2xxSuccessful()) {
+            throw new RestClientResponseException("Unexpected status " + status.value(), status, "", headers,
+                    body, StandardCharsets.UTF_8);
+        }
+
+        if ("gzip".equalsIgnoreCase(headers.getFirst(HttpHeaders.CONTENT_ENCODING))) {
+            try {
+                return new GZIPInputStream(new ByteArrayInputStream(body));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return new ByteArrayInputStream(body);
+    }
+}
@@ -0,0 +1,528 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * ClientHttpRequestFactory backed by a shared java.net.http.HttpClient, so
+ * the RestTemplate reuses pooled keep-alive connections (HTTP/2 when the
+ * server supports it) instead of opening a new one for each request. The
+ * responses are requested gzip compressed and decompressed transparently.
+ * 
+ * The read timeout bounds both the wait for the response headers and then
+ * the read of the whole body, so an upstream which sends its body slowly, or
+ * stops sending it, can't hold the calling thread longer than that.
+ * 
+ * Every request waits for its turn in the UpstreamRateLimiter, and the
+ * idempotent requests which fail with a retryable status or a connection
+ * error are sent again after the backoff it computes. Every attempt goes
+ * through the UpstreamCircuitBreaker too, so they fail at once while the
+ * upstream is down, and is timed in the UpstreamMetrics. An attempt is
+ * timed until its body is received whole or closed, so a body which is sent
+ * slowly counts as a slow call, and one which fails or times out counts as
+ * a failure.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class JdkClientHttpRequestFactory implements ClientHttpRequestFactory {
+    /**
+     * Headers the JDK HttpClient doesn't allow to set by hand.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host",
+            "upgrade");
+
+    private final HttpClient httpClient;
+
+    private final Duration readTimeout;
+
+    private final Semaphore permits;
+
+    private final UpstreamRateLimiter rateLimiter;
+
+    private final UpstreamCircuitBreaker circuitBreaker;
+
+    private final UpstreamMetrics metrics;
+
+    /**
+     * @param httpClient     Shared HttpClient.
+     * @param readTimeout    Maximum time to wait for the response headers,
+     *                       and then to read the response body.
+     * @param maxConnections Maximum number of requests in flight at the same
+     *                       time, which bounds the connections opened.
+     */
+    public JdkClientHttpRequestFactory(HttpClient httpClient, Duration readTimeout, int maxConnections) {
+        this(httpClient, readTimeout, maxConnections, UpstreamRateLimiter.unlimited(),
+                UpstreamCircuitBreaker.disabled());
+    }
+
+    /**
+     * @param httpClient     Shared HttpClient.
+     * @param readTimeout    Maximum time to wait for the response headers,
+     *                       and then to read the response body.
+     * @param maxConnections Maximum number of requests in flight at the same
+     *                       time, which bounds the connections opened.
+     * @param rateLimiter    Rate limiter shared by the upstream requests.
+     * @param circuitBreaker Circuit breaker shared by the upstream requests.
+     */
+    public JdkClientHttpRequestFactory(HttpClient httpClient, Duration readTimeout, int maxConnections,
+            UpstreamRateLimiter rateLimiter, UpstreamCircuitBreaker circuitBreaker) {
+        this(httpClient, readTimeout, maxConnections, rateLimiter, circuitBreaker, UpstreamMetrics.disabled());
+    }
+
+    /**
+     * @param httpClient     Shared HttpClient.
+     * @param readTimeout    Maximum time to wait for the response headers,
+     *                       and then to read the response body.
+     * @param maxConnections Maximum number of requests in flight at the same
+     *                       time, which bounds the connections opened.
+     * @param rateLimiter    Rate limiter shared by the upstream requests.
+     * @param circuitBreaker Circuit breaker shared by the upstream requests.
+     * @param metrics        Metrics of the upstream requests.
+     */
+    public JdkClientHttpRequestFactory(HttpClient httpClient, Duration readTimeout, int maxConnections,
+            UpstreamRateLimiter rateLimiter, UpstreamCircuitBreaker circuitBreaker, UpstreamMetrics metrics) {
+        this.httpClient = httpClient;
+        this.readTimeout = readTimeout;
+        this.permits = new Semaphore(maxConnections, true);
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new JdkClientHttpRequest(uri, httpMethod);
+    }
+
+    /**
+     * Request which buffers its body and sends it through the shared
+     * HttpClient when executed.
+     */
+    private class JdkClientHttpRequest extends AbstractClientHttpRequest {
+        private final URI uri;
+
+        private final HttpMethod method;
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        JdkClientHttpRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .timeout(readTimeout)
+                    .method(method.name(), body.size() == 0
+                            ? HttpRequest.BodyPublishers.noBody()
+                            : HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+
+            headers.forEach((name, values) -> {
+                if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                    values.forEach(value -> builder.header(name, value));
+                }
+            });
+            if (!headers.containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                builder.header(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            }
+
+            HttpRequest request = builder.build();
+            boolean idempotent = method != HttpMethod.POST && method != HttpMethod.PATCH;
+
+            for (int attempt = 1;; attempt++) {
+                long generation;
+                try {
+                    generation = circuitBreaker.acquire();
+                } catch (CircuitOpenException ex) {
+                    metrics.onRejected(uri);
+                    throw ex;
+                }
+
+                long start = System.nanoTime();
+                JdkClientHttpResponse response;
+                try {
+                    pause(rateLimiter.reserve());
+                    start = System.nanoTime();
+                    response = send(request);
+                } catch (InterruptedIOException | RuntimeException ex) {
+                    circuitBreaker.abandon(generation);
+                    throw ex;
+                } catch (IOException ex) {
+                    circuitBreaker.onResult(generation, true, 0);
+                    metrics.onFailure(uri, System.nanoTime() - start);
+                    if (idempotent && rateLimiter.isRetryable(ex) && rateLimiter.canRetry(attempt)) {
+                        metrics.onRetry(uri, "IO_ERROR");
+                        pause(rateLimiter.backoff(attempt, null));
+                        continue;
+                    }
+                    throw ex;
+                }
+
+                int status = response.getStatusCode().value();
+                long sentAt = start;
+                response.bodyDone().whenComplete((done, ex) -> {
+                    long elapsed = System.nanoTime() - sentAt;
+                    circuitBreaker.onResult(generation, ex != null || UpstreamCircuitBreaker.isFailure(status),
+                            elapsed / 1_000_000);
+                    if (ex != null) {
+                        metrics.onFailure(uri, elapsed);
+                    } else {
+                        metrics.onResponse(uri, status, elapsed);
+                    }
+                });
+                rateLimiter.onResponse(status, response.getHeaders());
+                if (idempotent && rateLimiter.isRetryable(status) && rateLimiter.canRetry(attempt)) {
+                    metrics.onRetry(uri, Integer.toString(status));
+                    response.close();
+                    pause(rateLimiter.backoff(attempt, response.getHeaders()));
+                    continue;
+                }
+
+                return response;
+            }
+        }
+
+        /**
+         * Method that sends the request once a connection permit is free.
+         */
+        private JdkClientHttpResponse send(HttpRequest request) throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection");
+            }
+
+            try {
+                HttpResponse<InputStream> response = httpClient.send(request,
+                        responseInfo -> new DeadlineBodySubscriber(readTimeout));
+                // The permit is given back when the response is closed.
+                return new JdkClientHttpResponse(response, permits);
+            } catch (InterruptedException ex) {
+                permits.release();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response");
+            } catch (IOException | RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+
+        private void pause(long millis) throws InterruptedIOException {
+            if (millis <= 0) {
+                return;
+            }
+
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send the request");
+            }
+        }
+    }
+
+    /**
+     * Body subscriber which exposes the body as an InputStream whose reads
+     * fail with an HttpTimeoutException once the deadline passes. The
+     * deadline starts when the headers arrive, and the body is received one
+     * chunk ahead of the reader.
+     * 
+     * Its completion is tracked apart from the reads, so the request can be
+     * timed until the body is received whole, or closed before that.
+     */
+    private static final class DeadlineBodySubscriber extends InputStream
+            implements HttpResponse.BodySubscriber<InputStream> {
+        /**
+         * Marker of the end of the body, or of its failure.
+         */
+        private static final List<ByteBuffer> END = List.of();
+
+        private final long deadline;
+
+        private final Duration timeout;
+
+        private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private volatile Flow.Subscription subscription;
+
+        private volatile Throwable failure;
+
+        private volatile boolean closed;
+
+        private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+
+        private ByteBuffer current;
+
+        private boolean finished;
+
+        DeadlineBodySubscriber(Duration timeout) {
+            this.timeout = timeout;
+            this.deadline = System.nanoTime() + timeout.toNanos();
+        }
+
+        @Override
+        public CompletionStage<InputStream> getBody() {
+            return CompletableFuture.completedFuture(this);
+        }
+
+        /**
+         * @return Future completed once the body is received whole or it's
+         *         closed, which fails if the body failed or timed out.
+         */
+        CompletableFuture<Void> done() {
+            return done;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (closed) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failure = throwable;
+            received.add(END);
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            received.add(END);
+            done.complete(null);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("The response body is closed");
+            }
+            if (length == 0) {
+                return 0;
+            }
+
+            while (current == null || !current.hasRemaining()) {
+                if (buffers.hasNext()) {
+                    current = buffers.next();
+                    continue;
+                }
+                if (finished) {
+                    return -1;
+                }
+
+                List<ByteBuffer> next = poll();
+                if (next == END) {
+                    finished = true;
+                    if (failure != null) {
+                        throw failure instanceof IOException io ? io : new IOException(failure);
+                    }
+                    return -1;
+                }
+                buffers = next.iterator();
+                current = null;
+                subscription.request(1);
+            }
+
+            int count = Math.min(length, current.remaining());
+            current.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            Flow.Subscription active = subscription;
+            if (active != null) {
+                active.cancel();
+            }
+            received.clear();
+            done.complete(null);
+        }
+
+        /**
+         * Method that waits for the next chunk of the body until the
+         * deadline.
+         */
+        private List<ByteBuffer> poll() throws IOException {
+            List<ByteBuffer> next;
+            try {
+                long remaining = deadline - System.nanoTime();
+                next = remaining > 0 ? received.poll(remaining, TimeUnit.NANOSECONDS) : received.poll();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new InterruptedIOException("Interrupted while reading the response body");
+            }
+
+            if (next == null) {
+                HttpTimeoutException timedOut = new HttpTimeoutException(
+                        "The response body wasn't read within " + timeout.toMillis() + "ms");
+                done.completeExceptionally(timedOut);
+                close();
+                throw timedOut;
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Response which decompresses its body if it was sent gzip encoded.
+     */
+    private static class JdkClientHttpResponse implements ClientHttpResponse {
+        private final HttpResponse<InputStream> response;
+
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private final boolean gzipped;
+
+        private final Semaphore permits;
+
+        private InputStream body;
+
+        private boolean closed;
+
+        JdkClientHttpResponse(HttpResponse<InputStream> response, Semaphore permits) {
+            this.response = response;
+            this.permits = permits;
+
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+                // HTTP/2 pseudo headers (":status") are not real headers.
+                if (!header.getKey().startsWith(":")) {
+                    headers.addAll(header.getKey(), header.getValue());
+                }
+            }
+
+            this.gzipped = "gzip".equalsIgnoreCase(headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+            if (gzipped) {
+                // The body we expose is already decoded.
+                headers.remove(HttpHeaders.CONTENT_ENCODING);
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+            }
+        }
+
+        /**
+         * @return Future completed once the body is received whole or the
+         *         response is closed, which fails if the body failed or
+         *         timed out.
+         */
+        CompletableFuture<Void> bodyDone() {
+            // The body is the DeadlineBodySubscriber which received it.
+            return ((DeadlineBodySubscriber) response.body()).done();
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.statusCode());
+        }
+
+        @Override
+        @Deprecated
+        public int getRawStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getStatusText() {
+            return "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = gzipped ? new GZIPInputStream(response.body()) : response.body();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                // Closing the stream gives the connection back to the pool.
+                (body != null ? body : response.body()).close();
+            } catch (IOException ex) {
+                // Nothing else can be done with the connection.
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
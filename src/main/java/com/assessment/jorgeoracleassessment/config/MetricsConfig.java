@@ -0,0 +1,32 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of the metrics of the application, scraped from
+ * /actuator/prometheus.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * @return MetricsRegistry shared by every instrumented component.
+     */
+    @Bean
+    public MetricsRegistry metricsRegistry() {
+        return new MetricsRegistry();
+    }
+
+    /**
+     * @param metricsRegistry Shared metrics registry.
+     * @return UpstreamMetrics shared by the blocking and the asynchronous
+     *         upstream requests.
+     */
+    @Bean
+    public UpstreamMetrics upstreamMetrics(MetricsRegistry metricsRegistry) {
+        return new UpstreamMetrics(metricsRegistry);
+    }
+}
@@ -0,0 +1,346 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the application metrics: counters, timers, distribution
+ * summaries and gauges, identified by a dotted name and a set of tags as in
+ * Micrometer, and exposed in the Prometheus text format.
+ * 
+ * The tags become Prometheus labels, so only low-cardinality values (an
+ * endpoint, a status, an outcome) must be used; never a country code, a
+ * coordinate nor a parameter the users can choose.
+ * 
+ * Timers and summaries keep cumulative histograms of fixed buckets, so the
+ * percentiles can be aggregated across instances with histogram_quantile.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MetricsRegistry {
+    /**
+     * Bucket bounds of the timers, in seconds.
+     */
+    private static final double[] TIMER_BUCKETS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+            30, 60 };
+
+    /**
+     * Bucket bounds of the distribution summaries, for counts of pages and
+     * rows.
+     */
+    private static final double[] SUMMARY_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000,
+            20000, 50000, 100000 };
+
+    private final Map<Id, Object> meters = new ConcurrentHashMap<>();
+
+    /**
+     * Type of meter of each name, which every tag set of it must share.
+     */
+    private final Map<String, Class<?>> types = new ConcurrentHashMap<>();
+
+    /**
+     * @param name Name of the counter.
+     * @param tags Alternating keys and values of its tags.
+     * @return Counter of the name and tags, created the first time.
+     */
+    public Counter counter(String name, String... tags) {
+        return meter(new Id(name, tags), Counter.class, Counter::new);
+    }
+
+    /**
+     * @param name Name of the timer.
+     * @param tags Alternating keys and values of its tags.
+     * @return Timer of the name and tags, created the first time.
+     */
+    public Timer timer(String name, String... tags) {
+        return meter(new Id(name, tags), Timer.class, Timer::new);
+    }
+
+    /**
+     * @param name Name of the distribution summary.
+     * @param tags Alternating keys and values of its tags.
+     * @return DistributionSummary of the name and tags, created the first
+     *         time.
+     */
+    public DistributionSummary summary(String name, String... tags) {
+        return meter(new Id(name, tags), DistributionSummary.class, DistributionSummary::new);
+    }
+
+    /**
+     * Method that registers a gauge, whose value is read when the metrics
+     * are scraped. Registering it again replaces the function.
+     * 
+     * @param name  Name of the gauge.
+     * @param value Function which returns the current value.
+     * @param tags  Alternating keys and values of its tags.
+     */
+    public void gauge(String name, Supplier<? extends Number> value, String... tags) {
+        checkType(name, Gauge.class);
+        meters.put(new Id(name, tags), new Gauge(value));
+    }
+
+    /**
+     * @return Every metric in the Prometheus text exposition format, sorted
+     *         by name so the output is stable.
+     */
+    public String scrape() {
+        Map<String, List<Map.Entry<Id, Object>>> byName = new TreeMap<>();
+        for (Map.Entry<Id, Object> meter : meters.entrySet()) {
+            byName.computeIfAbsent(meter.getKey().name(), name -> new ArrayList<>()).add(meter);
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (List<Map.Entry<Id, Object>> group : byName.values()) {
+            group.sort((a, b) -> a.getKey().labels().compareTo(b.getKey().labels()));
+            Object first = group.get(0).getValue();
+            String name = prometheusName(group.get(0).getKey().name());
+
+            if (first instanceof Counter) {
+                out.append("# TYPE ").append(name).append("_total counter\n");
+                for (Map.Entry<Id, Object> meter : group) {
+                    sample(out, name + "_total", meter.getKey().labels(), ((Counter) meter.getValue()).count());
+                }
+            } else if (first instanceof Gauge) {
+                out.append("# TYPE ").append(name).append(" gauge\n");
+                for (Map.Entry<Id, Object> meter : group) {
+                    sample(out, name, meter.getKey().labels(), ((Gauge) meter.getValue()).value());
+                }
+            } else {
+                boolean timer = first instanceof Timer;
+                String histogram = timer ? name + "_seconds" : name;
+                out.append("# TYPE ").append(histogram).append(" histogram\n");
+                for (Map.Entry<Id, Object> meter : group) {
+                    ((Histogram) meter.getValue()).write(out, histogram, meter.getKey().labels());
+                }
+                out.append("# TYPE ").append(histogram).append("_max gauge\n");
+                for (Map.Entry<Id, Object> meter : group) {
+                    sample(out, histogram + "_max", meter.getKey().labels(), ((Histogram) meter.getValue()).max());
+                }
+            }
+        }
+
+        return out.toString();
+    }
+
+    private <M> M meter(Id id, Class<M> type, Supplier<M> factory) {
+        checkType(id.name(), type);
+        return type.cast(meters.computeIfAbsent(id, key -> factory.get()));
+    }
+
+    private void checkType(String name, Class<?> type) {
+        Class<?> registered = types.putIfAbsent(name, type);
+        if (registered != null && registered != type) {
+            throw new IllegalArgumentException(name + " is already registered as another type of meter");
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * @return Name in Prometheus style: "upstream.requests" becomes
+     *         "upstream_requests".
+     */
+    private static String prometheusName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /**
+     * Counter which only goes up.
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void increment(long amount) {
+            count.add(amount);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Histogram of durations, exposed in seconds.
+     */
+    public static final class Timer extends Histogram {
+        private Timer() {
+            super(TIMER_BUCKETS);
+        }
+
+        /**
+         * @param nanos Duration, in nanoseconds.
+         */
+        public void record(long nanos) {
+            observe(nanos / 1e9);
+        }
+
+        /**
+         * @param startNanos System.nanoTime() when the timed operation
+         *                   started.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * @param unit Unit of the result.
+         * @return Sum of the recorded durations.
+         */
+        public double totalTime(TimeUnit unit) {
+            return sum() * TimeUnit.SECONDS.toNanos(1) / unit.toNanos(1);
+        }
+    }
+
+    /**
+     * Histogram of amounts, such as pages or rows.
+     */
+    public static final class DistributionSummary extends Histogram {
+        private DistributionSummary() {
+            super(SUMMARY_BUCKETS);
+        }
+
+        public void record(double amount) {
+            observe(amount);
+        }
+
+        public double totalAmount() {
+            return sum();
+        }
+    }
+
+    /**
+     * Cumulative histogram of fixed buckets, with its count, sum and max.
+     */
+    private abstract static class Histogram {
+        private final double[] bounds;
+
+        private final LongAdder[] buckets;
+
+        private final LongAdder count = new LongAdder();
+
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private final DoubleAccumulator max = new DoubleAccumulator(Math::max, 0);
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observe(double value) {
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        double sum() {
+            return sum.sum();
+        }
+
+        public double max() {
+            return max.get();
+        }
+
+        private void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                sample(out, name + "_bucket", prefix + "le=\"" + format(bounds[i]) + "\"", cumulative);
+            }
+            long total = count();
+            sample(out, name + "_bucket", prefix + "le=\"+Inf\"", total);
+            sample(out, name + "_count", labels, total);
+            sample(out, name + "_sum", labels, sum());
+        }
+    }
+
+    /**
+     * Gauge whose value is read from a function.
+     */
+    private static final class Gauge {
+        private final Supplier<? extends Number> value;
+
+        private Gauge(Supplier<? extends Number> value) {
+            this.value = value;
+        }
+
+        private double value() {
+            Number current = value.get();
+            return current == null ? Double.NaN : current.doubleValue();
+        }
+    }
+
+    /**
+     * Name and tags of a meter, with the tags rendered as sorted Prometheus
+     * labels.
+     */
+    private record Id(String name, String labels) {
+        private Id(String name, String... tags) {
+            this(Objects.requireNonNull(name), labels(tags));
+        }
+
+        private static String labels(String... tags) {
+            if (tags.length % 2 != 0) {
+                throw new IllegalArgumentException("Tags must be key and value pairs");
+            }
+
+            Map<String, String> sorted = new TreeMap<>();
+            for (int i = 0; i < tags.length; i += 2) {
+                sorted.put(prometheusName(tags[i]), String.valueOf(tags[i + 1]));
+            }
+
+            StringBuilder labels = new StringBuilder();
+            sorted.forEach((key, value) -> {
+                if (labels.length() > 0) {
+                    labels.append(',');
+                }
+                labels.append(key).append("=\"").append(escape(value)).append('"');
+            });
+            return labels.toString();
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
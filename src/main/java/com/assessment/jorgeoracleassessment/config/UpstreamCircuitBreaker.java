@@ -0,0 +1,232 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Circuit breaker shared by every upstream request, blocking or not. It
+ * keeps the outcome of the last requests in a sliding window and opens when
+ * too many of them failed or were too slow; while it's open, the requests
+ * fail at once with a CircuitOpenException instead of waiting for an
+ * upstream which is down. Once the open duration elapses, a single probe
+ * request is let through (half-open): if it succeeds in time the circuit
+ * closes, otherwise it opens again.
+ * 
+ * Each change of state starts a new generation, which is handed to the
+ * permitted requests, so the outcome of a request sent in a previous
+ * generation, e.g. before the circuit opened, doesn't count in the current
+ * one nor decides the probe.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class UpstreamCircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final long slowCallDuration;
+
+    private final double slowCallRateThreshold;
+
+    private final long openDuration;
+
+    private final Clock clock;
+
+    /**
+     * Outcomes of the last requests, as a ring buffer.
+     */
+    private final boolean[] failed;
+
+    private final boolean[] slow;
+
+    private int calls;
+
+    private int next;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private boolean probing;
+
+    private long generation;
+
+    /**
+     * @param windowSize            Number of requests whose outcome is kept.
+     * @param minimumCalls          Requests needed before the circuit can
+     *                              open.
+     * @param failureRateThreshold  Rate of failed requests, from 0 to 1,
+     *                              which opens the circuit.
+     * @param slowCallDuration      Duration from which a request is slow.
+     * @param slowCallRateThreshold Rate of slow requests, from 0 to 1, which
+     *                              opens the circuit.
+     * @param openDuration          Time the circuit stays open before the
+     *                              probe request.
+     * @param clock                 Clock used to time the open circuit.
+     */
+    public UpstreamCircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+            Duration slowCallDuration, double slowCallRateThreshold, Duration openDuration, Clock clock) {
+        this.failed = new boolean[Math.max(1, windowSize)];
+        this.slow = new boolean[failed.length];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, failed.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration.toMillis();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDuration = openDuration.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return UpstreamCircuitBreaker which never opens.
+     */
+    public static UpstreamCircuitBreaker disabled() {
+        return new UpstreamCircuitBreaker(1, 1, 2, Duration.ofMillis(Long.MAX_VALUE), 2, Duration.ZERO,
+                Clock.systemUTC());
+    }
+
+    /**
+     * Method that asks for permission to send a request. Every permitted
+     * request must report its outcome with onResult, or give the permission
+     * back with abandon, with the generation returned.
+     * 
+     * @return Generation of the circuit the request is sent in.
+     * @throws CircuitOpenException If the circuit is open, or it's half-open
+     *                              and the probe request is in flight.
+     */
+    public synchronized long acquire() {
+        if (state == State.OPEN) {
+            long remaining = openedAt + openDuration - clock.millis();
+            if (remaining > 0) {
+                throw new CircuitOpenException(remaining);
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+            generation++;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                throw new CircuitOpenException(0);
+            }
+            probing = true;
+        }
+        return generation;
+    }
+
+    /**
+     * Method that records the outcome of a permitted request. It's ignored
+     * if the circuit changed state since the request was permitted.
+     * 
+     * @param generation Generation returned by acquire.
+     * @param failure    Flag which indicates if the upstream failed: a
+     *                   server error, a rate limit or a connection error.
+     * @param duration   Milliseconds the request took, until its body was
+     *                   read.
+     */
+    public synchronized void onResult(long generation, boolean failure, long duration) {
+        if (generation != this.generation) {
+            return;
+        }
+
+        boolean tooSlow = duration >= slowCallDuration;
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (failure || tooSlow) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+
+        if (calls == failed.length) {
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        failed[next] = failure;
+        slow[next] = tooSlow;
+        failures += failure ? 1 : 0;
+        slowCalls += tooSlow ? 1 : 0;
+        next = (next + 1) % failed.length;
+
+        if (calls >= minimumCalls && ((double) failures / calls >= failureRateThreshold
+                || (double) slowCalls / calls >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    /**
+     * Method that records the response of a permitted request. The server
+     * errors and the rate limits are failures of the upstream; the rest of
+     * the client errors are not.
+     * 
+     * @param generation Generation returned by acquire.
+     * @param status     Status of the response.
+     * @param duration   Milliseconds the request took, until its body was
+     *                   read.
+     */
+    public void onResponse(long generation, int status, long duration) {
+        onResult(generation, isFailure(status), duration);
+    }
+
+    /**
+     * @param status Status of a response.
+     * @return Flag which indicates if the status is a failure of the
+     *         upstream.
+     */
+    public static boolean isFailure(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * Method that gives back the permission of a request which wasn't sent,
+     * so a half-open circuit lets another probe through.
+     * 
+     * @param generation Generation returned by acquire.
+     */
+    public synchronized void abandon(long generation) {
+        if (generation == this.generation && state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    /**
+     * @return Current state of the circuit.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.millis() >= openedAt + openDuration) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.millis();
+        generation++;
+        reset();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        reset();
+    }
+
+    private void reset() {
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
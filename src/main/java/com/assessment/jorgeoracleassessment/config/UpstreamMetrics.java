@@ -0,0 +1,74 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.net.URI;
+
+/**
+ * Metrics of the upstream requests, shared by the blocking and the
+ * asynchronous HTTP clients. Each attempt is timed apart, tagged with the
+ * path of the request (the OpenAQ endpoints are few and fixed, and the
+ * query string is left out) and the status of its response, so the retries
+ * show up as more attempts of the same request.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class UpstreamMetrics {
+    private final MetricsRegistry registry;
+
+    /**
+     * @param registry Registry where the metrics are kept.
+     */
+    public UpstreamMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return UpstreamMetrics kept in a registry nobody scrapes.
+     */
+    public static UpstreamMetrics disabled() {
+        return new UpstreamMetrics(new MetricsRegistry());
+    }
+
+    /**
+     * @param uri    URI of the request.
+     * @param status Status of the response.
+     * @param nanos  Time until the response arrived.
+     */
+    public void onResponse(URI uri, int status, long nanos) {
+        registry.timer("upstream.requests", "uri", uri.getPath(), "status", Integer.toString(status), "outcome",
+                outcome(status)).record(nanos);
+    }
+
+    /**
+     * @param uri   URI of the request.
+     * @param nanos Time until the request failed.
+     */
+    public void onFailure(URI uri, long nanos) {
+        registry.timer("upstream.requests", "uri", uri.getPath(), "status", "IO_ERROR", "outcome", "UNKNOWN")
+                .record(nanos);
+    }
+
+    /**
+     * @param uri    URI of the request.
+     * @param reason Status which is retried, or "IO_ERROR".
+     */
+    public void onRetry(URI uri, String reason) {
+        registry.counter("upstream.retries", "uri", uri.getPath(), "reason", reason).increment();
+    }
+
+    /**
+     * @param uri URI of the request rejected because the circuit is open.
+     */
+    public void onRejected(URI uri) {
+        registry.counter("upstream.rejections", "uri", uri.getPath()).increment();
+    }
+
+    private static String outcome(int status) {
+        if (status >= 200 && status < 300) {
+            return "SUCCESS";
+        }
+        if (status >= 400 && status < 500) {
+            return "CLIENT_ERROR";
+        }
+        return status >= 500 ? "SERVER_ERROR" : "REDIRECTION";
+    }
+}
@@ -0,0 +1,247 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Client-side rate limiter shared by every upstream request, blocking or
+ * not. The requests are spaced by a token bucket of the configured rate and
+ * burst; the rate-limit headers of the responses narrow it to the quota left
+ * until the upstream window resets, and a Retry-After (or an exhausted
+ * quota) pauses every request until the given time, so the limiter slows
+ * down before the upstream starts rejecting requests.
+ * 
+ * It also decides which failures are retried, and how long to wait before
+ * each retry: an exponential backoff with full jitter, never shorter than
+ * the Retry-After of the response.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class UpstreamRateLimiter {
+    /**
+     * Statuses which mean the request may succeed if it's sent again later.
+     */
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    /**
+     * Reset values greater than this are epoch seconds instead of seconds
+     * until the reset.
+     */
+    private static final long EPOCH_SECONDS_THRESHOLD = 1_000_000_000L;
+
+    private final double interval;
+
+    private final double tolerance;
+
+    private final int maxAttempts;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    private final Clock clock;
+
+    /**
+     * Theoretical arrival time of the next request (GCRA), in milliseconds.
+     */
+    private double nextArrival;
+
+    /**
+     * Time until which no request is sent, in milliseconds.
+     */
+    private long pausedUntil;
+
+    /**
+     * Interval imposed by the rate-limit headers, and when it ends.
+     */
+    private double quotaInterval;
+
+    private long quotaUntil;
+
+    /**
+     * @param permitsPerSecond Sustained rate of requests.
+     * @param burst            Requests which can be sent at once after an idle
+     *                         period.
+     * @param maxAttempts      Maximum number of attempts of each request.
+     * @param baseDelay        Delay before the first retry, doubled with each
+     *                         attempt.
+     * @param maxDelay         Maximum delay between two attempts.
+     * @param clock            Clock used to space the requests.
+     */
+    public UpstreamRateLimiter(double permitsPerSecond, int burst, int maxAttempts, Duration baseDelay,
+            Duration maxDelay, Clock clock) {
+        this.interval = 1000 / permitsPerSecond;
+        this.tolerance = (Math.max(1, burst) - 1) * interval;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = baseDelay.toMillis();
+        this.maxDelay = maxDelay.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return UpstreamRateLimiter which never delays nor retries a request,
+     *         although it still honours the Retry-After of the responses.
+     */
+    public static UpstreamRateLimiter unlimited() {
+        return new UpstreamRateLimiter(Double.POSITIVE_INFINITY, 1, 1, Duration.ZERO, Duration.ZERO,
+                Clock.systemUTC());
+    }
+
+    /**
+     * Method that reserves the next slot to send a request.
+     * 
+     * @return Milliseconds the caller has to wait before sending it.
+     */
+    public synchronized long reserve() {
+        long now = clock.millis();
+        double currentInterval = now < quotaUntil ? Math.max(interval, quotaInterval) : interval;
+
+        double sendAt = Math.max(Math.max(now, pausedUntil), nextArrival - tolerance);
+        nextArrival = Math.max(nextArrival, sendAt) + currentInterval;
+
+        return (long) Math.ceil(sendAt - now);
+    }
+
+    /**
+     * Method that waits on the calling thread for the next slot to send a
+     * request, for the callers which request their pages one by one.
+     * 
+     * @throws IllegalStateException If the thread is interrupted while it
+     *                               waits.
+     */
+    public void acquire() {
+        long delay = reserve();
+        if (delay <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send the next request", ex);
+        }
+    }
+
+    /**
+     * Method that adapts the limiter to the rate-limit headers of a
+     * response: a Retry-After, or an exhausted quota, pauses every request
+     * until the given time; a quota left spreads the next requests until the
+     * window resets.
+     * 
+     * @param status  Status of the response.
+     * @param headers Headers of the response.
+     */
+    public synchronized void onResponse(int status, HttpHeaders headers) {
+        long now = clock.millis();
+
+        long retryAfter = retryAfter(headers, now);
+        if (retryAfter > 0 && (status == 429 || status == 503)) {
+            pausedUntil = Math.max(pausedUntil, now + retryAfter);
+        }
+
+        long remaining = header(headers, "X-RateLimit-Remaining", "RateLimit-Remaining");
+        long reset = header(headers, "X-RateLimit-Reset", "RateLimit-Reset");
+        if (remaining < 0 || reset < 0) {
+            return;
+        }
+
+        long resetAt = reset > EPOCH_SECONDS_THRESHOLD ? reset * 1000 : now + reset * 1000;
+        if (remaining == 0) {
+            pausedUntil = Math.max(pausedUntil, resetAt);
+        } else if (resetAt > now) {
+            quotaInterval = (double) (resetAt - now) / remaining;
+            quotaUntil = resetAt;
+        }
+    }
+
+    /**
+     * @param status Status of a response.
+     * @return Flag which indicates if the request can be retried.
+     */
+    public boolean isRetryable(int status) {
+        return RETRYABLE_STATUSES.contains(status);
+    }
+
+    /**
+     * @param ex Exception thrown while sending a request.
+     * @return Flag which indicates if the request can be retried: timeouts
+     *         and connection failures, but not interruptions.
+     */
+    public boolean isRetryable(Throwable ex) {
+        return ex instanceof IOException && !(ex instanceof InterruptedIOException);
+    }
+
+    /**
+     * @param attempt Number of the attempt which failed, from 1.
+     * @return Flag which indicates if there are attempts left.
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * Method that computes how long to wait before retrying a request.
+     * 
+     * @param attempt Number of the attempt which failed, from 1.
+     * @param headers Headers of the failed response, or null if there was no
+     *                response.
+     * @return Milliseconds to wait: a random delay up to the exponential
+     *         backoff of the attempt, or the Retry-After if it's longer.
+     */
+    public long backoff(int attempt, HttpHeaders headers) {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        long jittered = ThreadLocalRandom.current().nextLong(ceiling + 1);
+
+        return headers == null ? jittered : Math.max(jittered, retryAfter(headers, clock.millis()));
+    }
+
+    /**
+     * @return Milliseconds of the Retry-After header, given either in seconds
+     *         or as an HTTP date, or 0 if there isn't one.
+     */
+    private static long retryAfter(HttpHeaders headers, long now) {
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException ex) {
+            // It's an HTTP date.
+        }
+        try {
+            return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli() - now);
+        } catch (DateTimeParseException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return Value of the first of the headers which is a number, or -1.
+     */
+    private static long header(HttpHeaders headers, String... names) {
+        for (String name : names) {
+            String value = headers.getFirst(name);
+            if (value != null) {
+                try {
+                    return Long.parseLong(value.trim());
+                } catch (NumberFormatException ex) {
+                    // Try the next one.
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,79 @@
+package com.assessment.jorgeoracleassessment.config;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.assessment.jorgeoracleassessment.controller.EncodedResponseCache;
+import com.assessment.jorgeoracleassessment.controller.HeatmapHttpMessageConverter;
+import com.assessment.jorgeoracleassessment.controller.MeasurementBroadcaster;
+import com.assessment.jorgeoracleassessment.controller.TimedJackson2HttpMessageConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Configuration of Spring MVC for our component.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * Method which registers the binary heatmap format next to the default
+     * JSON one, and replaces the JSON converter by one which times the
+     * serialization of the responses, keeping its ObjectMapper.
+     * 
+     * @param converters Message converters configured by Spring Boot.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.replaceAll(converter -> converter.getClass() == MappingJackson2HttpMessageConverter.class
+                ? new TimedJackson2HttpMessageConverter(
+                        ((MappingJackson2HttpMessageConverter) converter).getObjectMapper(), metricsRegistry)
+                : converter);
+        converters.add(new HeatmapHttpMessageConverter(metricsRegistry));
+    }
+
+    /**
+     * @param maxBytes Memory cap of the cache, in bytes.
+     * @return EncodedResponseCache of the "/measurements" responses.
+     */
+    @Bean
+    public EncodedResponseCache encodedResponseCache(@Value("${responses.maxBytes:33554432}") long maxBytes) {
+        return new EncodedResponseCache(maxBytes, metricsRegistry);
+    }
+
+    /**
+     * @param objectMapper          ObjectMapper configured by Spring Boot.
+     * @param streamRefreshExecutor Executor of the refreshes of the scopes.
+     * @param streamSendExecutor    Executor which sends the events.
+     * @param interval              Time, in milliseconds, between two
+     *                              refreshes of a scope.
+     * @param queueSize             Events queued for a subscriber before
+     *                              it's dropped.
+     * @param timeout               Time, in milliseconds, after which a
+     *                              subscription is closed.
+     * @return MeasurementBroadcaster of the "/measurements/stream" events.
+     */
+    @Bean(destroyMethod = "close")
+    public MeasurementBroadcaster measurementBroadcaster(ObjectMapper objectMapper,
+            @Qualifier("streamRefreshExecutor") ScheduledExecutorService streamRefreshExecutor,
+            @Qualifier("streamSendExecutor") ExecutorService streamSendExecutor,
+            @Value("${stream.interval:60000}") long interval,
+            @Value("${stream.queueSize:16}") int queueSize,
+            @Value("${stream.timeout:1800000}") long timeout) {
+        return new MeasurementBroadcaster(objectMapper, streamRefreshExecutor, streamSendExecutor, interval,
+                queueSize, timeout, metricsRegistry);
+    }
+}
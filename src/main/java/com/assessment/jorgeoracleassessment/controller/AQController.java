@@ -1,31 +1,74 @@
 package com.assessment.jorgeoracleassessment.controller;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.assessment.jorgeoracleassessment.config.CircuitOpenException;
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.output.OutputChanges;
 import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputTile;
 import com.assessment.jorgeoracleassessment.service.AQLocationService;
+import com.assessment.jorgeoracleassessment.service.MeasurementQuery;
+import com.assessment.jorgeoracleassessment.service.ParametersUnavailableException;
+import com.assessment.jorgeoracleassessment.service.StationIndexUnavailableException;
+import com.assessment.jorgeoracleassessment.service.TileService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.ConstraintViolationException;
 import jakarta.validation.ValidationException;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 
 /**
- * Controller for our component.
+ * Controller for our component. The "/measurements" responses are counted
+ * by freshness, so the share of them served from the last known
+ * measurements, or not served at all, can be followed.
+ * 
+ * The "/measurements" responses carry a strong ETag, the content hash of
+ * the OutputResponse plus its format and, if it's gzip compressed, a
+ * "-gzip" suffix, since each encoding is a different representation. They
+ * also carry a Cache-Control header, so the clients which poll them can
+ * revalidate with If-None-Match, with the ETag of either encoding, and get
+ * a 304 without the body when nothing changed. The comparison and the 304
+ * are done by Spring when the ResponseEntity is written.
+ * 
+ * The fresh ones are written from the EncodedResponseCache, already
+ * serialized and, if the client accepts it, gzip compressed.
+ * 
+ * Instead of polling, the clients can subscribe to "/measurements/stream",
+ * whose scopes are refreshed once by the MeasurementBroadcaster for all of
+ * their subscribers.
  * 
  * @author Jorge Gonzalez
  */
@@ -35,24 +78,55 @@ public class AQController {
     @Autowired
     private AQLocationService service;
 
+    @Autowired
+    private TileService tileService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private ContentNegotiationManager contentNegotiationManager;
+
+    @Autowired
+    private EncodedResponseCache encodedResponseCache;
+
+    @Autowired
+    private MeasurementBroadcaster measurementBroadcaster;
+
+    @Value("${measurements.maxAge:60000}")
+    private long maxAge;
+
     /**
      * Method mapped to the "/measurements" path when it has "parameter",
      * "countryCode" as query parameters. It calls the AQLocationService
      * service to retrieve meditions of the air quality given an AQ parameter
      * and a country in a specific structure.
      *
+     * The request is handled asynchronously, so the servlet thread is
+     * released while the locations are crawled.
+     *
      * @param parameter   Air quality parameter
      * @param countryCode ISO 3166-1 country code.
-     * @return OutputResponse Object which represents the service's answer for the
-     *         fronend (it's later transformed to JSON).
+     * @param request     Request, to negotiate the format of the ETag.
+     * @return Future of the OutputResponse Object which represents the
+     *         service's answer for the fronend (it's later transformed to
+     *         JSON, or to the binary heatmap format if it's requested). If
+     *         it's stale, it has the Age and Warning headers. It's a 304
+     *         without body if it matches the If-None-Match header.
      */
     @GetMapping(value = "/measurements", params = { "parameter",
-            "countryCode" }, produces = MediaType.APPLICATION_JSON_VALUE)
+            "countryCode" }, produces = { MediaType.APPLICATION_JSON_VALUE,
+                    HeatmapHttpMessageConverter.APPLICATION_HEATMAP_VALUE })
     @ResponseBody
-    public OutputResponse getMeasurementsByAQParameterAndCountryCode(
+    public CompletableFuture<ResponseEntity<?>> getMeasurementsByAQParameterAndCountryCode(
             @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
-            @RequestParam("countryCode") @NotBlank(message = "Country code must not be empty") @Pattern(message = "Country code format is invalid", regexp = "^([a-zA-Z]{2})$") String countryCode) {
-        return service.getMeasurementsByCountry(parameter, countryCode);
+            @RequestParam("countryCode") @NotBlank(message = "Country code must not be empty") @Pattern(message = "Country code format is invalid", regexp = "^([a-zA-Z]{2})$") String countryCode,
+            NativeWebRequest request) {
+        return service.getMeasurementsByCountryAsync(parameter, countryCode)
+                .thenApply(response -> toResponseEntity(response, request));
     }
 
     /**
@@ -60,23 +134,401 @@ public class AQController {
      * "longitude", "radius" as query parameters. It calls the AQLocationService
      * service to retrieve meditions of the air quality given an AQ parameter,
      * coordinates and a radius for the coordinates in a specific structure.
+     * The request is handled asynchronously, so the servlet thread is
+     * released while the locations are crawled.
      *
      * @param parameter Air quality parameter
      * @param latitude  decimal-degree latitude.
      * @param longitude decimal-degree longitude.
      * @param radius    Radius of the previously setted coordinates in meters.
-     * @return OutputResponse Object which represents the service's answer for the
-     *         fronend (it's later transformed to JSON).
+     * @param request   Request, to negotiate the format of the ETag.
+     * @return Future of the OutputResponse Object which represents the
+     *         service's answer for the fronend (it's later transformed to
+     *         JSON, or to the binary heatmap format if it's requested). If
+     *         it's stale, it has the Age and Warning headers. It's a 304
+     *         without body if it matches the If-None-Match header.
      */
     @GetMapping(value = "/measurements", params = { "parameter", "latitude", "longitude",
+            "radius" }, produces = { MediaType.APPLICATION_JSON_VALUE,
+                    HeatmapHttpMessageConverter.APPLICATION_HEATMAP_VALUE })
+    @ResponseBody
+    public CompletableFuture<ResponseEntity<?>> getMeasurementsByAQParameterCoordinatesAndRadius(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("latitude") @NotBlank(message = "latitude must not be empty") @Pattern(message = "latitude format is invalid", regexp = "^-?\\d{1,2}\\.?\\d{0,8}") String latitude,
+            @RequestParam("longitude") @NotBlank(message = "longitude must not be empty") @Pattern(message = "longitude format is invalid", regexp = "^-?1?\\d{1,2}\\.?\\d{0,8}") String longitude,
+            @RequestParam("radius") @Min(value = 1, message = "radius must be bigger than 0") @Max(value = 25000, message = "radius must be smaller or equal than 2500") int radius,
+            NativeWebRequest request) {
+        return service.getMeasurementsByCoordinatesAndRadiusAsync(parameter, latitude, longitude, radius)
+                .thenApply(response -> toResponseEntity(response, request));
+    }
+
+    /**
+     * Method mapped to the "/measurements/nearest" path. It calls the
+     * AQLocationService service to retrieve the meditions of the nearest
+     * stations to the given coordinates. It answers a 503 until the stations
+     * are indexed.
+     *
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param count     Number of stations.
+     * @return OutputResponse Object which represents the service's answer for the
+     *         fronend, with the stations sorted by distance.
+     */
+    @GetMapping(value = "/measurements/nearest", params = { "parameter", "latitude",
+            "longitude" }, produces = { MediaType.APPLICATION_JSON_VALUE,
+                    HeatmapHttpMessageConverter.APPLICATION_HEATMAP_VALUE })
+    @ResponseBody
+    public OutputResponse getNearestMeasurementsByAQParameterAndCoordinates(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("latitude") @NotBlank(message = "latitude must not be empty") @Pattern(message = "latitude format is invalid", regexp = "^-?\\d{1,2}\\.?\\d{0,8}") String latitude,
+            @RequestParam("longitude") @NotBlank(message = "longitude must not be empty") @Pattern(message = "longitude format is invalid", regexp = "^-?1?\\d{1,2}\\.?\\d{0,8}") String longitude,
+            @RequestParam(value = "count", defaultValue = "10") @Min(value = 1, message = "count must be bigger than 0") @Max(value = 1000, message = "count must be smaller or equal than 1000") int count) {
+        return service.getNearestMeasurements(parameter, latitude, longitude, count);
+    }
+
+    /**
+     * Method mapped to the "/measurements/batch" path. It calls the
+     * AQLocationService service to retrieve meditions of the air quality of
+     * several AQ parameters in one or more countries, crawling the locations
+     * once for all of them.
+     *
+     * @param parameters   Air quality parameters, comma separated.
+     * @param countryCodes ISO 3166-1 country codes, comma separated.
+     * @return List of OutputResponse, one for each air quality parameter.
+     */
+    @GetMapping(value = "/measurements/batch", params = { "parameters",
+            "countryCodes" }, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<OutputResponse> getMeasurementsByAQParametersAndCountryCodes(
+            @RequestParam("parameters") @NotEmpty(message = "Parameters must not be empty") @Size(max = 10, message = "parameters must be 10 at most") List<@NotBlank(message = "Parameter must not be empty") String> parameters,
+            @RequestParam("countryCodes") @NotEmpty(message = "Country codes must not be empty") @Size(max = 10, message = "countryCodes must be 10 at most") List<@Pattern(message = "Country code format is invalid", regexp = "^([a-zA-Z]{2})$") String> countryCodes) {
+        return service.getMeasurementsByCountries(parameters, countryCodes);
+    }
+
+    /**
+     * Method mapped to the "/measurements/changes" path. It calls the
+     * AQLocationService service to retrieve the rows added, changed or
+     * removed from the meditions of the air quality in a country since the
+     * version the frontend holds, so it doesn't download the whole data set
+     * again. Without "since", or if the version is too old, every row is
+     * sent as added.
+     *
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param since       Version of the data set the frontend holds.
+     * @return OutputChanges with the current version of the data set.
+     */
+    @GetMapping(value = "/measurements/changes", params = { "parameter",
+            "countryCode" }, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public OutputChanges getMeasurementChangesByAQParameterAndCountryCode(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("countryCode") @NotBlank(message = "Country code must not be empty") @Pattern(message = "Country code format is invalid", regexp = "^([a-zA-Z]{2})$") String countryCode,
+            @RequestParam(value = "since", defaultValue = "0") @Min(value = 0, message = "since must not be negative") long since) {
+        return service.getMeasurementChangesByCountry(parameter, countryCode, since);
+    }
+
+    /**
+     * Method mapped to the "/measurements/changes" path when it has
+     * "latitude", "longitude", "radius" as query parameters. It calls the
+     * AQLocationService service to retrieve the rows added, changed or
+     * removed around the coordinates since the version the frontend holds,
+     * as the country variant does.
+     *
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @param since     Version of the data set the frontend holds.
+     * @return OutputChanges with the current version of the data set.
+     */
+    @GetMapping(value = "/measurements/changes", params = { "parameter", "latitude", "longitude",
             "radius" }, produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
-    public OutputResponse getMeasurementsByAQParameterCoordinatesAndRadius(
+    public OutputChanges getMeasurementChangesByAQParameterCoordinatesAndRadius(
             @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
             @RequestParam("latitude") @NotBlank(message = "latitude must not be empty") @Pattern(message = "latitude format is invalid", regexp = "^-?\\d{1,2}\\.?\\d{0,8}") String latitude,
             @RequestParam("longitude") @NotBlank(message = "longitude must not be empty") @Pattern(message = "longitude format is invalid", regexp = "^-?1?\\d{1,2}\\.?\\d{0,8}") String longitude,
-            @RequestParam("radius") @Min(value = 1, message = "radius must be bigger than 0") @Max(value = 25000, message = "radius must be smaller or equal than 2500") int radius) {
-        return service.getMeasurementsByCoordinatesAndRadius(parameter, latitude, longitude, radius);
+            @RequestParam("radius") @Min(value = 1, message = "radius must be bigger than 0") @Max(value = 25000, message = "radius must be smaller or equal than 2500") int radius,
+            @RequestParam(value = "since", defaultValue = "0") @Min(value = 0, message = "since must not be negative") long since) {
+        return service.getMeasurementChangesByCoordinatesAndRadius(parameter, latitude, longitude, radius, since);
+    }
+
+    /**
+     * Method mapped to the "/measurements/stream" path when it has
+     * "parameter", "countryCode" as query parameters. It subscribes the
+     * client to the Server-Sent Events of the meditions of the air quality
+     * in a country: first a snapshot, or the changes since the version of
+     * the Last-Event-ID header if it's reconnecting, and then the changes
+     * as the measurements are refreshed.
+     *
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param lastEventId Version of the last event the client got.
+     * @return SseEmitter of the subscription.
+     */
+    @GetMapping(value = "/measurements/stream", params = { "parameter",
+            "countryCode" }, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMeasurementChangesByAQParameterAndCountryCode(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("countryCode") @NotBlank(message = "Country code must not be empty") @Pattern(message = "Country code format is invalid", regexp = "^([a-zA-Z]{2})$") String countryCode,
+            @RequestHeader(value = "Last-Event-ID", defaultValue = "0") long lastEventId) {
+        return measurementBroadcaster.subscribe(MeasurementQuery.byCountry(parameter, countryCode),
+                since -> service.getMeasurementChangesByCountry(parameter, countryCode, since), lastEventId);
+    }
+
+    /**
+     * Method mapped to the "/measurements/stream" path when it has
+     * "latitude", "longitude", "radius" as query parameters. It subscribes
+     * the client to the Server-Sent Events of the meditions of the air
+     * quality around the coordinates, as the country stream does.
+     *
+     * @param parameter   Air quality parameter
+     * @param latitude    decimal-degree latitude.
+     * @param longitude   decimal-degree longitude.
+     * @param radius      Radius of the previously setted coordinates in
+     *                    meters.
+     * @param lastEventId Version of the last event the client got.
+     * @return SseEmitter of the subscription.
+     */
+    @GetMapping(value = "/measurements/stream", params = { "parameter", "latitude", "longitude",
+            "radius" }, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMeasurementChangesByAQParameterCoordinatesAndRadius(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("latitude") @NotBlank(message = "latitude must not be empty") @Pattern(message = "latitude format is invalid", regexp = "^-?\\d{1,2}\\.?\\d{0,8}") String latitude,
+            @RequestParam("longitude") @NotBlank(message = "longitude must not be empty") @Pattern(message = "longitude format is invalid", regexp = "^-?1?\\d{1,2}\\.?\\d{0,8}") String longitude,
+            @RequestParam("radius") @Min(value = 1, message = "radius must be bigger than 0") @Max(value = 25000, message = "radius must be smaller or equal than 2500") int radius,
+            @RequestHeader(value = "Last-Event-ID", defaultValue = "0") long lastEventId) {
+        return measurementBroadcaster.subscribe(
+                MeasurementQuery.byCoordinates(parameter, latitude, longitude, radius),
+                since -> service.getMeasurementChangesByCoordinatesAndRadius(parameter, latitude, longitude, radius,
+                        since),
+                lastEventId);
+    }
+
+    /**
+     * Streaming variant of the "/measurements" path with "parameter" and
+     * "countryCode" as query parameters, selected by the
+     * "Accept: application/x-ndjson" header or the "format=ndjson" query
+     * parameter. Each OutputRow is written in its own line as soon as its
+     * page is processed, followed by an OutputSummary line.
+     *
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param response    Response where the rows are written.
+     * @throws IOException If the client went away.
+     */
+    @GetMapping(value = "/measurements", params = { "parameter",
+            "countryCode" }, produces = NdjsonWriter.APPLICATION_NDJSON_VALUE)
+    public void streamMeasurementsByAQParameterAndCountryCode(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("countryCode") @NotBlank(message = "Country code must not be empty") @Pattern(message = "Country code format is invalid", regexp = "^([a-zA-Z]{2})$") String countryCode,
+            HttpServletResponse response) throws IOException {
+        NdjsonWriter writer = new NdjsonWriter(response, objectMapper);
+        writer.writeSummary(service.streamMeasurementsByCountry(parameter, countryCode, writer::writeRows));
+    }
+
+    /**
+     * Streaming variant of the "/measurements" path with "latitude",
+     * "longitude", "radius" as query parameters, selected by the
+     * "Accept: application/x-ndjson" header or the "format=ndjson" query
+     * parameter. Each OutputRow is written in its own line as soon as its
+     * page is processed, followed by an OutputSummary line.
+     *
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @param response  Response where the rows are written.
+     * @throws IOException If the client went away.
+     */
+    @GetMapping(value = "/measurements", params = { "parameter", "latitude", "longitude",
+            "radius" }, produces = NdjsonWriter.APPLICATION_NDJSON_VALUE)
+    public void streamMeasurementsByAQParameterCoordinatesAndRadius(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @RequestParam("latitude") @NotBlank(message = "latitude must not be empty") @Pattern(message = "latitude format is invalid", regexp = "^-?\\d{1,2}\\.?\\d{0,8}") String latitude,
+            @RequestParam("longitude") @NotBlank(message = "longitude must not be empty") @Pattern(message = "longitude format is invalid", regexp = "^-?1?\\d{1,2}\\.?\\d{0,8}") String longitude,
+            @RequestParam("radius") @Min(value = 1, message = "radius must be bigger than 0") @Max(value = 25000, message = "radius must be smaller or equal than 2500") int radius,
+            HttpServletResponse response) throws IOException {
+        NdjsonWriter writer = new NdjsonWriter(response, objectMapper);
+        writer.writeSummary(service.streamMeasurementsByCoordinatesAndRadius(parameter, latitude, longitude, radius,
+                writer::writeRows));
+    }
+
+    /**
+     * Method mapped to the "/tiles/{z}/{x}/{y}" path. It calls the
+     * TileService service to retrieve the measurements of a map tile binned
+     * in cells, with the count, max and mean of each cell.
+     *
+     * @param parameter Air quality parameter
+     * @param z         Zoom level.
+     * @param x         Column of the tile.
+     * @param y         Row of the tile.
+     * @return ResponseEntity with the OutputTile, or HTTP code 503 if the air
+     *         quality parameter is not ingested nor indexed yet.
+     */
+    @GetMapping(value = "/tiles/{z}/{x}/{y}", params = { "parameter" }, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<OutputTile> getTile(
+            @RequestParam("parameter") @NotBlank(message = "Parameter must not be empty") String parameter,
+            @PathVariable("z") int z, @PathVariable("x") int x, @PathVariable("y") int y) {
+        OutputTile tile = tileService.getTile(parameter, z, x, y);
+        if (tile == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        return ResponseEntity.ok(tile);
+    }
+
+    /**
+     * Method which handles CircuitOpenException, thrown when the REST API is
+     * down and there are no measurements to fall back to.
+     * 
+     * @param coex Exception thrown while the upstream circuit is open.
+     * @return ResponseEntity with the Retry-After header (HTTP code 503).
+     */
+    @ExceptionHandler(CircuitOpenException.class)
+    public ResponseEntity<String> circuitOpenExceptionHandler(CircuitOpenException coex) {
+        metricsRegistry.counter("measurements.responses", "freshness", "unavailable").increment();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf((coex.getRetryAfter() + 999) / 1000))
+                .body(coex.getMessage());
+    }
+
+    /**
+     * Method which handles ParametersUnavailableException, thrown when the
+     * air quality parameters couldn't be loaded yet, so a parameter can't be
+     * told valid or not.
+     * 
+     * @param puex Exception thrown while the parameters are not loaded.
+     * @return ResponseEntity with the Retry-After header (HTTP code 503).
+     */
+    @ExceptionHandler(ParametersUnavailableException.class)
+    public ResponseEntity<String> parametersUnavailableExceptionHandler(ParametersUnavailableException puex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf((puex.getRetryAfter() + 999) / 1000))
+                .body(puex.getMessage());
+    }
+
+    /**
+     * Method which handles StationIndexUnavailableException, thrown when the
+     * nearest stations are queried before their index is built.
+     * 
+     * @param siuex Exception thrown while the stations are being indexed.
+     * @return ResponseEntity with the Retry-After header (HTTP code 503).
+     */
+    @ExceptionHandler(StationIndexUnavailableException.class)
+    public ResponseEntity<String> stationIndexUnavailableExceptionHandler(StationIndexUnavailableException siuex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf((siuex.getRetryAfter() + 999) / 1000))
+                .body(siuex.getMessage());
+    }
+
+    /**
+     * Method that builds the response of a query with its ETag and its
+     * Cache-Control: a fresh response can be reused for measurements.maxAge
+     * and then must be revalidated; a stale one must be revalidated every
+     * time, so the clients get the new measurements as soon as they're
+     * back. Its age is part of the body, so a stale response is rarely
+     * matched, and it's serialized for each request instead of cached.
+     * 
+     * @param response OutputResponse of a query.
+     * @param request  Request, to negotiate the format of the ETag.
+     * @return ResponseEntity with the OutputResponse, and the Age and
+     *         Warning headers if it's stale; with its cached bytes if it's
+     *         fresh; without body if it matches the If-None-Match header.
+     */
+    private ResponseEntity<?> toResponseEntity(OutputResponse response, NativeWebRequest request) {
+        metricsRegistry.counter("measurements.responses", "freshness", response.stale() ? "stale" : "fresh")
+                .increment();
+
+        boolean heatmap = isHeatmap(request);
+        String tag = Long.toHexString(response.contentHash()) + (heatmap ? "-heatmap" : "");
+        String etag = "\"" + tag + "\"";
+        String gzipEtag = "\"" + tag + "-gzip\"";
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (!response.stale()) {
+            builder.cacheControl(CacheControl.maxAge(maxAge, TimeUnit.MILLISECONDS).mustRevalidate());
+            String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+            if (matches(ifNoneMatch, gzipEtag) || matches(ifNoneMatch, etag)) {
+                // Spring turns it into a 304, there's nothing to encode.
+                return builder.eTag(matches(ifNoneMatch, gzipEtag) ? gzipEtag : etag).build();
+            }
+
+            boolean acceptsGzip = EncodedResponseCache.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            EncodedResponseCache.EncodedResponse encoded = encodedResponseCache.get(etag,
+                    () -> serialize(response, heatmap));
+            if (encoded.isGzipped(acceptsGzip)) {
+                builder.eTag(gzipEtag).header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            } else {
+                builder.eTag(etag);
+            }
+            return builder.contentType(heatmap ? HeatmapHttpMessageConverter.APPLICATION_HEATMAP
+                    : MediaType.APPLICATION_JSON)
+                    .body(encoded.body(acceptsGzip));
+        }
+
+        return builder.eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.AGE, String.valueOf(response.age()))
+                .header(HttpHeaders.WARNING, "110 - \"Response is Stale\"")
+                .body(response);
+    }
+
+    /**
+     * @return The OutputResponse in the heatmap format or as JSON.
+     */
+    private byte[] serialize(OutputResponse response, boolean heatmap) {
+        if (heatmap) {
+            return HeatmapHttpMessageConverter.toBytes(response);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(response);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @param ifNoneMatch If-None-Match header of the request, or null.
+     * @param etag        ETag of the response.
+     * @return Flag which indicates if the ETag is one of the header, compared
+     *         weakly as it's done for a GET.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param request Request of the measurements.
+     * @return Flag which indicates if the heatmap format is negotiated
+     *         instead of JSON, so each format has its own ETag.
+     */
+    private boolean isHeatmap(NativeWebRequest request) {
+        try {
+            for (MediaType mediaType : contentNegotiationManager.resolveMediaTypes(request)) {
+                if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    return false;
+                }
+                if (mediaType.isCompatibleWith(HeatmapHttpMessageConverter.APPLICATION_HEATMAP)) {
+                    return true;
+                }
+            }
+        } catch (HttpMediaTypeNotAcceptableException ex) {
+            // Spring already rejected the request if it's not acceptable.
+        }
+        return false;
     }
 
     /**
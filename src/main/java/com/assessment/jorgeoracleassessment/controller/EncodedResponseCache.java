@@ -0,0 +1,205 @@
+package com.assessment.jorgeoracleassessment.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+
+/**
+ * Bounded cache of serialized responses, ready to be written as they are.
+ * Each one is kept both as is and gzip compressed, so a hit costs neither
+ * the serialization nor the compression; only the copy to the response.
+ * 
+ * The responses are identified by their ETag, which already tells apart
+ * their content and their format, so an entry never has to be invalidated:
+ * new measurements have another ETag, and the old ones are evicted when
+ * they are no longer requested. The least recently used entries are
+ * evicted when the size of the cache exceeds its cap, in bytes.
+ * 
+ * Every lookup is counted as a hit or a miss in the "cache.gets" counter,
+ * and the size of the cache is exposed as gauges.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class EncodedResponseCache {
+    /**
+     * Estimated size of an entry without its bodies.
+     */
+    private static final long ENTRY_BYTES = 128;
+
+    private final long maxBytes;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final LinkedHashMap<String, EncodedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+
+    /**
+     * @param maxBytes        Memory cap, in bytes.
+     * @param metricsRegistry Registry of the cache metrics.
+     */
+    public EncodedResponseCache(long maxBytes, MetricsRegistry metricsRegistry) {
+        this.maxBytes = maxBytes;
+        this.metricsRegistry = metricsRegistry;
+
+        metricsRegistry.gauge("cache.size", this::size, "cache", "responses");
+        metricsRegistry.gauge("cache.bytes", this::usedBytes, "cache", "responses");
+    }
+
+    /**
+     * Method that retrieves the encoded response of an ETag. If it's not
+     * cached, it's serialized and compressed by the calling thread, without
+     * holding the cache lock.
+     * 
+     * @param etag       ETag of the response.
+     * @param serializer Function which serializes the response.
+     * @return EncodedResponse of the ETag.
+     */
+    public EncodedResponse get(String etag, Supplier<byte[]> serializer) {
+        synchronized (this) {
+            EncodedResponse cached = entries.get(etag);
+            if (cached != null) {
+                count("hit");
+                return cached;
+            }
+        }
+
+        count("miss");
+        EncodedResponse encoded = EncodedResponse.of(serializer.get());
+        put(etag, encoded);
+        return encoded;
+    }
+
+    /**
+     * @return Number of cached responses.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Bytes used by the cached responses.
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Method that stores an encoded response, evicting the least recently
+     * used ones if the memory cap is exceeded.
+     */
+    private synchronized void put(String etag, EncodedResponse encoded) {
+        long weight = encoded.weight();
+        if (weight > maxBytes) {
+            // It would evict everything else and then itself.
+            return;
+        }
+
+        EncodedResponse previous = entries.put(etag, encoded);
+        if (previous != null) {
+            usedBytes -= previous.weight();
+        }
+        usedBytes += weight;
+
+        Iterator<Map.Entry<String, EncodedResponse>> eldest = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().getValue().weight();
+            eldest.remove();
+        }
+    }
+
+    private void count(String result) {
+        metricsRegistry.counter("cache.gets", "cache", "responses", "result", result).increment();
+    }
+
+    /**
+     * Method that tells if a client accepts gzip compressed responses.
+     * 
+     * @param acceptEncoding Accept-Encoding header of the request, or null.
+     * @return Flag which indicates if gzip (or any encoding) is accepted
+     *         with a quality other than 0.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!"gzip".equalsIgnoreCase(name) && !"*".equals(name)) {
+                continue;
+            }
+
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(parameter.substring(2)) == 0;
+                    } catch (NumberFormatException ex) {
+                        rejected = true;
+                    }
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serialized response, as is and gzip compressed.
+     * 
+     * @param identity Serialized response.
+     * @param gzip     Gzip compressed response, or null if compressing it
+     *                 doesn't make it smaller.
+     */
+    public record EncodedResponse(byte[] identity, byte[] gzip) {
+
+        /**
+         * @param identity Serialized response.
+         * @return EncodedResponse with the serialized response and its gzip
+         *         compressed copy.
+         */
+        public static EncodedResponse of(byte[] identity) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(identity.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(identity);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            byte[] gzip = compressed.toByteArray();
+            return new EncodedResponse(identity, gzip.length < identity.length ? gzip : null);
+        }
+
+        /**
+         * @param acceptsGzip Flag which indicates if the client accepts gzip.
+         * @return Flag which indicates if the gzip body is sent.
+         */
+        public boolean isGzipped(boolean acceptsGzip) {
+            return acceptsGzip && gzip != null;
+        }
+
+        /**
+         * @param acceptsGzip Flag which indicates if the client accepts gzip.
+         * @return Body to send: the gzip one if it's accepted and smaller.
+         */
+        public byte[] body(boolean acceptsGzip) {
+            return isGzipped(acceptsGzip) ? gzip : identity;
+        }
+
+        private long weight() {
+            return ENTRY_BYTES + identity.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.assessment.jorgeoracleassessment.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+
+/**
+ * Writes an OutputResponse in a packed binary format, much smaller and
+ * cheaper to build and parse than its JSON representation. All the numbers
+ * are little-endian:
+ * 
+ * <pre>
+ * offset  size  field
+ * 0       4     magic "AQHM"
+ * 4       2     format version (1)
+ * 6       2     length N of the UTF-8 parameter name
+ * 8       4     row count
+ * 12      4     min value (float32)
+ * 16      4     max value (float32)
+ * 20      N     parameter name, zero padded to a multiple of 4 bytes
+ * ...     12*n  rows as (latitude, longitude, value) float32 triplets
+ * </pre>
+ * 
+ * The rows start at a multiple of 4 bytes, so browsers can read them as a
+ * Float32Array without copying. The time each response takes to be
+ * encoded and written is kept in the "http.serialization" timer with the
+ * "heatmap" format.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class HeatmapHttpMessageConverter extends AbstractHttpMessageConverter<OutputResponse> {
+    public static final String APPLICATION_HEATMAP_VALUE = "application/x-aq-heatmap";
+
+    public static final MediaType APPLICATION_HEATMAP = MediaType.parseMediaType(APPLICATION_HEATMAP_VALUE);
+
+    private static final byte[] MAGIC = { 'A', 'Q', 'H', 'M' };
+
+    private static final short VERSION = 1;
+
+    private static final int HEADER_BYTES = 20;
+
+    private static final int ROW_BYTES = 3 * Float.BYTES;
+
+    private final MetricsRegistry.Timer serialization;
+
+    public HeatmapHttpMessageConverter() {
+        this(new MetricsRegistry());
+    }
+
+    /**
+     * @param metricsRegistry Registry of the serialization timer.
+     */
+    public HeatmapHttpMessageConverter(MetricsRegistry metricsRegistry) {
+        super(APPLICATION_HEATMAP);
+        this.serialization = metricsRegistry.timer("http.serialization", "format", "heatmap");
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return OutputResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected OutputResponse readInternal(Class<? extends OutputResponse> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("The heatmap format is write only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(OutputResponse response, MediaType contentType) {
+        return (long) HEADER_BYTES + paddedLength(parameterBytes(response).length)
+                + (long) ROW_BYTES * response.dataSet().size();
+    }
+
+    @Override
+    protected void writeInternal(OutputResponse response, HttpOutputMessage outputMessage) throws IOException {
+        long start = System.nanoTime();
+        try {
+            outputMessage.getBody().write(toBytes(response));
+        } finally {
+            serialization.recordSince(start);
+        }
+    }
+
+    /**
+     * @param response OutputResponse to encode.
+     * @return The OutputResponse in the heatmap binary format.
+     */
+    public static byte[] toBytes(OutputResponse response) {
+        byte[] parameter = parameterBytes(response);
+        List<OutputRow> rows = response.dataSet();
+        ByteBuffer buffer = ByteBuffer
+                .allocate(HEADER_BYTES + paddedLength(parameter.length) + ROW_BYTES * rows.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.put(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) parameter.length)
+                .putInt(rows.size())
+                .putFloat((float) response.min())
+                .putFloat((float) response.max())
+                .put(parameter);
+        buffer.position(HEADER_BYTES + paddedLength(parameter.length));
+
+        if (rows instanceof MeasurementColumns columns) {
+            // The coordinates are already numbers, nothing to parse.
+            for (int i = 0; i < columns.size(); i++) {
+                buffer.putFloat((float) columns.latitude(i))
+                        .putFloat((float) columns.longitude(i))
+                        .putFloat((float) columns.value(i));
+            }
+        } else {
+            for (OutputRow row : rows) {
+                buffer.putFloat(Float.parseFloat(row.latitude()))
+                        .putFloat(Float.parseFloat(row.longitude()))
+                        .putFloat((float) row.value());
+            }
+        }
+
+        return buffer.array();
+    }
+
+    private static byte[] parameterBytes(OutputResponse response) {
+        return response.parameter() == null ? new byte[0] : response.parameter().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int paddedLength(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,352 @@
+package com.assessment.jorgeoracleassessment.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.output.OutputChanges;
+import com.assessment.jorgeoracleassessment.service.MeasurementQuery;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Broadcaster of the changes of the measurements to the Server-Sent Events
+ * subscribers of each query scope. Every scope with subscribers is
+ * refreshed once per interval, whatever the number of subscribers is; its
+ * changes since the last refresh are serialized once and the same event is
+ * sent to every subscriber, or a heartbeat if nothing changed.
+ * 
+ * Each subscriber has a bounded queue of events, which are sent by the
+ * send executor one subscriber at a time, so a slow client never delays
+ * the others nor the refreshes. A subscriber whose queue is full is
+ * dropped; it can reconnect with the Last-Event-ID of the last event it
+ * got, and it gets the changes since that version.
+ * 
+ * The events carry the version of the data set as their id. A subscriber
+ * may get changes it already has in its first snapshot; the rows added or
+ * changed replace the rows with the same coordinates, so applying them
+ * twice has no effect. If the scope is refreshed between the first
+ * snapshot of a subscriber and its registration, the subscriber gets the
+ * changes since its snapshot right after it's registered, so it never
+ * misses the changes of that refresh. The refreshes and those catch-up
+ * events hold the lock of the scope, so they are queued in version order.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MeasurementBroadcaster implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeasurementBroadcaster.class);
+
+    private final ObjectMapper objectMapper;
+
+    private final ScheduledExecutorService refreshExecutor;
+
+    private final Executor sendExecutor;
+
+    private final long interval;
+
+    private final int queueSize;
+
+    private final long timeout;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final Map<MeasurementQuery, Topic> topics = new HashMap<>();
+
+    private int subscribers;
+
+    /**
+     * @param objectMapper    ObjectMapper which serializes the events.
+     * @param refreshExecutor Executor of the refreshes of the scopes.
+     * @param sendExecutor    Executor which sends the events.
+     * @param interval        Time, in milliseconds, between two refreshes of
+     *                        a scope.
+     * @param queueSize       Events queued for a subscriber before it's
+     *                        dropped.
+     * @param timeout         Time, in milliseconds, after which a
+     *                        subscription is closed, or 0 to never close it.
+     * @param metricsRegistry Registry of the broadcaster metrics.
+     */
+    public MeasurementBroadcaster(ObjectMapper objectMapper, ScheduledExecutorService refreshExecutor,
+            Executor sendExecutor, long interval, int queueSize, long timeout, MetricsRegistry metricsRegistry) {
+        this.objectMapper = objectMapper;
+        this.refreshExecutor = refreshExecutor;
+        this.sendExecutor = sendExecutor;
+        this.interval = interval;
+        this.queueSize = Math.max(1, queueSize);
+        this.timeout = timeout;
+        this.metricsRegistry = metricsRegistry;
+
+        metricsRegistry.gauge("stream.subscribers", this::subscribers);
+        metricsRegistry.gauge("stream.scopes", this::scopes);
+    }
+
+    /**
+     * Method that subscribes a client to the changes of a scope. The changes
+     * since the version it holds are computed by the calling thread, so an
+     * invalid query fails before the stream starts, and they are its first
+     * event.
+     * 
+     * @param query   Query of the scope.
+     * @param changes Function which computes the changes of the scope since
+     *                a version.
+     * @param since   Version the client holds, or 0 for a full snapshot.
+     * @return SseEmitter of the subscription.
+     */
+    public SseEmitter subscribe(MeasurementQuery query, LongFunction<OutputChanges> changes, long since) {
+        OutputChanges initial = changes.apply(since);
+
+        Subscriber subscriber = new Subscriber(query, new SseEmitter(timeout));
+        subscriber.emitter.onCompletion(() -> unsubscribe(subscriber));
+        subscriber.emitter.onTimeout(() -> unsubscribe(subscriber));
+        subscriber.emitter.onError(ex -> unsubscribe(subscriber));
+        // Queued before any refresh of the scope can reach the subscriber.
+        subscriber.offer(toEvent(initial));
+
+        Topic topic;
+        synchronized (this) {
+            topic = topics.get(query);
+            if (topic == null) {
+                topic = new Topic(query, changes, initial.version());
+                topics.put(query, topic);
+                Topic scheduled = topic;
+                topic.refresh = refreshExecutor.scheduleWithFixedDelay(() -> refresh(scheduled), interval,
+                        interval, TimeUnit.MILLISECONDS);
+            }
+            topic.subscribers.add(subscriber);
+            subscribers++;
+        }
+
+        catchUp(topic, subscriber, changes, initial.version());
+
+        return subscriber.emitter;
+    }
+
+    /**
+     * @return Number of subscribers.
+     */
+    public synchronized int subscribers() {
+        return subscribers;
+    }
+
+    /**
+     * @return Number of scopes with subscribers.
+     */
+    public synchronized int scopes() {
+        return topics.size();
+    }
+
+    /**
+     * Method that closes every subscription, so the clients reconnect to
+     * another instance.
+     */
+    @Override
+    public void close() {
+        List<Subscriber> all = new ArrayList<>();
+        synchronized (this) {
+            topics.values().forEach(topic -> {
+                topic.refresh.cancel(false);
+                all.addAll(topic.subscribers);
+            });
+        }
+        all.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    /**
+     * Method that computes the changes of a scope since its last refresh and
+     * sends them to its subscribers, serialized once.
+     */
+    private void refresh(Topic topic) {
+        synchronized (topic) {
+            Event event;
+            try {
+                OutputChanges changes = topic.changes.apply(topic.version);
+                boolean changed = changes.version() != topic.version;
+                topic.version = changes.version();
+                event = changed ? toEvent(changes) : Event.HEARTBEAT;
+            } catch (RuntimeException ex) {
+                // The subscribers keep what they have until the next refresh.
+                LOGGER.warn("Could not refresh the measurements of {}", topic.query, ex);
+                event = Event.HEARTBEAT;
+            }
+
+            for (Subscriber subscriber : topic.subscribers) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Method that sends to a new subscriber the changes since its first
+     * snapshot if the scope was refreshed before it was registered, since
+     * that refresh didn't reach it. A refresh after its registration does,
+     * and it's queued before or after this one, never in between.
+     */
+    private void catchUp(Topic topic, Subscriber subscriber, LongFunction<OutputChanges> changes, long version) {
+        synchronized (topic) {
+            if (topic.version == version) {
+                return;
+            }
+
+            try {
+                OutputChanges missed = changes.apply(version);
+                if (missed.version() != version) {
+                    subscriber.offer(toEvent(missed));
+                }
+            } catch (RuntimeException ex) {
+                // It reconnects with the version of its snapshot.
+                LOGGER.warn("Could not catch up a subscriber of {}", topic.query, ex);
+                drop(subscriber);
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        synchronized (this) {
+            Topic topic = topics.get(subscriber.query);
+            if (topic == null || !topic.subscribers.remove(subscriber)) {
+                return;
+            }
+            subscribers--;
+            if (topic.subscribers.isEmpty()) {
+                topic.refresh.cancel(false);
+                topics.remove(subscriber.query);
+            }
+        }
+    }
+
+    /**
+     * Method that drops a subscriber which doesn't keep up with its events.
+     */
+    private void drop(Subscriber subscriber) {
+        metricsRegistry.counter("stream.dropped").increment();
+        LOGGER.info("Dropping a slow subscriber of {}", subscriber.query);
+        unsubscribe(subscriber);
+        subscriber.emitter.complete();
+    }
+
+    private Event toEvent(OutputChanges changes) {
+        try {
+            return new Event(Long.toString(changes.version()), changes.full() ? "snapshot" : "changes",
+                    objectMapper.writeValueAsString(changes));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Could not serialize the changes", ex);
+        }
+    }
+
+    /**
+     * Event already serialized, sent as is to every subscriber.
+     * 
+     * @param id   Version of the data set, or null for a heartbeat.
+     * @param name Name of the event.
+     * @param data Serialized OutputChanges, or null for a heartbeat.
+     */
+    private record Event(String id, String name, String data) {
+        private static final Event HEARTBEAT = new Event(null, null, null);
+
+        private SseEmitter.SseEventBuilder toSse() {
+            if (data == null) {
+                return SseEmitter.event().comment("");
+            }
+            return SseEmitter.event().id(id).name(name).data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+
+    /**
+     * Scope with subscribers, and the version of its last refresh.
+     */
+    private static final class Topic {
+        private final MeasurementQuery query;
+
+        private final LongFunction<OutputChanges> changes;
+
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+        private volatile long version;
+
+        private ScheduledFuture<?> refresh;
+
+        private Topic(MeasurementQuery query, LongFunction<OutputChanges> changes, long version) {
+            this.query = query;
+            this.changes = changes;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Subscription of a client, with its queue of events to send.
+     */
+    private final class Subscriber {
+        private final MeasurementQuery query;
+
+        private final SseEmitter emitter;
+
+        private final Queue<Event> events = new ArrayBlockingQueue<>(queueSize);
+
+        /**
+         * Flag which indicates if a task of the send executor is sending the
+         * events, so there is at most one for each subscriber.
+         */
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        private Subscriber(MeasurementQuery query, SseEmitter emitter) {
+            this.query = query;
+            this.emitter = emitter;
+        }
+
+        private void offer(Event event) {
+            if (!events.offer(event)) {
+                drop(this);
+                return;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (events.isEmpty() || !sending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sendExecutor.execute(this::send);
+            } catch (RejectedExecutionException ex) {
+                sending.set(false);
+                drop(this);
+            }
+        }
+
+        private void send() {
+            try {
+                Event event;
+                while ((event = events.poll()) != null) {
+                    emitter.send(event.toSse());
+                }
+            } catch (IOException | IllegalStateException ex) {
+                // The client went away, or the emitter is already completed.
+                unsubscribe(this);
+                events.clear();
+            } finally {
+                sending.set(false);
+            }
+            // An event may have been queued after the last poll.
+            schedule();
+        }
+    }
+}
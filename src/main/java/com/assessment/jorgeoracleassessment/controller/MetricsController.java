@@ -0,0 +1,32 @@
+package com.assessment.jorgeoracleassessment.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+
+/**
+ * Controller which exposes the metrics of the application to Prometheus,
+ * on the same path the Actuator endpoint uses, so the scrape configuration
+ * doesn't change if the application moves to it.
+ * 
+ * @author Jorge Gonzalez
+ */
+@RestController
+public class MetricsController {
+    public static final String PROMETHEUS_TEXT_VALUE = "text/plain;version=0.0.4;charset=utf-8";
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * Method mapped to the "/actuator/prometheus" path.
+     * 
+     * @return Every metric in the Prometheus text exposition format.
+     */
+    @GetMapping(value = "/actuator/prometheus", produces = PROMETHEUS_TEXT_VALUE)
+    public String scrape() {
+        return metricsRegistry.scrape();
+    }
+}
@@ -0,0 +1,81 @@
+package com.assessment.jorgeoracleassessment.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputSummary;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Writer of a data set as newline delimited JSON: one OutputRow per line
+ * and an OutputSummary as the last line. Each page is flushed as soon as
+ * it's written, so the response is sent chunked while the data set is
+ * still being crawled.
+ * 
+ * @author Jorge Gonzalez
+ */
+class NdjsonWriter {
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private final HttpServletResponse response;
+
+    private final ObjectMapper objectMapper;
+
+    private JsonGenerator generator;
+
+    NdjsonWriter(HttpServletResponse response, ObjectMapper objectMapper) {
+        this.response = response;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param rows Rows of a page.
+     * @throws UncheckedIOException If the client went away.
+     */
+    void writeRows(List<OutputRow> rows) {
+        try {
+            JsonGenerator out = generator();
+            for (OutputRow row : rows) {
+                out.writeObject(row);
+                out.writeRaw('\n');
+            }
+            out.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @param summary Summary written as the last line.
+     * @throws IOException If the client went away.
+     */
+    void writeSummary(OutputSummary summary) throws IOException {
+        JsonGenerator out = generator();
+        out.writeObject(summary);
+        out.writeRaw('\n');
+        out.close();
+    }
+
+    /**
+     * Method that starts the response the first time something is written,
+     * so errors thrown before it are still handled as usual.
+     */
+    private JsonGenerator generator() throws IOException {
+        if (generator == null) {
+            response.setContentType(APPLICATION_NDJSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            OutputStream body = response.getOutputStream();
+            generator = objectMapper.getFactory().createGenerator(body);
+            // Each value ends its own line, so nothing goes between them.
+            generator.setRootValueSeparator(null);
+        }
+
+        return generator;
+    }
+}
@@ -0,0 +1,42 @@
+package com.assessment.jorgeoracleassessment.controller;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON message converter which times how long each response body takes to
+ * be serialized and written, in the "http.serialization" timer with the
+ * "json" format.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class TimedJackson2HttpMessageConverter extends MappingJackson2HttpMessageConverter {
+    private final MetricsRegistry.Timer serialization;
+
+    /**
+     * @param objectMapper    ObjectMapper configured by Spring Boot.
+     * @param metricsRegistry Registry of the serialization timer.
+     */
+    public TimedJackson2HttpMessageConverter(ObjectMapper objectMapper, MetricsRegistry metricsRegistry) {
+        super(objectMapper);
+        this.serialization = metricsRegistry.timer("http.serialization", "format", "json");
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        long start = System.nanoTime();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            serialization.recordSince(start);
+        }
+    }
+}
@@ -6,7 +6,39 @@ package com.assessment.jorgeoracleassessment.models.input;
  * https://api.openaq.org/v2/locations API. Only relevant fields are 
  * declared.
  * 
+ * OpenAQ may send the found count as an estimate, such as ">1000", which is
+ * only a lower bound; then the number of results of the page tells if
+ * there may be more pages after the ones it accounts for.
+ * 
  * @author Jorge Gonzalez
  * @see https://api.openaq.org/v2/locations
  */
-public record InputMeta(int page, int limit, int found) {}
+public record InputMeta(int page, int limit, int found, boolean estimated, int results) {
+
+    /**
+     * Constructor for an exact found count.
+     * 
+     * @param page  Page number.
+     * @param limit Maximum number of results of each page.
+     * @param found Number of results of the query.
+     */
+    public InputMeta(int page, int limit, int found) {
+        this(page, limit, found, false, 0);
+    }
+
+    /**
+     * @return Number of pages the found count accounts for; at least one.
+     */
+    public int pages() {
+        return limit > 0 ? Math.max(1, (found + limit - 1) / limit) : 1;
+    }
+
+    /**
+     * @return Flag which indicates if there may be pages after the ones the
+     *         found count accounts for: it's an estimate and this page is
+     *         full.
+     */
+    public boolean hasMorePages() {
+        return estimated && limit > 0 && results >= limit;
+    }
+}
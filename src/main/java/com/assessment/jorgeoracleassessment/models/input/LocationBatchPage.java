@@ -0,0 +1,16 @@
+package com.assessment.jorgeoracleassessment.models.input;
+
+import java.util.Map;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+
+/**
+ * Compact representation of a page returned by OpenAQ's
+ * https://api.openaq.org/v2/locations API for several air quality
+ * parameters: its metadata and, for each parameter, a row for each location
+ * that reports it.
+ * 
+ * @author Jorge Gonzalez
+ * @see https://api.openaq.org/v2/locations
+ */
+public record LocationBatchPage(InputMeta meta, Map<String, MeasurementColumns> rows) {}
@@ -0,0 +1,25 @@
+package com.assessment.jorgeoracleassessment.models.input;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+
+/**
+ * Compact representation of a page returned by OpenAQ's
+ * https://api.openaq.org/v2/locations API: its metadata and a row for
+ * each location that reports the requested air quality parameter, with
+ * the station id and the country code of each row in parallel arrays.
+ * 
+ * @author Jorge Gonzalez
+ * @see https://api.openaq.org/v2/locations
+ */
+public record LocationPage(InputMeta meta, MeasurementColumns rows, int[] stationIds, String[] countryCodes) {
+
+    /**
+     * Constructor for pages whose station ids and countries are unknown.
+     * 
+     * @param meta Metadata of the page.
+     * @param rows Rows of the page.
+     */
+    public LocationPage(InputMeta meta, MeasurementColumns rows) {
+        this(meta, rows, new int[rows.size()], new String[rows.size()]);
+    }
+}
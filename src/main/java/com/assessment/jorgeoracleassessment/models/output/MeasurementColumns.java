@@ -0,0 +1,276 @@
+package com.assessment.jorgeoracleassessment.models.output;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Rows of a data set stored as primitive columns (latitude, longitude and
+ * value), so each row costs three doubles instead of an OutputRow and its
+ * two coordinate strings. The coordinates are parsed once, when the rows
+ * are added. Their text is only kept for the rows where it isn't the one
+ * Double.toString gives back (e.g. "19" or "0.0001"), so every row is
+ * rendered exactly as it was received.
+ * 
+ * It's also a list of OutputRow, whose rows are built on demand, so it can
+ * be used as the data set of an OutputResponse and serialized as before.
+ * 
+ * The hash of its content is computed once and kept until a row is added,
+ * so a cached data set isn't hashed again for each conditional request.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MeasurementColumns extends AbstractList<OutputRow> implements RandomAccess {
+    /**
+     * Estimated bytes used by each row.
+     */
+    public static final int ROW_BYTES = 3 * Double.BYTES;
+
+    /**
+     * Estimated bytes used by each coordinate text kept, besides its
+     * characters.
+     */
+    private static final int TEXT_BYTES = 48;
+
+    private double[] latitudes;
+
+    private double[] longitudes;
+
+    private double[] values;
+
+    /**
+     * Coordinates as they were received, for the rows whose text isn't the
+     * one Double.toString gives back; null until there's one.
+     */
+    private String[] latitudeTexts;
+
+    private String[] longitudeTexts;
+
+    /**
+     * Estimated bytes used by the texts kept.
+     */
+    private long textBytes;
+
+    private int size;
+
+    private long contentHash;
+
+    /**
+     * modCount when the content hash was computed. It's written after the
+     * hash, so a thread which reads it sees the hash too.
+     */
+    private volatile int hashedModCount = -1;
+
+    public MeasurementColumns() {
+        this(16);
+    }
+
+    /**
+     * @param capacity Expected number of rows.
+     */
+    public MeasurementColumns(int capacity) {
+        int initialCapacity = Math.max(capacity, 1);
+        latitudes = new double[initialCapacity];
+        longitudes = new double[initialCapacity];
+        values = new double[initialCapacity];
+    }
+
+    /**
+     * @param rows Rows of the data set.
+     * @return MeasurementColumns with the given rows.
+     */
+    public static MeasurementColumns of(OutputRow... rows) {
+        MeasurementColumns columns = new MeasurementColumns(rows.length);
+        for (OutputRow row : rows) {
+            columns.add(row);
+        }
+        return columns;
+    }
+
+    /**
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param value     Value of the air quality parameter.
+     */
+    public void add(double latitude, double longitude, double value) {
+        add(latitude, null, longitude, null, value);
+    }
+
+    /**
+     * @param latitude      decimal-degree latitude.
+     * @param latitudeText  Latitude as it was received, or null to render
+     *                      it with Double.toString.
+     * @param longitude     decimal-degree longitude.
+     * @param longitudeText Longitude as it was received, or null to render
+     *                      it with Double.toString.
+     * @param value         Value of the air quality parameter.
+     */
+    public void add(double latitude, String latitudeText, double longitude, String longitudeText, double value) {
+        if (size == values.length) {
+            int capacity = size + (size >> 1) + 1;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (latitudeTexts != null) {
+                latitudeTexts = Arrays.copyOf(latitudeTexts, capacity);
+                longitudeTexts = Arrays.copyOf(longitudeTexts, capacity);
+            }
+        }
+
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        values[size] = value;
+        keepText(latitude, latitudeText, longitude, longitudeText);
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(OutputRow row) {
+        add(Double.parseDouble(row.latitude()), row.latitude(), Double.parseDouble(row.longitude()),
+                row.longitude(), row.value());
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends OutputRow> rows) {
+        if (!(rows instanceof MeasurementColumns columns)) {
+            return super.addAll(rows);
+        }
+
+        for (int i = 0; i < columns.size; i++) {
+            add(columns, i);
+        }
+        return columns.size > 0;
+    }
+
+    /**
+     * @param columns Columns of another data set.
+     * @param index   Index of the row of the other data set to add, with its
+     *                coordinate texts.
+     */
+    public void add(MeasurementColumns columns, int index) {
+        columns.checkIndex(index);
+        add(columns.latitudes[index], columns.latitudeTexts == null ? null : columns.latitudeTexts[index],
+                columns.longitudes[index], columns.longitudeTexts == null ? null : columns.longitudeTexts[index],
+                columns.values[index]);
+    }
+
+    public double latitude(int index) {
+        return latitudes[checkIndex(index)];
+    }
+
+    public double longitude(int index) {
+        return longitudes[checkIndex(index)];
+    }
+
+    public double value(int index) {
+        return values[checkIndex(index)];
+    }
+
+    /**
+     * @param index Row index.
+     * @return Latitude of the row as it was received.
+     */
+    public String latitudeText(int index) {
+        checkIndex(index);
+        return latitudeTexts != null && latitudeTexts[index] != null ? latitudeTexts[index]
+                : Double.toString(latitudes[index]);
+    }
+
+    /**
+     * @param index Row index.
+     * @return Longitude of the row as it was received.
+     */
+    public String longitudeText(int index) {
+        checkIndex(index);
+        return longitudeTexts != null && longitudeTexts[index] != null ? longitudeTexts[index]
+                : Double.toString(longitudes[index]);
+    }
+
+    /**
+     * @param index Row index.
+     * @return OutputRow built from the columns.
+     */
+    @Override
+    public OutputRow get(int index) {
+        return new OutputRow(latitudeText(index), longitudeText(index), values[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Estimated bytes used by the rows.
+     */
+    public long sizeInBytes() {
+        long texts = latitudeTexts == null ? 0 : 2L * Long.BYTES * latitudeTexts.length + textBytes;
+        return (long) values.length * ROW_BYTES + texts;
+    }
+
+    /**
+     * @return 64-bit hash of the rows, in order.
+     */
+    public long contentHash() {
+        if (hashedModCount != modCount) {
+            long hash = size;
+            for (int i = 0; i < size; i++) {
+                hash = mix(hash, Double.doubleToLongBits(latitudes[i]));
+                hash = mix(hash, Double.doubleToLongBits(longitudes[i]));
+                hash = mix(hash, Double.doubleToLongBits(values[i]));
+                if (latitudeTexts != null) {
+                    hash = mix(hash, Objects.hashCode(latitudeTexts[i]));
+                    hash = mix(hash, Objects.hashCode(longitudeTexts[i]));
+                }
+            }
+            contentHash = hash;
+            hashedModCount = modCount;
+        }
+        return contentHash;
+    }
+
+    /**
+     * @return Hash with the value mixed in, so swapped values give different
+     *         hashes.
+     */
+    static long mix(long hash, long value) {
+        long mixed = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return mixed ^ (mixed >>> 29);
+    }
+
+    /**
+     * Method that keeps the texts of the row being added if they aren't the
+     * ones Double.toString gives back.
+     */
+    private void keepText(double latitude, String latitudeText, double longitude, String longitudeText) {
+        boolean keepLatitude = latitudeText != null && !latitudeText.equals(Double.toString(latitude));
+        boolean keepLongitude = longitudeText != null && !longitudeText.equals(Double.toString(longitude));
+        if (!keepLatitude && !keepLongitude) {
+            if (latitudeTexts != null) {
+                latitudeTexts[size] = null;
+                longitudeTexts[size] = null;
+            }
+            return;
+        }
+
+        if (latitudeTexts == null) {
+            latitudeTexts = new String[values.length];
+            longitudeTexts = new String[values.length];
+        }
+        latitudeTexts[size] = keepLatitude ? latitudeText : null;
+        longitudeTexts[size] = keepLongitude ? longitudeText : null;
+        textBytes += (keepLatitude ? TEXT_BYTES + latitudeText.length() : 0)
+                + (keepLongitude ? TEXT_BYTES + longitudeText.length() : 0);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,16 @@
+package com.assessment.jorgeoracleassessment.models.output;
+
+import java.util.List;
+
+/**
+ * Representation of the changes of a data set since a version the frontend
+ * already holds: the rows added, the rows whose value changed and the rows
+ * removed, along with the statistics of the whole current data set. If the
+ * version is unknown or too old, it's a full snapshot instead, with every
+ * row as added.
+ * 
+ * @author Jorge Gonzalez
+ */
+public record OutputChanges(String parameter, String displayName, long version, long since, boolean full,
+        double min, double max, OutputStats stats, List<OutputRow> added, List<OutputRow> changed,
+        List<OutputRow> removed) {}
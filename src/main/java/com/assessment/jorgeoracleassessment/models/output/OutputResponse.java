@@ -1,13 +1,55 @@
 package com.assessment.jorgeoracleassessment.models.output;
 
 import java.util.List;
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 /**
  * Representation each data set returned to frontend in order to build
- * the heat map.
+ * the heat map, along with the statistics of its values. If the data set
+ * couldn't be crawled again and the last known one is returned instead, it's
+ * flagged as stale with its age in seconds.
+ * 
+ * Its content hash identifies the response for the ETag of the
+ * conditional requests.
  * 
  * @author Jorge Gonzalez
  */
 public record OutputResponse(double min, double max, String parameter,
-        String displayName, List<OutputRow> dataSet) {
+        String displayName, OutputStats stats, List<OutputRow> dataSet,
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT) boolean stale,
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT) long age) {
+
+    public OutputResponse(double min, double max, String parameter, String displayName, OutputStats stats,
+            List<OutputRow> dataSet) {
+        this(min, max, parameter, displayName, stats, dataSet, false, 0);
+    }
+
+    /**
+     * @param age Seconds since the data set was crawled.
+     * @return Copy of this OutputResponse flagged as stale.
+     */
+    public OutputResponse asStale(long age) {
+        return new OutputResponse(min, max, parameter, displayName, stats, dataSet, true, age);
+    }
+
+    /**
+     * @return 64-bit hash of every field. The rows of a MeasurementColumns
+     *         data set are hashed only once.
+     */
+    public long contentHash() {
+        long hash = MeasurementColumns.mix(Double.doubleToLongBits(min), Double.doubleToLongBits(max));
+        hash = MeasurementColumns.mix(hash, Objects.hash(parameter, displayName, stats, stale, age));
+
+        if (dataSet instanceof MeasurementColumns columns) {
+            return MeasurementColumns.mix(hash, columns.contentHash());
+        }
+        if (dataSet != null) {
+            for (OutputRow row : dataSet) {
+                hash = MeasurementColumns.mix(hash, row.hashCode());
+            }
+        }
+        return hash;
+    }
 }
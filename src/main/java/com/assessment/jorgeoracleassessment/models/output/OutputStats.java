@@ -0,0 +1,11 @@
+package com.assessment.jorgeoracleassessment.models.output;
+
+/**
+ * Representation of the statistics of the values of a data set returned to
+ * frontend, so it can choose a colour scale without going through the
+ * rows. The percentiles are approximate; every field is 0 if the data set
+ * is empty.
+ * 
+ * @author Jorge Gonzalez
+ */
+public record OutputStats(int count, double min, double max, double mean, double p50, double p95, double p99) {}
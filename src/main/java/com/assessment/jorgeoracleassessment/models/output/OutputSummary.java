@@ -0,0 +1,10 @@
+package com.assessment.jorgeoracleassessment.models.output;
+
+/**
+ * Representation of the summary sent to frontend after all the rows of a
+ * streamed data set, along with the statistics of its values.
+ * 
+ * @author Jorge Gonzalez
+ */
+public record OutputSummary(String parameter, String displayName, int count, double min, double max,
+        OutputStats stats) {}
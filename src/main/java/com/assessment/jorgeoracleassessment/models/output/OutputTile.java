@@ -0,0 +1,14 @@
+package com.assessment.jorgeoracleassessment.models.output;
+
+import java.util.List;
+
+/**
+ * Representation of a map tile returned to frontend: the measurements of
+ * the tile binned in a grid of gridSize x gridSize cells, with the
+ * aggregates of the cells which have stations. The tiles follow the
+ * Web Mercator "z/x/y" scheme.
+ * 
+ * @author Jorge Gonzalez
+ */
+public record OutputTile(String parameter, String displayName, long version, int zoom, int x, int y, int gridSize,
+        List<OutputTileCell> cells) {}
@@ -0,0 +1,10 @@
+package com.assessment.jorgeoracleassessment.models.output;
+
+/**
+ * Representation of each non-empty cell of a tile returned to frontend:
+ * its column and row inside the tile, starting from the top-left corner,
+ * and the aggregates of the stations in it.
+ * 
+ * @author Jorge Gonzalez
+ */
+public record OutputTileCell(int column, int row, int count, double max, double mean) {}
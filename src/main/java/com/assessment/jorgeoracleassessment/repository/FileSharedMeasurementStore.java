@@ -0,0 +1,247 @@
+package com.assessment.jorgeoracleassessment.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.HexFormat;
+import java.util.UUID;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * SharedMeasurementStore kept in a directory every instance mounts, such as
+ * a network file system or a volume shared by the containers of a host. It
+ * also stands in for a remote store in the tests.
+ * 
+ * Each key is stored as a JSON file named after its SHA-256, with the time
+ * it was crawled as its first field, so the version of a file is read
+ * without parsing the rows. The files are written to a temporary file which
+ * is renamed over the previous one, so a reader never sees a partial write.
+ * 
+ * The lease of a key is a file with its expiry and the token of the store
+ * which holds it as its content. It's written to a temporary file which is
+ * linked to the lease file, which fails if there's one already, so two
+ * stores never both acquire it. An expired lease, and a lease released by
+ * its holder, is first renamed to a name of its own, which only one store
+ * can do, and deleted if it's still the lease it read; otherwise it's put
+ * back. The versions are best effort: two instances may still crawl the
+ * same key at once when a lease expires before its crawl ends, and the older
+ * of their writes may land last, but the data set is only refreshed again
+ * sooner.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class FileSharedMeasurementStore implements SharedMeasurementStore {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Path directory;
+
+    private final long leaseTime;
+
+    private final Clock clock;
+
+    /**
+     * Token of the leases held by this store.
+     */
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * @param directory Directory of the files, created on the first write.
+     * @param leaseTime Time, in milliseconds, a lease is held.
+     * @param clock     Clock used to expire the leases.
+     */
+    public FileSharedMeasurementStore(Path directory, long leaseTime, Clock clock) {
+        this.directory = directory;
+        this.leaseTime = leaseTime;
+        this.clock = clock;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public SharedMeasurement get(String key) {
+        StoredMeasurement stored;
+        try {
+            stored = OBJECT_MAPPER.readValue(Files.readAllBytes(file(key, ".json")), StoredMeasurement.class);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        OutputResponse value = stored.value();
+        MeasurementColumns rows = new MeasurementColumns(value.dataSet().size());
+        rows.addAll(value.dataSet());
+        return new SharedMeasurement(new OutputResponse(value.min(), value.max(), value.parameter(),
+                value.displayName(), value.stats(), rows), stored.loadedAt());
+    }
+
+    @Override
+    public void put(String key, SharedMeasurement measurement) {
+        Path path = file(key, ".json");
+        try {
+            Files.createDirectories(directory);
+            if (readLoadedAt(path) <= measurement.loadedAt()) {
+                Path temporary = temporary(path);
+                try {
+                    OBJECT_MAPPER.writeValue(temporary.toFile(),
+                            new StoredMeasurement(measurement.loadedAt(), measurement.value()));
+                    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public boolean tryLease(String key) {
+        Path lease = file(key, ".lease");
+        try {
+            Files.createDirectories(directory);
+            long now = clock.millis();
+            String held = readLease(lease);
+            if (held != null && (expiry(lease, held) > now || !remove(lease, held))) {
+                return false;
+            }
+
+            Path temporary = temporary(lease);
+            try {
+                Files.writeString(temporary, (now + leaseTime) + " " + owner);
+                Files.createLink(lease, temporary);
+                return true;
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (FileAlreadyExistsException ex) {
+            // Another instance acquired it in between.
+            return false;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void releaseLease(String key) {
+        Path lease = file(key, ".lease");
+        try {
+            String held = readLease(lease);
+            if (held != null && held.endsWith(" " + owner)) {
+                remove(lease, held);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Method that deletes a lease only if it's still the one read: it's
+     * renamed first, so no other store can acquire it meanwhile, and put
+     * back if another store replaced it in between.
+     * 
+     * @return Flag which indicates if the lease was deleted, or there was
+     *         none.
+     */
+    private boolean remove(Path lease, String held) throws IOException {
+        Path removed = temporary(lease);
+        try {
+            Files.move(lease, removed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException ex) {
+            // Another store removed it first.
+            return true;
+        }
+
+        try {
+            if (held.equals(Files.readString(removed).trim())) {
+                return true;
+            }
+            try {
+                Files.createLink(lease, removed);
+            } catch (FileAlreadyExistsException ex) {
+                // Another store acquired it again; that one is kept.
+            }
+            return false;
+        } finally {
+            Files.deleteIfExists(removed);
+        }
+    }
+
+    /**
+     * @return Version of the file, or Long.MIN_VALUE if it doesn't exist or
+     *         it can't be read.
+     */
+    private static long readLoadedAt(Path path) {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(path.toFile())) {
+            if (parser.nextToken() == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.FIELD_NAME
+                    && "loadedAt".equals(parser.currentName()) && parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                return parser.getLongValue();
+            }
+        } catch (IOException ex) {
+            // Missing or corrupted, so any version replaces it.
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * @return Content of the lease, or null if there's none.
+     */
+    private static String readLease(Path lease) throws IOException {
+        try {
+            return Files.readString(lease).trim();
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Expiry of the lease. A lease which can't be parsed is held
+     *         until it's as old as the lease time.
+     */
+    private long expiry(Path lease, String held) throws IOException {
+        try {
+            return Long.parseLong(held.split(" ", 2)[0]);
+        } catch (NumberFormatException ex) {
+            try {
+                return Files.getLastModifiedTime(lease).toMillis() + leaseTime;
+            } catch (NoSuchFileException deleted) {
+                return 0;
+            }
+        }
+    }
+
+    private Path temporary(Path path) {
+        return directory.resolve(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    private Path file(String key, String extension) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(digest) + extension);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Content of a file: the version first, so it's read on its own.
+     */
+    private record StoredMeasurement(long loadedAt, OutputResponse value) {
+    }
+}
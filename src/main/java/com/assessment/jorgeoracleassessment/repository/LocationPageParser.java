@@ -0,0 +1,325 @@
+package com.assessment.jorgeoracleassessment.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.assessment.jorgeoracleassessment.models.input.InputMeta;
+import com.assessment.jorgeoracleassessment.models.input.LocationBatchPage;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming parser of the pages returned by OpenAQ's
+ * https://api.openaq.org/v2/locations API. It reads the response in a
+ * single pass and keeps only the coordinates and the last value of the
+ * requested air quality parameters of each location, parsed straight into
+ * primitive columns, along with the station id and the country of the
+ * location, so the rest of the location fields and parameters are never
+ * materialized.
+ * 
+ * The found count of the metadata is flagged when it's an estimate, and the
+ * number of results of the page is counted, so the crawler knows whether to
+ * keep requesting pages. The locations without an id are skipped from the
+ * pages of stations, since their rows couldn't be told apart from the other
+ * stations.
+ * 
+ * @author Jorge Gonzalez
+ * @see https://api.openaq.org/v2/locations
+ */
+public final class LocationPageParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private LocationPageParser() {
+    }
+
+    /**
+     * @param body      Response body of the locations API.
+     * @param parameter Air quality parameter whose last value is kept.
+     * @return LocationPage with the metadata of the page and a row, a
+     *         station id and a country code for each location with an id
+     *         which reports the air quality parameter.
+     * @throws IOException If the body can't be read or it isn't a locations
+     *                     page.
+     */
+    public static LocationPage parse(InputStream body, String parameter) throws IOException {
+        Stations stations = new Stations();
+        InputMeta meta = parse(body, List.of(parameter), location -> {
+            if (location.reported[0] && location.identified) {
+                stations.add(location.id, location.country, location, location.values[0]);
+            }
+        });
+
+        return stations.toPage(meta);
+    }
+
+    /**
+     * @param body       Response body of the locations API.
+     * @param parameters Air quality parameters whose last values are kept.
+     * @return LocationBatchPage with the metadata of the page and, for each
+     *         air quality parameter, a row for each location which reports
+     *         it.
+     * @throws IOException If the body can't be read or it isn't a locations
+     *                     page.
+     */
+    public static LocationBatchPage parseBatch(InputStream body, List<String> parameters) throws IOException {
+        MeasurementColumns[] columns = new MeasurementColumns[parameters.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new MeasurementColumns();
+        }
+
+        InputMeta meta = parse(body, parameters, location -> {
+            for (int i = 0; i < columns.length; i++) {
+                if (location.reported[i]) {
+                    columns[i].add(location.latitude, location.latitudeText, location.longitude,
+                            location.longitudeText, location.values[i]);
+                }
+            }
+        });
+
+        Map<String, MeasurementColumns> rows = new LinkedHashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            rows.put(parameters.get(i), columns[i]);
+        }
+
+        return new LocationBatchPage(meta, rows);
+    }
+
+    /**
+     * Method that parses a page and sends each location with coordinates to
+     * the consumer. The same Location is reused for every location.
+     */
+    private static InputMeta parse(InputStream body, List<String> parameters, Consumer<Location> consumer)
+            throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            InputMeta meta = null;
+            int results = 0;
+            Location location = new Location(parameters);
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                if ("meta".equals(field) && token == JsonToken.START_OBJECT) {
+                    meta = parseMeta(parser);
+                } else if ("results".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        results++;
+                        parseLocation(parser, location);
+                        if (!Double.isNaN(location.latitude) && !Double.isNaN(location.longitude)) {
+                            consumer.accept(location);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (meta == null) {
+                throw new JsonParseException(parser, "Locations page without metadata");
+            }
+
+            return new InputMeta(meta.page(), meta.limit(), meta.found(), meta.estimated(), results);
+        }
+    }
+
+    private static InputMeta parseMeta(JsonParser parser) throws IOException {
+        int page = 0, limit = 0, found = 0;
+        boolean estimated = false;
+
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (field) {
+                case "page" -> page = parseCount(parser);
+                case "limit" -> limit = parseCount(parser);
+                case "found" -> {
+                    estimated = isEstimate(parser);
+                    found = parseCount(parser);
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        return new InputMeta(page, limit, found, estimated, 0);
+    }
+
+    /**
+     * Method that parses a location and the last value of each air quality
+     * parameter it reports. The coordinates and the parameters can come in
+     * any order.
+     */
+    private static void parseLocation(JsonParser parser, Location location) throws IOException {
+        location.reset();
+
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken token = parser.nextToken();
+            if ("id".equals(field)) {
+                location.identified = token == JsonToken.VALUE_NUMBER_INT
+                        || token == JsonToken.VALUE_STRING && parser.getText().matches("\\d+");
+                location.id = parser.getValueAsInt();
+            } else if ("country".equals(field)) {
+                location.country = parser.getValueAsString();
+            } else if ("coordinates".equals(field) && token == JsonToken.START_OBJECT) {
+                String coordinate;
+                while ((coordinate = parser.nextFieldName()) != null) {
+                    parser.nextToken();
+                    switch (coordinate) {
+                        case "latitude" -> {
+                            location.latitude = parseCoordinate(parser);
+                            location.latitudeText = parser.getText();
+                        }
+                        case "longitude" -> {
+                            location.longitude = parseCoordinate(parser);
+                            location.longitudeText = parser.getText();
+                        }
+                        default -> parser.skipChildren();
+                    }
+                }
+            } else if ("parameters".equals(field) && token == JsonToken.START_ARRAY) {
+                // In theory, by passing the air quality parameter, OpenAQ
+                // should give us only one parameter for each location.
+                // However, that doesn't happen. So we must filter by
+                // ourselves.
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String measureParameter = null;
+                    double measureValue = 0;
+
+                    String measureField;
+                    while ((measureField = parser.nextFieldName()) != null) {
+                        parser.nextToken();
+                        switch (measureField) {
+                            case "parameter" -> measureParameter = parser.getValueAsString();
+                            case "lastValue" -> measureValue = parser.getValueAsDouble();
+                            default -> parser.skipChildren();
+                        }
+                    }
+
+                    location.report(measureParameter, measureValue);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Fields of the location being parsed, with the last value of each of the
+     * requested air quality parameters.
+     */
+    private static final class Location {
+        private final List<String> parameters;
+        private final double[] values;
+        private final boolean[] reported;
+        private int id;
+        private boolean identified;
+        private String country;
+        private double latitude;
+        private double longitude;
+        private String latitudeText;
+        private String longitudeText;
+
+        private Location(List<String> parameters) {
+            this.parameters = parameters;
+            this.values = new double[parameters.size()];
+            this.reported = new boolean[parameters.size()];
+        }
+
+        private void reset() {
+            id = 0;
+            identified = false;
+            country = null;
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+            latitudeText = null;
+            longitudeText = null;
+            Arrays.fill(reported, false);
+        }
+
+        /**
+         * Method that keeps the first value reported of a requested air
+         * quality parameter.
+         */
+        private void report(String parameter, double value) {
+            int index = parameter == null ? -1 : parameters.indexOf(parameter);
+            if (index >= 0 && !reported[index]) {
+                reported[index] = true;
+                values[index] = value;
+            }
+        }
+    }
+
+    /**
+     * Rows of a page being parsed, with the station id and the country of
+     * each one in parallel arrays.
+     */
+    private static final class Stations {
+        private final MeasurementColumns rows = new MeasurementColumns();
+        private int[] ids = new int[16];
+        private String[] countries = new String[16];
+
+        private void add(int id, String country, Location location, double value) {
+            int size = rows.size();
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                countries = Arrays.copyOf(countries, size * 2);
+            }
+
+            ids[size] = id;
+            countries[size] = country;
+            rows.add(location.latitude, location.latitudeText, location.longitude, location.longitudeText, value);
+        }
+
+        private LocationPage toPage(InputMeta meta) {
+            int size = rows.size();
+            return new LocationPage(meta, rows, Arrays.copyOf(ids, size), Arrays.copyOf(countries, size));
+        }
+    }
+
+    /**
+     * Method that parses a coordinate, which OpenAQ may send as a number or
+     * as a string.
+     * 
+     * @return The coordinate, or NaN if it's null.
+     */
+    private static double parseCoordinate(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? Double.NaN : parser.getValueAsDouble(Double.NaN);
+    }
+
+    /**
+     * Method that parses a count of the metadata. OpenAQ may send it as a
+     * string such as ">1000" when it's an estimate, which is read as its
+     * lower bound.
+     */
+    private static int parseCount(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            String digits = parser.getText().replaceAll("\\D", "");
+            return digits.isEmpty() ? 0 : Integer.parseInt(digits);
+        }
+
+        return parser.getValueAsInt();
+    }
+
+    /**
+     * @return Flag which indicates if a count of the metadata is a string
+     *         other than plain digits, such as ">1000".
+     */
+    private static boolean isEstimate(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_STRING && !parser.getText().trim().matches("\\d+");
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.assessment.jorgeoracleassessment.repository;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+
+/**
+ * Immutable snapshot of the last value of every station for a set of air
+ * quality parameters, stored by columns in a single off-heap buffer so the
+ * global dataset doesn't live in the heap. The stations are sorted by
+ * country, so the stations of a country are a contiguous range.
+ * 
+ * Layout of the buffer, in little-endian:
+ * 
+ * <pre>
+ * header:      magic "AQSN" (int), format (int), version (long),
+ *              created at (long), stations (int), parameters (int)
+ * parameters:  for each one, its UTF-8 length (short) and its name
+ * columns:     station ids (int[]), country codes (short[]),
+ *              latitudes (double[]), longitudes (double[]) and a values
+ *              column (double[]) for each parameter, NaN where the station
+ *              doesn't report it. Every column starts 8-byte aligned.
+ * </pre>
+ * 
+ * @author Jorge Gonzalez
+ */
+public final class MeasurementSnapshot {
+    /**
+     * "AQSN" in little-endian.
+     */
+    public static final int MAGIC = 0x4E535141;
+
+    public static final int FORMAT = 1;
+
+    private static final int HEADER_BYTES = 32;
+
+    private final ByteBuffer buffer;
+
+    private final long version;
+
+    private final long createdAt;
+
+    private final int size;
+
+    private final List<String> parameters;
+
+    private final Map<String, Integer> parameterIndexes;
+
+    private final int idsOffset;
+
+    private final int countriesOffset;
+
+    private final int latitudesOffset;
+
+    private final int longitudesOffset;
+
+    private final int valuesOffset;
+
+    private MeasurementSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IllegalArgumentException("Not a measurement snapshot");
+        }
+        this.version = buffer.getLong(8);
+        this.createdAt = buffer.getLong(16);
+        this.size = buffer.getInt(24);
+        int parameterCount = buffer.getInt(28);
+
+        List<String> names = new ArrayList<>(parameterCount);
+        Map<String, Integer> indexes = new HashMap<>();
+        int offset = HEADER_BYTES;
+        for (int i = 0; i < parameterCount; i++) {
+            byte[] name = new byte[Short.toUnsignedInt(buffer.getShort(offset))];
+            buffer.get(offset + 2, name);
+            offset += 2 + name.length;
+
+            names.add(new String(name, StandardCharsets.UTF_8));
+            indexes.put(names.get(i), i);
+        }
+        this.parameters = Collections.unmodifiableList(names);
+        this.parameterIndexes = indexes;
+
+        this.idsOffset = align(offset);
+        this.countriesOffset = align(idsOffset + Integer.BYTES * size);
+        this.latitudesOffset = align(countriesOffset + Short.BYTES * size);
+        this.longitudesOffset = latitudesOffset + Double.BYTES * size;
+        this.valuesOffset = longitudesOffset + Double.BYTES * size;
+
+        if ((long) valuesOffset + (long) Double.BYTES * size * parameterCount > buffer.capacity()) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    /**
+     * Method that reads a snapshot from a buffer with its layout, without
+     * copying it.
+     * 
+     * @param buffer Buffer with the snapshot.
+     * @return MeasurementSnapshot backed by the buffer.
+     * @throws IllegalArgumentException If the buffer isn't a snapshot.
+     * @throws BufferUnderflowException If the buffer is truncated.
+     */
+    public static MeasurementSnapshot wrap(ByteBuffer buffer) {
+        return new MeasurementSnapshot(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * @return Read-only view of the buffer with the snapshot.
+     */
+    public ByteBuffer buffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN).clear();
+    }
+
+    /**
+     * @return Version of the snapshot, which grows with each ingestion.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return Time, in epoch milliseconds, the snapshot was built.
+     */
+    public long createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return Number of stations.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Air quality parameters of the snapshot.
+     */
+    public List<String> parameters() {
+        return parameters;
+    }
+
+    /**
+     * @param parameter Air quality parameter
+     * @return Flag which indicates if the snapshot has a values column for
+     *         the parameter.
+     */
+    public boolean hasParameter(String parameter) {
+        return parameterIndexes.containsKey(parameter);
+    }
+
+    /**
+     * @param parameter Air quality parameter
+     * @return Index of the values column of the parameter, or -1 if the
+     *         snapshot doesn't have it.
+     */
+    public int parameterIndex(String parameter) {
+        Integer index = parameterIndexes.get(parameter);
+        return index == null ? -1 : index;
+    }
+
+    public int stationId(int station) {
+        return buffer.getInt(idsOffset + Integer.BYTES * station);
+    }
+
+    /**
+     * @return ISO 3166-1 country code of the station, or null if it's
+     *         unknown.
+     */
+    public String countryCode(int station) {
+        return decodeCountry(buffer.getShort(countriesOffset + Short.BYTES * station));
+    }
+
+    public double latitude(int station) {
+        return buffer.getDouble(latitudesOffset + Double.BYTES * station);
+    }
+
+    public double longitude(int station) {
+        return buffer.getDouble(longitudesOffset + Double.BYTES * station);
+    }
+
+    /**
+     * @return Last value of the parameter in the station, or NaN if it
+     *         doesn't report it.
+     */
+    public double value(String parameter, int station) {
+        Integer index = parameterIndexes.get(parameter);
+        return index == null ? Double.NaN : buffer.getDouble(valueOffset(index, station));
+    }
+
+    /**
+     * @param parameterIndex Index of the values column of the parameter.
+     * @return Last value of the parameter in the station, or NaN if it
+     *         doesn't report it.
+     */
+    public double value(int parameterIndex, int station) {
+        return buffer.getDouble(valueOffset(parameterIndex, station));
+    }
+
+    /**
+     * Method that retrieves a row for every station which reports the air
+     * quality parameter.
+     * 
+     * @param parameter Air quality parameter
+     * @return MeasurementColumns with the rows, empty if the snapshot doesn't
+     *         have the parameter.
+     */
+    public MeasurementColumns rows(String parameter) {
+        return rows(parameter, 0, size);
+    }
+
+    /**
+     * Method that retrieves a row for every station of a country which
+     * reports the air quality parameter.
+     * 
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @return MeasurementColumns with the rows, empty if the snapshot doesn't
+     *         have the parameter.
+     */
+    public MeasurementColumns byCountry(String parameter, String countryCode) {
+        short country = encodeCountry(countryCode);
+        if (country == 0) {
+            return new MeasurementColumns();
+        }
+
+        int from = firstStation(country);
+        int to = firstStation((short) (country + 1));
+
+        return rows(parameter, from, to);
+    }
+
+    private MeasurementColumns rows(String parameter, int from, int to) {
+        MeasurementColumns rows = new MeasurementColumns();
+        Integer index = parameterIndexes.get(parameter);
+        if (index == null) {
+            return rows;
+        }
+
+        for (int station = from; station < to; station++) {
+            double value = buffer.getDouble(valueOffset(index, station));
+            if (!Double.isNaN(value)) {
+                rows.add(latitude(station), longitude(station), value);
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * @return Index of the first station whose country code is greater or
+     *         equal than the given one.
+     */
+    private int firstStation(short country) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getShort(countriesOffset + Short.BYTES * middle) < country) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private int valueOffset(int parameter, int station) {
+        return valuesOffset + Double.BYTES * (parameter * size + station);
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * Method that packs a two-letter country code in a short, so the codes
+     * sort as their strings do.
+     * 
+     * @return Packed country code, or 0 if it's not a two-letter code.
+     */
+    private static short encodeCountry(String countryCode) {
+        if (countryCode == null || countryCode.length() != 2) {
+            return 0;
+        }
+
+        char first = Character.toUpperCase(countryCode.charAt(0));
+        char second = Character.toUpperCase(countryCode.charAt(1));
+        if (first < 'A' || first > 'Z' || second < 'A' || second > 'Z') {
+            return 0;
+        }
+
+        return (short) (first << 8 | second);
+    }
+
+    private static String decodeCountry(short country) {
+        return country == 0 ? null : new String(new char[] { (char) (country >>> 8), (char) (country & 0xFF) });
+    }
+
+    /**
+     * Builder which merges the pages of locations of each air quality
+     * parameter by station id. The stations are gathered in the heap and
+     * written off-heap once, when the snapshot is built.
+     */
+    public static final class Builder {
+        private final List<String> parameters = new ArrayList<>();
+
+        private final Map<Integer, Integer> stations = new HashMap<>();
+
+        private int size;
+
+        private int[] ids = new int[1024];
+
+        private short[] countries = new short[1024];
+
+        private double[] latitudes = new double[1024];
+
+        private double[] longitudes = new double[1024];
+
+        private final List<double[]> values = new ArrayList<>();
+
+        /**
+         * Method that adds the rows of a page of locations of an air quality
+         * parameter. The first coordinates and country seen for a station
+         * are kept.
+         * 
+         * @param parameter Air quality parameter
+         * @param page      Page of locations of the parameter.
+         * @return This builder.
+         */
+        public Builder add(String parameter, LocationPage page) {
+            double[] column = column(parameter);
+
+            MeasurementColumns rows = page.rows();
+            for (int i = 0; i < rows.size(); i++) {
+                int station = station(page.stationIds()[i], page.countryCodes()[i], rows.latitude(i),
+                        rows.longitude(i));
+                if (station >= column.length) {
+                    column = column(parameter);
+                }
+                column[station] = rows.value(i);
+            }
+
+            return this;
+        }
+
+        /**
+         * Method that writes the stations to an off-heap buffer, sorted by
+         * country and station id.
+         * 
+         * @param version   Version of the snapshot.
+         * @param createdAt Time, in epoch milliseconds, the snapshot is built.
+         * @return MeasurementSnapshot with the stations added.
+         */
+        public MeasurementSnapshot build(long version, long createdAt) {
+            parameters.forEach(this::column);
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> countries[a] != countries[b]
+                    ? Short.compare(countries[a], countries[b])
+                    : Integer.compare(ids[a], ids[b]));
+
+            List<byte[]> names = new ArrayList<>();
+            int offset = HEADER_BYTES;
+            for (String parameter : parameters) {
+                byte[] name = parameter.getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                offset += 2 + name.length;
+            }
+            int idsOffset = align(offset);
+            int countriesOffset = align(idsOffset + Integer.BYTES * size);
+            int latitudesOffset = align(countriesOffset + Short.BYTES * size);
+            int longitudesOffset = latitudesOffset + Double.BYTES * size;
+            int valuesOffset = longitudesOffset + Double.BYTES * size;
+            long capacity = valuesOffset + (long) Double.BYTES * size * parameters.size();
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Snapshot of " + capacity + " bytes is too large");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC).putInt(4, FORMAT).putLong(8, version).putLong(16, createdAt)
+                    .putInt(24, size).putInt(28, parameters.size());
+            offset = HEADER_BYTES;
+            for (byte[] name : names) {
+                buffer.putShort(offset, (short) name.length).put(offset + 2, name);
+                offset += 2 + name.length;
+            }
+
+            for (int i = 0; i < size; i++) {
+                int station = order[i];
+                buffer.putInt(idsOffset + Integer.BYTES * i, ids[station]);
+                buffer.putShort(countriesOffset + Short.BYTES * i, countries[station]);
+                buffer.putDouble(latitudesOffset + Double.BYTES * i, latitudes[station]);
+                buffer.putDouble(longitudesOffset + Double.BYTES * i, longitudes[station]);
+                for (int parameter = 0; parameter < values.size(); parameter++) {
+                    buffer.putDouble(valuesOffset + Double.BYTES * (parameter * size + i),
+                            values.get(parameter)[station]);
+                }
+            }
+
+            return new MeasurementSnapshot(buffer);
+        }
+
+        /**
+         * @return Values column of the parameter, created with NaN values
+         *         the first time and grown along with the stations.
+         */
+        private double[] column(String parameter) {
+            int index = parameters.indexOf(parameter);
+            if (index < 0) {
+                parameters.add(parameter);
+                values.add(newColumn(0));
+                index = parameters.size() - 1;
+            }
+
+            double[] column = values.get(index);
+            if (column.length < ids.length) {
+                column = Arrays.copyOf(column, ids.length);
+                Arrays.fill(column, values.get(index).length, column.length, Double.NaN);
+                values.set(index, column);
+            }
+
+            return column;
+        }
+
+        private double[] newColumn(int length) {
+            double[] column = new double[length];
+            Arrays.fill(column, Double.NaN);
+            return column;
+        }
+
+        /**
+         * @return Index of the station, added if it wasn't seen before.
+         */
+        private int station(int id, String countryCode, double latitude, double longitude) {
+            Integer station = stations.get(id);
+            if (station != null) {
+                return station;
+            }
+
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                countries = Arrays.copyOf(countries, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+            }
+
+            ids[size] = id;
+            countries[size] = encodeCountry(countryCode);
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            stations.put(id, size);
+
+            return size++;
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.assessment.jorgeoracleassessment.repository;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import com.assessment.jorgeoracleassessment.models.input.InputParameters;
 import com.assessment.jorgeoracleassessment.models.input.InputResponse;
+import com.assessment.jorgeoracleassessment.models.input.LocationBatchPage;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
 
 /**
  * Interface for the
@@ -24,6 +29,42 @@ public interface OpenAQClient {
     public InputResponse getLocations(String parameter, String countryCode, String latitude, String longitude,
             int radius, int page);
 
+    /**
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param latitude    decimal-degree latitude.
+     * @param longitude   decimal-degree longitude.
+     * @param radius      Radius of the previously setted coordinates in meters.
+     * @param page        Result page.
+     * @return LocationPage with a row for each location of the page which
+     *         reports the air quality parameter. If only the air quality
+     *         parameter is given, the locations of every country are returned.
+     */
+    public LocationPage getLocationPage(String parameter, String countryCode, String latitude, String longitude,
+            int radius, int page);
+
+    /**
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param latitude    decimal-degree latitude.
+     * @param longitude   decimal-degree longitude.
+     * @param radius      Radius of the previously setted coordinates in meters.
+     * @param page        Result page.
+     * @return Future of the LocationPage, completed without blocking any
+     *         thread while the upstream answers.
+     */
+    public CompletableFuture<LocationPage> getLocationPageAsync(String parameter, String countryCode,
+            String latitude, String longitude, int radius, int page);
+
+    /**
+     * @param parameters   Air quality parameters
+     * @param countryCodes ISO 3166-1 country codes.
+     * @param page         Result page.
+     * @return LocationBatchPage with, for each air quality parameter, a row
+     *         for each location of the page which reports it.
+     */
+    public LocationBatchPage getLocationBatchPage(List<String> parameters, List<String> countryCodes, int page);
+
     /**
      * @return List of parameters.
      */
@@ -1,29 +1,59 @@
 package com.assessment.jorgeoracleassessment.repository;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.security.InvalidParameterException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import com.assessment.jorgeoracleassessment.config.JdkAsyncHttpClient;
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
 import com.assessment.jorgeoracleassessment.models.input.InputParameters;
 import com.assessment.jorgeoracleassessment.models.input.InputResponse;
+import com.assessment.jorgeoracleassessment.models.input.LocationBatchPage;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
 
 /**
  * Class that defines all the method which will consume the OpenAQ REST API.
+ * The rate limiting and the retries of the requests are handled by the HTTP
+ * clients, through the UpstreamRateLimiter they share, which also time
+ * every request. Here the extraction of each page is timed, and its rows
+ * counted.
  * 
  * @see https://docs.openaq.org/reference
  * @author Jorge Gonzalez
  */
 @Repository
 public class OpenAQClientImpl implements OpenAQClient {
+    /**
+     * Base URL of the OpenAQ REST API, which can point to a stand-in server
+     * to test or load-test the application offline.
+     */
+    @Value("${upstream.baseUrl:https://api.openaq.org}")
+    private String baseUrl;
+
     @Value("${page.maxSize}")
     private int maxSize;
 
+    @Autowired
+    private RestTemplate openAQRestTemplate;
+
+    @Autowired
+    private JdkAsyncHttpClient openAQAsyncHttpClient;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
     /**
      * Method which calls the OpenAQ REST API to get the locations given an
      * air quality parameter and the country code, or as set of coordinates
@@ -40,51 +70,181 @@ public class OpenAQClientImpl implements OpenAQClient {
      *         with the fields we require only.
      */
     @Override
-    @Retryable(maxAttempts = 3, backoff = @Backoff(delay = 500))
     public InputResponse getLocations(String parameter, String countryCode, String latitude, String longitude,
             int radius, int page) {
-        String url = null;
-        UriComponentsBuilder uriBuilder = UriComponentsBuilder.newInstance()
-                .scheme("https")
-                .host("api.openaq.org")
-                .path("/v2/locations");
+        String url = buildLocationsUrl(parameter, countryCode, latitude, longitude, radius, page);
 
-        if (parameter != null && countryCode != null) {
-            url = uriBuilder.query("limit={maxSize}&page={page}&parameter={parameter}&country={countryCode}")
-                    .buildAndExpand(maxSize, page, parameter, countryCode)
-                    .toUriString();
-        } else if (parameter != null && latitude != null && longitude != null) {
-            url = uriBuilder.query("limit={maxSize}&page={page}&parameter={parameter}&coordinates={latitude},{longitude}&radius={radius}")
-                    .buildAndExpand(maxSize, page, parameter, latitude, longitude, radius)
-                    .toUriString();
-        } else {
+        return openAQRestTemplate.getForObject(url, InputResponse.class);
+    }
+
+    /**
+     * Method which calls the OpenAQ REST API to get the locations given an
+     * air quality parameter and the country code, or as set of coordinates
+     * and a radius. The response is parsed while it's read, keeping only the
+     * coordinates and the last value of the air quality parameter of each
+     * location.
+     * 
+     * @see https://docs.openaq.org/reference/locations_get_v2_locations_get
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param latitude    decimal-degree latitude.
+     * @param longitude   decimal-degree longitude.
+     * @param radius      Radius of the previously setted coordinates in meters.
+     * @param page        Result page.
+     * @return LocationPage with a row for each location of the page which
+     *         reports the air quality parameter.
+     */
+    @Override
+    public LocationPage getLocationPage(String parameter, String countryCode, String latitude, String longitude,
+            int radius, int page) {
+        String url = buildLocationsUrl(parameter, countryCode, latitude, longitude, radius, page);
+
+        return openAQRestTemplate.execute(url, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON)),
+                response -> {
+                    long start = System.nanoTime();
+                    LocationPage locationPage = LocationPageParser.parse(response.getBody(), parameter);
+                    recordPage("locations", start, locationPage.rows().size());
+                    return locationPage;
+                });
+    }
+
+    /**
+     * Asynchronous variant of getLocationPage. The request is sent without
+     * blocking the calling thread, and the page is parsed once its body has
+     * been received.
+     * 
+     * @see https://docs.openaq.org/reference/locations_get_v2_locations_get
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param latitude    decimal-degree latitude.
+     * @param longitude   decimal-degree longitude.
+     * @param radius      Radius of the previously setted coordinates in meters.
+     * @param page        Result page.
+     * @return Future of the LocationPage with a row for each location of the
+     *         page which reports the air quality parameter.
+     */
+    @Override
+    public CompletableFuture<LocationPage> getLocationPageAsync(String parameter, String countryCode,
+            String latitude, String longitude, int radius, int page) {
+        String url = buildLocationsUrl(parameter, countryCode, latitude, longitude, radius, page);
+
+        return openAQAsyncHttpClient.get(URI.create(url), MediaType.APPLICATION_JSON_VALUE)
+                .thenApply(body -> parse(body, parameter));
+    }
+
+    /**
+     * Method which calls the OpenAQ REST API to get the locations of the
+     * given countries which report any of the given air quality parameters.
+     * The response is parsed while it's read, keeping the last value of each
+     * air quality parameter apart.
+     * 
+     * @see https://docs.openaq.org/reference/locations_get_v2_locations_get
+     * @param parameters   Air quality parameters
+     * @param countryCodes ISO 3166-1 country codes.
+     * @param page         Result page.
+     * @return LocationBatchPage with, for each air quality parameter, a row
+     *         for each location of the page which reports it.
+     */
+    @Override
+    public LocationBatchPage getLocationBatchPage(List<String> parameters, List<String> countryCodes, int page) {
+        if (parameters.isEmpty() || countryCodes.isEmpty()) {
             throw new InvalidParameterException("Invalid parameters supplied");
         }
 
-        RestTemplate restTemplate = new RestTemplate();
+        String url = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .path("/v2/locations")
+                .queryParam("limit", maxSize)
+                .queryParam("page", page)
+                .queryParam("parameter", parameters.toArray())
+                .queryParam("country", countryCodes.toArray())
+                .build().toUriString();
 
-        return restTemplate.getForObject(url, InputResponse.class);
+        return openAQRestTemplate.execute(url, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON)),
+                response -> {
+                    long start = System.nanoTime();
+                    LocationBatchPage batchPage = LocationPageParser.parseBatch(response.getBody(), parameters);
+                    recordPage("locations.batch", start,
+                            batchPage.rows().values().stream().mapToInt(List::size).sum());
+                    return batchPage;
+                });
     }
 
     /**
      * Method that retrieves all the available air quality parameters and
-     * its details. This list is cached.
+     * its details.
      * 
      * @see https://docs.openaq.org/reference/parameters_get_v2_parameters_get
      * @return List of parameters.
      */
     @Override
-    @Retryable(maxAttempts = 3, backoff = @Backoff(delay = 500))
-    @Cacheable
     public InputParameters getParametersList() {
-        String url = UriComponentsBuilder.newInstance()
-                .scheme("https")
-                .host("api.openaq.org")
+        String url = UriComponentsBuilder.fromHttpUrl(baseUrl)
                 .path("/v2/parameters")
                 .build().toUriString();
 
-        RestTemplate restTemplate = new RestTemplate();
+        return openAQRestTemplate.getForObject(url, InputParameters.class);
+    }
+
+    private LocationPage parse(InputStream body, String parameter) {
+        long start = System.nanoTime();
+        try (body) {
+            LocationPage locationPage = LocationPageParser.parse(body, parameter);
+            recordPage("locations", start, locationPage.rows().size());
+            return locationPage;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Method that records how long the extraction of a page took, and how
+     * many rows it returned. The blocking requests parse the body while it's
+     * read, so their extraction includes the transfer of the body.
+     * 
+     * @param endpoint Endpoint of the page.
+     * @param start    System.nanoTime() when the extraction started.
+     * @param rows     Rows extracted.
+     */
+    private void recordPage(String endpoint, long start, int rows) {
+        metricsRegistry.timer("upstream.extraction", "endpoint", endpoint).recordSince(start);
+        metricsRegistry.summary("upstream.page.rows", "endpoint", endpoint).record(rows);
+    }
+
+    /**
+     * Method which builds the URL of the OpenAQ locations API given an air
+     * quality parameter and the country code, or as set of coordinates and a
+     * radius, or only the air quality parameter to get every location.
+     * 
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param latitude    decimal-degree latitude.
+     * @param longitude   decimal-degree longitude.
+     * @param radius      Radius of the previously setted coordinates in meters.
+     * @param page        Result page.
+     * @return URL of the requested page.
+     */
+    private String buildLocationsUrl(String parameter, String countryCode, String latitude, String longitude,
+            int radius, int page) {
+        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .path("/v2/locations");
 
-        return restTemplate.getForObject(url, InputParameters.class);
+        if (parameter != null && countryCode != null) {
+            return uriBuilder.query("limit={maxSize}&page={page}&parameter={parameter}&country={countryCode}")
+                    .buildAndExpand(maxSize, page, parameter, countryCode)
+                    .toUriString();
+        } else if (parameter != null && latitude != null && longitude != null) {
+            return uriBuilder.query("limit={maxSize}&page={page}&parameter={parameter}&coordinates={latitude},{longitude}&radius={radius}")
+                    .buildAndExpand(maxSize, page, parameter, latitude, longitude, radius)
+                    .toUriString();
+        } else if (parameter != null && countryCode == null && latitude == null && longitude == null) {
+            // Every location in the world.
+            return uriBuilder.query("limit={maxSize}&page={page}&parameter={parameter}")
+                    .buildAndExpand(maxSize, page, parameter)
+                    .toUriString();
+        } else {
+            throw new InvalidParameterException("Invalid parameters supplied");
+        }
     }
 }
@@ -0,0 +1,94 @@
+package com.assessment.jorgeoracleassessment.repository;
+
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+
+/**
+ * Shared tier of the measurements cache: a store every instance of the
+ * application reads and writes, so the data sets crawled by one of them are
+ * served by all the others without crawling them again. Each instance keeps
+ * its own MeasurementCache in front of it as a near-cache.
+ * 
+ * The entries are versioned by the time they were crawled: a store keeps
+ * the newest version of each key, and the near-caches adopt the version they
+ * read with its original age, so every instance expires it at the same time
+ * and the upstream sees one crawl per TTL whatever the number of instances
+ * is. Leases keep several instances from refreshing the same key at once.
+ * 
+ * The implementations can be reached through the network or a shared disk,
+ * so every method may fail with a RuntimeException; the callers treat a
+ * failure as a miss.
+ * 
+ * @author Jorge Gonzalez
+ */
+public interface SharedMeasurementStore {
+    /**
+     * @param key Key of the measurements query.
+     * @return SharedMeasurement of the key, or null if it's not stored.
+     */
+    public SharedMeasurement get(String key);
+
+    /**
+     * Method that stores the measurements of a key, unless a newer version
+     * is already stored.
+     * 
+     * @param key         Key of the measurements query.
+     * @param measurement Measurements and the time they were crawled.
+     */
+    public void put(String key, SharedMeasurement measurement);
+
+    /**
+     * Method that acquires the lease to refresh a key. It expires on its own,
+     * so an instance which fails to refresh it doesn't hold it forever.
+     * 
+     * @param key Key of the measurements query.
+     * @return Flag which indicates if the lease was acquired; false if
+     *         another instance holds it.
+     */
+    public boolean tryLease(String key);
+
+    /**
+     * Method that releases the lease of a key if this instance holds it, so
+     * a lease acquired by another instance after this one expired is kept.
+     * 
+     * @param key Key of the measurements query.
+     */
+    public void releaseLease(String key);
+
+    /**
+     * @return SharedMeasurementStore which stores nothing, for a single
+     *         instance.
+     */
+    public static SharedMeasurementStore none() {
+        return new SharedMeasurementStore() {
+            @Override
+            public SharedMeasurement get(String key) {
+                return null;
+            }
+
+            @Override
+            public void put(String key, SharedMeasurement measurement) {
+                // Nothing to share.
+            }
+
+            @Override
+            public boolean tryLease(String key) {
+                return true;
+            }
+
+            @Override
+            public void releaseLease(String key) {
+                // Nothing to release.
+            }
+        };
+    }
+
+    /**
+     * Measurements stored in the shared tier.
+     * 
+     * @param value    OutputResponse of the query.
+     * @param loadedAt Time, in epoch milliseconds, they were crawled; it's
+     *                 their version.
+     */
+    public record SharedMeasurement(OutputResponse value, long loadedAt) {
+    }
+}
@@ -0,0 +1,222 @@
+package com.assessment.jorgeoracleassessment.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import com.assessment.jorgeoracleassessment.models.input.InputParameter;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore.SharedMeasurement;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * File with the last measurement snapshot, the air quality parameters and
+ * the cached measurements, so a restarted node can serve them before
+ * crawling again. The snapshot is stored with its own layout and
+ * memory-mapped back, so it's read without copying it to the heap; there's
+ * no snapshot if nothing was ingested.
+ * 
+ * Layout of the file, in little-endian:
+ * 
+ * <pre>
+ * header:       magic "AQSF" (int), format (int), snapshot length (long),
+ *               parameters length (int), CRC32C of the rest of the file
+ *               (int), measurements length (long)
+ * snapshot:     buffer of the MeasurementSnapshot, if there's one
+ * parameters:   JSON array of the air quality parameters
+ * measurements: JSON array of the cached measurements, with their key and
+ *               the time they were crawled
+ * </pre>
+ * 
+ * The file is written to a temporary file which is renamed over the
+ * previous one once it's complete, so a partial write never replaces a
+ * good file.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class SnapshotFile {
+    /**
+     * "AQSF" in little-endian.
+     */
+    public static final int MAGIC = 0x46535141;
+
+    public static final int FORMAT = 2;
+
+    private static final int HEADER_BYTES = 32;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final TypeReference<List<InputParameter>> PARAMETERS_TYPE = new TypeReference<>() {
+    };
+
+    private static final TypeReference<List<StoredMeasurement>> MEASUREMENTS_TYPE = new TypeReference<>() {
+    };
+
+    private final Path path;
+
+    /**
+     * @param path Path of the file.
+     */
+    public SnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Method that replaces the file with the given snapshot and air quality
+     * parameters, without cached measurements.
+     * 
+     * @param snapshot   Measurement snapshot, or null if there's none.
+     * @param parameters Air quality parameters.
+     * @throws IOException If the file can't be written; the previous file is
+     *                     kept.
+     */
+    public void write(MeasurementSnapshot snapshot, List<InputParameter> parameters) throws IOException {
+        write(snapshot, parameters, Map.of());
+    }
+
+    /**
+     * Method that replaces the file with the given snapshot, air quality
+     * parameters and cached measurements.
+     * 
+     * @param snapshot     Measurement snapshot, or null if there's none.
+     * @param parameters   Air quality parameters.
+     * @param measurements Cached measurements by their key, in the order
+     *                     they're read back.
+     * @throws IOException If the file can't be written; the previous file is
+     *                     kept.
+     */
+    public void write(MeasurementSnapshot snapshot, List<InputParameter> parameters,
+            Map<String, SharedMeasurement> measurements) throws IOException {
+        ByteBuffer data = snapshot == null ? ByteBuffer.allocate(0) : snapshot.buffer();
+        ByteBuffer catalog = ByteBuffer.wrap(OBJECT_MAPPER.writeValueAsBytes(parameters));
+        ByteBuffer cached = ByteBuffer.wrap(OBJECT_MAPPER.writeValueAsBytes(measurements.entrySet().stream()
+                .map(entry -> new StoredMeasurement(entry.getKey(), entry.getValue().loadedAt(),
+                        entry.getValue().value()))
+                .toList()));
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(data.duplicate());
+        checksum.update(catalog.duplicate());
+        checksum.update(cached.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC).putInt(FORMAT).putLong(data.remaining()).putInt(catalog.remaining())
+                .putInt((int) checksum.getValue()).putLong(cached.remaining()).flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffers = { header, data, catalog, cached };
+            while (cached.hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Method that memory-maps the file and verifies its checksum.
+     * 
+     * @return Contents of the file, or null if it doesn't exist.
+     * @throws IOException If the file can't be read, or it's truncated or
+     *                     corrupted.
+     */
+    public Contents read() throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot file size " + channel.size());
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT) {
+            throw new IOException("Not a snapshot file");
+        }
+        long dataLength = mapped.getLong(8);
+        int catalogLength = mapped.getInt(16);
+        long cachedLength = mapped.getLong(24);
+        if (dataLength < 0 || catalogLength < 0 || cachedLength < 0
+                || HEADER_BYTES + dataLength + catalogLength + cachedLength != mapped.capacity()) {
+            throw new IOException("Truncated snapshot file");
+        }
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(mapped.slice(HEADER_BYTES, mapped.capacity() - HEADER_BYTES));
+        if ((int) checksum.getValue() != mapped.getInt(20)) {
+            throw new IOException("Corrupted snapshot file");
+        }
+
+        MeasurementSnapshot snapshot = null;
+        if (dataLength > 0) {
+            try {
+                snapshot = MeasurementSnapshot.wrap(mapped.slice(HEADER_BYTES, (int) dataLength));
+            } catch (RuntimeException ex) {
+                throw new IOException("Invalid snapshot", ex);
+            }
+        }
+        List<InputParameter> parameters = OBJECT_MAPPER.readValue(new ByteBufferBackedInputStream(
+                mapped.slice(HEADER_BYTES + (int) dataLength, catalogLength)), PARAMETERS_TYPE);
+        List<StoredMeasurement> stored = OBJECT_MAPPER.readValue(new ByteBufferBackedInputStream(
+                mapped.slice(HEADER_BYTES + (int) dataLength + catalogLength, (int) cachedLength)),
+                MEASUREMENTS_TYPE);
+
+        Map<String, SharedMeasurement> measurements = new LinkedHashMap<>();
+        for (StoredMeasurement measurement : stored) {
+            OutputResponse value = measurement.value();
+            MeasurementColumns rows = new MeasurementColumns(value.dataSet().size());
+            rows.addAll(value.dataSet());
+            measurements.put(measurement.key(), new SharedMeasurement(new OutputResponse(value.min(), value.max(),
+                    value.parameter(), value.displayName(), value.stats(), rows), measurement.loadedAt()));
+        }
+
+        return new Contents(snapshot, parameters, measurements);
+    }
+
+    /**
+     * Snapshot, air quality parameters and cached measurements read from the
+     * file.
+     * 
+     * @param snapshot     Measurement snapshot, or null if there was none.
+     * @param parameters   Air quality parameters.
+     * @param measurements Cached measurements by their key, in the order
+     *                     they were written.
+     */
+    public record Contents(MeasurementSnapshot snapshot, List<InputParameter> parameters,
+            Map<String, SharedMeasurement> measurements) {
+    }
+
+    /**
+     * Cached measurements as they are written to the file.
+     */
+    private record StoredMeasurement(String key, long loadedAt, OutputResponse value) {
+    }
+}
@@ -1,6 +1,13 @@
 package com.assessment.jorgeoracleassessment.service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import com.assessment.jorgeoracleassessment.models.output.OutputChanges;
 import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputSummary;
 
 /**
  * Interface for the src/main/java/com/assessment/jorgeoracleassessment/service/AQLocationServiceImp.java
@@ -25,4 +32,91 @@ public interface AQLocationService {
      * @return OutputResponse The desired output for the frontend.
      */
     public OutputResponse getMeasurementsByCoordinatesAndRadius(String parameter, String latitude, String longitude, int radius);
+
+    /**
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @return Future of the OutputResponse, completed without blocking any
+     *         thread while the locations are crawled.
+     */
+    public CompletableFuture<OutputResponse> getMeasurementsByCountryAsync(String parameter, String countryCode);
+
+    /**
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @return Future of the OutputResponse, completed without blocking any
+     *         thread while the locations are crawled.
+     */
+    public CompletableFuture<OutputResponse> getMeasurementsByCoordinatesAndRadiusAsync(String parameter,
+            String latitude, String longitude, int radius);
+
+    /**
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param count     Number of stations.
+     * @return OutputResponse with the nearest stations to the coordinates,
+     *         sorted by distance.
+     */
+    public OutputResponse getNearestMeasurements(String parameter, String latitude, String longitude, int count);
+
+    /**
+     * @param parameter Air quality parameter
+     * @return StationIndex of every station of the air quality parameter, or
+     *         null if it's not built yet.
+     */
+    public StationIndex getStationIndex(String parameter);
+
+    /**
+     * @param parameters   Air quality parameters
+     * @param countryCodes ISO 3166-1 country codes.
+     * @return OutputResponse for each distinct air quality parameter, in the
+     *         given order, with the locations of every country.
+     */
+    public List<OutputResponse> getMeasurementsByCountries(List<String> parameters, List<String> countryCodes);
+
+    /**
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param since       Version of the data set the caller holds.
+     * @return OutputChanges of the data set since the version, or a full
+     *         snapshot if the version is unknown or too old.
+     */
+    public OutputChanges getMeasurementChangesByCountry(String parameter, String countryCode, long since);
+
+    /**
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @param since     Version of the data set the caller holds.
+     * @return OutputChanges of the data set since the version, or a full
+     *         snapshot if the version is unknown or too old.
+     */
+    public OutputChanges getMeasurementChangesByCoordinatesAndRadius(String parameter, String latitude,
+            String longitude, int radius, long since);
+
+    /**
+     * @param parameter    Air quality parameter
+     * @param countryCode  ISO 3166-1 country code.
+     * @param rowsConsumer Function which receives the rows of each page as
+     *                     soon as it's processed.
+     * @return OutputSummary of the rows sent to the consumer.
+     */
+    public OutputSummary streamMeasurementsByCountry(String parameter, String countryCode,
+            Consumer<List<OutputRow>> rowsConsumer);
+
+    /**
+     * @param parameter    Air quality parameter
+     * @param latitude     decimal-degree latitude.
+     * @param longitude    decimal-degree longitude.
+     * @param radius       Radius of the previously setted coordinates in meters.
+     * @param rowsConsumer Function which receives the rows of each page as
+     *                     soon as it's processed.
+     * @return OutputSummary of the rows sent to the consumer.
+     */
+    public OutputSummary streamMeasurementsByCoordinatesAndRadius(String parameter, String latitude,
+            String longitude, int radius, Consumer<List<OutputRow>> rowsConsumer);
 }
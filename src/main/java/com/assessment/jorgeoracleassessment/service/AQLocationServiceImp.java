@@ -1,17 +1,34 @@
 package com.assessment.jorgeoracleassessment.service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
 
-import com.assessment.jorgeoracleassessment.models.input.InputLocation;
-import com.assessment.jorgeoracleassessment.models.input.InputMeasure;
-import com.assessment.jorgeoracleassessment.models.input.InputParameter;
-import com.assessment.jorgeoracleassessment.models.input.InputResponse;
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.input.LocationBatchPage;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputChanges;
 import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
 import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.models.output.OutputSummary;
+import com.assessment.jorgeoracleassessment.repository.MeasurementSnapshot;
 import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
 
 import jakarta.validation.ValidationException;
@@ -22,72 +39,76 @@ import jakarta.validation.ValidationException;
  * REST API Client with the parameters given and processes the results to
  * generate a new data structure to be used by the frontend.
  * 
+ * Every crawl is timed, and its number of pages and rows recorded, tagged
+ * by its scope (country, coordinates, everywhere or batch), along with the
+ * queries answered from the last known measurements.
+ * 
+ * The data sets by country are versioned as they are served, and any
+ * data set when its changes are asked for, so the changes since a version
+ * can be sent instead of the whole data set.
+ * 
  * @author Jorge Gonzalez
  */
 @Service
 public class AQLocationServiceImp implements AQLocationService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AQLocationServiceImp.class);
+
     @Autowired
     private OpenAQClient client;
 
+    @Autowired
+    private ParameterCatalog parameterCatalog;
+
+    @Autowired
+    private MeasurementCache measurementCache;
+
+    @Autowired
+    private StationIndexCache stationIndexCache;
+
+    @Autowired
+    private LocationCrawler locationCrawler;
+
+    @Autowired
+    private IngestionService ingestionService;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private DatasetVersions datasetVersions;
+
+    /**
+     * Crawls in progress, so equal concurrent queries share a single crawl,
+     * whether they were started by the blocking or the asynchronous methods.
+     */
+    private final SingleFlight<MeasurementQuery, OutputResponse> inFlightCrawls = new SingleFlight<>();
+
     /**
      * Method that calls the REST API client to get a list of locations and
      * parameters by the country code and the air quality parameter. Then,
      * the response is proccessed to filter the registries with the same
      * air quality parameter and converts it to a new data structure.
      * 
+     * If the air quality parameter is ingested, the query is answered from
+     * the snapshot without calling the REST API client.
+     * 
      * @param parameter   Air quality parameter
      * @param countryCode ISO 3166-1 country code.
      * @return OutputResponse The desired output for the frontend.
      */
     @Override
     public OutputResponse getMeasurementsByCountry(String parameter, String countryCode) {
-        if (!isValidParameter(parameter)) {
-            throw new ValidationException("Invalid air quality parameter");
-        }
-
-        double maxValue = Double.MIN_VALUE;
-        int page = 0, found = 0, limit = 0;
-        List<OutputRow> rows = new ArrayList<>();
-
-        do {
-            // Calling REST API client to get the results.
-            InputResponse response = client.getLocations(parameter, countryCode, null, null, -1, ++page);
-            page = response.meta().page();
-            found = response.meta().found();
-            limit = response.meta().limit();
-
-            // Loop for all the locations to get its coordinates and the latest
-            // value for the selected air quality parameter.
-            for (InputLocation location : response.results()) {
-                for (InputMeasure measure : location.parameters()) {
-                    // In theory, by passing the air quality parameter, OpenAQ
-                    // should give us only one parameter for each location.
-                    // However, that doesn't happen. So we must filter by
-                    // ourselves.
-                    if (measure.parameter().equals(parameter)) {
-                        double lastValue = measure.lastValue();
-                        maxValue = Math.max(lastValue, maxValue);
-
-                        rows.add(new OutputRow(location.coordinates().latitude(), location.coordinates().longitude(),
-                                lastValue));
-
-                        break;
-                    }
-                }
-            }
-        } while ((page * limit) < found);
+        validateParameter(parameter);
 
-        // Calling REST API client to get the display represetation of the
-        // parameter.
-        InputParameter paramDetail = client.getParametersList()
-                .results()
-                .stream()
-                .filter(item -> parameter.equals(item.name()))
-                .findFirst()
-                .orElse(null);
-        String displayParameter = paramDetail == null ? "" : paramDetail.displayName();
+        MeasurementQuery query = MeasurementQuery.byCountry(parameter, countryCode);
+        MeasurementSnapshot snapshot = ingestionService.getSnapshot(parameter);
+        OutputResponse response = snapshot != null
+                ? fromSnapshot(parameter, snapshot, snapshot.byCountry(parameter, countryCode))
+                : getMeasurements(query,
+                        page -> client.getLocationPage(parameter, countryCode, null, null, -1, page));
 
-        return new OutputResponse(0, maxValue, parameter, displayParameter, rows);
+        datasetVersions.record(query, response.dataSet());
+        return response;
     }
 
     /**
@@ -97,6 +118,10 @@ public class AQLocationServiceImp implements AQLocationService {
      * with the same air quality parameter and converts it to a new data
      * structure.
      * 
+     * If the stations of every country are already indexed, the query is
+     * answered from the index without calling the REST API client, flagged
+     * as stale with the age of the index if it's old.
+     * 
      * @param parameter Air quality parameter
      * @param latitude  decimal-degree latitude.
      * @param longitude decimal-degree longitude.
@@ -106,65 +131,686 @@ public class AQLocationServiceImp implements AQLocationService {
     @Override
     public OutputResponse getMeasurementsByCoordinatesAndRadius(String parameter, String latitude, String longitude,
             int radius) {
-        if (!isValidParameter(parameter)) {
-            throw new ValidationException("Invalid air quality parameter");
+        validateParameter(parameter);
+
+        MeasurementQuery query = MeasurementQuery.byCoordinates(parameter, latitude, longitude, radius);
+        StationIndex index = stationIndexCache.getIfPresent(parameter, () -> crawlEverywhere(parameter));
+        OutputResponse response = index != null
+                ? fromIndex(parameter, index,
+                        index.withinRadius(Double.parseDouble(latitude), Double.parseDouble(longitude), radius))
+                : getMeasurements(query,
+                        page -> client.getLocationPage(parameter, null, latitude, longitude, radius, page));
+
+        datasetVersions.record(query, response.dataSet());
+        return response;
+    }
+
+    /**
+     * Asynchronous variant of getMeasurementsByCountry. The pages of
+     * locations are requested without blocking, so no thread is held while
+     * the REST API answers.
+     * 
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @return Future of the desired output for the frontend.
+     */
+    @Override
+    public CompletableFuture<OutputResponse> getMeasurementsByCountryAsync(String parameter, String countryCode) {
+        validateParameter(parameter);
+
+        MeasurementQuery query = MeasurementQuery.byCountry(parameter, countryCode);
+        MeasurementSnapshot snapshot = ingestionService.getSnapshot(parameter);
+        CompletableFuture<OutputResponse> response = snapshot != null
+                ? CompletableFuture.completedFuture(
+                        fromSnapshot(parameter, snapshot, snapshot.byCountry(parameter, countryCode)))
+                : getMeasurementsAsync(query,
+                        page -> client.getLocationPageAsync(parameter, countryCode, null, null, -1, page));
+
+        return response.thenApply(measurements -> {
+            datasetVersions.record(query, measurements.dataSet());
+            return measurements;
+        });
+    }
+
+    /**
+     * Asynchronous variant of getMeasurementsByCoordinatesAndRadius. The
+     * pages of locations are requested without blocking, so no thread is
+     * held while the REST API answers.
+     * 
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @return Future of the desired output for the frontend.
+     */
+    @Override
+    public CompletableFuture<OutputResponse> getMeasurementsByCoordinatesAndRadiusAsync(String parameter,
+            String latitude, String longitude, int radius) {
+        validateParameter(parameter);
+
+        MeasurementQuery query = MeasurementQuery.byCoordinates(parameter, latitude, longitude, radius);
+        StationIndex index = stationIndexCache.getIfPresent(parameter, () -> crawlEverywhere(parameter));
+        CompletableFuture<OutputResponse> response = index != null
+                ? CompletableFuture.completedFuture(fromIndex(parameter, index,
+                        index.withinRadius(Double.parseDouble(latitude), Double.parseDouble(longitude), radius)))
+                : getMeasurementsAsync(query,
+                        page -> client.getLocationPageAsync(parameter, null, latitude, longitude, radius, page));
+
+        return response.thenApply(measurements -> {
+            datasetVersions.record(query, measurements.dataSet());
+            return measurements;
+        });
+    }
+
+    /**
+     * Method that retrieves the nearest stations to the given coordinates
+     * from the index of the stations of every country. The index is only
+     * built in the background, so until it's ready the query is rejected
+     * instead of waiting for a worldwide crawl. The stations are flagged as
+     * stale with the age of the index if it's old.
+     * 
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param count     Number of stations.
+     * @return OutputResponse with the nearest stations, sorted by distance.
+     * @throws StationIndexUnavailableException If the index is not built
+     *                                          yet.
+     */
+    @Override
+    public OutputResponse getNearestMeasurements(String parameter, String latitude, String longitude, int count) {
+        validateParameter(parameter);
+
+        StationIndex index = stationIndexCache.getIfPresent(parameter, () -> crawlEverywhere(parameter));
+        if (index == null) {
+            throw new StationIndexUnavailableException(stationIndexCache.getRetryAfter());
         }
 
-        double maxValue = Double.MIN_VALUE;
-        int page = 0, found = 0, limit = 0;
-        List<OutputRow> rows = new ArrayList<>();
-
-        do {
-            // Calling REST API client to get the results.
-            InputResponse response = client.getLocations(parameter, null, latitude, longitude, radius, ++page);
-            page = response.meta().page();
-            found = response.meta().found();
-            limit = response.meta().limit();
-
-            // Loop for all the locations to get its coordinates and the latest
-            // value for the selected air quality parameter.
-            for (InputLocation location : response.results()) {
-                for (InputMeasure measure : location.parameters()) {
-                    // In theory, by passing the air quality parameter, OpenAQ
-                    // should give us only one parameter for each location.
-                    // However, that doesn't happen. So we must filter by
-                    // ourselves.
-                    if (measure.parameter().equals(parameter)) {
-                        double lastValue = measure.lastValue();
-                        maxValue = Math.max(lastValue, maxValue);
-
-                        rows.add(new OutputRow(location.coordinates().latitude(), location.coordinates().longitude(),
-                                lastValue));
-
-                        break;
+        return fromIndex(parameter, index,
+                index.nearest(Double.parseDouble(latitude), Double.parseDouble(longitude), count));
+    }
+
+    /**
+     * Method that retrieves the station index of an air quality parameter,
+     * building it in the background if it doesn't exist or it's too old.
+     * 
+     * @param parameter Air quality parameter
+     * @return StationIndex of every station, or null if it's not built yet.
+     */
+    @Override
+    public StationIndex getStationIndex(String parameter) {
+        return stationIndexCache.getIfPresent(parameter, () -> crawlEverywhere(parameter));
+    }
+
+    /**
+     * Method that retrieves the measurements of several air quality
+     * parameters in several countries. The parameters which are ingested, or
+     * cached for a single country, are answered without calling the REST API
+     * client; the rest of them are crawled together, so every location page
+     * is requested once and split by parameter as it's parsed.
+     * 
+     * @param parameters   Air quality parameters
+     * @param countryCodes ISO 3166-1 country codes.
+     * @return OutputResponse for each distinct air quality parameter, in the
+     *         given order, with the locations of every country.
+     */
+    @Override
+    public List<OutputResponse> getMeasurementsByCountries(List<String> parameters, List<String> countryCodes) {
+        List<String> distinctParameters = parameters.stream().distinct().toList();
+        List<String> countries = countryCodes.stream().map(code -> code.toUpperCase(Locale.ROOT)).distinct()
+                .toList();
+        distinctParameters.forEach(this::validateParameter);
+
+        Map<String, OutputResponse> responses = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String parameter : distinctParameters) {
+            OutputResponse known = getKnownMeasurements(parameter, countries);
+            if (known != null) {
+                responses.put(parameter, known);
+            } else {
+                missing.add(parameter);
+            }
+        }
+        if (!missing.isEmpty()) {
+            responses.putAll(crawlBatch(missing, countries));
+        }
+
+        return distinctParameters.stream().map(responses::get).toList();
+    }
+
+    /**
+     * Method that retrieves the measurements of an air quality parameter in
+     * a country, as getMeasurementsByCountry does, and compares them with
+     * the version the caller holds.
+     * 
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @param since       Version of the data set the caller holds.
+     * @return OutputChanges since the version, or a full snapshot if the
+     *         version is unknown or too old.
+     */
+    @Override
+    public OutputChanges getMeasurementChangesByCountry(String parameter, String countryCode, long since) {
+        return toOutputChanges(MeasurementQuery.byCountry(parameter, countryCode),
+                getMeasurementsByCountry(parameter, countryCode), since);
+    }
+
+    /**
+     * Method that retrieves the measurements of an air quality parameter
+     * around some coordinates, as getMeasurementsByCoordinatesAndRadius does,
+     * and compares them with the version the caller holds.
+     * 
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @param since     Version of the data set the caller holds.
+     * @return OutputChanges since the version, or a full snapshot if the
+     *         version is unknown or too old.
+     */
+    @Override
+    public OutputChanges getMeasurementChangesByCoordinatesAndRadius(String parameter, String latitude,
+            String longitude, int radius, long since) {
+        return toOutputChanges(MeasurementQuery.byCoordinates(parameter, latitude, longitude, radius),
+                getMeasurementsByCoordinatesAndRadius(parameter, latitude, longitude, radius), since);
+    }
+
+    /**
+     * Method that calls the REST API client to get the locations by the
+     * country code and the air quality parameter, and sends the rows to the
+     * consumer as each page is processed.
+     * 
+     * @param parameter    Air quality parameter
+     * @param countryCode  ISO 3166-1 country code.
+     * @param rowsConsumer Function which receives the rows of each page.
+     * @return OutputSummary of the rows sent.
+     */
+    @Override
+    public OutputSummary streamMeasurementsByCountry(String parameter, String countryCode,
+            Consumer<List<OutputRow>> rowsConsumer) {
+        validateParameter(parameter);
+
+        MeasurementSnapshot snapshot = ingestionService.getSnapshot(parameter);
+        if (snapshot != null) {
+            return emit(parameter, snapshot.byCountry(parameter, countryCode), rowsConsumer);
+        }
+
+        return streamMeasurements(MeasurementQuery.byCountry(parameter, countryCode),
+                page -> client.getLocationPage(parameter, countryCode, null, null, -1, page), rowsConsumer);
+    }
+
+    /**
+     * Method that calls the REST API client to get the locations by given
+     * latitude and longitude and a radius from that coordinate, and sends the
+     * rows to the consumer as each page is processed.
+     * 
+     * If the stations of every country are already indexed, the rows are
+     * sent from the index without calling the REST API client.
+     * 
+     * @param parameter    Air quality parameter
+     * @param latitude     decimal-degree latitude.
+     * @param longitude    decimal-degree longitude.
+     * @param radius       Radius of the previously setted coordinates in meters.
+     * @param rowsConsumer Function which receives the rows of each page.
+     * @return OutputSummary of the rows sent.
+     */
+    @Override
+    public OutputSummary streamMeasurementsByCoordinatesAndRadius(String parameter, String latitude,
+            String longitude, int radius, Consumer<List<OutputRow>> rowsConsumer) {
+        validateParameter(parameter);
+
+        StationIndex index = stationIndexCache.getIfPresent(parameter, () -> crawlEverywhere(parameter));
+        if (index != null) {
+            return emit(parameter,
+                    index.withinRadius(Double.parseDouble(latitude), Double.parseDouble(longitude), radius),
+                    rowsConsumer);
+        }
+
+        return streamMeasurements(MeasurementQuery.byCoordinates(parameter, latitude, longitude, radius),
+                page -> client.getLocationPage(parameter, null, latitude, longitude, radius, page), rowsConsumer);
+    }
+
+    /**
+     * Method that validates the air quality parameter of the query and
+     * retrieves its measurements from the cache, crawling them if they are
+     * not cached. If an equal query is already being crawled, its result is
+     * awaited instead of crawling again. If the crawl fails, or the crawl
+     * awaited takes too long, the last measurements known for the query are
+     * returned as stale.
+     * 
+     * @param query       Measurements query.
+     * @param pageFetcher Function which requests a given page to the REST API
+     *                    client.
+     * @return OutputResponse The desired output for the frontend.
+     */
+    private OutputResponse getMeasurements(MeasurementQuery query, IntFunction<LocationPage> pageFetcher) {
+        validateParameter(query.parameter());
+
+        try {
+            return measurementCache.get(query,
+                    () -> inFlightCrawls.execute(query, () -> crawl(query, pageFetcher)));
+        } catch (RestClientException ex) {
+            return getLastKnown(query, ex);
+        } catch (CompletionException ex) {
+            // The failure of an equal crawl this thread was waiting for.
+            if (ex.getCause() instanceof RestClientException cause) {
+                return getLastKnown(query, cause, ex);
+            }
+            if (ex.getCause() instanceof TimeoutException) {
+                return getLastKnown(query, new ResourceAccessException(ex.getCause().getMessage()), ex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Asynchronous variant of getMeasurements.
+     * 
+     * @param query       Measurements query.
+     * @param pageFetcher Function which requests a given page to the REST API
+     *                    client without blocking.
+     * @return Future of the desired output for the frontend.
+     */
+    private CompletableFuture<OutputResponse> getMeasurementsAsync(MeasurementQuery query,
+            IntFunction<CompletableFuture<LocationPage>> pageFetcher) {
+        return measurementCache.getAsync(query,
+                () -> inFlightCrawls.executeAsync(query, () -> crawlAsync(query, pageFetcher)))
+                .exceptionally(ex -> {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause()
+                            : ex;
+                    if (cause instanceof RestClientException restClientException) {
+                        return getLastKnown(query, restClientException);
                     }
-                }
+                    throw ex instanceof CompletionException completionException ? completionException
+                            : new CompletionException(ex);
+                });
+    }
+
+    /**
+     * Method that answers a query whose measurements couldn't be crawled,
+     * because the REST API failed or its circuit is open, with the last
+     * measurements known for it.
+     * 
+     * @param query Measurements query.
+     * @param ex    Exception thrown by the REST API client.
+     * @return OutputResponse flagged as stale with its age.
+     * @throws RestClientException The given exception, if the query was never
+     *                             crawled.
+     */
+    private OutputResponse getLastKnown(MeasurementQuery query, RestClientException ex) {
+        return getLastKnown(query, ex, ex);
+    }
+
+    /**
+     * @param query   Measurements query.
+     * @param ex      Exception thrown by the REST API client.
+     * @param failure Exception to throw if the query was never crawled.
+     * @return OutputResponse flagged as stale with its age.
+     */
+    private OutputResponse getLastKnown(MeasurementQuery query, RestClientException ex, RuntimeException failure) {
+        OutputResponse lastKnown = measurementCache.getLastKnown(query);
+        metricsRegistry.counter("measurements.fallbacks", "outcome", lastKnown == null ? "unavailable" : "stale")
+                .increment();
+        if (lastKnown == null) {
+            throw failure;
+        }
+
+        LOGGER.warn("Serving the measurements of {} from {} seconds ago: {}", query, lastKnown.age(),
+                ex.getMessage());
+        return lastKnown;
+    }
+
+    /**
+     * Method that validates the air quality parameter of the query and sends
+     * its measurements to the consumer page by page. If the query is cached,
+     * the cached measurements are sent at once; otherwise they are crawled
+     * without keeping them.
+     * 
+     * @param query        Measurements query.
+     * @param pageFetcher  Function which requests a given page to the REST API
+     *                     client.
+     * @param rowsConsumer Function which receives the rows of each page.
+     * @return OutputSummary of the rows sent.
+     */
+    private OutputSummary streamMeasurements(MeasurementQuery query, IntFunction<LocationPage> pageFetcher,
+            Consumer<List<OutputRow>> rowsConsumer) {
+        validateParameter(query.parameter());
+
+        OutputResponse cached = measurementCache.getIfPresent(query);
+        if (cached == null) {
+            return crawl(scope(query), query.parameter(), pageFetcher, rowsConsumer);
+        }
+
+        return emit(query.parameter(), cached.dataSet(), rowsConsumer);
+    }
+
+    /**
+     * Method that sends rows already retrieved to the consumer at once.
+     * 
+     * @param parameter    Air quality parameter
+     * @param rows         Rows of the air quality parameter.
+     * @param rowsConsumer Function which receives the rows.
+     * @return OutputSummary of the rows sent.
+     */
+    private OutputSummary emit(String parameter, List<OutputRow> rows, Consumer<List<OutputRow>> rowsConsumer) {
+        StatsAccumulator stats = new StatsAccumulator();
+        stats.addAll(rows);
+        rowsConsumer.accept(rows);
+
+        return summary(parameter, stats);
+    }
+
+    /**
+     * Method that retrieves all the pages of locations for the given air
+     * quality parameter and converts them to the data structure used by the
+     * frontend. The statistics are computed while the rows are collected.
+     * 
+     * @param query       Measurements query.
+     * @param pageFetcher Function which requests a given page to the REST API
+     *                    client.
+     * @return OutputResponse The desired output for the frontend.
+     */
+    private OutputResponse crawl(MeasurementQuery query, IntFunction<LocationPage> pageFetcher) {
+        MeasurementColumns rows = new MeasurementColumns();
+        OutputSummary summary = crawl(scope(query), query.parameter(), pageFetcher, rows::addAll);
+
+        return toOutputResponse(query.parameter(), summary.stats(), rows);
+    }
+
+    /**
+     * Asynchronous variant of crawl, which collects the rows and computes
+     * their statistics as each page arrives.
+     * 
+     * @param query       Measurements query.
+     * @param pageFetcher Function which requests a given page to the REST API
+     *                    client without blocking.
+     * @return Future of the desired output for the frontend.
+     */
+    private CompletableFuture<OutputResponse> crawlAsync(MeasurementQuery query,
+            IntFunction<CompletableFuture<LocationPage>> pageFetcher) {
+        MeasurementColumns rows = new MeasurementColumns();
+        StatsAccumulator stats = new StatsAccumulator();
+        AtomicInteger pages = new AtomicInteger();
+        long start = System.nanoTime();
+
+        return locationCrawler.crawlAsync(pageFetcher, page -> {
+            pages.incrementAndGet();
+            stats.addAll(page.rows());
+            rows.addAll(page.rows());
+        }).whenComplete((crawled, ex) -> recordCrawl(scope(query), start, pages.get(), rows.size(), ex))
+                .thenApply(crawled -> toOutputResponse(query.parameter(), stats.toStats(), rows));
+    }
+
+    /**
+     * Method that retrieves the measurements of an air quality parameter in
+     * the given countries without calling the REST API client: from the
+     * snapshot, or from the cache if there is only one country.
+     * 
+     * @param parameter Air quality parameter
+     * @param countries ISO 3166-1 country codes.
+     * @return OutputResponse of the parameter, or null if it's not known.
+     */
+    private OutputResponse getKnownMeasurements(String parameter, List<String> countries) {
+        MeasurementSnapshot snapshot = ingestionService.getSnapshot(parameter);
+        if (snapshot != null) {
+            MeasurementColumns rows = new MeasurementColumns();
+            for (String country : countries) {
+                rows.addAll(snapshot.byCountry(parameter, country));
+            }
+            return fromSnapshot(parameter, snapshot, rows);
+        }
+
+        return countries.size() == 1
+                ? measurementCache.getIfPresent(MeasurementQuery.byCountry(parameter, countries.get(0)))
+                : null;
+    }
+
+    /**
+     * Method that retrieves all the pages of locations of the given
+     * countries for several air quality parameters at once, splitting their
+     * rows and statistics by parameter. If there is only one country, the
+     * results are cached as if each parameter was queried alone.
+     * 
+     * @param parameters Air quality parameters
+     * @param countries  ISO 3166-1 country codes.
+     * @return OutputResponse of each air quality parameter.
+     */
+    private Map<String, OutputResponse> crawlBatch(List<String> parameters, List<String> countries) {
+        Map<String, MeasurementColumns> rows = new HashMap<>();
+        Map<String, StatsAccumulator> stats = new HashMap<>();
+        for (String parameter : parameters) {
+            rows.put(parameter, new MeasurementColumns());
+            stats.put(parameter, new StatsAccumulator());
+        }
+
+        AtomicInteger pages = new AtomicInteger();
+        AtomicInteger rowCount = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            locationCrawler.crawl(page -> client.getLocationBatchPage(parameters, countries, page),
+                    LocationBatchPage::meta,
+                    page -> {
+                        pages.incrementAndGet();
+                        page.rows().forEach((parameter, pageRows) -> {
+                            rowCount.addAndGet(pageRows.size());
+                            rows.get(parameter).addAll(pageRows);
+                            stats.get(parameter).addAll(pageRows);
+                        });
+                    });
+        } catch (RuntimeException ex) {
+            recordCrawl("batch", start, pages.get(), rowCount.get(), ex);
+            throw ex;
+        }
+        recordCrawl("batch", start, pages.get(), rowCount.get(), null);
+
+        Map<String, OutputResponse> responses = new HashMap<>();
+        for (String parameter : parameters) {
+            OutputResponse response = toOutputResponse(parameter, stats.get(parameter).toStats(),
+                    rows.get(parameter));
+            if (countries.size() == 1) {
+                measurementCache.put(MeasurementQuery.byCountry(parameter, countries.get(0)), response);
             }
-        } while ((page * limit) < found);
+            responses.put(parameter, response);
+        }
+
+        return responses;
+    }
+
+    /**
+     * Method that retrieves the locations of every country which report the
+     * air quality parameter, from the snapshot if the parameter is ingested.
+     * It's only called by the background builds of the station indexes, so
+     * the pages are requested one by one on the calling thread, within the
+     * rate budget of the indexes, instead of on the page fetch executor.
+     * 
+     * @param parameter Air quality parameter
+     * @return MeasurementColumns with a row for each location.
+     */
+    private MeasurementColumns crawlEverywhere(String parameter) {
+        MeasurementSnapshot snapshot = ingestionService.getSnapshot(parameter);
+        if (snapshot != null) {
+            return snapshot.rows(parameter);
+        }
+
+        MeasurementColumns rows = new MeasurementColumns();
+        AtomicInteger pages = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            locationCrawler.crawl(page -> {
+                stationIndexCache.throttle();
+                return client.getLocationPage(parameter, null, null, null, -1, page);
+            }, LocationPage::meta, page -> {
+                pages.incrementAndGet();
+                rows.addAll(page.rows());
+            }, Runnable::run);
+        } catch (RuntimeException ex) {
+            recordCrawl("everywhere", start, pages.get(), rows.size(), ex);
+            throw ex;
+        }
+        recordCrawl("everywhere", start, pages.get(), rows.size(), null);
+
+        return rows;
+    }
+
+    /**
+     * Method that converts the rows of an air quality parameter found in a
+     * station index to the data structure used by the frontend, flagged as
+     * stale with the age of the index if it's old.
+     * 
+     * @param parameter Air quality parameter
+     * @param index     Index the rows were found in.
+     * @param rows      Rows of the air quality parameter.
+     * @return OutputResponse The desired output for the frontend.
+     */
+    private OutputResponse fromIndex(String parameter, StationIndex index, MeasurementColumns rows) {
+        OutputResponse response = toOutputResponse(parameter, rows);
+        return stationIndexCache.isStale(index) ? response.asStale(stationIndexCache.getAge(index)) : response;
+    }
+
+    /**
+     * Method that converts the rows of an air quality parameter read from
+     * the snapshot to the data structure used by the frontend, flagged as
+     * stale with the age of the snapshot if it's old.
+     * 
+     * @param parameter Air quality parameter
+     * @param snapshot  Snapshot the rows were read from.
+     * @param rows      Rows of the air quality parameter.
+     * @return OutputResponse The desired output for the frontend.
+     */
+    private OutputResponse fromSnapshot(String parameter, MeasurementSnapshot snapshot, MeasurementColumns rows) {
+        OutputResponse response = toOutputResponse(parameter, rows);
+        return ingestionService.isStale(snapshot)
+                ? response.asStale((System.currentTimeMillis() - snapshot.createdAt()) / 1000)
+                : response;
+    }
+
+    /**
+     * Method that converts the rows of an air quality parameter to the data
+     * structure used by the frontend.
+     * 
+     * @param parameter Air quality parameter
+     * @param rows      Rows of the air quality parameter.
+     * @return OutputResponse The desired output for the frontend.
+     */
+    private OutputResponse toOutputResponse(String parameter, MeasurementColumns rows) {
+        StatsAccumulator stats = new StatsAccumulator();
+        stats.addAll(rows);
+
+        return toOutputResponse(parameter, stats.toStats(), rows);
+    }
+
+    /**
+     * Method that converts the rows of an air quality parameter and their
+     * statistics to the data structure used by the frontend.
+     * 
+     * @param parameter Air quality parameter
+     * @param stats     Statistics of the rows.
+     * @param rows      Rows of the air quality parameter.
+     * @return OutputResponse The desired output for the frontend.
+     */
+    private OutputResponse toOutputResponse(String parameter, OutputStats stats, MeasurementColumns rows) {
+        return new OutputResponse(stats.min(), stats.max(), parameter, parameterCatalog.getDisplayName(parameter),
+                stats, rows);
+    }
+
+    /**
+     * Method that compares the current measurements of a query with the
+     * version the caller holds.
+     * 
+     * @param query    Measurements query.
+     * @param response Current measurements of the query.
+     * @param since    Version of the data set the caller holds.
+     * @return OutputChanges since the version, with the statistics of the
+     *         whole data set.
+     */
+    private OutputChanges toOutputChanges(MeasurementQuery query, OutputResponse response, long since) {
+        DatasetVersions.Delta delta = datasetVersions.changesSince(query, response.dataSet(), since);
+
+        return new OutputChanges(query.parameter(), response.displayName(), delta.version(), since, delta.full(),
+                response.min(), response.max(), response.stats(), delta.added(), delta.changed(), delta.removed());
+    }
+
+    /**
+     * Method that retrieves all the pages of locations for the given air
+     * quality parameter and sends their rows to the consumer in page order.
+     * 
+     * @param scope        Scope of the crawl, to tag its metrics.
+     * @param parameter    Air quality parameter
+     * @param pageFetcher  Function which requests a given page to the REST API
+     *                     client.
+     * @param rowsConsumer Function which receives the rows of each page.
+     * @return OutputSummary of the rows sent.
+     */
+    private OutputSummary crawl(String scope, String parameter, IntFunction<LocationPage> pageFetcher,
+            Consumer<List<OutputRow>> rowsConsumer) {
+        StatsAccumulator stats = new StatsAccumulator();
+        AtomicInteger pages = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            locationCrawler.crawl(pageFetcher, page -> {
+                pages.incrementAndGet();
+                stats.addAll(page.rows());
+                rowsConsumer.accept(page.rows());
+            });
+        } catch (RuntimeException ex) {
+            recordCrawl(scope, start, pages.get(), stats.getCount(), ex);
+            throw ex;
+        }
+        recordCrawl(scope, start, pages.get(), stats.getCount(), null);
 
-        // Calling REST API client to get the display represetation of the
-        // parameter.
-        InputParameter paramDetail = client.getParametersList()
-                .results()
-                .stream()
-                .filter(item -> parameter.equals(item.name()))
-                .findFirst()
-                .orElse(null);
-        String displayParameter = paramDetail == null ? "" : paramDetail.displayName();
+        return summary(parameter, stats);
+    }
+
+    /**
+     * Method that records the duration of a crawl and, if it succeeded, how
+     * many pages it took and how many rows it returned.
+     * 
+     * @param scope Scope of the crawl.
+     * @param start System.nanoTime() when the crawl started.
+     * @param pages Pages consumed.
+     * @param rows  Rows returned.
+     * @param ex    Exception which failed the crawl, or null.
+     */
+    private void recordCrawl(String scope, long start, int pages, int rows, Throwable ex) {
+        metricsRegistry.timer("crawl.duration", "scope", scope, "outcome", ex == null ? "success" : "error")
+                .recordSince(start);
+        if (ex == null) {
+            metricsRegistry.summary("crawl.pages", "scope", scope).record(pages);
+            metricsRegistry.summary("crawl.rows", "scope", scope).record(rows);
+        }
+    }
+
+    /**
+     * @return Scope of the query to tag the metrics of its crawl.
+     */
+    private static String scope(MeasurementQuery query) {
+        return query.countryCode() != null ? "country" : "coordinates";
+    }
 
-        return new OutputResponse(0, maxValue, parameter, displayParameter, rows);
+    /**
+     * @return OutputSummary of the accumulated values; min and max are 0 if
+     *         there are no rows.
+     */
+    private OutputSummary summary(String parameter, StatsAccumulator stats) {
+        return new OutputSummary(parameter, parameterCatalog.getDisplayName(parameter), stats.getCount(),
+                stats.getMin(), stats.getMax(), stats.toStats());
     }
 
     /**
      * Method that validates if the air quality parameter is valid or not.
      * 
      * @param parameter Air quality parameter
-     * @return Flag which indicates if the air quality parameter is valid or not.
+     * @throws ValidationException            If the air quality parameter is
+     *                                        not valid.
+     * @throws ParametersUnavailableException If the air quality parameters
+     *                                        were never loaded.
      */
-    private boolean isValidParameter(String parameter) {
-        return client.getParametersList()
-                .results()
-                .stream()
-                .anyMatch(item -> parameter.equals(item.name()));
+    private void validateParameter(String parameter) {
+        if (!parameterCatalog.contains(parameter)) {
+            if (!parameterCatalog.isLoaded()) {
+                throw new ParametersUnavailableException(parameterCatalog.getRetryAfter());
+            }
+            throw new ValidationException("Invalid air quality parameter");
+        }
     }
 }
@@ -0,0 +1,277 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+
+/**
+ * Versions of the data sets of each query scope (an air quality parameter
+ * in a country, or around some coordinates). Every time the rows of a scope
+ * are seen with a different content, the scope gets a new version and the
+ * rows added, changed or removed since the previous one are kept, so the
+ * changes since any of the last versions can be sent instead of the whole
+ * data set.
+ * 
+ * The versions are taken from a counter shared by every scope, which starts
+ * at the current time in milliseconds, so they only increase: also when a
+ * scope is evicted, and across restarts. A version which isn't known
+ * anymore is answered with a full snapshot.
+ * 
+ * The rows are identified by their coordinates (and their position among
+ * the rows with the same coordinates, if there are several). Only the last
+ * changes of each scope are kept, and only the most recently used scopes.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class DatasetVersions {
+    private final int history;
+
+    private final int maxScopes;
+
+    private final LinkedHashMap<MeasurementQuery, Scope> scopes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long lastVersion;
+
+    /**
+     * @param history   Number of changes kept for each scope.
+     * @param maxScopes Maximum number of scopes kept.
+     * @param clock     Clock which gives the first version.
+     */
+    public DatasetVersions(int history, int maxScopes, Clock clock) {
+        this.history = Math.max(1, history);
+        this.maxScopes = Math.max(1, maxScopes);
+        this.lastVersion = clock.millis();
+    }
+
+    /**
+     * Method that records the current rows of a scope, giving it a new
+     * version if they changed.
+     * 
+     * @param query Query of the scope.
+     * @param rows  Current rows of the scope.
+     * @return Version of the rows.
+     */
+    public synchronized long record(MeasurementQuery query, List<OutputRow> rows) {
+        MeasurementColumns columns = toColumns(rows);
+        Scope scope = scopes.get(query);
+
+        if (scope == null) {
+            scope = new Scope(++lastVersion, columns);
+            scopes.put(query, scope);
+            evict();
+        } else if (scope.rows.contentHash() != columns.contentHash()) {
+            long version = ++lastVersion;
+            scope.changes.addLast(new ChangeSet(scope.version, version, diff(scope.rows, columns)));
+            if (scope.changes.size() > history) {
+                scope.changes.removeFirst();
+            }
+            scope.version = version;
+            scope.rows = columns;
+        }
+
+        return scope.version;
+    }
+
+    /**
+     * Method that records the current rows of a scope and computes its
+     * changes since a previous version.
+     * 
+     * @param query Query of the scope.
+     * @param rows  Current rows of the scope.
+     * @param since Version the caller holds.
+     * @return Delta since the version, or a full one with every row as
+     *         added if the version is unknown.
+     */
+    public synchronized Delta changesSince(MeasurementQuery query, List<OutputRow> rows, long since) {
+        long version = record(query, rows);
+        Scope scope = scopes.get(query);
+        if (since == version) {
+            return new Delta(version, false, List.of(), List.of(), List.of());
+        }
+
+        List<ChangeSet> range = new ArrayList<>();
+        for (Iterator<ChangeSet> newest = scope.changes.descendingIterator(); newest.hasNext();) {
+            ChangeSet changeSet = newest.next();
+            range.add(0, changeSet);
+            if (changeSet.from() == since) {
+                return merge(version, range);
+            }
+        }
+
+        return new Delta(version, true, scope.rows, List.of(), List.of());
+    }
+
+    /**
+     * @return Number of scopes kept.
+     */
+    public synchronized int size() {
+        return scopes.size();
+    }
+
+    private void evict() {
+        Iterator<MeasurementQuery> eldest = scopes.keySet().iterator();
+        while (scopes.size() > maxScopes && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Method that merges consecutive change sets, so a row changed several
+     * times is sent once with its last value, and a row added and then
+     * removed is not sent at all.
+     */
+    private static Delta merge(long version, List<ChangeSet> range) {
+        Map<Key, Merged> merged = new LinkedHashMap<>();
+        for (ChangeSet changeSet : range) {
+            for (Change change : changeSet.changes()) {
+                Merged row = merged.computeIfAbsent(change.key(), key -> new Merged(change.type() != Type.ADDED));
+                row.present = change.type() != Type.REMOVED;
+                row.value = change.value();
+            }
+        }
+
+        List<OutputRow> added = new ArrayList<>();
+        List<OutputRow> changed = new ArrayList<>();
+        List<OutputRow> removed = new ArrayList<>();
+        merged.forEach((key, row) -> {
+            if (row.existed && row.present) {
+                changed.add(key.toRow(row.value));
+            } else if (row.existed) {
+                removed.add(key.toRow(row.value));
+            } else if (row.present) {
+                added.add(key.toRow(row.value));
+            }
+        });
+
+        return new Delta(version, false, added, changed, removed);
+    }
+
+    /**
+     * @return Rows added, changed and removed from the previous rows to the
+     *         current ones.
+     */
+    private static List<Change> diff(MeasurementColumns previous, MeasurementColumns current) {
+        Map<Key, Double> previousValues = index(previous);
+        Map<Key, Double> currentValues = index(current);
+        List<Change> changes = new ArrayList<>();
+
+        currentValues.forEach((key, value) -> {
+            Double previousValue = previousValues.remove(key);
+            if (previousValue == null) {
+                changes.add(new Change(key, Type.ADDED, value));
+            } else if (Double.compare(previousValue, value) != 0) {
+                changes.add(new Change(key, Type.CHANGED, value));
+            }
+        });
+        previousValues.forEach((key, value) -> changes.add(new Change(key, Type.REMOVED, value)));
+
+        return changes;
+    }
+
+    /**
+     * @return Value of each row by its key, in the order of the rows.
+     */
+    private static Map<Key, Double> index(MeasurementColumns rows) {
+        Map<Key, Double> values = new LinkedHashMap<>(rows.size() * 2);
+        Map<Coordinates, Integer> occurrences = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            String latitude = rows.latitudeText(i);
+            String longitude = rows.longitudeText(i);
+            int occurrence = occurrences.merge(new Coordinates(latitude, longitude), 1, Integer::sum) - 1;
+            values.put(new Key(latitude, longitude, occurrence), rows.value(i));
+        }
+        return values;
+    }
+
+    private static MeasurementColumns toColumns(List<OutputRow> rows) {
+        if (rows instanceof MeasurementColumns columns) {
+            return columns;
+        }
+
+        MeasurementColumns columns = new MeasurementColumns(rows.size());
+        columns.addAll(rows);
+        return columns;
+    }
+
+    /**
+     * Changes of a scope since a version.
+     * 
+     * @param version Current version of the scope.
+     * @param full    Flag which indicates if the version wasn't known, so
+     *                every row is sent as added.
+     * @param added   Rows added since the version.
+     * @param changed Rows whose value changed since the version.
+     * @param removed Rows removed since the version, with their last value.
+     */
+    public record Delta(long version, boolean full, List<OutputRow> added, List<OutputRow> changed,
+            List<OutputRow> removed) {
+    }
+
+    private enum Type {
+        ADDED, CHANGED, REMOVED
+    }
+
+    private record Coordinates(String latitude, String longitude) {
+    }
+
+    /**
+     * Identity of a row: its coordinates and its position among the rows
+     * with the same coordinates.
+     */
+    private record Key(String latitude, String longitude, int occurrence) {
+        private OutputRow toRow(double value) {
+            return new OutputRow(latitude, longitude, value);
+        }
+    }
+
+    private record Change(Key key, Type type, double value) {
+    }
+
+    /**
+     * Changes from a version of a scope to the next one.
+     */
+    private record ChangeSet(long from, long to, List<Change> changes) {
+    }
+
+    /**
+     * State of a row over several change sets: whether it existed before the
+     * first one, and whether it exists after the last one with which value.
+     */
+    private static final class Merged {
+        private final boolean existed;
+
+        private boolean present;
+
+        private double value;
+
+        private Merged(boolean existed) {
+            this.existed = existed;
+        }
+    }
+
+    /**
+     * Current version and rows of a scope, and its last changes.
+     */
+    private static final class Scope {
+        private long version;
+
+        private MeasurementColumns rows;
+
+        private final Deque<ChangeSet> changes = new ArrayDeque<>();
+
+        private Scope(long version, MeasurementColumns rows) {
+            this.version = version;
+            this.rows = rows;
+        }
+    }
+}
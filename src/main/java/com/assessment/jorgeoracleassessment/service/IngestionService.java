@@ -0,0 +1,305 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.assessment.jorgeoracleassessment.config.UpstreamRateLimiter;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.repository.MeasurementSnapshot;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore.SharedMeasurement;
+import com.assessment.jorgeoracleassessment.repository.SnapshotFile;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Service which periodically crawls the locations of every country for each
+ * of the configured air quality parameters and keeps them in an off-heap
+ * snapshot. Each ingestion builds a new snapshot with a greater version,
+ * which replaces the previous one atomically, so the readers always see a
+ * whole snapshot. It's disabled by default, and it only ingests the
+ * parameters listed explicitly, since each one is a worldwide crawl.
+ * 
+ * The ingestions run on a scheduler of their own, and request their pages
+ * one by one within a rate budget of their own, lower than the upstream
+ * rate limit, so they never take the page fetch threads nor the whole
+ * upstream quota from the requests of the users. A snapshot older than the
+ * stale age is still served, flagged as stale with its age, until it's
+ * older than the max age.
+ * 
+ * The last snapshot, the air quality parameters and the cached
+ * measurements are saved to a file after each ingestion, periodically and
+ * when the application stops, whether ingestion is enabled or not. The file
+ * is read back when the application starts, so a restarted node answers
+ * from them while the catalog, the cache and the first ingestion are
+ * refreshed.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Service
+public class IngestionService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestionService.class);
+
+    @Autowired
+    private OpenAQClient client;
+
+    @Autowired
+    private ParameterCatalog parameterCatalog;
+
+    @Autowired
+    private LocationCrawler locationCrawler;
+
+    @Autowired
+    private StationIndexCache stationIndexCache;
+
+    @Autowired
+    private MeasurementCache measurementCache;
+
+    @Autowired
+    @Qualifier("ingestionScheduler")
+    private ScheduledExecutorService ingestionScheduler;
+
+    @Value("${ingestion.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * Air quality parameters to ingest; nothing is ingested if it's empty.
+     */
+    @Value("${ingestion.parameters:}")
+    private List<String> parameters;
+
+    @Value("${ingestion.initialDelay:0}")
+    private long initialDelay;
+
+    @Value("${ingestion.interval:900000}")
+    private long interval;
+
+    /**
+     * Upstream requests per second of the ingestions.
+     */
+    @Value("${ingestion.rateLimit:1}")
+    private double rateLimit;
+
+    @Value("${ingestion.staleAge:1800000}")
+    private long staleAge;
+
+    @Value("${ingestion.maxAge:21600000}")
+    private long maxAge;
+
+    private UpstreamRateLimiter rateLimiter;
+
+    /**
+     * Path of the snapshot file; it's not saved if it's empty.
+     */
+    @Value("${snapshot.file:}")
+    private String snapshotPath;
+
+    /**
+     * Time, in milliseconds, between two saves of the snapshot file.
+     */
+    @Value("${snapshot.saveInterval:900000}")
+    private long saveInterval;
+
+    private SnapshotFile snapshotFile;
+
+    /**
+     * Lock of the writes of the snapshot file, apart from the ingestions, so
+     * the save when the application stops doesn't wait for an ingestion.
+     */
+    private final Object saveLock = new Object();
+
+    private final AtomicReference<MeasurementSnapshot> snapshot = new AtomicReference<>();
+
+    /**
+     * Method that restores the snapshot file, schedules its saves and, if
+     * they are enabled, schedules the ingestions.
+     */
+    @PostConstruct
+    public void start() {
+        restore();
+        if (snapshotFile != null) {
+            ingestionScheduler.scheduleWithFixedDelay(this::save, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+        }
+
+        if (!enabled) {
+            return;
+        }
+        if (parameters.isEmpty()) {
+            LOGGER.warn("Ingestion is enabled but no parameters are listed in ingestion.parameters");
+            return;
+        }
+
+        rateLimiter = new UpstreamRateLimiter(rateLimit, 1, 1, Duration.ZERO, Duration.ZERO, Clock.systemUTC());
+        ingestionScheduler.scheduleWithFixedDelay(this::ingest, initialDelay, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method that saves the snapshot file when the application stops.
+     */
+    @PreDestroy
+    public void stop() {
+        save();
+    }
+
+    /**
+     * Method that reads the snapshot file saved by a previous run, if there
+     * is one, and restores its snapshot, air quality parameters and cached
+     * measurements. A missing, truncated or corrupted file is ignored.
+     */
+    private void restore() {
+        if (snapshotPath.isEmpty()) {
+            return;
+        }
+
+        snapshotFile = new SnapshotFile(Path.of(snapshotPath));
+        try {
+            SnapshotFile.Contents contents = snapshotFile.read();
+            if (contents != null) {
+                if (!contents.parameters().isEmpty()) {
+                    parameterCatalog.restore(contents.parameters());
+                }
+                if (contents.snapshot() != null) {
+                    publish(contents.snapshot());
+                    LOGGER.info("Restored snapshot {} with {} stations from {}", contents.snapshot().version(),
+                            contents.snapshot().size(), snapshotFile.getPath());
+                }
+                contents.measurements().forEach((key, measurement) -> {
+                    try {
+                        measurementCache.restore(MeasurementQuery.fromKey(key), measurement);
+                    } catch (IllegalArgumentException ex) {
+                        LOGGER.warn("Skipped the cached measurements of {}", key, ex);
+                    }
+                });
+                LOGGER.info("Restored {} parameters and {} cached queries from {}", contents.parameters().size(),
+                        contents.measurements().size(), snapshotFile.getPath());
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Could not restore the snapshot from {}", snapshotFile.getPath(), ex);
+        }
+    }
+
+    /**
+     * Method that retrieves the current snapshot if it has the air quality
+     * parameter and it isn't older than the max age.
+     * 
+     * @param parameter Air quality parameter
+     * @return MeasurementSnapshot with the parameter, or null if there isn't
+     *         one.
+     */
+    public MeasurementSnapshot getSnapshot(String parameter) {
+        MeasurementSnapshot current = snapshot.get();
+        if (current == null || !current.hasParameter(parameter)
+                || System.currentTimeMillis() - current.createdAt() > maxAge) {
+            return null;
+        }
+
+        return current;
+    }
+
+    /**
+     * @param snapshot Snapshot returned by getSnapshot.
+     * @return Flag which indicates if the snapshot is older than the stale
+     *         age, so its measurements must be flagged as stale.
+     */
+    public boolean isStale(MeasurementSnapshot snapshot) {
+        return System.currentTimeMillis() - snapshot.createdAt() > staleAge;
+    }
+
+    /**
+     * Method that crawls every configured air quality parameter and
+     * replaces the current snapshot with them. The parameters which fail are
+     * left out of the new snapshot, so their queries go to the REST API
+     * client; if all of them fail, the current snapshot is kept.
+     * 
+     * @return Flag which indicates if the snapshot was replaced or not.
+     */
+    public synchronized boolean ingest() {
+        if (!enabled || rateLimiter == null) {
+            return false;
+        }
+
+        MeasurementSnapshot.Builder builder = new MeasurementSnapshot.Builder();
+        int ingested = 0;
+        for (String parameter : parameters) {
+            try {
+                List<LocationPage> pages = new ArrayList<>();
+                locationCrawler.crawl(page -> {
+                    rateLimiter.acquire();
+                    return client.getLocationPage(parameter, null, null, null, -1, page);
+                }, LocationPage::meta, pages::add, Runnable::run);
+
+                pages.forEach(page -> builder.add(parameter, page));
+                ingested++;
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not ingest the locations of {}", parameter, ex);
+            }
+        }
+
+        if (ingested == 0) {
+            return false;
+        }
+
+        MeasurementSnapshot previous = snapshot.get();
+        MeasurementSnapshot next = builder.build(previous == null ? 1 : previous.version() + 1,
+                System.currentTimeMillis());
+        publish(next);
+
+        LOGGER.info("Ingested snapshot {} with {} stations and {} parameters", next.version(), next.size(),
+                next.parameters().size());
+        save();
+        return true;
+    }
+
+    /**
+     * Method that saves the current snapshot, if there is one, the air
+     * quality parameters, if they were loaded, and the cached measurements
+     * to the snapshot file, if there is one.
+     */
+    public void save() {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        Map<String, SharedMeasurement> measurements = new LinkedHashMap<>();
+        measurementCache.export().forEach((query, measurement) -> measurements.put(query.key(), measurement));
+        synchronized (saveLock) {
+            try {
+                snapshotFile.write(snapshot.get(),
+                        parameterCatalog.isLoaded() ? parameterCatalog.getAll() : List.of(), measurements);
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Could not save the snapshot to {}", snapshotFile.getPath(), ex);
+            }
+        }
+    }
+
+    /**
+     * Method that replaces the current snapshot and the station indexes of
+     * its air quality parameters.
+     * 
+     * @param next New snapshot.
+     */
+    private void publish(MeasurementSnapshot next) {
+        snapshot.set(next);
+
+        for (String parameter : next.parameters()) {
+            stationIndexCache.put(parameter, StationIndex.build(next.rows(parameter), next.createdAt()));
+        }
+    }
+}
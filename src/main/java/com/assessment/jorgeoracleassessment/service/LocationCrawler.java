@@ -0,0 +1,281 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.assessment.jorgeoracleassessment.models.input.InputMeta;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+
+/**
+ * Service which retrieves every page of a locations query to the
+ * src/main/java/com/assessment/jorgeoracleassessment/repository/OpenAQClient.java
+ * REST API Client. The first page is requested alone to know how many pages
+ * there are; the rest of them are requested concurrently and sent in page
+ * order. If the count of the first page is only an estimate, the pages
+ * after the ones it accounts for are requested one by one until one comes
+ * back short or empty.
+ * 
+ * Each crawl keeps at most page.fetchConcurrency pages in flight, requesting
+ * the next page as each one arrives, so a large crawl never fills the queue
+ * of the shared page fetch executor ahead of the pages of other queries.
+ * 
+ * The asynchronous variant chains the futures of the pages instead of
+ * waiting for them, so a crawl holds no thread while the upstream answers.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Service
+public class LocationCrawler {
+    @Autowired
+    @Qualifier("pageFetchExecutor")
+    private ExecutorService pageFetchExecutor;
+
+    @Value("${page.fetchConcurrency:4}")
+    private int fetchConcurrency;
+
+    /**
+     * Method that retrieves all the pages of a locations query and sends
+     * them to the consumer in page order. If a page fails, the pending pages
+     * are cancelled and the original exception is rethrown.
+     * 
+     * @param pageFetcher  Function which requests a given page to the REST API
+     *                     client.
+     * @param pageConsumer Function which receives each page.
+     */
+    public void crawl(IntFunction<LocationPage> pageFetcher, Consumer<LocationPage> pageConsumer) {
+        crawl(pageFetcher, LocationPage::meta, pageConsumer);
+    }
+
+    /**
+     * Method that retrieves all the pages of a locations query, whatever
+     * their representation is, and sends them to the consumer in page order.
+     * 
+     * @param <P>          Type of the pages.
+     * @param pageFetcher  Function which requests a given page to the REST API
+     *                     client.
+     * @param metaGetter   Function which returns the metadata of a page.
+     * @param pageConsumer Function which receives each page.
+     */
+    public <P> void crawl(IntFunction<P> pageFetcher, Function<P, InputMeta> metaGetter, Consumer<P> pageConsumer) {
+        crawl(pageFetcher, metaGetter, pageConsumer, pageFetchExecutor);
+    }
+
+    /**
+     * Method that retrieves all the pages of a locations query with the
+     * given executor instead of the shared page fetch executor; a direct
+     * executor requests them one by one on the calling thread.
+     * 
+     * @param <P>           Type of the pages.
+     * @param pageFetcher   Function which requests a given page to the REST
+     *                      API client.
+     * @param metaGetter    Function which returns the metadata of a page.
+     * @param pageConsumer  Function which receives each page.
+     * @param fetchExecutor Executor of the requests of the pages after the
+     *                      first one.
+     */
+    public <P> void crawl(IntFunction<P> pageFetcher, Function<P, InputMeta> metaGetter, Consumer<P> pageConsumer,
+            Executor fetchExecutor) {
+        // Calling REST API client to get the first page, which tells us how
+        // many pages we have to request.
+        P firstPage = pageFetcher.apply(1);
+        int pages = metaGetter.apply(firstPage).pages();
+
+        // Requesting the remaining pages concurrently, a window of them at a
+        // time.
+        List<CompletableFuture<P>> remainingPages = new ArrayList<>();
+        for (int page = 2; page <= pages; page++) {
+            remainingPages.add(new CompletableFuture<>());
+        }
+        AtomicInteger nextPage = new AtomicInteger(2);
+        for (int i = 0; i < Math.max(1, fetchConcurrency); i++) {
+            requestNextPage(page -> CompletableFuture.supplyAsync(() -> pageFetcher.apply(page), fetchExecutor),
+                    remainingPages, nextPage);
+        }
+
+        try {
+            P page = firstPage;
+            P lastPage = firstPage;
+            for (int next = 0; page != null; next++) {
+                pageConsumer.accept(page);
+                lastPage = page;
+
+                page = next < remainingPages.size() ? awaitPage(remainingPages.get(next)) : null;
+            }
+
+            // The count was an estimate and the last page was full.
+            for (int next = pages + 1; metaGetter.apply(lastPage).hasMorePages(); next++) {
+                lastPage = pageFetcher.apply(next);
+                pageConsumer.accept(lastPage);
+            }
+        } catch (RuntimeException ex) {
+            // Nobody will consume the pending pages.
+            remainingPages.forEach(pending -> pending.cancel(true));
+            throw ex;
+        }
+    }
+
+    /**
+     * Asynchronous variant of crawl, for page fetchers which return futures.
+     * The pages after the first one are requested page.fetchConcurrency at
+     * a time, and they are sent to the consumer in page order as they
+     * arrive, one at a time.
+     * If a page fails, the pending pages are cancelled and the returned
+     * future fails with its exception.
+     * 
+     * @param pageFetcher  Function which requests a given page to the REST API
+     *                     client.
+     * @param pageConsumer Function which receives each page.
+     * @return Future completed when every page has been consumed.
+     */
+    public CompletableFuture<Void> crawlAsync(IntFunction<CompletableFuture<LocationPage>> pageFetcher,
+            Consumer<LocationPage> pageConsumer) {
+        return pageFetcher.apply(1).thenCompose(firstPage -> {
+            int pages = firstPage.meta().pages();
+
+            // Each remaining page is completed when its request, started
+            // once there's room in the window, answers.
+            List<CompletableFuture<LocationPage>> remainingPages = new ArrayList<>();
+            for (int page = 2; page <= pages; page++) {
+                remainingPages.add(new CompletableFuture<>());
+            }
+            CompletableFuture<Void> consumed = CompletableFuture.completedFuture(null);
+            try {
+                pageConsumer.accept(firstPage);
+                AtomicInteger nextPage = new AtomicInteger(2);
+                for (int i = 0; i < Math.max(1, fetchConcurrency); i++) {
+                    requestNextPage(pageFetcher, remainingPages, nextPage);
+                }
+                for (CompletableFuture<LocationPage> remainingPage : remainingPages) {
+                    // Each page is consumed after the previous one.
+                    consumed = consumed.thenCombine(remainingPage, (previous, next) -> {
+                        pageConsumer.accept(next);
+                        return null;
+                    });
+                }
+            } catch (RuntimeException ex) {
+                consumed = CompletableFuture.failedFuture(ex);
+            }
+
+            CompletableFuture<LocationPage> lastPage = remainingPages.isEmpty()
+                    ? CompletableFuture.completedFuture(firstPage)
+                    : remainingPages.get(remainingPages.size() - 1);
+            consumed = consumed.thenCompose(
+                    done -> crawlBeyondEstimate(pageFetcher, pageConsumer, lastPage.join(), pages + 1));
+
+            return consumed.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    // Nobody will consume the pending pages.
+                    remainingPages.forEach(pending -> pending.cancel(true));
+                }
+            });
+        });
+    }
+
+    /**
+     * Method that requests the next remaining page of a crawl, and the
+     * following one once it answers, so the number of pages in flight stays
+     * the same. The pages which answer at once, e.g. with a direct executor,
+     * are followed in a loop instead of a recursion. A page cancelled
+     * because the crawl failed is not requested, nor the pages after a page
+     * which failed, since the crawl fails with it.
+     * 
+     * @param <P>            Type of the pages.
+     * @param pageFetcher    Function which requests a given page to the REST
+     *                       API client.
+     * @param remainingPages Futures of the pages after the first one.
+     * @param nextPage       Number of the next page to request.
+     */
+    private <P> void requestNextPage(IntFunction<CompletableFuture<P>> pageFetcher,
+            List<CompletableFuture<P>> remainingPages, AtomicInteger nextPage) {
+        while (true) {
+            int page = nextPage.getAndIncrement();
+            if (page - 2 >= remainingPages.size() || remainingPages.get(page - 2).isDone()) {
+                return;
+            }
+
+            CompletableFuture<P> remainingPage = remainingPages.get(page - 2);
+            CompletableFuture<P> request;
+            try {
+                request = pageFetcher.apply(page);
+            } catch (RuntimeException ex) {
+                remainingPage.completeExceptionally(ex);
+                return;
+            }
+
+            remainingPage.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    request.cancel(true);
+                }
+            });
+            request.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    remainingPage.completeExceptionally(
+                            ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                } else {
+                    remainingPage.complete(result);
+                }
+            });
+            if (!request.isDone()) {
+                request.thenRun(() -> requestNextPage(pageFetcher, remainingPages, nextPage));
+                return;
+            }
+            if (request.isCompletedExceptionally()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method that requests the pages after the ones an estimated count
+     * accounts for, one by one, while the previous page is full.
+     * 
+     * @param pageFetcher  Function which requests a given page to the REST API
+     *                     client.
+     * @param pageConsumer Function which receives each page.
+     * @param lastPage     Last page consumed.
+     * @param next         Number of the next page.
+     * @return Future completed when every page has been consumed.
+     */
+    private CompletableFuture<Void> crawlBeyondEstimate(IntFunction<CompletableFuture<LocationPage>> pageFetcher,
+            Consumer<LocationPage> pageConsumer, LocationPage lastPage, int next) {
+        if (!lastPage.meta().hasMorePages()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return pageFetcher.apply(next).thenCompose(page -> {
+            pageConsumer.accept(page);
+            return crawlBeyondEstimate(pageFetcher, pageConsumer, page, next + 1);
+        });
+    }
+
+    /**
+     * Method that waits for a page requested concurrently. If the request
+     * failed, the original exception is rethrown.
+     * 
+     * @param page Page being waited.
+     * @return The page.
+     */
+    private <P> P awaitPage(CompletableFuture<P> page) {
+        try {
+            return page.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+}
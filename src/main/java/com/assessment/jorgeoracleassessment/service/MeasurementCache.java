@@ -0,0 +1,647 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore.SharedMeasurement;
+
+/**
+ * Bounded cache of the measurements returned to the frontend. The entries
+ * are fresh during the TTL; after that, and during the stale TTL, they are
+ * still served while a single background refresh runs. The least recently
+ * used entries are evicted when the estimated size of the cache exceeds its
+ * memory cap.
+ * 
+ * The entries which are too old to be served are loaded again, but they are
+ * kept until they are evicted, as the last known measurements to fall back
+ * to if the upstream is down.
+ * 
+ * With a SharedMeasurementStore it's the near-cache of a shared tier: the
+ * measurements which must be loaded are looked up there first, and the ones
+ * loaded are written there, so the other instances serve them too. The
+ * entries read from it keep the time they were crawled, so they expire here
+ * when they expire there. A stale entry is only refreshed by the instance
+ * which acquires its lease; the others serve the stale one meanwhile, and
+ * look it up in the shared tier again only after a back-off of a tenth of
+ * the stale TTL. The measurements which aren't cached anywhere are only
+ * loaded by the instance which acquires their lease too; the others wait
+ * for them to be shared during that back-off, and load them on their own if
+ * they aren't.
+ * 
+ * Every lookup is counted as a hit, a stale hit or a miss in the
+ * "cache.gets" counter, for both tiers, and the size of the cache is
+ * exposed as gauges.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MeasurementCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeasurementCache.class);
+
+    /**
+     * Estimated size of an OutputResponse without rows.
+     */
+    private static final long RESPONSE_BYTES = 256;
+
+    /**
+     * Estimated size of each OutputRow (the row, its two coordinate strings
+     * and its reference in the data set) when the data set is not stored in
+     * MeasurementColumns.
+     */
+    private static final long ROW_BYTES = 128;
+
+    /**
+     * Time, in milliseconds, between the lookups of measurements which
+     * another instance is loading.
+     */
+    private static final long LEASE_POLL = 250;
+
+    /**
+     * Maximum time, in milliseconds, a request thread waits for measurements
+     * which another instance is loading before loading them itself.
+     */
+    private static final long MAX_LEASE_WAIT = 2000;
+
+    private final long ttl;
+
+    private final long staleTtl;
+
+    private final long leaseBackoff;
+
+    private final long maxBytes;
+
+    private final Executor refreshExecutor;
+
+    private final Clock clock;
+
+    private final MetricsRegistry metricsRegistry;
+
+    private final SharedMeasurementStore sharedStore;
+
+    private final LinkedHashMap<MeasurementQuery, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+
+    /**
+     * @param ttl             Time, in milliseconds, an entry is fresh.
+     * @param staleTtl        Time, in milliseconds, an entry is served stale
+     *                        after its TTL while it's refreshed.
+     * @param maxBytes        Memory cap, in estimated bytes.
+     * @param refreshExecutor Executor of the background refreshes.
+     * @param clock           Clock used to measure the age of the entries.
+     */
+    public MeasurementCache(long ttl, long staleTtl, long maxBytes, Executor refreshExecutor, Clock clock) {
+        this(ttl, staleTtl, maxBytes, refreshExecutor, clock, new MetricsRegistry());
+    }
+
+    /**
+     * @param ttl             Time, in milliseconds, an entry is fresh.
+     * @param staleTtl        Time, in milliseconds, an entry is served stale
+     *                        after its TTL while it's refreshed.
+     * @param maxBytes        Memory cap, in estimated bytes.
+     * @param refreshExecutor Executor of the background refreshes.
+     * @param clock           Clock used to measure the age of the entries.
+     * @param metricsRegistry Registry of the cache metrics.
+     */
+    public MeasurementCache(long ttl, long staleTtl, long maxBytes, Executor refreshExecutor, Clock clock,
+            MetricsRegistry metricsRegistry) {
+        this(ttl, staleTtl, maxBytes, refreshExecutor, clock, metricsRegistry, SharedMeasurementStore.none());
+    }
+
+    /**
+     * @param ttl             Time, in milliseconds, an entry is fresh.
+     * @param staleTtl        Time, in milliseconds, an entry is served stale
+     *                        after its TTL while it's refreshed.
+     * @param maxBytes        Memory cap, in estimated bytes.
+     * @param refreshExecutor Executor of the background refreshes.
+     * @param clock           Clock used to measure the age of the entries.
+     * @param metricsRegistry Registry of the cache metrics.
+     * @param sharedStore     Shared tier behind this cache.
+     */
+    public MeasurementCache(long ttl, long staleTtl, long maxBytes, Executor refreshExecutor, Clock clock,
+            MetricsRegistry metricsRegistry, SharedMeasurementStore sharedStore) {
+        this.ttl = ttl;
+        this.staleTtl = staleTtl;
+        this.leaseBackoff = staleTtl / 10;
+        this.maxBytes = maxBytes;
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+        this.metricsRegistry = metricsRegistry;
+        this.sharedStore = sharedStore;
+
+        metricsRegistry.gauge("cache.size", this::size, "cache", "measurements");
+        metricsRegistry.gauge("cache.bytes", this::usedBytes, "cache", "measurements");
+    }
+
+    /**
+     * Method that retrieves the measurements of a query. If they are not
+     * cached, or they are too old to be served, they are read from the shared
+     * tier or loaded by the calling thread. If they are stale, they are
+     * returned at once and refreshed in the background.
+     * 
+     * @param query  Measurements query.
+     * @param loader Function which loads the measurements of the query.
+     * @return OutputResponse of the query.
+     */
+    public OutputResponse get(MeasurementQuery query, Supplier<OutputResponse> loader) {
+        Lookup lookup = lookup(query);
+
+        if (lookup.entry() == null) {
+            return load(query, loader);
+        }
+
+        if (lookup.refresh()) {
+            refreshInBackground(query, lookup.entry(), loader);
+        }
+
+        return lookup.entry().value;
+    }
+
+    /**
+     * Asynchronous variant of get, for loaders which return a future. If the
+     * measurements are not cached, or they are too old to be served, the
+     * returned future completes when they are loaded. If they are stale, they
+     * are returned at once and the loader refreshes them without any thread
+     * of the refresh executor.
+     * 
+     * @param query  Measurements query.
+     * @param loader Function which starts loading the measurements of the
+     *               query and returns their future.
+     * @return Future of the OutputResponse of the query.
+     */
+    public CompletableFuture<OutputResponse> getAsync(MeasurementQuery query,
+            Supplier<CompletableFuture<OutputResponse>> loader) {
+        Lookup lookup = lookup(query);
+
+        if (lookup.entry() == null) {
+            Adoption adoption = adoptShared(query);
+            CompletableFuture<Adoption> adopted = adoption.leased()
+                    ? awaitSharedAsync(query, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseBackoff))
+                    : CompletableFuture.completedFuture(adoption);
+            return adopted.thenCompose(shared -> shared.value() != null
+                    ? CompletableFuture.completedFuture(shared.value())
+                    : loadAsync(query, loader));
+        }
+
+        if (lookup.refresh()) {
+            Entry entry = lookup.entry();
+            CompletableFuture<OutputResponse> refreshed;
+            try {
+                OutputResponse shared = adoptShared(query).value();
+                refreshed = shared != null ? CompletableFuture.completedFuture(shared) : loadAsync(query, loader);
+            } catch (RuntimeException ex) {
+                refreshed = CompletableFuture.failedFuture(ex);
+            }
+            refreshed.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    LOGGER.warn("Could not refresh the cached measurements of {}", query, ex);
+                    synchronized (this) {
+                        entry.refreshing = false;
+                    }
+                }
+            });
+        }
+
+        return CompletableFuture.completedFuture(lookup.entry().value);
+    }
+
+    /**
+     * Method that retrieves the measurements of a query only if they can be
+     * served (fresh or stale), without loading nor refreshing them.
+     * 
+     * @param query Measurements query.
+     * @return OutputResponse of the query, or null if it's not cached.
+     */
+    public synchronized OutputResponse getIfPresent(MeasurementQuery query) {
+        Entry entry = entries.get(query);
+        long age = entry == null ? Long.MAX_VALUE : clock.millis() - entry.loadedAt;
+        if (age >= ttl + staleTtl) {
+            count("miss");
+            return null;
+        }
+
+        count(age >= ttl ? "stale" : "hit");
+        return entry.value;
+    }
+
+    /**
+     * Method that retrieves the last measurements loaded for a query,
+     * whatever their age is, to answer it when they can't be loaded again.
+     * 
+     * @param query Measurements query.
+     * @return OutputResponse of the query flagged as stale with its age, or
+     *         null if it was never loaded or it was evicted, here and in the
+     *         shared tier.
+     */
+    public OutputResponse getLastKnown(MeasurementQuery query) {
+        synchronized (this) {
+            Entry entry = entries.get(query);
+            if (entry != null) {
+                return entry.value.asStale((clock.millis() - entry.loadedAt) / 1000);
+            }
+        }
+
+        SharedMeasurement shared = readShared(query);
+        if (shared == null) {
+            return null;
+        }
+        return shared.value().asStale((clock.millis() - shared.loadedAt()) / 1000);
+    }
+
+    /**
+     * Method that stores the measurements just loaded for a query, here and
+     * in the shared tier, and releases its lease if this instance holds it.
+     * 
+     * @param query Measurements query.
+     * @param value OutputResponse of the query.
+     */
+    public void put(MeasurementQuery query, OutputResponse value) {
+        long loadedAt = clock.millis();
+        put(query, value, loadedAt);
+        try {
+            sharedStore.put(query.key(), new SharedMeasurement(value, loadedAt));
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not share the measurements of {}", query, ex);
+        }
+        releaseLease(query);
+    }
+
+    /**
+     * Method that stores the measurements of a query in this cache, evicting
+     * the least recently used entries if the memory cap is exceeded.
+     */
+    private synchronized void put(MeasurementQuery query, OutputResponse value, long loadedAt) {
+        long weight = weigh(value);
+        if (weight > maxBytes) {
+            // It would evict everything else and then itself.
+            remove(query);
+            return;
+        }
+
+        Entry previous = entries.put(query, new Entry(value, loadedAt, weight));
+        if (previous != null) {
+            usedBytes -= previous.weight;
+        }
+        usedBytes += weight;
+
+        Iterator<Map.Entry<MeasurementQuery, Entry>> eldest = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return Measurements of every cached query with the time they were
+     *         loaded, from the least to the most recently used, so they can
+     *         be saved and restored by the next run.
+     */
+    public synchronized Map<MeasurementQuery, SharedMeasurement> export() {
+        Map<MeasurementQuery, SharedMeasurement> exported = new LinkedHashMap<>();
+        entries.forEach((query, entry) -> exported.put(query, new SharedMeasurement(entry.value, entry.loadedAt)));
+        return exported;
+    }
+
+    /**
+     * Method that stores the measurements of a query saved by a previous
+     * run, with the time they were loaded, unless newer ones are cached.
+     * They are served while they are fresh or stale, and kept as the last
+     * known measurements after that.
+     * 
+     * @param query Measurements query.
+     * @param saved Measurements saved and the time they were loaded.
+     */
+    public synchronized void restore(MeasurementQuery query, SharedMeasurement saved) {
+        Entry entry = entries.get(query);
+        if (entry == null || entry.loadedAt < saved.loadedAt()) {
+            put(query, saved.value(), saved.loadedAt());
+        }
+    }
+
+    /**
+     * @return Number of cached queries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Estimated bytes used by the cached queries.
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Method that finds the entry of a query, removing it if it's too old to
+     * be served. If it's stale and nobody is refreshing it, it's flagged as
+     * refreshing and the caller is told to refresh it.
+     */
+    private synchronized Lookup lookup(MeasurementQuery query) {
+        Entry entry = entries.get(query);
+        if (entry == null) {
+            count("miss");
+            return new Lookup(null, false);
+        }
+
+        long age = clock.millis() - entry.loadedAt;
+        if (age >= ttl + staleTtl) {
+            // It's kept as the last known measurements.
+            count("miss");
+            return new Lookup(null, false);
+        }
+
+        count(age >= ttl ? "stale" : "hit");
+        if (age >= ttl && !entry.refreshing && clock.millis() >= entry.retryAt) {
+            entry.refreshing = true;
+            return new Lookup(entry, true);
+        }
+
+        return new Lookup(entry, false);
+    }
+
+    /**
+     * Method that reloads a stale entry in the background. While it's
+     * reloaded, the stale entry keeps being served; if the reload fails, it's
+     * kept until it expires.
+     */
+    private void refreshInBackground(MeasurementQuery query, Entry entry, Supplier<OutputResponse> loader) {
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(query, loader);
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Could not refresh the cached measurements of {}", query, ex);
+                    synchronized (this) {
+                        entry.refreshing = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            synchronized (this) {
+                entry.refreshing = false;
+            }
+        }
+    }
+
+    /**
+     * Method that reads the measurements of a query from the shared tier, or
+     * loads them by the calling thread if they can't be served from there.
+     */
+    private OutputResponse load(MeasurementQuery query, Supplier<OutputResponse> loader) {
+        Adoption adoption = adoptShared(query);
+        if (adoption.leased()) {
+            adoption = awaitShared(query);
+        }
+        if (adoption.value() != null) {
+            return adoption.value();
+        }
+
+        OutputResponse value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException ex) {
+            releaseLease(query);
+            throw ex;
+        }
+        put(query, value);
+        return value;
+    }
+
+    /**
+     * Asynchronous variant of load, once the shared tier was looked up.
+     */
+    private CompletableFuture<OutputResponse> loadAsync(MeasurementQuery query,
+            Supplier<CompletableFuture<OutputResponse>> loader) {
+        CompletableFuture<OutputResponse> loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException ex) {
+            loaded = CompletableFuture.failedFuture(ex);
+        }
+        return loaded.whenComplete((value, ex) -> {
+            if (ex != null) {
+                releaseLease(query);
+            }
+        }).thenApply(value -> {
+            put(query, value);
+            return value;
+        });
+    }
+
+    /**
+     * Method that stores in this cache the measurements of a query found in
+     * the shared tier, with the time they were crawled. Fresh ones are always
+     * adopted; stale ones only if another instance holds the lease to
+     * refresh them, and they aren't refreshed here until the back-off has
+     * passed. If the shared tier has no newer version than the one cached
+     * here, the cached one is kept instead.
+     * 
+     * @return Adoption with the OutputResponse adopted; without it if the
+     *         caller has to load it, or if another instance is loading it.
+     */
+    private Adoption adoptShared(MeasurementQuery query) {
+        SharedMeasurement shared = readShared(query);
+        SharedMeasurement cached = cached(query);
+        if (cached != null && (shared == null || shared.loadedAt() <= cached.loadedAt())) {
+            shared = cached;
+        }
+
+        long age = shared == null ? Long.MAX_VALUE : clock.millis() - shared.loadedAt();
+        if (age >= ttl + staleTtl) {
+            countShared("miss");
+            return new Adoption(null, !tryLease(query));
+        }
+
+        if (age >= ttl && tryLease(query)) {
+            countShared("stale");
+            return new Adoption(null, false);
+        }
+
+        countShared(age >= ttl ? "stale" : "hit");
+        adopt(query, shared, age >= ttl ? clock.millis() + leaseBackoff : 0);
+        return new Adoption(shared.value(), false);
+    }
+
+    /**
+     * Method that waits, during the back-off but no longer than
+     * MAX_LEASE_WAIT, for the measurements which another instance is loading
+     * to be shared, since it blocks the calling thread.
+     * 
+     * @return Adoption with the OutputResponse shared, or without it if the
+     *         caller has to load it.
+     */
+    private Adoption awaitShared(MeasurementQuery query) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(leaseBackoff, MAX_LEASE_WAIT));
+        try {
+            while (System.nanoTime() < deadline) {
+                Thread.sleep(Math.min(LEASE_POLL, leaseBackoff));
+                OutputResponse shared = adoptServable(query);
+                if (shared != null) {
+                    return new Adoption(shared, false);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return new Adoption(null, false);
+    }
+
+    /**
+     * Asynchronous variant of awaitShared, which waits without blocking any
+     * thread.
+     */
+    private CompletableFuture<Adoption> awaitSharedAsync(MeasurementQuery query, long deadline) {
+        if (System.nanoTime() >= deadline) {
+            return CompletableFuture.completedFuture(new Adoption(null, false));
+        }
+
+        Executor delayed = CompletableFuture.delayedExecutor(Math.min(LEASE_POLL, leaseBackoff),
+                TimeUnit.MILLISECONDS);
+        return CompletableFuture.supplyAsync(() -> adoptServable(query), delayed).thenCompose(shared -> shared != null
+                ? CompletableFuture.completedFuture(new Adoption(shared, false))
+                : awaitSharedAsync(query, deadline));
+    }
+
+    /**
+     * @return OutputResponse of a query adopted from the shared tier if it
+     *         can be served, or null if it's not there yet.
+     */
+    private OutputResponse adoptServable(MeasurementQuery query) {
+        SharedMeasurement shared = readShared(query);
+        long age = shared == null ? Long.MAX_VALUE : clock.millis() - shared.loadedAt();
+        if (age >= ttl + staleTtl) {
+            return null;
+        }
+
+        countShared(age >= ttl ? "stale" : "hit");
+        adopt(query, shared, age >= ttl ? clock.millis() + leaseBackoff : 0);
+        return shared.value();
+    }
+
+    /**
+     * Method that stores in this cache the measurements of a query adopted
+     * from the shared tier. If the same version is already cached, its entry
+     * is kept, and it's no longer flagged as refreshing.
+     * 
+     * @param retryAt Time, in epoch milliseconds, before which the entry
+     *                isn't refreshed.
+     */
+    private synchronized void adopt(MeasurementQuery query, SharedMeasurement shared, long retryAt) {
+        Entry entry = entries.get(query);
+        if (entry == null || entry.loadedAt != shared.loadedAt()) {
+            put(query, shared.value(), shared.loadedAt());
+            entry = entries.get(query);
+        }
+
+        if (entry != null) {
+            entry.refreshing = false;
+            entry.retryAt = retryAt;
+        }
+    }
+
+    /**
+     * @return Measurements of a query cached here, with the time they were
+     *         loaded, or null if they are not cached.
+     */
+    private synchronized SharedMeasurement cached(MeasurementQuery query) {
+        Entry entry = entries.get(query);
+        return entry == null ? null : new SharedMeasurement(entry.value, entry.loadedAt);
+    }
+
+    private SharedMeasurement readShared(MeasurementQuery query) {
+        try {
+            return sharedStore.get(query.key());
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not read the shared measurements of {}", query, ex);
+            return null;
+        }
+    }
+
+    private boolean tryLease(MeasurementQuery query) {
+        try {
+            return sharedStore.tryLease(query.key());
+        } catch (RuntimeException ex) {
+            // Without the shared tier, every instance loads on its own.
+            return true;
+        }
+    }
+
+    private void releaseLease(MeasurementQuery query) {
+        try {
+            sharedStore.releaseLease(query.key());
+        } catch (RuntimeException ex) {
+            // It expires on its own.
+            LOGGER.warn("Could not release the lease of {}", query, ex);
+        }
+    }
+
+    private void count(String result) {
+        metricsRegistry.counter("cache.gets", "cache", "measurements", "result", result).increment();
+    }
+
+    private void countShared(String result) {
+        metricsRegistry.counter("cache.gets", "cache", "shared", "result", result).increment();
+    }
+
+    private void remove(MeasurementQuery query) {
+        Entry removed = entries.remove(query);
+        if (removed != null) {
+            usedBytes -= removed.weight;
+        }
+    }
+
+    private static long weigh(OutputResponse value) {
+        if (value.dataSet() instanceof MeasurementColumns columns) {
+            return RESPONSE_BYTES + columns.sizeInBytes();
+        }
+        return RESPONSE_BYTES + ROW_BYTES * value.dataSet().size();
+    }
+
+    /**
+     * Entry found for a query, and whether the caller has to refresh it.
+     */
+    private record Lookup(Entry entry, boolean refresh) {
+    }
+
+    /**
+     * Measurements adopted from the shared tier, if any, and whether another
+     * instance holds the lease to load them.
+     */
+    private record Adoption(OutputResponse value, boolean leased) {
+    }
+
+    /**
+     * Cached measurements and the time they were loaded.
+     */
+    private static final class Entry {
+        private final OutputResponse value;
+
+        private final long loadedAt;
+
+        private final long weight;
+
+        private boolean refreshing;
+
+        private long retryAt;
+
+        private Entry(OutputResponse value, long loadedAt, long weight) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+            this.weight = weight;
+        }
+    }
+}
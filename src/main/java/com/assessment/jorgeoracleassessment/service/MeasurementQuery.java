@@ -0,0 +1,61 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Representation of a measurements query, either by country or by
+ * coordinates and radius. It's used as key to identify the results of
+ * equal queries.
+ * 
+ * @author Jorge Gonzalez
+ */
+public record MeasurementQuery(String parameter, String countryCode, String latitude, String longitude,
+        int radius) {
+
+    /**
+     * @param parameter   Air quality parameter
+     * @param countryCode ISO 3166-1 country code.
+     * @return MeasurementQuery by country. The country code is normalized so
+     *         "mx" and "MX" are the same query.
+     */
+    public static MeasurementQuery byCountry(String parameter, String countryCode) {
+        return new MeasurementQuery(parameter, countryCode.toUpperCase(Locale.ROOT), null, null, -1);
+    }
+
+    /**
+     * @param parameter Air quality parameter
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius of the previously setted coordinates in meters.
+     * @return MeasurementQuery by coordinates and radius.
+     */
+    public static MeasurementQuery byCoordinates(String parameter, String latitude, String longitude, int radius) {
+        return new MeasurementQuery(parameter, null, latitude, longitude, radius);
+    }
+
+    /**
+     * @return Key which identifies the query outside of this instance, in
+     *         the SharedMeasurementStore.
+     */
+    public String key() {
+        return String.join("|", parameter, Objects.toString(countryCode, ""), Objects.toString(latitude, ""),
+                Objects.toString(longitude, ""), Integer.toString(radius));
+    }
+
+    /**
+     * @param key Key returned by key().
+     * @return MeasurementQuery identified by the key.
+     * @throws IllegalArgumentException If the key is not a query key.
+     */
+    public static MeasurementQuery fromKey(String key) {
+        String[] parts = key.split("\\|", -1);
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Invalid measurements query key " + key);
+        }
+
+        return new MeasurementQuery(parts[0], parts[1].isEmpty() ? null : parts[1],
+                parts[2].isEmpty() ? null : parts[2], parts[3].isEmpty() ? null : parts[3],
+                Integer.parseInt(parts[4]));
+    }
+}
@@ -0,0 +1,201 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.assessment.jorgeoracleassessment.models.input.InputParameter;
+import com.assessment.jorgeoracleassessment.models.input.InputParameters;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
+
+/**
+ * In-memory catalog of the air quality parameters supported by OpenAQ,
+ * indexed by the parameter name. It is loaded when the application starts
+ * and refreshed in the background, so the requests never wait for the
+ * parameter list. If a refresh fails, the last loaded catalog is kept.
+ * 
+ * While it was never loaded (e.g. OpenAQ was unreachable when the
+ * application started), each lookup starts a background load, at most once
+ * per retry interval, and finds no parameters; the callers tell it apart
+ * from an empty catalog with isLoaded.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Service
+public class ParameterCatalog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParameterCatalog.class);
+
+    @Autowired
+    private OpenAQClient client;
+
+    @Autowired
+    @Qualifier("cacheRefreshExecutor")
+    private ExecutorService refreshExecutor;
+
+    /**
+     * Time, in milliseconds, between two loads while it was never loaded.
+     */
+    @Value("${parameters.retryInterval:30000}")
+    private long retryInterval;
+
+    /**
+     * Time, in epoch milliseconds, from which a lookup may start a load.
+     */
+    private final AtomicLong nextLoad = new AtomicLong();
+
+    /**
+     * Null until the catalog is loaded for the first time.
+     */
+    private volatile Map<String, InputParameter> parameters;
+
+    /**
+     * @return Flag which indicates if the catalog was ever loaded.
+     */
+    public boolean isLoaded() {
+        return parameters != null;
+    }
+
+    /**
+     * @return Milliseconds until a lookup may load the catalog again.
+     */
+    public long getRetryAfter() {
+        return Math.max(0, nextLoad.get() - System.currentTimeMillis());
+    }
+
+    /**
+     * Method that validates if the air quality parameter is valid or not.
+     * 
+     * @param name Air quality parameter
+     * @return Flag which indicates if the air quality parameter is valid or not.
+     */
+    public boolean contains(String name) {
+        return name != null && getParameters().containsKey(name);
+    }
+
+    /**
+     * @return Names of the air quality parameters.
+     */
+    public Set<String> names() {
+        return getParameters().keySet();
+    }
+
+    /**
+     * @return Details of every air quality parameter.
+     */
+    public List<InputParameter> getAll() {
+        return List.copyOf(getParameters().values());
+    }
+
+    /**
+     * Method that retrieves the details of an air quality parameter.
+     * 
+     * @param name Air quality parameter
+     * @return InputParameter with the details of the air quality parameter,
+     *         or null if it doesn't exist.
+     */
+    public InputParameter get(String name) {
+        return name == null ? null : getParameters().get(name);
+    }
+
+    /**
+     * Method that retrieves the display name of an air quality parameter.
+     * 
+     * @param name Air quality parameter
+     * @return Display name of the parameter, or an empty string if it doesn't
+     *         exist.
+     */
+    public String getDisplayName(String name) {
+        InputParameter parameter = get(name);
+        return parameter == null ? "" : parameter.displayName();
+    }
+
+    /**
+     * Method that reloads the catalog from the REST API client. It's run
+     * when the application starts and then periodically. If the REST API
+     * client fails, the previous catalog is kept.
+     * 
+     * @return Flag which indicates if the catalog was reloaded or not.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${parameters.refreshInterval:3600000}")
+    public synchronized boolean refresh() {
+        try {
+            InputParameters response = client.getParametersList();
+            Map<String, InputParameter> loaded = new HashMap<>();
+            for (InputParameter parameter : response.results()) {
+                loaded.put(parameter.name(), parameter);
+            }
+
+            parameters = Map.copyOf(loaded);
+            return true;
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not refresh the air quality parameters, keeping {} cached parameters",
+                    parameters == null ? 0 : parameters.size(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * Method that loads a catalog saved by a previous run, unless the
+     * catalog was already loaded from the REST API client.
+     * 
+     * @param saved Air quality parameters saved.
+     * @return Flag which indicates if the saved catalog was loaded or not.
+     */
+    public synchronized boolean restore(List<InputParameter> saved) {
+        if (parameters != null) {
+            return false;
+        }
+
+        Map<String, InputParameter> loaded = new HashMap<>();
+        for (InputParameter parameter : saved) {
+            loaded.put(parameter.name(), parameter);
+        }
+
+        parameters = Map.copyOf(loaded);
+        return true;
+    }
+
+    /**
+     * Method that returns the current catalog. If it was never loaded, a
+     * load is started in the background, unless one was started during the
+     * retry interval, and no parameters are returned.
+     * 
+     * @return Map of parameters by name.
+     */
+    private Map<String, InputParameter> getParameters() {
+        Map<String, InputParameter> current = parameters;
+        if (current == null) {
+            loadInBackground();
+            return Map.of();
+        }
+
+        return current;
+    }
+
+    private void loadInBackground() {
+        long now = System.currentTimeMillis();
+        long next = nextLoad.get();
+        if (now < next || !nextLoad.compareAndSet(next, now + retryInterval)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(this::refresh);
+        } catch (RejectedExecutionException ex) {
+            // The next lookup after the retry interval tries again.
+            LOGGER.warn("Could not load the air quality parameters", ex);
+        }
+    }
+}
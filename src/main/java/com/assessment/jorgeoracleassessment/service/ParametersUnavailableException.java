@@ -0,0 +1,29 @@
+package com.assessment.jorgeoracleassessment.service;
+
+/**
+ * Exception thrown instead of validating an air quality parameter while the
+ * ParameterCatalog was never loaded, since the parameter may be valid even
+ * though it's not known yet.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class ParametersUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    /**
+     * @param retryAfter Milliseconds until the catalog is loaded again.
+     */
+    public ParametersUnavailableException(long retryAfter) {
+        super("The air quality parameters are not available yet");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return Milliseconds until the catalog is loaded again.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
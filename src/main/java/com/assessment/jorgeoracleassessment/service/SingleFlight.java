@@ -0,0 +1,184 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent computations of the same key: the first caller (the
+ * leader) runs the computation and the rest of the callers (the followers)
+ * wait for its result instead of running it again. Results are not kept
+ * once the computation finishes.
+ * 
+ * The followers wait for a bounded time. A failure of the computation
+ * reaches every follower wrapped in its own CompletionException, so no
+ * exception object is thrown by several threads. A failure which only
+ * concerns the leader's caller, such as its thread being interrupted, is
+ * not shared at all: one of the followers runs the computation instead.
+ * 
+ * @param <K> Type of the keys.
+ * @param <V> Type of the results.
+ * @author Jorge Gonzalez
+ */
+public class SingleFlight<K, V> {
+    /**
+     * Default time, in milliseconds, a follower waits for the leader; the
+     * same as the timeout of the asynchronous requests.
+     */
+    public static final long DEFAULT_TIMEOUT = 120_000;
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final long timeout;
+
+    public SingleFlight() {
+        this(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout Time, in milliseconds, a follower waits for the leader.
+     */
+    public SingleFlight(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Method that runs the computation of the key, or waits for the
+     * computation already running for it.
+     * 
+     * If a follower is interrupted, it stops waiting without affecting the
+     * leader or the other followers. If the leader fails because of its own
+     * caller (it's interrupted or cancelled), the followers run the
+     * computation again, one of them as the new leader; any other failure
+     * of the leader is thrown to every follower in a CompletionException.
+     * 
+     * @param key      Key of the computation.
+     * @param supplier Computation.
+     * @return Result of the computation.
+     * @throws CompletionException If the computation failed for the leader,
+     *                             with its exception as cause, or if the
+     *                             follower waited longer than the timeout,
+     *                             with a TimeoutException as cause.
+     */
+    public V execute(K key, Supplier<V> supplier) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            CompletableFuture<V> created = new CompletableFuture<>();
+            CompletableFuture<V> running = inFlight.putIfAbsent(key, created);
+
+            if (running == null) {
+                return lead(key, created, supplier);
+            }
+
+            try {
+                return running.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for " + key);
+            } catch (TimeoutException ex) {
+                throw new CompletionException(
+                        new TimeoutException("Timed out after " + timeout + "ms waiting for " + key));
+            } catch (CancellationException ex) {
+                // The leader failed on its own; retry with a new leader.
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new CompletionException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Asynchronous variant of execute, for computations which return a
+     * future. The first caller starts the computation and every caller gets
+     * its own copy of the shared future, so cancelling one of them doesn't
+     * affect the computation nor the other callers.
+     * 
+     * @param key      Key of the computation.
+     * @param supplier Computation, which starts it and returns its future.
+     * @return Future of the result of the computation.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> supplier) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, created);
+        if (running != null) {
+            return running.copy();
+        }
+
+        try {
+            supplier.get().whenComplete((value, ex) -> {
+                inFlight.remove(key, created);
+                if (ex != null) {
+                    created.completeExceptionally(ex);
+                } else {
+                    created.complete(value);
+                }
+            });
+        } catch (RuntimeException | Error ex) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(ex);
+        }
+
+        return created.copy();
+    }
+
+    /**
+     * @return Number of computations running.
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Method that runs the computation as the leader. The key is released
+     * before the followers are woken up, so the ones which retry find it
+     * free.
+     */
+    private V lead(K key, CompletableFuture<V> future, Supplier<V> supplier) {
+        V value;
+        try {
+            value = supplier.get();
+        } catch (RuntimeException | Error ex) {
+            inFlight.remove(key, future);
+            if (isLeaderFailure(ex)) {
+                future.cancel(false);
+            } else {
+                future.completeExceptionally(ex);
+            }
+            throw ex;
+        }
+
+        inFlight.remove(key, future);
+        future.complete(value);
+        return value;
+    }
+
+    /**
+     * @return Flag which indicates if a failure only concerns the caller of
+     *         the leader: its thread was interrupted or its work cancelled.
+     *         A socket timeout is the upstream's failure, so it's shared.
+     */
+    private static boolean isLeaderFailure(Throwable ex) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof ClosedByInterruptException
+                    || cause instanceof CancellationException
+                    || cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,281 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.util.Arrays;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+
+/**
+ * Immutable spatial index of stations, to answer radius and k-nearest
+ * queries without calling OpenAQ. The stations are bucketed in a grid of
+ * one degree cells, stored as sorted primitive arrays, so a query only
+ * visits the cells around its coordinates. Distances are great-circle
+ * (haversine) distances in meters. The stations keep the text of their
+ * coordinates, so the rows found are rendered as they were received.
+ * 
+ * @author Jorge Gonzalez
+ */
+public final class StationIndex {
+    /**
+     * Mean radius of the Earth, in meters.
+     */
+    public static final double EARTH_RADIUS = 6_371_008.8;
+
+    private static final int LATITUDE_CELLS = 180;
+
+    private static final int LONGITUDE_CELLS = 360;
+
+    /**
+     * Sorted keys of the non empty cells.
+     */
+    private final int[] cellKeys;
+
+    /**
+     * Offset of the first station of each cell; the last one is the number
+     * of stations.
+     */
+    private final int[] cellStarts;
+
+    /**
+     * Stations sorted by cell.
+     */
+    private final MeasurementColumns stations;
+
+    /**
+     * Time, in epoch milliseconds, the stations were crawled.
+     */
+    private final long createdAt;
+
+    private StationIndex(int[] cellKeys, int[] cellStarts, MeasurementColumns stations, long createdAt) {
+        this.cellKeys = cellKeys;
+        this.cellStarts = cellStarts;
+        this.stations = stations;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * @param stations  Coordinates and value of each station.
+     * @param createdAt Time, in epoch milliseconds, the stations were
+     *                  crawled.
+     * @return StationIndex of the given stations.
+     */
+    public static StationIndex build(MeasurementColumns stations, long createdAt) {
+        int size = stations.size();
+
+        // Sorting the stations by cell, keeping the original index in the
+        // lower bits.
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) cellKey(stations.latitude(i), stations.longitude(i)) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        MeasurementColumns sorted = new MeasurementColumns(size);
+        int[] cellKeys = new int[size], cellStarts = new int[size + 1];
+        int cells = 0;
+        for (int i = 0; i < size; i++) {
+            int key = (int) (order[i] >>> 32), station = (int) order[i];
+            sorted.add(stations, station);
+
+            if (cells == 0 || cellKeys[cells - 1] != key) {
+                cellKeys[cells] = key;
+                cellStarts[cells] = i;
+                cells++;
+            }
+        }
+        cellStarts[cells] = size;
+
+        return new StationIndex(Arrays.copyOf(cellKeys, cells), Arrays.copyOf(cellStarts, cells + 1), sorted,
+                createdAt);
+    }
+
+    /**
+     * @return Time, in epoch milliseconds, the stations were crawled.
+     */
+    public long createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return Indexed stations, sorted by cell.
+     */
+    public MeasurementColumns stations() {
+        return stations;
+    }
+
+    /**
+     * @return Number of indexed stations.
+     */
+    public int size() {
+        return stations.size();
+    }
+
+    /**
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param radius    Radius in meters.
+     * @return MeasurementColumns with the stations within the radius of the
+     *         coordinates.
+     */
+    public MeasurementColumns withinRadius(double latitude, double longitude, double radius) {
+        MeasurementColumns result = new MeasurementColumns();
+        double angle = radius / EARTH_RADIUS;
+        if (angle >= Math.PI) {
+            angle = Math.PI;
+        }
+
+        // Latitude band of the cap, in cells.
+        double latitudeSpan = Math.toDegrees(angle);
+        int fromLatitude = latitudeCell(Math.max(-90, latitude - latitudeSpan));
+        int toLatitude = latitudeCell(Math.min(90, latitude + latitudeSpan));
+
+        // Longitude span of the cap. If it contains a pole, it spans every
+        // longitude.
+        double sinSpan = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+        int fromLongitude = 0, longitudeCells = LONGITUDE_CELLS;
+        if (latitude + latitudeSpan < 90 && latitude - latitudeSpan > -90 && sinSpan < 1) {
+            double longitudeSpan = Math.toDegrees(Math.asin(sinSpan));
+            fromLongitude = (int) Math.floor(longitude - longitudeSpan + 180);
+            longitudeCells = Math.min(LONGITUDE_CELLS,
+                    (int) Math.floor(longitude + longitudeSpan + 180) - fromLongitude + 1);
+        }
+
+        for (int latitudeCell = fromLatitude; latitudeCell <= toLatitude; latitudeCell++) {
+            for (int i = 0; i < longitudeCells; i++) {
+                int cell = Arrays.binarySearch(cellKeys,
+                        latitudeCell * LONGITUDE_CELLS + Math.floorMod(fromLongitude + i, LONGITUDE_CELLS));
+                if (cell < 0) {
+                    continue;
+                }
+
+                for (int station = cellStarts[cell]; station < cellStarts[cell + 1]; station++) {
+                    if (distance(latitude, longitude, stations.latitude(station),
+                            stations.longitude(station)) <= radius) {
+                        result.add(stations, station);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param latitude  decimal-degree latitude.
+     * @param longitude decimal-degree longitude.
+     * @param count     Number of stations.
+     * @return MeasurementColumns with the nearest stations to the coordinates,
+     *         sorted by distance.
+     */
+    public MeasurementColumns nearest(double latitude, double longitude, int count) {
+        if (count <= 0 || size() == 0) {
+            return new MeasurementColumns(0);
+        }
+
+        // Growing a square of cells around the coordinates, one ring of
+        // cells at a time, until it has enough stations; the farthest of the
+        // nearest of them bounds the radius where the real nearest stations
+        // are.
+        int latitudeCell = latitudeCell(latitude), longitudeCell = longitudeCell(longitude);
+        double[] distances = new double[Math.max(16, count)];
+        int found = 0;
+        for (int ring = 0; found < count && ring <= LONGITUDE_CELLS / 2; ring++) {
+            for (int key : ringCells(latitudeCell, longitudeCell, ring)) {
+                int cell = Arrays.binarySearch(cellKeys, key);
+                if (cell < 0) {
+                    continue;
+                }
+
+                for (int station = cellStarts[cell]; station < cellStarts[cell + 1]; station++) {
+                    if (found == distances.length) {
+                        distances = Arrays.copyOf(distances, found * 2);
+                    }
+                    distances[found++] = distance(latitude, longitude, stations.latitude(station),
+                            stations.longitude(station));
+                }
+            }
+        }
+
+        if (found < count) {
+            // There are less stations than requested.
+            return sortByDistance(withinRadius(latitude, longitude, Math.PI * EARTH_RADIUS), latitude, longitude,
+                    count);
+        }
+
+        Arrays.sort(distances, 0, found);
+        return sortByDistance(withinRadius(latitude, longitude, distances[count - 1]), latitude, longitude, count);
+    }
+
+    /**
+     * @return Great-circle distance, in meters, between both coordinates.
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double deltaLatitude = Math.toRadians(latitude2 - latitude1);
+        double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(deltaLatitude / 2) * Math.sin(deltaLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                        * Math.sin(deltaLongitude / 2) * Math.sin(deltaLongitude / 2);
+
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * @return Keys of the cells at the border of the square of the given
+     *         ring around a cell, the ones the previous rings didn't cover.
+     */
+    private static int[] ringCells(int latitudeCell, int longitudeCell, int ring) {
+        int longitudeCells = Math.min(LONGITUDE_CELLS, 2 * ring + 1);
+        int west = Math.floorMod(longitudeCell - ring, LONGITUDE_CELLS);
+        int east = Math.floorMod(longitudeCell + ring, LONGITUDE_CELLS);
+        int[] keys = new int[2 * longitudeCells + 4 * ring];
+        int found = 0;
+
+        for (int row = Math.max(0, latitudeCell - ring); row <= Math.min(LATITUDE_CELLS - 1,
+                latitudeCell + ring); row++) {
+            if (row == latitudeCell - ring || row == latitudeCell + ring) {
+                // The top and bottom rows are new.
+                for (int i = 0; i < longitudeCells; i++) {
+                    keys[found++] = row * LONGITUDE_CELLS + Math.floorMod(longitudeCell - ring + i, LONGITUDE_CELLS);
+                }
+            } else {
+                // Only the sides of the rows in between are new; they meet
+                // once the ring wraps around the globe.
+                keys[found++] = row * LONGITUDE_CELLS + west;
+                if (east != west) {
+                    keys[found++] = row * LONGITUDE_CELLS + east;
+                }
+            }
+        }
+
+        return Arrays.copyOf(keys, found);
+    }
+
+    private static MeasurementColumns sortByDistance(MeasurementColumns stations, double latitude,
+            double longitude, int count) {
+        int size = stations.size();
+        Integer[] order = new Integer[size];
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            distances[i] = distance(latitude, longitude, stations.latitude(i), stations.longitude(i));
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+
+        MeasurementColumns result = new MeasurementColumns(Math.min(count, size));
+        for (int i = 0; i < Math.min(count, size); i++) {
+            result.add(stations, order[i]);
+        }
+        return result;
+    }
+
+    private static int cellKey(double latitude, double longitude) {
+        return latitudeCell(latitude) * LONGITUDE_CELLS + longitudeCell(longitude);
+    }
+
+    private static int latitudeCell(double latitude) {
+        return Math.min(LATITUDE_CELLS - 1, Math.max(0, (int) Math.floor(latitude + 90)));
+    }
+
+    private static int longitudeCell(double longitude) {
+        return Math.floorMod((int) Math.floor(longitude + 180), LONGITUDE_CELLS);
+    }
+}
@@ -0,0 +1,175 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.assessment.jorgeoracleassessment.config.UpstreamRateLimiter;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+
+/**
+ * Spatial indexes of the stations of every country, one for each air
+ * quality parameter. They are built from a crawl of all the locations of
+ * the parameter, only in the background so no request waits for a
+ * worldwide crawl, and rebuilt when they get older than their TTL;
+ * meanwhile the previous index keeps being served.
+ * 
+ * The builds run on an executor of their own, and their crawls request the
+ * pages one by one within a rate budget of their own, so they never take
+ * the threads of the cache refreshes nor the page fetch threads of the
+ * users' queries. The answers of an index older than the stale age are
+ * flagged as stale with its age.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class StationIndexCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StationIndexCache.class);
+
+    private final boolean enabled;
+
+    private final long ttl;
+
+    private final long staleAge;
+
+    private final long retryAfter;
+
+    private final UpstreamRateLimiter rateLimiter;
+
+    private final Executor buildExecutor;
+
+    private final Clock clock;
+
+    private final Map<String, Entry> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Parameters whose index is being built in the background.
+     */
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param enabled       Flag which indicates if the indexes are used or
+     *                      not.
+     * @param ttl           Time, in milliseconds, after which an index is
+     *                      rebuilt.
+     * @param staleAge      Age, in milliseconds, after which the answers of
+     *                      an index are flagged as stale.
+     * @param retryAfter    Time, in milliseconds, a client waits for an
+     *                      index which is not built yet.
+     * @param rateLimiter   Rate budget of the crawls of the builds.
+     * @param buildExecutor Executor of the background builds.
+     * @param clock         Clock used to measure the age of the indexes.
+     */
+    public StationIndexCache(boolean enabled, long ttl, long staleAge, long retryAfter,
+            UpstreamRateLimiter rateLimiter, Executor buildExecutor, Clock clock) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.staleAge = staleAge;
+        this.retryAfter = retryAfter;
+        this.rateLimiter = rateLimiter;
+        this.buildExecutor = buildExecutor;
+        this.clock = clock;
+    }
+
+    /**
+     * Method that retrieves the index of an air quality parameter without
+     * waiting for it. If it doesn't exist or it's too old, it's built in the
+     * background.
+     * 
+     * @param parameter Air quality parameter
+     * @param loader    Function which crawls every station of the parameter.
+     * @return StationIndex of the parameter, or null if it's not built yet or
+     *         the indexes are disabled.
+     */
+    public StationIndex getIfPresent(String parameter, Supplier<MeasurementColumns> loader) {
+        if (!enabled) {
+            return null;
+        }
+
+        Entry entry = indexes.get(parameter);
+        if (entry == null || clock.millis() - entry.builtAt >= ttl) {
+            buildInBackground(parameter, loader);
+        }
+
+        return entry == null ? null : entry.index;
+    }
+
+    /**
+     * @param index Index returned by getIfPresent.
+     * @return Flag which indicates if the index is older than the stale age,
+     *         so its answers must be flagged as stale.
+     */
+    public boolean isStale(StationIndex index) {
+        return clock.millis() - index.createdAt() > staleAge;
+    }
+
+    /**
+     * @param index Index returned by getIfPresent.
+     * @return Age of the index, in seconds.
+     */
+    public long getAge(StationIndex index) {
+        return Math.max(0, clock.millis() - index.createdAt()) / 1000;
+    }
+
+    /**
+     * Method that waits for the turn of the next page requested by the
+     * crawl of a build, within the rate budget of the indexes.
+     */
+    public void throttle() {
+        rateLimiter.acquire();
+    }
+
+    /**
+     * @return Time, in milliseconds, a client waits for an index which is
+     *         not built yet.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Method that replaces the index of an air quality parameter with one
+     * built elsewhere, e.g. from a new snapshot of every station.
+     * 
+     * @param parameter Air quality parameter
+     * @param index     Index of the parameter.
+     */
+    public void put(String parameter, StationIndex index) {
+        if (enabled) {
+            indexes.put(parameter, new Entry(index, clock.millis()));
+        }
+    }
+
+    private void buildInBackground(String parameter, Supplier<MeasurementColumns> loader) {
+        if (!building.add(parameter)) {
+            return;
+        }
+
+        try {
+            buildExecutor.execute(() -> {
+                try {
+                    long createdAt = clock.millis();
+                    put(parameter, StationIndex.build(loader.get(), createdAt));
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Could not build the station index of {}", parameter, ex);
+                } finally {
+                    building.remove(parameter);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            building.remove(parameter);
+        }
+    }
+
+    /**
+     * Index and the time it was built.
+     */
+    private record Entry(StationIndex index, long builtAt) {
+    }
+}
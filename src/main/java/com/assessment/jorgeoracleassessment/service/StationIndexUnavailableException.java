@@ -0,0 +1,29 @@
+package com.assessment.jorgeoracleassessment.service;
+
+/**
+ * Exception thrown instead of answering a nearest stations query while the
+ * StationIndex of its air quality parameter is still being built, since it
+ * needs a crawl of every country.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class StationIndexUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    /**
+     * @param retryAfter Milliseconds until the index is expected to be built.
+     */
+    public StationIndexUnavailableException(long retryAfter) {
+        super("The stations are still being indexed");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return Milliseconds until the index is expected to be built.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,198 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.util.List;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+
+/**
+ * Single-pass accumulator of the statistics of a data set: count, min, max
+ * and mean are exact, and the percentiles come from a fixed-size sketch of
+ * logarithmic buckets whose relative error is 1%. Adding a value doesn't
+ * allocate memory.
+ * 
+ * Values whose magnitude is smaller than 0.001 are counted as 0, and the
+ * ones greater than 10^7 fall in the last bucket.
+ * 
+ * @author Jorge Gonzalez
+ */
+public final class StatsAccumulator {
+    private static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private static final double MIN_MAGNITUDE = 1e-3;
+
+    private static final double MAX_MAGNITUDE = 1e7;
+
+    private static final int MIN_INDEX = bucketIndex(MIN_MAGNITUDE);
+
+    private static final int BUCKETS = bucketIndex(MAX_MAGNITUDE) - MIN_INDEX + 1;
+
+    /**
+     * Buckets of the positive and the negative values, by magnitude.
+     */
+    private final int[] positive = new int[BUCKETS];
+
+    private final int[] negative = new int[BUCKETS];
+
+    private int zeros;
+
+    private int count;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    private double sum;
+
+    /**
+     * Method that adds a value; NaN values are ignored.
+     * 
+     * @param value Value to add.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+
+        double magnitude = Math.abs(value);
+        if (magnitude < MIN_MAGNITUDE) {
+            zeros++;
+        } else {
+            int bucket = Math.min(BUCKETS - 1, bucketIndex(magnitude) - MIN_INDEX);
+            if (value > 0) {
+                positive[bucket]++;
+            } else {
+                negative[bucket]++;
+            }
+        }
+    }
+
+    /**
+     * Method that adds the value of every row.
+     * 
+     * @param rows Rows of a data set.
+     */
+    public void addAll(List<OutputRow> rows) {
+        if (rows instanceof MeasurementColumns columns) {
+            for (int i = 0; i < columns.size(); i++) {
+                add(columns.value(i));
+            }
+        } else {
+            for (OutputRow row : rows) {
+                add(row.value());
+            }
+        }
+    }
+
+    /**
+     * Method that adds the values of another accumulator.
+     * 
+     * @param other Accumulator to merge.
+     */
+    public void merge(StatsAccumulator other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            positive[bucket] += other.positive[bucket];
+            negative[bucket] += other.negative[bucket];
+        }
+        zeros += other.zeros;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return Smallest value, or 0 if there are no values.
+     */
+    public double getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return Greatest value, or 0 if there are no values.
+     */
+    public double getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return Mean of the values, or 0 if there are no values.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Method that estimates a percentile of the values, within the relative
+     * accuracy of the sketch.
+     * 
+     * @param quantile Quantile, from 0 to 1.
+     * @return Estimated value of the quantile, or 0 if there are no values.
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.floor(quantile * (count - 1));
+        long seen = 0;
+
+        // From the most negative value to the most positive one.
+        for (int bucket = BUCKETS - 1; bucket >= 0; bucket--) {
+            seen += negative[bucket];
+            if (seen > rank) {
+                return clamp(-bucketValue(bucket));
+            }
+        }
+        seen += zeros;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += positive[bucket];
+            if (seen > rank) {
+                return clamp(bucketValue(bucket));
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * @return OutputStats with the statistics of the values.
+     */
+    public OutputStats toStats() {
+        return new OutputStats(count, getMin(), getMax(), getMean(), getQuantile(0.5), getQuantile(0.95),
+                getQuantile(0.99));
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static int bucketIndex(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    /**
+     * @return Value of the bucket whose relative error is the smallest for
+     *         every magnitude in it.
+     */
+    private static double bucketValue(int bucket) {
+        return 2 * Math.pow(GAMMA, bucket + MIN_INDEX) / (GAMMA + 1);
+    }
+}
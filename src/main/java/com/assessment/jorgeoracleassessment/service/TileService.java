@@ -0,0 +1,325 @@
+package com.assessment.jorgeoracleassessment.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputTile;
+import com.assessment.jorgeoracleassessment.models.output.OutputTileCell;
+import com.assessment.jorgeoracleassessment.repository.MeasurementSnapshot;
+
+import jakarta.validation.ValidationException;
+
+/**
+ * Service which bins the measurements of an air quality parameter in the
+ * cells of a map tile. The stations come from the ingested snapshot or,
+ * when the parameter is not ingested, from its station index. They are
+ * binned in parallel chunks, and the tiles are cached by the source and the
+ * version they were computed from, the snapshot version or the time the
+ * index was crawled, so a new snapshot or index invalidates them. Their
+ * hits and misses are counted in the "cache.gets" counter.
+ * 
+ * @author Jorge Gonzalez
+ */
+@Service
+public class TileService {
+    /**
+     * Stations binned by each parallel task.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Latitude where the Web Mercator projection is cut.
+     */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    @Autowired
+    private IngestionService ingestionService;
+
+    @Autowired
+    private AQLocationService service;
+
+    @Autowired
+    private ParameterCatalog parameterCatalog;
+
+    @Autowired
+    @Qualifier("tileExecutor")
+    private ExecutorService tileExecutor;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${tiles.gridSize:16}")
+    private int gridSize;
+
+    @Value("${tiles.maxZoom:18}")
+    private int maxZoom;
+
+    @Value("${tiles.cacheSize:4096}")
+    private int cacheSize;
+
+    private final Map<TileKey, OutputTile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final SingleFlight<TileKey, OutputTile> inFlightTiles = new SingleFlight<>();
+
+    /**
+     * Method that retrieves a tile of the measurements of an air quality
+     * parameter, computing it if it's not cached for the current snapshot
+     * or station index.
+     * 
+     * @param parameter Air quality parameter
+     * @param zoom      Zoom level.
+     * @param x         Column of the tile, from 0 to 2^zoom - 1.
+     * @param y         Row of the tile, from 0 to 2^zoom - 1.
+     * @return OutputTile with the aggregates of its cells, or null if the air
+     *         quality parameter is not ingested nor indexed yet.
+     * @throws ValidationException            If the air quality parameter or
+     *                                        the tile coordinates are not
+     *                                        valid.
+     * @throws ParametersUnavailableException If the air quality parameters
+     *                                        were never loaded.
+     */
+    public OutputTile getTile(String parameter, int zoom, int x, int y) {
+        if (!parameterCatalog.contains(parameter)) {
+            if (!parameterCatalog.isLoaded()) {
+                throw new ParametersUnavailableException(parameterCatalog.getRetryAfter());
+            }
+            throw new ValidationException("Invalid air quality parameter");
+        }
+        if (zoom < 0 || zoom > maxZoom || x < 0 || x >= 1 << zoom || y < 0 || y >= 1 << zoom) {
+            throw new ValidationException("Invalid tile coordinates");
+        }
+
+        Stations stations;
+        TileKey key;
+        MeasurementSnapshot snapshot = ingestionService.getSnapshot(parameter);
+        if (snapshot != null) {
+            stations = new SnapshotStations(snapshot, snapshot.parameterIndex(parameter));
+            key = new TileKey(parameter, true, snapshot.version(), zoom, x, y);
+        } else {
+            StationIndex index = service.getStationIndex(parameter);
+            if (index == null) {
+                return null;
+            }
+            stations = new ColumnStations(index.stations());
+            key = new TileKey(parameter, false, index.createdAt(), zoom, x, y);
+        }
+
+        synchronized (tiles) {
+            OutputTile tile = tiles.get(key);
+            if (tile != null) {
+                metricsRegistry.counter("cache.gets", "cache", "tiles", "result", "hit").increment();
+                return tile;
+            }
+        }
+        metricsRegistry.counter("cache.gets", "cache", "tiles", "result", "miss").increment();
+
+        return inFlightTiles.execute(key, () -> {
+            OutputTile tile = computeTile(stations, key);
+            synchronized (tiles) {
+                tiles.put(key, tile);
+                if (tiles.size() > cacheSize) {
+                    tiles.remove(tiles.keySet().iterator().next());
+                }
+            }
+            return tile;
+        });
+    }
+
+    /**
+     * Method that bins the stations in the cells of the tile, splitting them
+     * in chunks which are binned in parallel and then merged.
+     */
+    private OutputTile computeTile(Stations stations, TileKey key) {
+        List<CompletableFuture<Bins>> chunks = new ArrayList<>();
+        for (int from = CHUNK_SIZE; from < stations.size(); from += CHUNK_SIZE) {
+            int start = from, end = Math.min(from + CHUNK_SIZE, stations.size());
+            chunks.add(CompletableFuture.supplyAsync(() -> bin(stations, key, start, end), tileExecutor));
+        }
+
+        Bins bins = bin(stations, key, 0, Math.min(CHUNK_SIZE, stations.size()));
+        try {
+            for (CompletableFuture<Bins> chunk : chunks) {
+                bins.merge(chunk.join());
+            }
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+
+        List<OutputTileCell> cells = new ArrayList<>();
+        for (int cell = 0; cell < bins.counts.length; cell++) {
+            if (bins.counts[cell] > 0) {
+                cells.add(new OutputTileCell(cell % gridSize, cell / gridSize, bins.counts[cell], bins.max[cell],
+                        bins.sum[cell] / bins.counts[cell]));
+            }
+        }
+
+        return new OutputTile(key.parameter(), parameterCatalog.getDisplayName(key.parameter()), key.version(),
+                key.zoom(), key.x(), key.y(), gridSize, cells);
+    }
+
+    /**
+     * Method that bins a range of stations in the cells of the tile. The
+     * stations are projected to the grid of the whole world at the zoom
+     * level, which has 2^zoom * gridSize cells per side.
+     */
+    private Bins bin(Stations stations, TileKey key, int from, int to) {
+        Bins bins = new Bins(gridSize * gridSize);
+        long worldCells = (1L << key.zoom()) * gridSize;
+        long firstColumn = (long) key.x() * gridSize, firstRow = (long) key.y() * gridSize;
+
+        for (int station = from; station < to; station++) {
+            double value = stations.value(station);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+
+            // The longitude is checked first, since it's cheaper to project.
+            long column = toCell((stations.longitude(station) + 180) / 360, worldCells) - firstColumn;
+            if (column < 0 || column >= gridSize) {
+                continue;
+            }
+
+            double latitude = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE,
+                    stations.latitude(station))));
+            double mercator = Math.log(Math.tan(latitude) + 1 / Math.cos(latitude));
+            long row = toCell((1 - mercator / Math.PI) / 2, worldCells) - firstRow;
+            if (row < 0 || row >= gridSize) {
+                continue;
+            }
+
+            bins.add((int) row * gridSize + (int) column, value);
+        }
+
+        return bins;
+    }
+
+    /**
+     * @param position   Position from 0 to 1 along a side of the world.
+     * @param worldCells Cells per side of the world.
+     * @return Cell of the position, where the far edge belongs to the last
+     *         cell.
+     */
+    private static long toCell(double position, long worldCells) {
+        return Math.max(0, Math.min(worldCells - 1, (long) Math.floor(position * worldCells)));
+    }
+
+    /**
+     * Aggregates of the cells of a tile, by columns.
+     */
+    private static final class Bins {
+        private final int[] counts;
+        private final double[] max;
+        private final double[] sum;
+
+        private Bins(int cells) {
+            counts = new int[cells];
+            max = new double[cells];
+            sum = new double[cells];
+        }
+
+        private void add(int cell, double value) {
+            max[cell] = counts[cell] == 0 ? value : Math.max(max[cell], value);
+            sum[cell] += value;
+            counts[cell]++;
+        }
+
+        private void merge(Bins other) {
+            for (int cell = 0; cell < counts.length; cell++) {
+                if (other.counts[cell] > 0) {
+                    max[cell] = counts[cell] == 0 ? other.max[cell] : Math.max(max[cell], other.max[cell]);
+                    sum[cell] += other.sum[cell];
+                    counts[cell] += other.counts[cell];
+                }
+            }
+        }
+    }
+
+    /**
+     * Coordinates and value of the stations binned in a tile.
+     */
+    private interface Stations {
+        int size();
+
+        double latitude(int station);
+
+        double longitude(int station);
+
+        /**
+         * @return Value of the station, or NaN if it doesn't report it.
+         */
+        double value(int station);
+    }
+
+    /**
+     * Stations of a snapshot, with their values of an air quality parameter.
+     */
+    private record SnapshotStations(MeasurementSnapshot snapshot, int parameterIndex) implements Stations {
+        @Override
+        public int size() {
+            return snapshot.size();
+        }
+
+        @Override
+        public double latitude(int station) {
+            return snapshot.latitude(station);
+        }
+
+        @Override
+        public double longitude(int station) {
+            return snapshot.longitude(station);
+        }
+
+        @Override
+        public double value(int station) {
+            return snapshot.value(parameterIndex, station);
+        }
+    }
+
+    /**
+     * Stations of a station index, which all report the air quality
+     * parameter.
+     */
+    private record ColumnStations(MeasurementColumns columns) implements Stations {
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        @Override
+        public double latitude(int station) {
+            return columns.latitude(station);
+        }
+
+        @Override
+        public double longitude(int station) {
+            return columns.longitude(station);
+        }
+
+        @Override
+        public double value(int station) {
+            return columns.value(station);
+        }
+    }
+
+    /**
+     * Tile of an air quality parameter in a version of the snapshot, when it
+     * was ingested, or of the station index.
+     */
+    private record TileKey(String parameter, boolean ingested, long version, int zoom, int x, int y) {
+    }
+}
@@ -0,0 +1,442 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.assessment.jorgeoracleassessment.config.CircuitOpenException;
+import com.assessment.jorgeoracleassessment.config.ExecutorConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.controller.AQController;
+import com.assessment.jorgeoracleassessment.controller.HeatmapHttpMessageConverter;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputChanges;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.models.output.OutputSummary;
+import com.assessment.jorgeoracleassessment.models.output.OutputTile;
+import com.assessment.jorgeoracleassessment.models.output.OutputTileCell;
+import com.assessment.jorgeoracleassessment.service.AQLocationService;
+import com.assessment.jorgeoracleassessment.service.StationIndexUnavailableException;
+import com.assessment.jorgeoracleassessment.service.TileService;
+
+/**
+ * Tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/controller/AQController.java
+ * controller.
+ * 
+ * @author Jorge Gonzalez
+ */
+@WebMvcTest(AQController.class)
+@Import({ MetricsConfig.class, ExecutorConfig.class })
+public class AQControllerTest {
+	@Autowired
+	private MockMvc mockMvc;
+
+	@MockBean
+	private AQLocationService service;
+
+	@MockBean
+	private TileService tileService;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	/**
+	 * Test that when we don't ask for a specific format, then the request is
+	 * handled asynchronously and we get the OutputResponse as JSON.
+	 */
+	@Test
+	public void givenCountryAndAirQualityParameter_whenGettingTheMeasurements_thenRetrieveJson() throws Exception {
+		Mockito.when(service.getMeasurementsByCountryAsync("pm25", "mx"))
+				.thenReturn(CompletableFuture.completedFuture(new OutputResponse(12.5, 12.5, "pm25", "PM2.5",
+						new OutputStats(1, 12.5, 12.5, 12.5, 12.5, 12.5, 12.5),
+						List.of(new OutputRow("19.4", "-99.1", 12.5)))));
+
+		MvcResult result = mockMvc.perform(get("/measurements").param("parameter", "pm25").param("countryCode", "mx"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+				.andExpect(jsonPath("$.displayName").value("PM2.5"))
+				.andExpect(jsonPath("$.stats.p95").value(12.5))
+				.andExpect(jsonPath("$.dataSet[0].value").value(12.5));
+	}
+
+	/**
+	 * Test that when we ask for NDJSON, either with the Accept header or
+	 * the format query parameter, then we get a row per line followed by
+	 * the summary.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void givenCountryAndAirQualityParameter_whenStreamingTheMeasurements_thenRetrieveNdjson() throws Exception {
+		Mockito.when(service.streamMeasurementsByCountry(eq("pm25"), eq("mx"), any()))
+				.thenAnswer(invocation -> {
+					Consumer<List<OutputRow>> rowsConsumer = invocation.getArgument(2);
+					rowsConsumer.accept(List.of(new OutputRow("19.4", "-99.1", 12.5)));
+					rowsConsumer.accept(List.of(new OutputRow("20.6", "-103.3", -1.0)));
+					return new OutputSummary("pm25", "PM2.5", 2, -1.0, 12.5,
+							new OutputStats(2, -1.0, 12.5, 5.75, -1.0, 12.5, 12.5));
+				});
+		String expected = """
+				{"latitude":"19.4","longitude":"-99.1","value":12.5}
+				{"latitude":"20.6","longitude":"-103.3","value":-1.0}
+				{"parameter":"pm25","displayName":"PM2.5","count":2,"min":-1.0,"max":12.5,"stats":{"count":2,"min":-1.0,"max":12.5,"mean":5.75,"p50":-1.0,"p95":12.5,"p99":12.5}}
+				""";
+
+		mockMvc.perform(get("/measurements").param("parameter", "pm25").param("countryCode", "mx")
+				.accept("application/x-ndjson"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+				.andExpect(content().string(expected));
+
+		mockMvc.perform(get("/measurements").param("parameter", "pm25").param("countryCode", "mx")
+				.param("format", "ndjson"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(expected));
+	}
+
+	/**
+	 * Test that when we ask for the binary heatmap format, then we get the
+	 * header followed by a float32 triplet per row.
+	 */
+	@Test
+	public void givenCountryAndAirQualityParameter_whenGettingTheHeatmap_thenRetrievePackedFloats() throws Exception {
+		Mockito.when(service.getMeasurementsByCountryAsync("pm25", "mx"))
+				.thenReturn(CompletableFuture.completedFuture(new OutputResponse(0, 12.5, "pm25", "PM2.5",
+						new OutputStats(2, 3, 12.5, 7.75, 3, 12.5, 12.5), MeasurementColumns.of(
+						new OutputRow("19.5", "-99.25", 12.5), new OutputRow("20.75", "-103.5", 3)))));
+
+		MvcResult result = mockMvc.perform(get("/measurements").param("parameter", "pm25").param("countryCode", "mx")
+				.param("format", "heatmap"))
+				.andReturn();
+		byte[] body = mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(HeatmapHttpMessageConverter.APPLICATION_HEATMAP))
+				.andReturn().getResponse().getContentAsByteArray();
+		ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Header.
+		assertEquals("AQHM", new String(body, 0, 4, StandardCharsets.US_ASCII));
+		assertEquals(1, buffer.getShort(4));
+		assertEquals(4, buffer.getShort(6));
+		assertEquals(2, buffer.getInt(8));
+		assertEquals(0f, buffer.getFloat(12));
+		assertEquals(12.5f, buffer.getFloat(16));
+		assertEquals("pm25", new String(body, 20, 4, StandardCharsets.UTF_8));
+		// Rows.
+		assertEquals(24 + 2 * 12, body.length);
+		assertEquals(19.5f, buffer.getFloat(24));
+		assertEquals(-99.25f, buffer.getFloat(28));
+		assertEquals(12.5f, buffer.getFloat(32));
+		assertEquals(20.75f, buffer.getFloat(36));
+		assertEquals(-103.5f, buffer.getFloat(40));
+		assertEquals(3f, buffer.getFloat(44));
+	}
+
+	/**
+	 * Test that when we ask for a tile, then we get its cells as JSON, and
+	 * that we get a 503 while the air quality parameter is not ingested.
+	 */
+	@Test
+	public void givenATile_whenGettingIt_thenRetrieveItsCells() throws Exception {
+		Mockito.when(tileService.getTile("pm25", 3, 1, 2))
+				.thenReturn(new OutputTile("pm25", "PM2.5", 7, 3, 1, 2, 16,
+						List.of(new OutputTileCell(4, 5, 2, 12.5, 10.0))));
+
+		mockMvc.perform(get("/tiles/3/1/2").param("parameter", "pm25"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.version").value(7))
+				.andExpect(jsonPath("$.cells[0].count").value(2))
+				.andExpect(jsonPath("$.cells[0].mean").value(10.0));
+
+		mockMvc.perform(get("/tiles/3/1/3").param("parameter", "pm25"))
+				.andExpect(status().isServiceUnavailable());
+	}
+
+	/**
+	 * Test that when we ask for several air quality parameters, then we get
+	 * a response for each one, and that an invalid country code is rejected.
+	 */
+	@Test
+	public void givenSeveralAirQualityParameters_whenGettingTheBatch_thenRetrieveAResponseForEach() throws Exception {
+		Mockito.when(service.getMeasurementsByCountries(List.of("pm25", "o3"), List.of("mx", "us")))
+				.thenReturn(List.of(
+						new OutputResponse(1, 1, "pm25", "PM2.5", new OutputStats(1, 1, 1, 1, 1, 1, 1),
+								List.of(new OutputRow("19.4", "-99.1", 1))),
+						new OutputResponse(0, 0, "o3", "O₃", new OutputStats(0, 0, 0, 0, 0, 0, 0), List.of())));
+
+		mockMvc.perform(get("/measurements/batch").param("parameters", "pm25,o3").param("countryCodes", "mx,us"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].parameter").value("pm25"))
+				.andExpect(jsonPath("$[0].dataSet[0].value").value(1))
+				.andExpect(jsonPath("$[1].parameter").value("o3"));
+
+		mockMvc.perform(get("/measurements/batch").param("parameters", "pm25").param("countryCodes", "mx,usa"))
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+	/**
+	 * Test that when the measurements are the last known ones, then they
+	 * are flagged as stale with the Age and Warning headers, and that when
+	 * there are none while the circuit is open, then we get a 503.
+	 */
+	@Test
+	public void givenAnUpstreamOutage_whenGettingTheMeasurements_thenRetrieveStaleOrUnavailable() throws Exception {
+		Mockito.when(service.getMeasurementsByCountryAsync("pm25", "mx"))
+				.thenReturn(CompletableFuture.completedFuture(new OutputResponse(12.5, 12.5, "pm25", "PM2.5",
+						new OutputStats(1, 12.5, 12.5, 12.5, 12.5, 12.5, 12.5),
+						List.of(new OutputRow("19.4", "-99.1", 12.5))).asStale(120)));
+		Mockito.when(service.getMeasurementsByCountryAsync("pm25", "us"))
+				.thenReturn(CompletableFuture.failedFuture(new CircuitOpenException(1500)));
+
+		MvcResult stale = mockMvc.perform(get("/measurements").param("parameter", "pm25").param("countryCode", "mx"))
+				.andReturn();
+		mockMvc.perform(asyncDispatch(stale))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Age", "120"))
+				.andExpect(header().exists("Warning"))
+				.andExpect(jsonPath("$.stale").value(true))
+				.andExpect(jsonPath("$.age").value(120));
+
+		MvcResult unavailable = mockMvc.perform(get("/measurements").param("parameter", "pm25")
+				.param("countryCode", "us"))
+				.andReturn();
+		mockMvc.perform(asyncDispatch(unavailable))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string("Retry-After", "2"));
+	}
+
+	/**
+	 * Test that when the stations are not indexed yet, then the nearest
+	 * stations are answered with a 503 instead of waiting for the index.
+	 */
+	@Test
+	public void givenStationsNotIndexedYet_whenGettingTheNearest_thenRetrieveUnavailable() throws Exception {
+		Mockito.when(service.getNearestMeasurements("pm25", "19.4", "-99.1", 10))
+				.thenThrow(new StationIndexUnavailableException(30000));
+
+		mockMvc.perform(get("/measurements/nearest").param("parameter", "pm25").param("latitude", "19.4")
+				.param("longitude", "-99.1"))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string("Retry-After", "30"));
+	}
+
+	/**
+	 * Test that the measurements carry an ETag and a Cache-Control, that
+	 * when we revalidate them with If-None-Match, then we get a 304 without
+	 * body, and that the heatmap format has its own ETag.
+	 */
+	@Test
+	public void givenAnETag_whenRevalidatingTheMeasurements_thenRetrieveNotModified() throws Exception {
+		Mockito.when(service.getMeasurementsByCountryAsync("pm25", "mx"))
+				.thenReturn(CompletableFuture.completedFuture(new OutputResponse(3, 12.5, "pm25", "PM2.5",
+						new OutputStats(2, 3, 12.5, 7.75, 3, 12.5, 12.5), MeasurementColumns.of(
+						new OutputRow("19.5", "-99.25", 12.5), new OutputRow("20.75", "-103.5", 3)))));
+
+		MvcResult first = mockMvc.perform(get("/measurements").param("parameter", "pm25").param("countryCode", "mx"))
+				.andReturn();
+		String etag = mockMvc.perform(asyncDispatch(first))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Cache-Control", "max-age=60, must-revalidate"))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		MvcResult revalidated = mockMvc.perform(get("/measurements").param("parameter", "pm25")
+				.param("countryCode", "mx").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andReturn();
+		mockMvc.perform(asyncDispatch(revalidated))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string("ETag", etag))
+				.andExpect(content().string(""));
+
+		MvcResult heatmap = mockMvc.perform(get("/measurements").param("parameter", "pm25")
+				.param("countryCode", "mx").param("format", "heatmap").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andReturn();
+		String heatmapEtag = mockMvc.perform(asyncDispatch(heatmap))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotEquals(etag, heatmapEtag);
+	}
+
+	/**
+	 * Test that when the client accepts gzip, then the measurements are sent
+	 * compressed with an ETag of their own, that when they are requested
+	 * again, then they are written from the cached bytes instead of
+	 * serialized again, and that the ETag of the compressed ones revalidates
+	 * them too.
+	 */
+	@Test
+	public void givenAGzipClient_whenGettingTheMeasurementsTwice_thenRetrieveTheCachedCompressedBytes()
+			throws Exception {
+		MeasurementColumns rows = new MeasurementColumns();
+		for (int i = 0; i < 200; i++) {
+			rows.add(19 + i / 100.0, -99 - i / 100.0, i % 50);
+		}
+		Mockito.when(service.getMeasurementsByCountryAsync("pm25", "fr"))
+				.thenReturn(CompletableFuture.completedFuture(new OutputResponse(0, 49, "pm25", "PM2.5",
+						new OutputStats(200, 0, 49, 24.5, 24, 47, 49), rows)));
+		MetricsRegistry.Counter hits = metricsRegistry.counter("cache.gets", "cache", "responses", "result", "hit");
+		long previousHits = hits.count();
+
+		byte[][] bodies = new byte[2][];
+		String etag = null;
+		for (int i = 0; i < bodies.length; i++) {
+			MvcResult result = mockMvc.perform(get("/measurements").param("parameter", "pm25")
+					.param("countryCode", "fr").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+					.andReturn();
+			MockHttpServletResponse response = mockMvc.perform(asyncDispatch(result))
+					.andExpect(status().isOk())
+					.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+					.andExpect(header().string("Content-Encoding", "gzip"))
+					.andReturn().getResponse();
+			bodies[i] = response.getContentAsByteArray();
+			etag = response.getHeader(HttpHeaders.ETAG);
+		}
+		assertTrue(etag.endsWith("-gzip\""));
+
+		MvcResult revalidated = mockMvc.perform(get("/measurements").param("parameter", "pm25")
+				.param("countryCode", "fr").header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn();
+		mockMvc.perform(asyncDispatch(revalidated))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string("ETag", etag));
+
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bodies[1]))) {
+			String json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			assertTrue(json.startsWith("{\"min\":0.0,\"max\":49.0,\"parameter\":\"pm25\""));
+			assertTrue(json.contains("{\"latitude\":\"19.0\",\"longitude\":\"-99.0\",\"value\":0.0}"));
+		}
+		assertEquals(previousHits + 1, hits.count());
+	}
+
+	/**
+	 * Test that when we ask for the changes since a version, then we get the
+	 * rows added, changed and removed with the current version, and that a
+	 * negative version is rejected.
+	 */
+	@Test
+	public void givenAVersion_whenGettingTheChanges_thenRetrieveTheChangedRows() throws Exception {
+		Mockito.when(service.getMeasurementChangesByCountry("pm25", "mx", 41))
+				.thenReturn(new OutputChanges("pm25", "PM2.5", 42, 41, false, 3, 12.5,
+						new OutputStats(2, 3, 12.5, 7.75, 3, 12.5, 12.5),
+						List.of(new OutputRow("19.5", "-99.25", 12.5)), List.of(),
+						List.of(new OutputRow("20.75", "-103.5", 8))));
+
+		mockMvc.perform(get("/measurements/changes").param("parameter", "pm25").param("countryCode", "mx")
+				.param("since", "41"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.version").value(42))
+				.andExpect(jsonPath("$.full").value(false))
+				.andExpect(jsonPath("$.added[0].value").value(12.5))
+				.andExpect(jsonPath("$.changed").isEmpty())
+				.andExpect(jsonPath("$.removed[0].latitude").value("20.75"));
+
+		mockMvc.perform(get("/measurements/changes").param("parameter", "pm25").param("countryCode", "mx")
+				.param("since", "-1"))
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+	/**
+	 * Test that when we ask for the changes around some coordinates since a
+	 * version, then we get the rows changed with the current version, and
+	 * that an invalid radius is rejected.
+	 */
+	@Test
+	public void givenCoordinatesAndAVersion_whenGettingTheChanges_thenRetrieveTheChangedRows() throws Exception {
+		Mockito.when(service.getMeasurementChangesByCoordinatesAndRadius("pm25", "19.4", "-99.1", 5000, 7))
+				.thenReturn(new OutputChanges("pm25", "PM2.5", 8, 7, false, 12.5, 12.5,
+						new OutputStats(1, 12.5, 12.5, 12.5, 12.5, 12.5, 12.5), List.of(),
+						List.of(new OutputRow("19.5", "-99.25", 12.5)), List.of()));
+
+		mockMvc.perform(get("/measurements/changes").param("parameter", "pm25").param("latitude", "19.4")
+				.param("longitude", "-99.1").param("radius", "5000").param("since", "7"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.version").value(8))
+				.andExpect(jsonPath("$.added").isEmpty())
+				.andExpect(jsonPath("$.changed[0].longitude").value("-99.25"));
+
+		mockMvc.perform(get("/measurements/changes").param("parameter", "pm25").param("latitude", "19.4")
+				.param("longitude", "-99.1").param("radius", "0"))
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+	/**
+	 * Test that when we subscribe to the stream of a country, then we get a
+	 * snapshot event whose id is the version of the data set, and that a
+	 * reconnection asks for the changes since its Last-Event-ID.
+	 */
+	@Test
+	public void givenCountryAndAirQualityParameter_whenSubscribingToTheStream_thenRetrieveASnapshotEvent()
+			throws Exception {
+		Mockito.when(service.getMeasurementChangesByCountry("pm25", "mx", 0))
+				.thenReturn(new OutputChanges("pm25", "PM2.5", 42, 0, true, 12.5, 12.5,
+						new OutputStats(1, 12.5, 12.5, 12.5, 12.5, 12.5, 12.5),
+						List.of(new OutputRow("19.4", "-99.1", 12.5)), List.of(), List.of()));
+		Mockito.when(service.getMeasurementChangesByCountry("pm25", "mx", 42))
+				.thenReturn(new OutputChanges("pm25", "PM2.5", 42, 42, false, 12.5, 12.5,
+						new OutputStats(1, 12.5, 12.5, 12.5, 12.5, 12.5, 12.5), List.of(), List.of(), List.of()));
+
+		MvcResult result = mockMvc.perform(get("/measurements/stream").param("parameter", "pm25")
+				.param("countryCode", "mx").accept(MediaType.TEXT_EVENT_STREAM))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		String events = awaitContent(result, "data:");
+
+		assertTrue(events.startsWith("id:42\nevent:snapshot\ndata:{\"parameter\":\"pm25\""), events);
+
+		MvcResult reconnected = mockMvc.perform(get("/measurements/stream").param("parameter", "pm25")
+				.param("countryCode", "mx").header("Last-Event-ID", "42"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		assertTrue(awaitContent(reconnected, "data:").startsWith("id:42\nevent:changes\n"));
+	}
+
+	/**
+	 * @return Content of the asynchronous response once it contains the
+	 *         text, which is sent by another thread.
+	 */
+	private static String awaitContent(MvcResult result, String text) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		String content = result.getResponse().getContentAsString();
+		while (!content.contains(text) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			content = result.getResponse().getContentAsString();
+		}
+		return content;
+	}
+}
@@ -4,11 +4,19 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.nullable;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
@@ -17,20 +25,32 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-import com.assessment.jorgeoracleassessment.models.input.InputCoordinates;
-import com.assessment.jorgeoracleassessment.models.input.InputLocation;
-import com.assessment.jorgeoracleassessment.models.input.InputMeasure;
+import com.assessment.jorgeoracleassessment.config.CacheConfig;
+import com.assessment.jorgeoracleassessment.config.ExecutorConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
 import com.assessment.jorgeoracleassessment.models.input.InputMeta;
 import com.assessment.jorgeoracleassessment.models.input.InputParameter;
 import com.assessment.jorgeoracleassessment.models.input.InputParameters;
-import com.assessment.jorgeoracleassessment.models.input.InputResponse;
+import com.assessment.jorgeoracleassessment.models.input.LocationBatchPage;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
 import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputSummary;
 import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
 import com.assessment.jorgeoracleassessment.service.AQLocationService;
 import com.assessment.jorgeoracleassessment.service.AQLocationServiceImp;
+import com.assessment.jorgeoracleassessment.service.IngestionService;
+import com.assessment.jorgeoracleassessment.service.LocationCrawler;
+import com.assessment.jorgeoracleassessment.service.ParameterCatalog;
+import com.assessment.jorgeoracleassessment.service.StationIndexUnavailableException;
 
 import jakarta.validation.ValidationException;
 
@@ -42,12 +62,24 @@ import jakarta.validation.ValidationException;
  * @author Jorge Gonzalez
  */
 @SpringBootTest
-@ContextConfiguration(classes = { AQLocationServiceImp.class })
+@ContextConfiguration(classes = { AQLocationServiceImp.class, ParameterCatalog.class, LocationCrawler.class,
+		IngestionService.class, ExecutorConfig.class, CacheConfig.class, MetricsConfig.class })
+@TestPropertySource(properties = { "ingestion.enabled=false", "snapshot.file=" })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
 @ExtendWith(SpringExtension.class)
 public class AQLocationServiceUnitTest {
 	@Autowired
 	private AQLocationService service;
 
+	@Autowired
+	private ParameterCatalog parameterCatalog;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private LocationCrawler locationCrawler;
+
 	@MockBean
 	private OpenAQClient openAQClient;
 
@@ -66,16 +98,17 @@ public class AQLocationServiceUnitTest {
 		InputParameters mockedParameterList = new InputParameters(List.of(
 				new InputParameter(test_parameter, test_parameter_description, "desc", "unit")));
 		// Mocked response of the REST API Client.
-		List<InputMeasure> inputMeasures = List.of(new InputMeasure(Math.random() * 100, test_parameter));
-		InputResponse mockedResponse = new InputResponse(
+		double inputValue = Math.random() * 100;
+		LocationPage mockedResponse = new LocationPage(
 				new InputMeta(1, 100, 1),
-				List.of(new InputLocation(inputMeasures, new InputCoordinates("109", "-31"))));
+				MeasurementColumns.of(new OutputRow("109", "-31", inputValue)));
 
 		// Mock of the call to the REST API Client method getParametersList.
 		Mockito.when(openAQClient.getParametersList())
 				.thenReturn(mockedParameterList);
-		// Mock of the call to the REST API Client method getLocations.
-		Mockito.when(openAQClient.getLocations(anyString(), anyString(), nullable(String.class),
+		parameterCatalog.refresh();
+		// Mock of the call to the REST API Client method getLocationPage.
+		Mockito.when(openAQClient.getLocationPage(anyString(), anyString(), nullable(String.class),
 				nullable(String.class), anyInt(), anyInt()))
 				.thenReturn(mockedResponse);
 
@@ -91,25 +124,25 @@ public class AQLocationServiceUnitTest {
 				.get(0).displayName());
 		// Assert that the max vaule is equal to the biggest value of the
 		// mockedParameterList.
-		assertEquals(response.max(), inputMeasures.stream()
-				.max(Comparator.comparing(InputMeasure::lastValue))
-				.get().lastValue());
+		assertEquals(response.max(), mockedResponse.rows().stream()
+				.max(Comparator.comparing(OutputRow::value))
+				.get().value());
 		// Assert thet our response data set size is equal to the counting
 		// of locations the mocked response has.
-		assertEquals(response.dataSet().size(), mockedResponse.results().size());
+		assertEquals(response.dataSet().size(), mockedResponse.rows().size());
 		// Assert thet the latitude of the first output response row is equal
 		// to the latitude of the first location the mocked response has.
 		assertEquals(response.dataSet().get(0).latitude(),
-				mockedResponse.results().get(0).coordinates().latitude());
+				mockedResponse.rows().get(0).latitude());
 		// Assert thet the longitude of the first output response row is equal
 		// to the longitude of the first location the mocked response has.
 		assertEquals(response.dataSet().get(0).longitude(),
-				mockedResponse.results().get(0).coordinates().longitude());
+				mockedResponse.rows().get(0).longitude());
 		// Assert thet the value of the first output response row is equal to
 		// the latest value of the first parameter of the first location the
 		// mocked response has.
 		assertEquals(response.dataSet().get(0).value(),
-				mockedResponse.results().get(0).parameters().get(0).lastValue());
+				mockedResponse.rows().get(0).value());
 	}
 
 	/**
@@ -128,21 +161,22 @@ public class AQLocationServiceUnitTest {
 		InputParameters mockedParameterList = new InputParameters(List.of(
 				new InputParameter(test_parameter, test_parameter_description, "desc", "unit")));
 		// Mocked response of the REST API Client (page 1).
-		List<InputMeasure> inputMeasures1 = List.of(new InputMeasure(Math.random() * 100, test_parameter));
-		InputResponse mockedResponse1 = new InputResponse(
+		double inputValue1 = Math.random() * 100;
+		LocationPage mockedResponse1 = new LocationPage(
 				new InputMeta(1, 1, 2),
-				List.of(new InputLocation(inputMeasures1, new InputCoordinates("109", "-31"))));
+				MeasurementColumns.of(new OutputRow("109", "-31", inputValue1)));
 		// Mocked response of the REST API Client (page 2).
-		List<InputMeasure> inputMeasures2 = List.of(new InputMeasure(Math.random() * 100, test_parameter));
-		InputResponse mockedResponse2 = new InputResponse(
+		double inputValue2 = Math.random() * 100;
+		LocationPage mockedResponse2 = new LocationPage(
 				new InputMeta(2, 1, 2),
-				List.of(new InputLocation(inputMeasures2, new InputCoordinates("109", "-31"))));
+				MeasurementColumns.of(new OutputRow("109", "-31", inputValue2)));
 
 		// Mock of the call to the REST API Client method getParametersList.
 		Mockito.when(openAQClient.getParametersList())
 				.thenReturn(mockedParameterList);
-		// Mock of the first and second call to the REST API Client method getLocations.
-		Mockito.when(openAQClient.getLocations(anyString(), anyString(), nullable(String.class),
+		parameterCatalog.refresh();
+		// Mock of the first and second call to the REST API Client method getLocationPage.
+		Mockito.when(openAQClient.getLocationPage(anyString(), anyString(), nullable(String.class),
 				nullable(String.class), anyInt(), anyInt()))
 				.thenReturn(mockedResponse1, mockedResponse2);
 
@@ -158,26 +192,143 @@ public class AQLocationServiceUnitTest {
 				.get(0).displayName());
 		// Assert that the max vaule is equal to the biggest value of the
 		// mockedParameterList.
-		assertEquals(response.max(), Stream.concat(inputMeasures1.stream(), inputMeasures2.stream())
-				.max(Comparator.comparing(InputMeasure::lastValue))
-				.get().lastValue());
+		assertEquals(response.max(), Stream.concat(mockedResponse1.rows().stream(), mockedResponse2.rows().stream())
+				.max(Comparator.comparing(OutputRow::value))
+				.get().value());
 		// Assert thet our response data set size is equal to the counting
 		// of locations that both mocked responses has.
 		assertEquals(response.dataSet().size(), 
-			mockedResponse1.results().size() + mockedResponse2.results().size());
+			mockedResponse1.rows().size() + mockedResponse2.rows().size());
 		// Assert thet the latitude of the first output response row is equal
 		// to the latitude of the first location the first mocked response has.
 		assertEquals(response.dataSet().get(0).latitude(),
-				mockedResponse1.results().get(0).coordinates().latitude());
+				mockedResponse1.rows().get(0).latitude());
 		// Assert thet the longitude of the second output response row is equal
 		// to the longitude of the second location the second mocked response has.
 		assertEquals(response.dataSet().get(1).longitude(),
-				mockedResponse2.results().get(0).coordinates().longitude());
+				mockedResponse2.rows().get(0).longitude());
 		// Assert thet the value of the second output response row is equal to
 		// the latest value of the first parameter of the first location the
 		// second mocked response has.
 		assertEquals(response.dataSet().get(1).value(),
-				mockedResponse2.results().get(0).parameters().get(0).lastValue());
+				mockedResponse2.rows().get(0).value());
+		// Assert that the crawl was recorded with its pages and rows.
+		assertEquals(1, metricsRegistry.summary("crawl.pages", "scope", "country").count());
+		assertEquals(2, metricsRegistry.summary("crawl.pages", "scope", "country").totalAmount());
+		assertEquals(2, metricsRegistry.summary("crawl.rows", "scope", "country").totalAmount());
+		assertEquals(1, metricsRegistry.counter("cache.gets", "cache", "measurements", "result", "miss").count());
+	}
+
+	/**
+	 * Test when the measurements of a country are split in several pages
+	 * which are requested concurrently, then the rows of the OutputResponse
+	 * keep the page order.
+	 */
+	@Test
+	public void givenCountryAndAirQualityParameter_whenGettingTheMeasurementsInConcurrentPages_thenRowsKeepThePageOrder() {
+		String test_parameter = "pm25",
+				test_countryCode = "mx";
+
+		// Mocked parameter list.
+		InputParameters mockedParameterList = new InputParameters(List.of(
+				new InputParameter(test_parameter, "display name", "desc", "unit")));
+
+		// Mock of the call to the REST API Client method getParametersList.
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(mockedParameterList);
+		parameterCatalog.refresh();
+		// Mock of each page of the REST API Client method getLocationPage. Each
+		// page has a single location whose value is its page number.
+		for (int page = 1; page <= 3; page++) {
+			Mockito.when(openAQClient.getLocationPage(anyString(), anyString(), nullable(String.class),
+					nullable(String.class), anyInt(), eq(page)))
+					.thenReturn(new LocationPage(new InputMeta(page, 1, 3),
+							MeasurementColumns.of(new OutputRow(String.valueOf(page), "-31", page))));
+		}
+
+		OutputResponse response = service.getMeasurementsByCountry(test_parameter, test_countryCode);
+
+		// Assert that every page was merged in order.
+		assertEquals(3, response.dataSet().size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, response.dataSet().get(i).value());
+			assertEquals(i + 1, Double.parseDouble(response.dataSet().get(i).latitude()));
+		}
+		// Assert that the max value is the one of the last page.
+		assertEquals(3, response.max());
+	}
+
+	/**
+	 * Test when the count of the first page is only an estimate, then the
+	 * pages after the ones it accounts for are requested until one comes
+	 * back short.
+	 */
+	@Test
+	public void givenAnEstimatedCount_whenGettingTheMeasurements_thenPagesAreRequestedUntilAShortOne() {
+		String test_parameter = "pm25",
+				test_countryCode = "mx";
+
+		// Mocked parameter list.
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(
+						new InputParameter(test_parameter, "display name", "desc", "unit"))));
+		parameterCatalog.refresh();
+		// The count says ">2" with a single location per page, but there are
+		// four pages; the last one is empty.
+		for (int page = 1; page <= 4; page++) {
+			int results = page < 4 ? 1 : 0;
+			Mockito.when(openAQClient.getLocationPage(anyString(), anyString(), nullable(String.class),
+					nullable(String.class), anyInt(), eq(page)))
+					.thenReturn(new LocationPage(new InputMeta(page, 1, 2, true, results), results == 0
+							? new MeasurementColumns()
+							: MeasurementColumns.of(new OutputRow(String.valueOf(page), "-31", page))));
+		}
+
+		OutputResponse response = service.getMeasurementsByCountry(test_parameter, test_countryCode);
+
+		// Assert that the pages beyond the estimate were merged in order.
+		assertEquals(3, response.dataSet().size());
+		assertEquals(3, response.max());
+		Mockito.verify(openAQClient, Mockito.never()).getLocationPage(anyString(), anyString(),
+				nullable(String.class), nullable(String.class), anyInt(), eq(5));
+	}
+
+	/**
+	 * Test when we stream the measurements of a country split in several
+	 * pages, then each page is sent to the consumer in order and the summary
+	 * has the count, min and max of all the rows.
+	 */
+	@Test
+	public void givenCountryAndAirQualityParameter_whenStreamingTheMeasurements_thenEachPageIsSentInOrder() {
+		String test_parameter = "pm25",
+				test_countryCode = "mx";
+
+		// Mocked parameter list.
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(
+						new InputParameter(test_parameter, "display name", "desc", "unit"))));
+		parameterCatalog.refresh();
+		// Mock of each page of the REST API Client method getLocationPage.
+		for (int page = 1; page <= 3; page++) {
+			Mockito.when(openAQClient.getLocationPage(anyString(), anyString(), nullable(String.class),
+					nullable(String.class), anyInt(), eq(page)))
+					.thenReturn(new LocationPage(new InputMeta(page, 1, 3),
+							MeasurementColumns.of(new OutputRow(String.valueOf(page), "-31", page - 2))));
+		}
+
+		List<List<OutputRow>> pages = new ArrayList<>();
+		OutputSummary summary = service.streamMeasurementsByCountry(test_parameter, test_countryCode, pages::add);
+
+		// Assert that each page was sent on its own and in order.
+		assertEquals(3, pages.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, Double.parseDouble(pages.get(i).get(0).latitude()));
+		}
+		// Assert that the summary has the real min and max.
+		assertEquals(3, summary.count());
+		assertEquals(-1, summary.min());
+		assertEquals(1, summary.max());
+		assertEquals("display name", summary.displayName());
 	}
 
 	/**
@@ -193,9 +344,10 @@ public class AQLocationServiceUnitTest {
 		// Mocked parameter list.
 		InputParameters mockedParameterList = new InputParameters(List.of());
 
-		// Mock of the call to the REST API Client method getLocations.
+		// Mock of the call to the REST API Client method getLocationPage.
 		Mockito.when(openAQClient.getParametersList())
 				.thenReturn(mockedParameterList);
+		parameterCatalog.refresh();
 
 		// Expect exception when calling the method getMeasurementsByCountry
 		// since there is no air quality parameter with that value in our
@@ -222,17 +374,18 @@ public class AQLocationServiceUnitTest {
 		InputParameters mockedParameterList = new InputParameters(List.of(
 				new InputParameter(test_parameter, test_parameter_description, "desc", "unit")));
 		// Mocked response of the REST API Client.
-		List<InputMeasure> inputMeasures = List.of(new InputMeasure(Math.random() * 100, test_parameter));
+		double inputValue = Math.random() * 100;
 		// Mocked response of the REST API Client.
-		InputResponse mockedResponse = new InputResponse(
+		LocationPage mockedResponse = new LocationPage(
 				new InputMeta(1, 100, 1),
-				List.of(new InputLocation(inputMeasures, new InputCoordinates("109", "-31"))));
+				MeasurementColumns.of(new OutputRow("109", "-31", inputValue)));
 
 		// Mock of the call to the REST API Client method getParametersList.
 		Mockito.when(openAQClient.getParametersList())
 				.thenReturn(mockedParameterList);
-		// Mock of the call to the REST API Client method getLocations.
-		Mockito.when(openAQClient.getLocations(anyString(), nullable(String.class), anyString(), anyString(), anyInt(), anyInt()))
+		parameterCatalog.refresh();
+		// Mock of the call to the REST API Client method getLocationPage.
+		Mockito.when(openAQClient.getLocationPage(anyString(), nullable(String.class), anyString(), anyString(), anyInt(), anyInt()))
 				.thenReturn(mockedResponse);
 
 		OutputResponse response = service.getMeasurementsByCoordinatesAndRadius(test_parameter, test_latitude,
@@ -248,24 +401,237 @@ public class AQLocationServiceUnitTest {
 				.get(0).displayName());
 		// Assert that the max vaule is equal to the biggest value of the
 		// mockedParameterList.
-		assertEquals(response.max(), inputMeasures.stream()
-				.max(Comparator.comparing(InputMeasure::lastValue))
-				.get().lastValue());
+		assertEquals(response.max(), mockedResponse.rows().stream()
+				.max(Comparator.comparing(OutputRow::value))
+				.get().value());
 		// Assert thet our response data set size is equal to the counting
 		// of locations the mocked response has.
-		assertEquals(response.dataSet().size(), mockedResponse.results().size());
+		assertEquals(response.dataSet().size(), mockedResponse.rows().size());
 		// Assert thet the latitude of the first output response row is equal
 		// to the latitude of the first location the mocked response has.
 		assertEquals(response.dataSet().get(0).latitude(),
-				mockedResponse.results().get(0).coordinates().latitude());
+				mockedResponse.rows().get(0).latitude());
 		// Assert thet the longitude of the first output response row is equal
 		// to the longitude of the first location the mocked response has.
 		assertEquals(response.dataSet().get(0).longitude(),
-				mockedResponse.results().get(0).coordinates().longitude());
+				mockedResponse.rows().get(0).longitude());
 		// Assert thet the value of the first output response row is equal to
 		// the latest value of the first parameter of the first location the
 		// mocked response has.
 		assertEquals(response.dataSet().get(0).value(),
-				mockedResponse.results().get(0).parameters().get(0).lastValue());
+				mockedResponse.rows().get(0).value());
+	}
+
+	/**
+	 * Test when the stations of every country are indexed, then the nearest
+	 * stations are sorted by distance and the radius queries are answered
+	 * without calling the REST API client, and that the nearest stations are
+	 * rejected until the index is built in the background.
+	 */
+	@Test
+	public void givenIndexedStations_whenGettingTheNearestAndRadiusMeasurements_thenTheyAreAnsweredLocally()
+			throws InterruptedException {
+		String test_parameter = "pm25";
+
+		// Mocked parameter list.
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(
+						new InputParameter(test_parameter, "display name", "desc", "unit"))));
+		parameterCatalog.refresh();
+		// Mock of the call to the REST API Client method getLocationPage for
+		// every country: Mexico City, Guadalajara and Monterrey.
+		Mockito.when(openAQClient.getLocationPage(anyString(), isNull(), isNull(), isNull(), anyInt(), anyInt()))
+				.thenReturn(new LocationPage(new InputMeta(1, 100, 3), MeasurementColumns.of(
+						new OutputRow("25.6866", "-100.3161", 3),
+						new OutputRow("20.6597", "-103.3496", 2),
+						new OutputRow("19.4326", "-99.1332", 1))));
+
+		assertThrows(StationIndexUnavailableException.class,
+				() -> service.getNearestMeasurements(test_parameter, "19.5", "-99.2", 2));
+		OutputResponse nearest = null;
+		for (int attempt = 0; attempt < 200 && nearest == null; attempt++) {
+			try {
+				nearest = service.getNearestMeasurements(test_parameter, "19.5", "-99.2", 2);
+			} catch (StationIndexUnavailableException ex) {
+				Thread.sleep(10);
+			}
+		}
+
+		// Assert that the nearest stations are sorted by distance.
+		assertEquals(2, nearest.dataSet().size());
+		assertEquals(1, nearest.dataSet().get(0).value());
+		assertEquals(2, nearest.dataSet().get(1).value());
+
+		OutputResponse radius = service.getMeasurementsByCoordinatesAndRadius(test_parameter, "19.5", "-99.2", 25000);
+
+		// Assert that only Mexico City is within the radius, and that the
+		// REST API Client was not asked for the radius.
+		assertEquals(1, radius.dataSet().size());
+		assertEquals(1, radius.dataSet().get(0).value());
+		// Assert that the index was just built, so its answer is fresh.
+		assertEquals(false, radius.stale());
+		Mockito.verify(openAQClient, Mockito.never()).getLocationPage(anyString(), nullable(String.class),
+				anyString(), anyString(), anyInt(), anyInt());
+	}
+
+	/**
+	 * Test when we ask for several air quality parameters of a country, then
+	 * the locations are crawled once and split by parameter, and each result
+	 * is cached as if the parameter was queried alone.
+	 */
+	@Test
+	public void givenSeveralAirQualityParameters_whenGettingTheBatch_thenTheLocationsAreCrawledOnce() {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(
+						new InputParameter("pm25", "PM2.5", "desc", "unit"),
+						new InputParameter("o3", "O₃", "desc", "unit"))));
+		parameterCatalog.refresh();
+		// Mocked batch pages: pm25 is reported in both, o3 only in the
+		// second one.
+		Mockito.when(openAQClient.getLocationBatchPage(eq(List.of("o3", "pm25")), eq(List.of("MX")), eq(1)))
+				.thenReturn(new LocationBatchPage(new InputMeta(1, 1, 2), Map.of(
+						"o3", MeasurementColumns.of(),
+						"pm25", MeasurementColumns.of(new OutputRow("19.4", "-99.1", 15)))));
+		Mockito.when(openAQClient.getLocationBatchPage(eq(List.of("o3", "pm25")), eq(List.of("MX")), eq(2)))
+				.thenReturn(new LocationBatchPage(new InputMeta(2, 1, 2), Map.of(
+						"o3", MeasurementColumns.of(new OutputRow("20.6", "-103.3", 41)),
+						"pm25", MeasurementColumns.of(new OutputRow("20.6", "-103.3", -2)))));
+
+		List<OutputResponse> responses = service.getMeasurementsByCountries(List.of("o3", "pm25", "o3"),
+				List.of("mx"));
+
+		// Assert that there is a response for each distinct parameter, in
+		// order, with its own rows and statistics.
+		assertEquals(2, responses.size());
+		assertEquals("o3", responses.get(0).parameter());
+		assertEquals(1, responses.get(0).dataSet().size());
+		assertEquals(41, responses.get(0).max());
+		assertEquals("pm25", responses.get(1).parameter());
+		assertEquals(2, responses.get(1).dataSet().size());
+		assertEquals(-2, responses.get(1).min());
+		assertEquals(15, responses.get(1).max());
+
+		// Assert that the single parameter query is answered from the cache.
+		assertEquals(2, service.getMeasurementsByCountry("pm25", "MX").dataSet().size());
+		Mockito.verify(openAQClient, Mockito.times(2)).getLocationBatchPage(anyList(), anyList(), anyInt());
+		Mockito.verify(openAQClient, Mockito.never()).getLocationPage(anyString(), nullable(String.class),
+				nullable(String.class), nullable(String.class), anyInt(), anyInt());
+	}
+
+	/**
+	 * Test when we ask asynchronously for the measurements of a country
+	 * whose pages arrive out of order, then the future completes once every
+	 * page arrived with the rows in page order, and an equal query while it's
+	 * crawled shares the crawl.
+	 */
+	@Test
+	public void givenPagesArrivingOutOfOrder_whenGettingTheMeasurementsAsynchronously_thenRowsKeepThePageOrder()
+			throws Exception {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(new InputParameter("pm25", "PM2.5", "desc", "unit"))));
+		parameterCatalog.refresh();
+		List<CompletableFuture<LocationPage>> pages = new ArrayList<>();
+		for (int page = 1; page <= 3; page++) {
+			CompletableFuture<LocationPage> future = new CompletableFuture<>();
+			pages.add(future);
+			Mockito.when(openAQClient.getLocationPageAsync(anyString(), anyString(), isNull(), isNull(), anyInt(),
+					eq(page))).thenReturn(future);
+		}
+
+		CompletableFuture<OutputResponse> response = service.getMeasurementsByCountryAsync("pm25", "mx");
+		CompletableFuture<OutputResponse> shared = service.getMeasurementsByCountryAsync("pm25", "mx");
+
+		pages.get(0).complete(new LocationPage(new InputMeta(1, 1, 3),
+				MeasurementColumns.of(new OutputRow("1", "-31", 1))));
+		pages.get(2).complete(new LocationPage(new InputMeta(3, 1, 3),
+				MeasurementColumns.of(new OutputRow("3", "-31", 3))));
+		// Assert that nothing is returned while a page is missing.
+		assertEquals(false, response.isDone());
+		pages.get(1).complete(new LocationPage(new InputMeta(2, 1, 3),
+				MeasurementColumns.of(new OutputRow("2", "-31", 2))));
+
+		OutputResponse result = response.get(5, TimeUnit.SECONDS);
+		assertEquals(3, result.dataSet().size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, result.dataSet().get(i).value());
+		}
+		assertEquals(3, result.stats().count());
+		assertEquals(3, shared.get(5, TimeUnit.SECONDS).dataSet().size());
+		Mockito.verify(openAQClient, Mockito.times(1)).getLocationPageAsync(anyString(), anyString(), isNull(),
+				isNull(), anyInt(), eq(1));
+	}
+
+	/**
+	 * Test when we ask asynchronously for the measurements of a country with
+	 * more pages than the page fetch concurrency, then only that many pages
+	 * are requested at once, and the next one is requested as one arrives.
+	 */
+	@Test
+	public void givenManyPages_whenGettingTheMeasurementsAsynchronously_thenTheyAreRequestedWithinTheWindow()
+			throws Exception {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(new InputParameter("pm25", "PM2.5", "desc", "unit"))));
+		parameterCatalog.refresh();
+		List<CompletableFuture<LocationPage>> pages = new ArrayList<>();
+		for (int page = 1; page <= 6; page++) {
+			CompletableFuture<LocationPage> future = new CompletableFuture<>();
+			pages.add(future);
+			Mockito.when(openAQClient.getLocationPageAsync(anyString(), anyString(), isNull(), isNull(), anyInt(),
+					eq(page))).thenReturn(future);
+		}
+
+		CompletableFuture<OutputResponse> response = service.getMeasurementsByCountryAsync("pm25", "mx");
+		pages.get(0).complete(new LocationPage(new InputMeta(1, 1, 6),
+				MeasurementColumns.of(new OutputRow("1", "-31", 1))));
+
+		// Assert that the pages 2 to 5 are in flight, but not the 6th.
+		Mockito.verify(openAQClient, Mockito.times(1)).getLocationPageAsync(anyString(), anyString(), isNull(),
+				isNull(), anyInt(), eq(5));
+		Mockito.verify(openAQClient, Mockito.never()).getLocationPageAsync(anyString(), anyString(), isNull(),
+				isNull(), anyInt(), eq(6));
+		pages.get(3).complete(new LocationPage(new InputMeta(4, 1, 6),
+				MeasurementColumns.of(new OutputRow("4", "-31", 4))));
+		Mockito.verify(openAQClient, Mockito.times(1)).getLocationPageAsync(anyString(), anyString(), isNull(),
+				isNull(), anyInt(), eq(6));
+
+		for (int page : new int[] { 2, 3, 5, 6 }) {
+			pages.get(page - 1).complete(new LocationPage(new InputMeta(page, 1, 6),
+					MeasurementColumns.of(new OutputRow(String.valueOf(page), "-31", page))));
+		}
+		OutputResponse result = response.get(5, TimeUnit.SECONDS);
+		assertEquals(6, result.dataSet().size());
+		for (int i = 0; i < 6; i++) {
+			assertEquals(i + 1, result.dataSet().get(i).value());
+		}
+	}
+
+	/**
+	 * Test when we crawl a query with more pages than the page fetch
+	 * concurrency on an executor without bounds, then only that many pages
+	 * are requested at once, and they're still consumed in page order.
+	 */
+	@Test
+	public void givenManyPages_whenCrawlingThem_thenAtMostTheFetchConcurrencyIsInFlight() {
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		List<Integer> consumed = new ArrayList<>();
+
+		locationCrawler.crawl(page -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			inFlight.decrementAndGet();
+			return new LocationPage(new InputMeta(page, 1, 12), MeasurementColumns.of(
+					new OutputRow(String.valueOf(page), "-31", page)));
+		}, LocationPage::meta, page -> consumed.add(page.meta().page()), task -> new Thread(task).start());
+
+		assertEquals(12, consumed.size());
+		for (int i = 0; i < 12; i++) {
+			assertEquals(i + 1, consumed.get(i));
+		}
+		assertEquals(true, maxInFlight.get() <= 4);
 	}
 }
@@ -0,0 +1,92 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.service.DatasetVersions;
+import com.assessment.jorgeoracleassessment.service.MeasurementQuery;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/DatasetVersions.java
+ * versions.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class DatasetVersionsTest {
+	private final Clock clock = Clock.fixed(Instant.ofEpochMilli(1_000), ZoneOffset.UTC);
+
+	private final MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+
+	/**
+	 * Test that when the rows of a scope change several times, then the
+	 * changes since an old version are merged: a row changed twice is sent
+	 * once with its last value, and a row added and then removed is not
+	 * sent.
+	 */
+	@Test
+	public void givenSeveralVersions_whenGettingTheChanges_thenTheyAreMerged() {
+		DatasetVersions versions = new DatasetVersions(8, 16, clock);
+
+		long first = versions.record(query, MeasurementColumns.of(new OutputRow("19.0", "-99.0", 10),
+				new OutputRow("20.0", "-103.0", 20), new OutputRow("21.0", "-101.0", 30)));
+		long same = versions.record(query, List.of(new OutputRow("19.0", "-99.0", 10),
+				new OutputRow("20.0", "-103.0", 20), new OutputRow("21.0", "-101.0", 30)));
+		long second = versions.record(query, MeasurementColumns.of(new OutputRow("19.0", "-99.0", 11),
+				new OutputRow("20.0", "-103.0", 20), new OutputRow("22.0", "-100.0", 5)));
+		DatasetVersions.Delta delta = versions.changesSince(query, MeasurementColumns.of(
+				new OutputRow("19.0", "-99.0", 12), new OutputRow("23.0", "-98.0", 7)), first);
+
+		assertEquals(1_001, first);
+		assertEquals(first, same);
+		assertEquals(first + 1, second);
+		assertEquals(second + 1, delta.version());
+		assertFalse(delta.full());
+		assertEquals(List.of(new OutputRow("23.0", "-98.0", 7)), delta.added());
+		assertEquals(List.of(new OutputRow("19.0", "-99.0", 12)), delta.changed());
+		// In the order they were removed.
+		assertEquals(List.of(new OutputRow("21.0", "-101.0", 30), new OutputRow("20.0", "-103.0", 20)),
+				delta.removed());
+
+		DatasetVersions.Delta unchanged = versions.changesSince(query, MeasurementColumns.of(
+				new OutputRow("19.0", "-99.0", 12), new OutputRow("23.0", "-98.0", 7)), delta.version());
+		assertEquals(delta.version(), unchanged.version());
+		assertTrue(unchanged.added().isEmpty() && unchanged.changed().isEmpty() && unchanged.removed().isEmpty());
+	}
+
+	/**
+	 * Test that when the version is older than the changes kept, or
+	 * unknown, then every current row is sent as a full snapshot.
+	 */
+	@Test
+	public void givenAnOldVersion_whenGettingTheChanges_thenRetrieveAFullSnapshot() {
+		DatasetVersions versions = new DatasetVersions(1, 16, clock);
+		MeasurementColumns last = MeasurementColumns.of(new OutputRow("19.0", "-99.0", 3),
+				new OutputRow("19.0", "-99.0", 4));
+
+		long first = versions.record(query, MeasurementColumns.of(new OutputRow("19.0", "-99.0", 1)));
+		long second = versions.record(query, MeasurementColumns.of(new OutputRow("19.0", "-99.0", 2)));
+		versions.record(query, last);
+
+		DatasetVersions.Delta tooOld = versions.changesSince(query, last, first);
+		assertTrue(tooOld.full());
+		assertEquals(last, tooOld.added());
+
+		DatasetVersions.Delta kept = versions.changesSince(query, last, second);
+		assertFalse(kept.full());
+		assertEquals(List.of(new OutputRow("19.0", "-99.0", 3)), kept.changed());
+		assertEquals(List.of(new OutputRow("19.0", "-99.0", 4)), kept.added());
+
+		assertTrue(versions.changesSince(MeasurementQuery.byCountry("pm25", "us"), last, 0).full());
+	}
+}
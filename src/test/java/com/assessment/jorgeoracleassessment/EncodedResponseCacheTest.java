@@ -0,0 +1,80 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.controller.EncodedResponseCache;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/controller/EncodedResponseCache.java
+ * cache.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class EncodedResponseCacheTest {
+
+	/**
+	 * Test that when a response is cached, then it's serialized once, and
+	 * that when the cache exceeds its bytes, then the least recently used
+	 * response is evicted.
+	 */
+	@Test
+	public void givenACapInBytes_whenCachingResponses_thenTheLeastRecentlyUsedIsEvicted() {
+		EncodedResponseCache cache = new EncodedResponseCache(3_000, new MetricsRegistry());
+		AtomicInteger serializations = new AtomicInteger();
+		byte[] body = "x".repeat(1_000).getBytes(StandardCharsets.UTF_8);
+
+		EncodedResponseCache.EncodedResponse first = cache.get("\"a\"", () -> {
+			serializations.incrementAndGet();
+			return body;
+		});
+		assertSame(first, cache.get("\"a\"", () -> {
+			serializations.incrementAndGet();
+			return body;
+		}));
+		assertEquals(1, serializations.get());
+		assertArrayEquals(body, first.body(false));
+		assertTrue(first.isGzipped(true));
+
+		cache.get("\"b\"", () -> body);
+		cache.get("\"a\"", () -> body);
+		cache.get("\"c\"", () -> "y".repeat(1_500).getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.usedBytes() <= 3_000);
+		cache.get("\"b\"", () -> {
+			serializations.incrementAndGet();
+			return body;
+		});
+		assertEquals(2, serializations.get());
+	}
+
+	/**
+	 * Test that gzip is only used when the client accepts it and it makes
+	 * the response smaller.
+	 */
+	@Test
+	public void givenAcceptEncodingHeaders_whenCheckingGzip_thenOnlyAcceptedCodingsAreUsed() {
+		assertTrue(EncodedResponseCache.acceptsGzip("gzip, deflate, br"));
+		assertTrue(EncodedResponseCache.acceptsGzip("br;q=1.0, *;q=0.5"));
+		assertFalse(EncodedResponseCache.acceptsGzip("gzip;q=0, deflate"));
+		assertFalse(EncodedResponseCache.acceptsGzip("identity"));
+		assertFalse(EncodedResponseCache.acceptsGzip(null));
+
+		EncodedResponseCache.EncodedResponse tiny = EncodedResponseCache.EncodedResponse
+				.of("{}".getBytes(StandardCharsets.UTF_8));
+		assertNull(tiny.gzip());
+		assertFalse(tiny.isGzipped(true));
+	}
+}
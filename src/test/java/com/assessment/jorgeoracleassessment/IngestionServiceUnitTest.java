@@ -0,0 +1,158 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.assessment.jorgeoracleassessment.config.CacheConfig;
+import com.assessment.jorgeoracleassessment.config.ExecutorConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsConfig;
+import com.assessment.jorgeoracleassessment.models.input.InputMeta;
+import com.assessment.jorgeoracleassessment.models.input.InputParameter;
+import com.assessment.jorgeoracleassessment.models.input.InputParameters;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
+import com.assessment.jorgeoracleassessment.service.AQLocationService;
+import com.assessment.jorgeoracleassessment.service.AQLocationServiceImp;
+import com.assessment.jorgeoracleassessment.service.IngestionService;
+import com.assessment.jorgeoracleassessment.service.LocationCrawler;
+import com.assessment.jorgeoracleassessment.service.ParameterCatalog;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/IngestionService.java
+ * service.
+ * 
+ * @author Jorge Gonzalez
+ */
+@SpringBootTest
+@ContextConfiguration(classes = { IngestionService.class, AQLocationServiceImp.class, ParameterCatalog.class,
+		LocationCrawler.class, ExecutorConfig.class, CacheConfig.class, MetricsConfig.class })
+@TestPropertySource(properties = { "ingestion.enabled=true", "ingestion.parameters=pm25,o3",
+		"ingestion.initialDelay=3600000", "ingestion.rateLimit=1000", "snapshot.file=" })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+@ExtendWith(SpringExtension.class)
+public class IngestionServiceUnitTest {
+	@Autowired
+	private IngestionService ingestionService;
+
+	@Autowired
+	private ParameterCatalog parameterCatalog;
+
+	@Autowired
+	private AQLocationService service;
+
+	@MockBean
+	private OpenAQClient openAQClient;
+
+	/**
+	 * Test that when the locations of every country are ingested, then the
+	 * country and radius queries are answered from the snapshot without
+	 * calling the REST API client again.
+	 */
+	@Test
+	public void givenIngestedLocations_whenGettingTheMeasurements_thenTheyAreAnsweredFromTheSnapshot() {
+		mockParameters();
+		// Mocked locations of every country: Mexico City and Guadalajara
+		// report pm25, Guadalajara and Santiago report o3.
+		Mockito.when(openAQClient.getLocationPage(eq("pm25"), isNull(), isNull(), isNull(), anyInt(), anyInt()))
+				.thenReturn(new LocationPage(new InputMeta(1, 100, 2),
+						MeasurementColumns.of(new OutputRow("19.4326", "-99.1332", 15),
+								new OutputRow("20.6597", "-103.3496", 12)),
+						new int[] { 1, 2 }, new String[] { "MX", "MX" }));
+		Mockito.when(openAQClient.getLocationPage(eq("o3"), isNull(), isNull(), isNull(), anyInt(), anyInt()))
+				.thenReturn(new LocationPage(new InputMeta(1, 100, 2),
+						MeasurementColumns.of(new OutputRow("20.6597", "-103.3496", 41),
+								new OutputRow("-33.4489", "-70.6693", 28)),
+						new int[] { 2, 3 }, new String[] { "MX", "CL" }));
+
+		assertTrue(ingestionService.ingest());
+		assertEquals(1, ingestionService.getSnapshot("pm25").version());
+		assertEquals(3, ingestionService.getSnapshot("o3").size());
+
+		OutputResponse mexico = service.getMeasurementsByCountry("pm25", "mx");
+		assertEquals(2, mexico.dataSet().size());
+		assertEquals(15, mexico.max());
+		// Just ingested, so it's not stale.
+		assertEquals(false, mexico.stale());
+
+		OutputResponse chile = service.getMeasurementsByCountry("o3", "CL");
+		assertEquals(1, chile.dataSet().size());
+		assertEquals(28, chile.dataSet().get(0).value());
+
+		OutputResponse radius = service.getMeasurementsByCoordinatesAndRadius("pm25", "19.5", "-99.2", 25000);
+		assertEquals(1, radius.dataSet().size());
+		assertEquals(15, radius.dataSet().get(0).value());
+
+		List<OutputRow> streamed = new ArrayList<>();
+		service.streamMeasurementsByCoordinatesAndRadius("pm25", "19.5", "-99.2", 25000, streamed::addAll);
+		assertEquals(List.of(radius.dataSet().get(0)), streamed);
+
+		// Assert that the REST API client was only called by the ingestion.
+		Mockito.verify(openAQClient, Mockito.times(2)).getLocationPage(anyString(), nullable(String.class),
+				nullable(String.class), nullable(String.class), anyInt(), anyInt());
+
+		// Assert that a new ingestion replaces the snapshot with a greater
+		// version.
+		assertTrue(ingestionService.ingest());
+		assertEquals(2, ingestionService.getSnapshot("pm25").version());
+	}
+
+	/**
+	 * Test that when the ingestion of an air quality parameter fails, then
+	 * it's left out of the snapshot and its queries go to the REST API
+	 * client.
+	 */
+	@Test
+	public void givenAFailingParameter_whenIngestingTheLocations_thenItsQueriesGoToTheClient() {
+		mockParameters();
+		Mockito.when(openAQClient.getLocationPage(eq("pm25"), isNull(), isNull(), isNull(), anyInt(), anyInt()))
+				.thenReturn(new LocationPage(new InputMeta(1, 100, 1),
+						MeasurementColumns.of(new OutputRow("19.4326", "-99.1332", 15)),
+						new int[] { 1 }, new String[] { "MX" }));
+		Mockito.when(openAQClient.getLocationPage(eq("o3"), nullable(String.class), isNull(), isNull(), anyInt(),
+				anyInt()))
+				.thenThrow(new IllegalStateException("Upstream down"));
+
+		assertTrue(ingestionService.ingest());
+		assertEquals(null, ingestionService.getSnapshot("o3"));
+
+		Mockito.when(openAQClient.getLocationPage(eq("o3"), eq("CL"), isNull(), isNull(), anyInt(), anyInt()))
+				.thenReturn(new LocationPage(new InputMeta(1, 100, 1),
+						MeasurementColumns.of(new OutputRow("-33.4489", "-70.6693", 28))));
+
+		OutputResponse chile = service.getMeasurementsByCountry("o3", "CL");
+		assertEquals(1, chile.dataSet().size());
+		Mockito.verify(openAQClient).getLocationPage(eq("o3"), eq("CL"), isNull(), isNull(), anyInt(), anyInt());
+	}
+
+	private void mockParameters() {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(
+						new InputParameter("pm25", "PM2.5", "desc", "unit"),
+						new InputParameter("o3", "O₃", "desc", "unit"))));
+		parameterCatalog.refresh();
+	}
+}
@@ -0,0 +1,119 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpServerErrorException;
+
+import com.assessment.jorgeoracleassessment.config.JdkAsyncHttpClient;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/config/JdkAsyncHttpClient.java
+ * client against a local HTTP server.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class JdkAsyncHttpClientTest {
+	private static final String PARAMETERS_JSON = "{\"results\":[{\"name\":\"pm25\",\"displayName\":\"PM2.5\"}]}";
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private HttpServer server;
+
+	private JdkAsyncHttpClient client;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		// Endpoint which answers gzip encoded once it's released.
+		server.createContext("/v2/parameters", exchange -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+				out.write(PARAMETERS_JSON.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/v2/unavailable", exchange -> {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+		});
+		server.start();
+
+		client = new JdkAsyncHttpClient(HttpClient.newHttpClient(), Duration.ofSeconds(5), 1);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	/**
+	 * Test that the requests which exceed the permits are queued without
+	 * blocking the caller, and that every one of them gets its decoded body
+	 * once the server answers.
+	 */
+	@Test
+	public void givenMoreRequestsThanPermits_whenRequesting_thenTheyAreQueuedAndDecoded() throws Exception {
+		URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/v2/parameters");
+
+		List<CompletableFuture<InputStream>> responses = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			responses.add(client.get(uri, "application/json"));
+		}
+		// Assert that only one request was sent.
+		assertEquals(2, client.queued());
+
+		release.countDown();
+		for (CompletableFuture<InputStream> response : responses) {
+			try (InputStream body = response.get(5, TimeUnit.SECONDS)) {
+				assertEquals(PARAMETERS_JSON, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		assertEquals(0, client.queued());
+	}
+
+	/**
+	 * Test that a server error fails the future with the same exception the
+	 * RestTemplate throws.
+	 */
+	@Test
+	public void givenAServerError_whenRequesting_thenTheFutureFailsWithAnHttpServerErrorException() {
+		URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/v2/unavailable");
+
+		ExecutionException ex = assertThrows(ExecutionException.class,
+				() -> client.get(uri, "application/json").get(5, TimeUnit.SECONDS));
+
+		assertInstanceOf(HttpServerErrorException.class, ex.getCause());
+		assertEquals(503, ((HttpServerErrorException) ex.getCause()).getStatusCode().value());
+	}
+}
@@ -0,0 +1,200 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.assessment.jorgeoracleassessment.config.JdkClientHttpRequestFactory;
+import com.assessment.jorgeoracleassessment.config.UpstreamCircuitBreaker;
+import com.assessment.jorgeoracleassessment.config.UpstreamCircuitBreaker.State;
+import com.assessment.jorgeoracleassessment.config.UpstreamRateLimiter;
+import com.assessment.jorgeoracleassessment.models.input.InputParameters;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/config/JdkClientHttpRequestFactory.java
+ * request factory against a local HTTP server.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class JdkClientHttpRequestFactoryTest {
+	private static final String PARAMETERS_JSON = "{\"results\":[{\"name\":\"pm25\",\"displayName\":\"PM2.5\"}]}";
+
+	private HttpServer server;
+
+	private RestTemplate restTemplate;
+
+	private final AtomicInteger throttledRequests = new AtomicInteger();
+
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		// Endpoint which answers gzip encoded when the client accepts it.
+		server.createContext("/v2/parameters", exchange -> {
+			byte[] body = PARAMETERS_JSON.getBytes(StandardCharsets.UTF_8);
+			boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			if (gzip) {
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			}
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = gzip ? new GZIPOutputStream(exchange.getResponseBody())
+					: exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		// Endpoint which is rate limited on the first request.
+		server.createContext("/v2/throttled", exchange -> {
+			if (throttledRequests.incrementAndGet() == 1) {
+				exchange.getResponseHeaders().add("Retry-After", "0");
+				exchange.sendResponseHeaders(429, -1);
+				exchange.close();
+				return;
+			}
+			byte[] body = PARAMETERS_JSON.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		// Endpoint which sends the headers and the start of the body, and
+		// then stalls.
+		server.createContext("/v2/stalled", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream out = exchange.getResponseBody();
+			out.write("{\"results\":[".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			try {
+				stalled.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+		});
+		// Endpoint which sends the headers at once and its body slowly.
+		server.createContext("/v2/slow", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write("{\"results\":[".getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				Thread.sleep(400);
+				out.write("{\"name\":\"pm25\",\"displayName\":\"PM2.5\"}]}".getBytes(StandardCharsets.UTF_8));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		restTemplate = new RestTemplate(
+				new JdkClientHttpRequestFactory(HttpClient.newHttpClient(), Duration.ofSeconds(5), 1));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		stalled.countDown();
+		server.stop(0);
+	}
+
+	/**
+	 * Test that a gzip encoded response is decoded before it reaches the
+	 * message converters, and that the single connection permit is given
+	 * back after each request.
+	 */
+	@Test
+	public void givenAGzipResponse_whenRequestingSeveralTimes_thenTheBodyIsDecoded() {
+		String url = "http://localhost:" + server.getAddress().getPort() + "/v2/parameters";
+
+		for (int i = 0; i < 3; i++) {
+			InputParameters response = restTemplate.getForObject(url, InputParameters.class);
+
+			assertEquals("pm25", response.results().get(0).name());
+			assertEquals("PM2.5", response.results().get(0).displayName());
+		}
+	}
+
+	/**
+	 * Test that a body which stops arriving fails the read once the read
+	 * timeout passes, instead of holding the calling thread.
+	 */
+	@Test
+	public void givenAStalledBody_whenRequesting_thenTheReadTimesOut() {
+		RestTemplate timingOutRestTemplate = new RestTemplate(
+				new JdkClientHttpRequestFactory(HttpClient.newHttpClient(), Duration.ofMillis(300), 1));
+		String url = "http://localhost:" + server.getAddress().getPort() + "/v2/stalled";
+
+		long start = System.nanoTime();
+		RestClientException exception = assertThrows(RestClientException.class,
+				() -> timingOutRestTemplate.getForObject(url, InputParameters.class));
+
+		Throwable cause = exception;
+		while (cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		assertEquals(HttpTimeoutException.class, cause.getClass());
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	/**
+	 * Test that a request whose headers arrive at once but whose body is sent
+	 * slowly is timed until the body is read, so it counts as a slow call and
+	 * opens the circuit.
+	 */
+	@Test
+	public void givenASlowBody_whenRequesting_thenItCountsAsASlowCall() {
+		UpstreamCircuitBreaker circuitBreaker = new UpstreamCircuitBreaker(1, 1, 1, Duration.ofMillis(200), 1,
+				Duration.ofSeconds(30), Clock.systemUTC());
+		RestTemplate slowRestTemplate = new RestTemplate(new JdkClientHttpRequestFactory(HttpClient.newHttpClient(),
+				Duration.ofSeconds(5), 1, UpstreamRateLimiter.unlimited(), circuitBreaker));
+		String url = "http://localhost:" + server.getAddress().getPort() + "/v2/slow";
+
+		InputParameters response = slowRestTemplate.getForObject(url, InputParameters.class);
+
+		assertEquals("pm25", response.results().get(0).name());
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	/**
+	 * Test that a rate limited request is sent again after the backoff, and
+	 * the caller only sees the successful response.
+	 */
+	@Test
+	public void givenARateLimitedRequest_whenRequesting_thenItIsRetried() {
+		RestTemplate retryingRestTemplate = new RestTemplate(new JdkClientHttpRequestFactory(
+				HttpClient.newHttpClient(), Duration.ofSeconds(5), 1, new UpstreamRateLimiter(100, 10, 3,
+						Duration.ofMillis(10), Duration.ofMillis(50), Clock.systemUTC()),
+				UpstreamCircuitBreaker.disabled()));
+		String url = "http://localhost:" + server.getAddress().getPort() + "/v2/throttled";
+
+		InputParameters response = retryingRestTemplate.getForObject(url, InputParameters.class);
+
+		assertEquals("pm25", response.results().get(0).name());
+		assertEquals(2, throttledRequests.get());
+	}
+}
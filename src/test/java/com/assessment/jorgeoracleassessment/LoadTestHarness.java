@@ -0,0 +1,139 @@
+package com.assessment.jorgeoracleassessment;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator which drives an endpoint of the application, usually
+ * /measurements, at a target request rate and reports the latency
+ * percentiles and the throughput.
+ * 
+ * The load is open: the requests are sent on schedule whether the previous
+ * ones have completed or not, and the latency of each request is measured
+ * from the time it was scheduled, so a stalled server shows up in the
+ * percentiles instead of slowing the load down.
+ * 
+ * For an end-to-end run without the network, start the OpenAQStandInServer,
+ * then the application with --upstream.baseUrl=http://localhost:8090 (and a
+ * higher upstream.rateLimit, or the limiter will be measured instead), and
+ * then the harness from the test classpath:
+ * 
+ * mvn exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.assessment.jorgeoracleassessment.LoadTestHarness
+ * -Dexec.args="--url=http://localhost:8080/measurements?parameter=pm25&country=MX
+ * --rate=200 --duration=60 --warmup=10"
+ * 
+ * @author Jorge Gonzalez
+ */
+public class LoadTestHarness {
+
+	public static void main(String[] args) {
+		Map<String, String> options = OpenAQStandInServer.options(args);
+		URI uri = URI.create(options.getOrDefault("url",
+				"http://localhost:8080/measurements?parameter=pm25&country=MX"));
+		double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+		Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+		Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10")));
+		Duration timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "30")));
+
+		HttpClient client = HttpClient.newBuilder().connectTimeout(timeout).build();
+		if (!warmup.isZero()) {
+			System.out.println("Warming up: " + run(client, uri, rate, warmup, timeout));
+		}
+		System.out.println(run(client, uri, rate, duration, timeout));
+	}
+
+	/**
+	 * Method that sends GET requests to the URI at the given rate and waits
+	 * for all of them to complete.
+	 * 
+	 * @param client   HttpClient which sends the requests.
+	 * @param uri      URI of the requests.
+	 * @param rate     Requests per second.
+	 * @param duration Time during which requests are sent.
+	 * @param timeout  Maximum time to wait for a response.
+	 * @return LoadReport of the requests.
+	 */
+	public static LoadReport run(HttpClient client, URI uri, double rate, Duration duration, Duration timeout) {
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.timeout(timeout)
+				.header("Accept", "application/json")
+				.GET()
+				.build();
+
+		int total = (int) Math.max(1, Math.round(rate * duration.toMillis() / 1000.0));
+		long interval = (long) (1_000_000_000L / rate);
+		long[] latencies = new long[total];
+		boolean[] failed = new boolean[total];
+		List<CompletableFuture<?>> responses = new ArrayList<>(total);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < total; i++) {
+			long scheduled = start + i * interval;
+			long wait;
+			while ((wait = scheduled - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			int index = i;
+			responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+					.whenComplete((response, ex) -> {
+						latencies[index] = System.nanoTime() - scheduled;
+						failed[index] = ex != null || response.statusCode() >= 400;
+					}));
+		}
+		// The failures are already recorded, so they don't fail the join.
+		CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).exceptionally(ex -> null).join();
+		long elapsed = System.nanoTime() - start;
+
+		int errors = 0;
+		for (boolean failure : failed) {
+			errors += failure ? 1 : 0;
+		}
+		Arrays.sort(latencies);
+
+		return new LoadReport(total, errors, (total - errors) * 1e9 / elapsed, percentile(latencies, 0.5),
+				percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[total - 1] / 1e6);
+	}
+
+	/**
+	 * @return Nearest-rank percentile of the sorted latencies, in
+	 *         milliseconds.
+	 */
+	private static double percentile(long[] sorted, double quantile) {
+		int rank = (int) Math.ceil(quantile * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+
+	/**
+	 * Outcome of a load test.
+	 * 
+	 * @param requests   Requests sent.
+	 * @param errors     Requests which failed or got an error status.
+	 * @param throughput Successful requests per second.
+	 * @param p50        Median latency, in milliseconds.
+	 * @param p99        99th percentile of the latency, in milliseconds.
+	 * @param p999       99.9th percentile of the latency, in milliseconds.
+	 * @param max        Maximum latency, in milliseconds.
+	 */
+	public record LoadReport(int requests, int errors, double throughput, double p50, double p99, double p999,
+			double max) {
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"%d requests, %d errors, %.1f req/s; latency p50=%.1fms p99=%.1fms p999=%.1fms max=%.1fms",
+					requests, errors, throughput, p50, p99, p999, max);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.LoadTestHarness.LoadReport;
+
+/**
+ * Unit tests for the LoadTestHarness load generator against the
+ * OpenAQStandInServer.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class LoadTestHarnessTest {
+
+	/**
+	 * Test that when we drive a server at a given rate, then every scheduled
+	 * request is sent and its latency includes the latency of the server,
+	 * and the injected errors are counted.
+	 */
+	@Test
+	public void givenAServerWithLatency_whenDrivingItAtARate_thenThePercentilesAndErrorsAreReported()
+			throws IOException {
+		try (OpenAQStandInServer server = new OpenAQStandInServer(0, null, Duration.ofMillis(20), Duration.ZERO, 0,
+				0, Duration.ZERO)) {
+			server.start();
+			URI uri = URI.create(server.getBaseUrl() + "/v2/parameters");
+
+			LoadReport report = LoadTestHarness.run(HttpClient.newHttpClient(), uri, 40, Duration.ofMillis(500),
+					Duration.ofSeconds(5));
+
+			assertEquals(20, report.requests());
+			assertEquals(0, report.errors());
+			assertTrue(report.p50() >= 20);
+			assertTrue(report.p50() <= report.p99() && report.p99() <= report.p999() && report.p999() <= report.max());
+			assertTrue(report.throughput() > 0);
+
+			server.setErrorRate(1);
+			report = LoadTestHarness.run(HttpClient.newHttpClient(), uri, 40, Duration.ofMillis(250),
+					Duration.ofSeconds(5));
+
+			assertEquals(10, report.errors());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.models.input.LocationBatchPage;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.repository.LocationPageParser;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/repository/LocationPageParser.java
+ * streaming parser.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class LocationPageParserTest {
+
+	/**
+	 * Test that when we parse a locations page, then we only get a row for
+	 * the locations which report the air quality parameter, with its last
+	 * value and the coordinates as they were sent.
+	 */
+	@Test
+	public void givenALocationsPage_whenParsingIt_thenOnlyTheRequestedParameterIsKept() throws IOException {
+		LocationPage page;
+		try (InputStream body = getClass().getResourceAsStream("/openaq/locations-page.json")) {
+			page = LocationPageParser.parse(body, "pm25");
+		}
+
+		// Assert that the metadata was parsed, even the estimated count.
+		assertEquals(2, page.meta().page());
+		assertEquals(3, page.meta().limit());
+		assertEquals(7, page.meta().found());
+		assertEquals(true, page.meta().estimated());
+		assertEquals(3, page.meta().results());
+		// Assert that the location without pm25 was discarded.
+		assertEquals(2, page.rows().size());
+		// Assert that the pm25 value was taken even if it wasn't the first
+		// parameter, and the coordinates came after the parameters.
+		assertEquals("31.68668689", page.rows().get(0).latitude());
+		assertEquals("-106.42717484", page.rows().get(0).longitude());
+		assertEquals(15.75, page.rows().get(0).value());
+		assertEquals(-3.5, page.rows().get(1).value());
+
+		assertEquals(8118, page.stationIds()[0]);
+		assertEquals("MX", page.countryCodes()[0]);
+		assertEquals(8119, page.stationIds()[1]);
+		assertEquals(null, page.countryCodes()[1]);
+	}
+
+	/**
+	 * Test that when a location has no id, then it's skipped instead of
+	 * taken as the station 0, and an exact count is not an estimate.
+	 */
+	@Test
+	public void givenALocationWithoutId_whenParsingIt_thenItIsSkipped() throws IOException {
+		InputStream body = new ByteArrayInputStream(("{\"meta\":{\"page\":1,\"limit\":100,\"found\":2},"
+				+ "\"results\":[{\"coordinates\":{\"latitude\":1,\"longitude\":2},"
+				+ "\"parameters\":[{\"parameter\":\"pm25\",\"lastValue\":3}]},"
+				+ "{\"id\":7,\"coordinates\":{\"latitude\":4,\"longitude\":5},"
+				+ "\"parameters\":[{\"parameter\":\"pm25\",\"lastValue\":6}]}]}")
+				.getBytes(StandardCharsets.UTF_8));
+
+		LocationPage page = LocationPageParser.parse(body, "pm25");
+
+		assertEquals(false, page.meta().estimated());
+		assertEquals(2, page.meta().results());
+		assertEquals(1, page.rows().size());
+		assertEquals(6, page.rows().value(0));
+		assertArrayEquals(new int[] { 7 }, page.stationIds());
+	}
+
+	/**
+	 * Test that when the coordinates are integers or small decimals, then
+	 * they're kept as they were sent instead of formatted as doubles.
+	 */
+	@Test
+	public void givenShortCoordinates_whenParsingThem_thenTheirTextIsKept() throws IOException {
+		InputStream body = new ByteArrayInputStream(("{\"meta\":{\"page\":1,\"limit\":100,\"found\":2},"
+				+ "\"results\":[{\"id\":7,\"coordinates\":{\"latitude\":19,\"longitude\":0.0001},"
+				+ "\"parameters\":[{\"parameter\":\"pm25\",\"lastValue\":6}]},"
+				+ "{\"id\":8,\"coordinates\":{\"latitude\":19.5,\"longitude\":-99.25},"
+				+ "\"parameters\":[{\"parameter\":\"pm25\",\"lastValue\":3}]}]}")
+				.getBytes(StandardCharsets.UTF_8));
+
+		LocationPage page = LocationPageParser.parse(body, "pm25");
+
+		assertEquals("19", page.rows().get(0).latitude());
+		assertEquals("0.0001", page.rows().get(0).longitude());
+		assertEquals(0.0001, page.rows().longitude(0));
+		assertEquals("19.5", page.rows().get(1).latitude());
+		assertEquals("-99.25", page.rows().get(1).longitude());
+	}
+
+	/**
+	 * Test that when the body is not a locations page, then we get an
+	 * exception.
+	 */
+	@Test
+	public void givenABodyWithoutMetadata_whenParsingIt_thenAnExceptionIsThrown() {
+		InputStream body = new ByteArrayInputStream("{\"detail\":\"Not found\"}".getBytes(StandardCharsets.UTF_8));
+
+		assertThrows(IOException.class, () -> LocationPageParser.parse(body, "pm25"));
+	}
+
+	/**
+	 * Test that when we parse a locations page for several parameters, then
+	 * each parameter gets the rows of the locations which report it.
+	 */
+	@Test
+	public void givenALocationsPage_whenParsingSeveralParameters_thenRowsAreSplitByParameter() throws IOException {
+		LocationBatchPage page;
+		try (InputStream body = getClass().getResourceAsStream("/openaq/locations-page.json")) {
+			page = LocationPageParser.parseBatch(body, List.of("pm25", "pm10", "o3", "no2"));
+		}
+
+		assertEquals(7, page.meta().found());
+		assertEquals(List.of("pm25", "pm10", "o3", "no2"), List.copyOf(page.rows().keySet()));
+		assertEquals(2, page.rows().get("pm25").size());
+		assertEquals(15.75, page.rows().get("pm25").value(0));
+		assertEquals(1, page.rows().get("pm10").size());
+		assertEquals(8.2, page.rows().get("pm10").value(0));
+		assertEquals(1, page.rows().get("o3").size());
+		assertEquals(41.0, page.rows().get("o3").value(0));
+		assertEquals(0, page.rows().get("no2").size());
+	}
+}
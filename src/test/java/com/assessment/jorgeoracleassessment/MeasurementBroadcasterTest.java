@@ -0,0 +1,153 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.controller.MeasurementBroadcaster;
+import com.assessment.jorgeoracleassessment.models.output.OutputChanges;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.service.MeasurementQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/controller/MeasurementBroadcaster.java
+ * broadcaster.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MeasurementBroadcasterTest {
+	private final CapturingScheduler scheduler = new CapturingScheduler();
+
+	/**
+	 * Send tasks queued by the broadcaster, run by hand in the tests.
+	 */
+	private final List<Runnable> sends = new ArrayList<>();
+
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+	private final MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+
+	@AfterEach
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Test that when a scope has several subscribers, then it's refreshed
+	 * once for all of them and the event is queued for each one.
+	 */
+	@Test
+	public void givenTwoSubscribersOfAScope_whenItIsRefreshed_thenTheChangesAreComputedOnce() {
+		MeasurementBroadcaster broadcaster = new MeasurementBroadcaster(new ObjectMapper(), scheduler, sends::add,
+				60_000, 4, 0, metricsRegistry);
+		List<Long> calls = new ArrayList<>();
+		LongFunction<OutputChanges> changes = since -> {
+			calls.add(since);
+			return changes(calls.size() < 3 ? 7 : 8);
+		};
+
+		broadcaster.subscribe(query, changes, 0);
+		broadcaster.subscribe(query, changes, 0);
+		assertEquals(1, broadcaster.scopes());
+		assertEquals(2, broadcaster.subscribers());
+		assertEquals(1, scheduler.refreshes.size());
+		runSends();
+
+		scheduler.refreshes.get(0).run();
+
+		assertEquals(List.of(0L, 0L, 7L), calls);
+		assertEquals(2, sends.size());
+	}
+
+	/**
+	 * Test that when a subscriber doesn't keep up with its events, then it's
+	 * dropped, and the scope is no longer refreshed without subscribers.
+	 */
+	@Test
+	public void givenASlowSubscriber_whenItsQueueIsFull_thenItIsDropped() {
+		MeasurementBroadcaster broadcaster = new MeasurementBroadcaster(new ObjectMapper(), scheduler, sends::add,
+				60_000, 2, 0, metricsRegistry);
+		broadcaster.subscribe(query, since -> changes(7), 0);
+
+		// The first event is never sent, so the heartbeats pile up.
+		scheduler.refreshes.get(0).run();
+		assertEquals(1, broadcaster.subscribers());
+		scheduler.refreshes.get(0).run();
+
+		assertEquals(0, broadcaster.subscribers());
+		assertEquals(0, broadcaster.scopes());
+		assertEquals(1, metricsRegistry.counter("stream.dropped").count());
+	}
+
+	/**
+	 * Test that when the scope is refreshed between the first snapshot of a
+	 * subscriber and its registration, then the subscriber gets the changes
+	 * since its snapshot instead of missing the ones of that refresh.
+	 */
+	@Test
+	public void givenARefreshBeforeTheRegistration_whenSubscribing_thenTheMissedChangesAreSent() {
+		MeasurementBroadcaster broadcaster = new MeasurementBroadcaster(new ObjectMapper(), scheduler, sends::add,
+				60_000, 4, 0, metricsRegistry);
+		AtomicLong current = new AtomicLong(7);
+		broadcaster.subscribe(query, since -> changes(current.get()), 0);
+
+		List<Long> calls = new ArrayList<>();
+		broadcaster.subscribe(query, since -> {
+			calls.add(since);
+			if (calls.size() == 1) {
+				// The scope moves to version 8 after this snapshot of version 7.
+				current.set(8);
+				scheduler.refreshes.get(0).run();
+				return changes(7);
+			}
+			return changes(current.get());
+		}, 0);
+
+		assertEquals(List.of(0L, 7L), calls);
+		assertEquals(2, broadcaster.subscribers());
+	}
+
+	private void runSends() {
+		List<Runnable> pending = new ArrayList<>(sends);
+		sends.clear();
+		pending.forEach(Runnable::run);
+	}
+
+	private static OutputChanges changes(long version) {
+		return new OutputChanges("pm25", "PM2.5", version, 0, true, 12.5, 12.5,
+				new OutputStats(1, 12.5, 12.5, 12.5, 12.5, 12.5, 12.5), List.of(new OutputRow("19.4", "-99.1", 12.5)),
+				List.of(), List.of());
+	}
+
+	/**
+	 * Scheduler which keeps the periodic tasks to run them by hand.
+	 */
+	private static final class CapturingScheduler extends ScheduledThreadPoolExecutor {
+		private final List<Runnable> refreshes = new ArrayList<>();
+
+		private CapturingScheduler() {
+			super(1);
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+				TimeUnit unit) {
+			refreshes.add(command);
+			return schedule(() -> {
+			}, 1, TimeUnit.HOURS);
+		}
+	}
+}
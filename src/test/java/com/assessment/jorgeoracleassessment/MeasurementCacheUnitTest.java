@@ -0,0 +1,360 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.repository.FileSharedMeasurementStore;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore.SharedMeasurement;
+import com.assessment.jorgeoracleassessment.service.MeasurementCache;
+import com.assessment.jorgeoracleassessment.service.MeasurementQuery;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/MeasurementCache.java
+ * cache.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MeasurementCacheUnitTest {
+	private final MutableClock clock = new MutableClock();
+
+	/**
+	 * Background refreshes queued by the cache, run by hand in the tests.
+	 */
+	private final List<Runnable> refreshes = new ArrayList<>();
+
+	@TempDir
+	Path directory;
+
+	/**
+	 * Test that a fresh entry is served without loading it again.
+	 */
+	@Test
+	public void givenAFreshEntry_whenGettingIt_thenTheLoaderIsNotCalled() {
+		MeasurementCache cache = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		AtomicInteger loads = new AtomicInteger();
+
+		OutputResponse first = cache.get(query, () -> response(loads.incrementAndGet(), 1));
+		clock.advance(999);
+		OutputResponse second = cache.get(MeasurementQuery.byCountry("pm25", "MX"),
+				() -> response(loads.incrementAndGet(), 1));
+
+		assertSame(first, second);
+		assertEquals(1, loads.get());
+	}
+
+	/**
+	 * Test that a stale entry is served at once while a single background
+	 * refresh runs, and the refreshed value is served afterwards.
+	 */
+	@Test
+	public void givenAStaleEntry_whenGettingIt_thenItIsServedAndRefreshedOnce() {
+		MeasurementCache cache = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		AtomicInteger loads = new AtomicInteger();
+
+		cache.get(query, () -> response(loads.incrementAndGet(), 1));
+		clock.advance(1500);
+
+		assertEquals(1, cache.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		assertEquals(1, cache.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		// Only one refresh was queued for both stale hits.
+		assertEquals(1, refreshes.size());
+
+		refreshes.get(0).run();
+
+		assertEquals(2, cache.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		assertEquals(2, loads.get());
+	}
+
+	/**
+	 * Test that an entry older than its TTL plus its stale TTL is loaded
+	 * again by the caller.
+	 */
+	@Test
+	public void givenAnExpiredEntry_whenGettingIt_thenItIsLoadedAgain() {
+		MeasurementCache cache = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		AtomicInteger loads = new AtomicInteger();
+
+		cache.get(query, () -> response(loads.incrementAndGet(), 1));
+		clock.advance(2000);
+
+		assertEquals(2, cache.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		assertEquals(0, refreshes.size());
+	}
+
+	/**
+	 * Test that an entry too old to be served is still kept as the last
+	 * known measurements of the query, flagged as stale with its age.
+	 */
+	@Test
+	public void givenAnExpiredEntry_whenGettingTheLastKnown_thenItIsReturnedAsStale() {
+		MeasurementCache cache = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+
+		cache.get(query, () -> response(1, 1));
+		clock.advance(5000);
+
+		assertEquals(null, cache.getIfPresent(query));
+		OutputResponse lastKnown = cache.getLastKnown(query);
+		assertEquals(true, lastKnown.stale());
+		assertEquals(5, lastKnown.age());
+		assertEquals(1, lastKnown.max());
+		assertEquals(null, cache.getLastKnown(MeasurementQuery.byCountry("pm25", "us")));
+	}
+
+	/**
+	 * Test that the least recently used entries are evicted when the memory
+	 * cap is exceeded.
+	 */
+	@Test
+	public void givenAFullCache_whenAddingAnEntry_thenTheLeastRecentlyUsedIsEvicted() {
+		// Room for two responses of 10 rows.
+		MeasurementCache cache = new MeasurementCache(1000, 1000, 2 * (256 + 10 * 128), refreshes::add, clock);
+		MeasurementQuery mx = MeasurementQuery.byCountry("pm25", "mx"),
+				us = MeasurementQuery.byCountry("pm25", "us"),
+				de = MeasurementQuery.byCountry("pm25", "de");
+		AtomicInteger loads = new AtomicInteger();
+
+		cache.get(mx, () -> response(loads.incrementAndGet(), 10));
+		cache.get(us, () -> response(loads.incrementAndGet(), 10));
+		// mx becomes the most recently used entry.
+		cache.get(mx, () -> response(loads.incrementAndGet(), 10));
+		cache.get(de, () -> response(loads.incrementAndGet(), 10));
+
+		assertEquals(2, cache.size());
+		assertEquals(3, loads.get());
+		// us was evicted, so it's loaded again.
+		cache.get(us, () -> response(loads.incrementAndGet(), 10));
+		assertEquals(4, loads.get());
+	}
+
+	/**
+	 * Test that two instances sharing a store load a query only once, and
+	 * the one which read it from the store expires it when the other does.
+	 */
+	@Test
+	public void givenTwoInstancesSharingAStore_whenBothGetAQuery_thenItIsLoadedOnce() {
+		FileSharedMeasurementStore store = new FileSharedMeasurementStore(directory, 1000, clock);
+		MeasurementCache first = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementCache second = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		AtomicInteger loads = new AtomicInteger();
+
+		first.get(query, () -> response(loads.incrementAndGet(), 3));
+		clock.advance(600);
+		OutputResponse shared = second.get(query, () -> response(loads.incrementAndGet(), 3));
+
+		assertEquals(1, loads.get());
+		assertEquals(1, shared.max());
+		assertEquals(3, shared.dataSet().size());
+		assertEquals(new OutputRow("109", "-31", 1), shared.dataSet().get(0));
+		// Crawled 1000ms ago, so it's stale in the second instance too.
+		clock.advance(400);
+		second.get(query, () -> response(loads.incrementAndGet(), 3));
+		assertEquals(1, refreshes.size());
+	}
+
+	/**
+	 * Test that only the instance holding the lease of a stale query
+	 * refreshes it, while the others serve the stale measurements and adopt
+	 * the refreshed ones afterwards.
+	 */
+	@Test
+	public void givenAStaleSharedEntry_whenTwoInstancesRefreshIt_thenOnlyTheLeaseHolderLoads() {
+		FileSharedMeasurementStore store = new FileSharedMeasurementStore(directory, 1000, clock);
+		MeasurementCache first = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementCache second = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		AtomicInteger loads = new AtomicInteger();
+
+		first.get(query, () -> response(loads.incrementAndGet(), 1));
+		second.get(query, () -> response(loads.incrementAndGet(), 1));
+		clock.advance(1500);
+
+		first.get(query, () -> {
+			// The second instance refreshes while the first one holds the lease.
+			refreshes.get(1).run();
+			return response(loads.incrementAndGet(), 1);
+		});
+		assertEquals(1, second.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		refreshes.get(0).run();
+
+		assertEquals(2, loads.get());
+		assertEquals(2, first.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		// The stale entry it adopted isn't refreshed again during the back-off.
+		assertEquals(1, second.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		assertEquals(2, refreshes.size());
+		// After it, it's refreshed from the store.
+		clock.advance(100);
+		assertEquals(1, second.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		refreshes.get(2).run();
+		assertEquals(2, second.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		assertEquals(2, loads.get());
+	}
+
+	/**
+	 * Test that an instance which misses a query while another one holds its
+	 * lease waits for the measurements the other one shares instead of
+	 * loading them too.
+	 */
+	@Test
+	public void givenALeasedMiss_whenGettingIt_thenTheSharedMeasurementsAreAwaited() throws Exception {
+		FileSharedMeasurementStore store = new FileSharedMeasurementStore(directory, 1000, clock);
+		MeasurementCache first = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementCache second = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+
+		Thread leaseHolder = new Thread(() -> first.get(query, () -> {
+			loading.countDown();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return response(loads.incrementAndGet(), 1);
+		}));
+		leaseHolder.start();
+		loading.await();
+
+		assertEquals(1, second.get(query, () -> response(loads.incrementAndGet(), 1)).max());
+		leaseHolder.join();
+		assertEquals(1, loads.get());
+	}
+
+	/**
+	 * Test that an instance which misses a query while another one holds its
+	 * lease for long loads the measurements itself after a few seconds,
+	 * instead of blocking the request thread for the whole back-off.
+	 */
+	@Test
+	public void givenALongLease_whenGettingItSynchronously_thenItIsLoadedAfterTheMaximumWait() {
+		FileSharedMeasurementStore store = new FileSharedMeasurementStore(directory, 3600000, clock);
+		MeasurementCache cache = new MeasurementCache(1000, 600000, Long.MAX_VALUE, refreshes::add, clock,
+				new MetricsRegistry(), store);
+		MeasurementQuery query = MeasurementQuery.byCountry("pm25", "mx");
+		assertEquals(true, store.tryLease(query.key()));
+
+		long start = System.nanoTime();
+		assertEquals(1, cache.get(query, () -> response(1, 1)).max());
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(true, waited >= 2000 && waited < 10000, "Waited " + waited + " ms");
+	}
+
+	/**
+	 * Test that a lease is held by one store until it expires, and a store
+	 * only releases the leases it holds, not the one another store acquired
+	 * after its own expired.
+	 */
+	@Test
+	public void givenAnExpiredLease_whenAnotherStoreAcquiresIt_thenOnlyItsHolderReleasesIt() {
+		FileSharedMeasurementStore first = new FileSharedMeasurementStore(directory, 1000, clock);
+		FileSharedMeasurementStore second = new FileSharedMeasurementStore(directory, 1000, clock);
+		String key = MeasurementQuery.byCountry("pm25", "mx").key();
+
+		assertEquals(true, first.tryLease(key));
+		assertEquals(false, second.tryLease(key));
+		clock.advance(1000);
+		assertEquals(true, second.tryLease(key));
+
+		first.releaseLease(key);
+		assertEquals(false, first.tryLease(key));
+		second.releaseLease(key);
+		assertEquals(true, first.tryLease(key));
+	}
+
+	/**
+	 * Test that when the entries of a cache are exported by key and restored
+	 * into another one, then the restored entries keep their age, and an
+	 * entry already loaded more recently isn't replaced.
+	 */
+	@Test
+	public void givenAnExportedCache_whenRestoringIt_thenTheEntriesKeepTheirAge() {
+		MeasurementCache cache = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock);
+		MeasurementQuery country = MeasurementQuery.byCountry("pm25", "mx");
+		MeasurementQuery radius = MeasurementQuery.byCoordinates("pm25", "19.4", "-99.1", 5000);
+		cache.get(country, () -> response(1, 1));
+		cache.get(radius, () -> response(2, 1));
+		Map<String, SharedMeasurement> exported = new LinkedHashMap<>();
+		cache.export().forEach((query, measurement) -> exported.put(query.key(), measurement));
+
+		clock.advance(500);
+		MeasurementCache restored = new MeasurementCache(1000, 1000, Long.MAX_VALUE, refreshes::add, clock);
+		restored.get(radius, () -> response(3, 1));
+		exported.forEach((key, measurement) -> restored.restore(MeasurementQuery.fromKey(key), measurement));
+
+		assertEquals(1, restored.getIfPresent(country).max());
+		assertEquals(3, restored.getIfPresent(radius).max());
+		clock.advance(1000);
+		// The restored entry is stale after its TTL counted from its first load.
+		assertEquals(1, restored.get(country, () -> response(4, 1)).max());
+		assertEquals(1, refreshes.size());
+	}
+
+	private static OutputResponse response(double max, int rows) {
+		return new OutputResponse(max, max, "pm25", "PM2.5", new OutputStats(rows, max, max, max, max, max, max),
+				Collections.nCopies(rows, new OutputRow("109", "-31", max)));
+	}
+
+	/**
+	 * Clock which only moves when the test advances it.
+	 */
+	private static class MutableClock extends Clock {
+		private long millis;
+
+		void advance(long delta) {
+			millis += delta;
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.models.input.InputMeta;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.repository.MeasurementSnapshot;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/repository/MeasurementSnapshot.java
+ * columnar store.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MeasurementSnapshotTest {
+
+	/**
+	 * Test that when we build a snapshot from the pages of two air quality
+	 * parameters, then the stations are merged by id and each parameter
+	 * keeps its own values column.
+	 */
+	@Test
+	public void givenPagesOfTwoParameters_whenBuildingASnapshot_thenStationsAreMergedById() {
+		MeasurementSnapshot snapshot = new MeasurementSnapshot.Builder()
+				.add("pm25", page(new int[] { 3, 1, 2 }, new String[] { "US", "MX", "MX" },
+						new double[][] { { 40.7, -74.0, 9 }, { 19.4, -99.1, 15 }, { 20.6, -103.3, 12 } }))
+				.add("o3", page(new int[] { 2, 4 }, new String[] { "MX", "CL" },
+						new double[][] { { 20.6, -103.3, 41 }, { -33.4, -70.6, 28 } }))
+				.build(7, 1000);
+
+		assertEquals(7, snapshot.version());
+		assertEquals(1000, snapshot.createdAt());
+		assertEquals(4, snapshot.size());
+		assertEquals(List.of("pm25", "o3"), snapshot.parameters());
+
+		// Assert that the stations are sorted by country and id.
+		assertEquals(4, snapshot.stationId(0));
+		assertEquals("CL", snapshot.countryCode(0));
+		assertEquals(1, snapshot.stationId(1));
+		assertEquals(2, snapshot.stationId(2));
+		assertEquals("US", snapshot.countryCode(3));
+
+		// Assert that a station which doesn't report a parameter has no
+		// value for it.
+		assertTrue(Double.isNaN(snapshot.value("pm25", 0)));
+		assertEquals(41, snapshot.value("o3", 2));
+
+		MeasurementColumns mexico = snapshot.byCountry("pm25", "mx");
+		assertEquals(2, mexico.size());
+		assertEquals(15, mexico.value(0));
+		assertEquals(12, mexico.value(1));
+		assertEquals(1, snapshot.byCountry("o3", "MX").size());
+		assertEquals(0, snapshot.byCountry("pm25", "CL").size());
+		assertEquals(0, snapshot.byCountry("pm25", "AR").size());
+		assertEquals(3, snapshot.rows("pm25").size());
+		assertFalse(snapshot.hasParameter("no2"));
+		assertEquals(0, snapshot.rows("no2").size());
+	}
+
+	/**
+	 * Test that when we wrap the buffer of a snapshot, then we read the same
+	 * snapshot, and that a truncated buffer is rejected.
+	 */
+	@Test
+	public void givenTheBufferOfASnapshot_whenWrappingIt_thenTheSameSnapshotIsRead() {
+		MeasurementSnapshot snapshot = new MeasurementSnapshot.Builder()
+				.add("pm25", page(new int[] { 1, 2 }, new String[] { "MX", null },
+						new double[][] { { 19.4, -99.1, 15 }, { 20.6, -103.3, 12 } }))
+				.build(3, 2000);
+
+		ByteBuffer copy = ByteBuffer.allocate(snapshot.buffer().capacity());
+		copy.put(snapshot.buffer()).clear();
+		MeasurementSnapshot wrapped = MeasurementSnapshot.wrap(copy);
+
+		assertEquals(3, wrapped.version());
+		assertEquals(2, wrapped.size());
+		assertEquals(null, wrapped.countryCode(0));
+		assertEquals(12, wrapped.value("pm25", 0));
+		assertEquals(19.4, wrapped.latitude(1));
+		assertEquals(-99.1, wrapped.longitude(1));
+
+		assertThrows(RuntimeException.class, () -> MeasurementSnapshot.wrap(copy.slice(0, copy.capacity() - 8)));
+		assertThrows(IllegalArgumentException.class, () -> MeasurementSnapshot.wrap(ByteBuffer.allocate(64)));
+	}
+
+	private static LocationPage page(int[] ids, String[] countries, double[][] rows) {
+		MeasurementColumns columns = new MeasurementColumns();
+		for (double[] row : rows) {
+			columns.add(row[0], row[1], row[2]);
+		}
+
+		return new LocationPage(new InputMeta(1, 100, rows.length), columns, ids, countries);
+	}
+}
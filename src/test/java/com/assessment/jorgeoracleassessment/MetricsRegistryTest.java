@@ -0,0 +1,64 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.config.MetricsRegistry;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/config/MetricsRegistry.java
+ * metrics registry.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class MetricsRegistryTest {
+
+	/**
+	 * Test that when we record counters and timers, then they are exposed in
+	 * the Prometheus text format, with their tags as sorted labels and the
+	 * timers as cumulative histograms in seconds.
+	 */
+	@Test
+	public void givenCountersAndTimers_whenScraping_thenTheyAreExposedInThePrometheusFormat() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("upstream.retries", "uri", "/v2/locations", "reason", "429").increment(2);
+		registry.timer("upstream.requests", "uri", "/v2/locations", "status", "200")
+				.record(TimeUnit.MILLISECONDS.toNanos(30));
+		registry.timer("upstream.requests", "uri", "/v2/locations", "status", "200")
+				.record(TimeUnit.MILLISECONDS.toNanos(300));
+		registry.gauge("cache.size", () -> 3, "cache", "measurements");
+
+		String scrape = registry.scrape();
+
+		assertTrue(scrape.contains("# TYPE upstream_retries_total counter\n"
+				+ "upstream_retries_total{reason=\"429\",uri=\"/v2/locations\"} 2\n"));
+		assertTrue(scrape.contains("# TYPE upstream_requests_seconds histogram\n"));
+		assertTrue(scrape.contains("upstream_requests_seconds_bucket{status=\"200\",uri=\"/v2/locations\",le=\"0.025\"} 0\n"));
+		assertTrue(scrape.contains("upstream_requests_seconds_bucket{status=\"200\",uri=\"/v2/locations\",le=\"0.05\"} 1\n"));
+		assertTrue(scrape.contains("upstream_requests_seconds_bucket{status=\"200\",uri=\"/v2/locations\",le=\"+Inf\"} 2\n"));
+		assertTrue(scrape.contains("upstream_requests_seconds_count{status=\"200\",uri=\"/v2/locations\"} 2\n"));
+		assertTrue(scrape.contains("upstream_requests_seconds_max{status=\"200\",uri=\"/v2/locations\"} 0.3\n"));
+		assertTrue(scrape.contains("cache_size{cache=\"measurements\"} 3\n"));
+		assertEquals(330, registry.timer("upstream.requests", "status", "200", "uri", "/v2/locations")
+				.totalTime(TimeUnit.MILLISECONDS), 0.001);
+	}
+
+	/**
+	 * Test that when a name is registered as a counter, then it can't be
+	 * used by another type of meter.
+	 */
+	@Test
+	public void givenACounter_whenRegisteringATimerWithItsName_thenAnExceptionIsThrown() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("measurements.fallbacks", "outcome", "stale");
+
+		assertThrows(IllegalArgumentException.class,
+				() -> registry.timer("measurements.fallbacks", "outcome", "unavailable"));
+	}
+}
@@ -14,6 +14,8 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.assessment.jorgeoracleassessment.config.HttpClientConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsConfig;
 import com.assessment.jorgeoracleassessment.models.input.InputParameters;
 import com.assessment.jorgeoracleassessment.models.input.InputResponse;
 import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
@@ -27,7 +29,7 @@ import com.assessment.jorgeoracleassessment.repository.OpenAQClientImpl;
  */
 @SpringBootTest
 @ExtendWith(SpringExtension.class)
-@ContextConfiguration(classes = { OpenAQClientImpl.class })
+@ContextConfiguration(classes = { OpenAQClientImpl.class, HttpClientConfig.class, MetricsConfig.class })
 public class OpenAQClientTest {
     @Autowired
     private OpenAQClient client;
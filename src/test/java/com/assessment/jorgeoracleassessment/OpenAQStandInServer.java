@@ -0,0 +1,240 @@
+package com.assessment.jorgeoracleassessment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in of the OpenAQ REST API, which replays the recorded
+ * responses of /v2/locations and /v2/parameters so the application can be
+ * tested and load-tested without the network. Pointing upstream.baseUrl to
+ * it is enough.
+ * 
+ * Every response is delayed by the configured latency plus a random jitter,
+ * and a share of the requests can be answered with a server error or a 429
+ * with a Retry-After, to check how the rate limiter, the retries and the
+ * circuit breaker behave. The injection rates can be changed while it runs.
+ * 
+ * It can be started on its own, e.g. from the test classpath:
+ * 
+ * mvn exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.assessment.jorgeoracleassessment.OpenAQStandInServer
+ * -Dexec.args="--port=8090 --latency=150 --jitter=100 --errorRate=0.01
+ * --throttleRate=0.02"
+ * 
+ * The recordings are read from the openaq test resources, or from the
+ * locations.json and parameters.json files of the --recordings directory.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class OpenAQStandInServer implements AutoCloseable {
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final Map<String, Recording> recordings = new HashMap<>();
+
+	private final long latency;
+
+	private final long jitter;
+
+	private final long retryAfter;
+
+	private volatile double errorRate;
+
+	private volatile double throttleRate;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong throttled = new AtomicLong();
+
+	/**
+	 * @param port         Port to listen to, or 0 for any free port.
+	 * @param recordings   Directory of the recorded responses, or null to use
+	 *                     the test resources.
+	 * @param latency      Minimum delay of every response.
+	 * @param jitter       Maximum random delay added to the latency.
+	 * @param errorRate    Share of the requests answered with a 503.
+	 * @param throttleRate Share of the requests answered with a 429.
+	 * @param retryAfter   Retry-After of the 429 responses.
+	 * @throws IOException If the server can't listen to the port or the
+	 *                     recordings can't be read.
+	 */
+	public OpenAQStandInServer(int port, Path recordings, Duration latency, Duration jitter, double errorRate,
+			double throttleRate, Duration retryAfter) throws IOException {
+		this.latency = latency.toMillis();
+		this.jitter = jitter.toMillis();
+		this.errorRate = errorRate;
+		this.throttleRate = throttleRate;
+		this.retryAfter = retryAfter.toSeconds();
+
+		this.recordings.put("/v2/locations", Recording.of(read(recordings, "locations.json", "locations-page.json")));
+		this.recordings.put("/v2/parameters", Recording.of(read(recordings, "parameters.json", "parameters.json")));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = options(args);
+		OpenAQStandInServer server = new OpenAQStandInServer(
+				Integer.parseInt(options.getOrDefault("port", "8090")),
+				options.containsKey("recordings") ? Path.of(options.get("recordings")) : null,
+				Duration.ofMillis(Long.parseLong(options.getOrDefault("latency", "100"))),
+				Duration.ofMillis(Long.parseLong(options.getOrDefault("jitter", "50"))),
+				Double.parseDouble(options.getOrDefault("errorRate", "0")),
+				Double.parseDouble(options.getOrDefault("throttleRate", "0")),
+				Duration.ofSeconds(Long.parseLong(options.getOrDefault("retryAfter", "1"))));
+		server.start();
+
+		System.out.println("OpenAQ stand-in listening on " + server.getBaseUrl());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			System.out.println("Served " + server.getRequests() + " requests: " + server.getErrors()
+					+ " errors and " + server.getThrottled() + " throttled");
+		}));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return Base URL to set as upstream.baseUrl.
+	 */
+	public String getBaseUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	public void setThrottleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * Method that answers a request after the latency, with the recording of
+	 * its path or the injected failure.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			requests.incrementAndGet();
+			delay();
+
+			Recording recording = recordings.get(exchange.getRequestURI().getPath());
+			double dice = ThreadLocalRandom.current().nextDouble();
+			if (recording == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else if (dice < throttleRate) {
+				throttled.incrementAndGet();
+				exchange.getResponseHeaders().add("Retry-After", Long.toString(retryAfter));
+				exchange.sendResponseHeaders(429, -1);
+			} else if (dice < throttleRate + errorRate) {
+				errors.incrementAndGet();
+				exchange.sendResponseHeaders(503, -1);
+			} else {
+				boolean gzip = String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding"))
+						.contains("gzip");
+				byte[] body = gzip ? recording.gzipped() : recording.plain();
+
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				if (gzip) {
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				}
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			}
+		}
+	}
+
+	private void delay() {
+		long millis = latency + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static byte[] read(Path directory, String file, String resource) throws IOException {
+		if (directory != null) {
+			return Files.readAllBytes(directory.resolve(file));
+		}
+		try (InputStream in = OpenAQStandInServer.class.getResourceAsStream("/openaq/" + resource)) {
+			if (in == null) {
+				throw new IOException("Missing recording " + resource);
+			}
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * @return Options given as --name=value.
+	 */
+	static Map<String, String> options(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (arg.startsWith("--") && equals > 2) {
+				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * Recorded response, compressed once so the stand-in doesn't spend its
+	 * time in gzip.
+	 */
+	private record Recording(byte[] plain, byte[] gzipped) {
+		private static Recording of(byte[] plain) {
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+			try (OutputStream out = new GZIPOutputStream(gzipped)) {
+				out.write(plain);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			return new Recording(plain, gzipped.toByteArray());
+		}
+	}
+}
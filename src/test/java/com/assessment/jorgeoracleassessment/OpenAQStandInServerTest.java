@@ -0,0 +1,104 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.client.HttpClientErrorException;
+
+import com.assessment.jorgeoracleassessment.config.HttpClientConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsConfig;
+import com.assessment.jorgeoracleassessment.models.input.InputParameters;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClientImpl;
+
+/**
+ * Tests for the src/main/java/com/assessment/jorgeoracleassessment/repository/OpenAQClientImpl.java
+ * REST API client against the OpenAQStandInServer, which replays the
+ * recorded responses without the network.
+ * 
+ * @author Jorge Gonzalez
+ */
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = { OpenAQClientImpl.class, HttpClientConfig.class, MetricsConfig.class })
+public class OpenAQStandInServerTest {
+	private static final OpenAQStandInServer server = startServer();
+
+	@Autowired
+	private OpenAQClient client;
+
+	@DynamicPropertySource
+	static void upstreamProperties(DynamicPropertyRegistry registry) {
+		registry.add("upstream.baseUrl", server::getBaseUrl);
+		registry.add("upstream.rateLimit", () -> "1000");
+		registry.add("upstream.retryBaseDelay", () -> "10");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.setThrottleRate(0);
+	}
+
+	@AfterAll
+	public static void stopServer() {
+		server.close();
+	}
+
+	/**
+	 * Test that when the base URL points to the stand-in server, then the
+	 * client gets and parses its recorded locations page.
+	 */
+	@Test
+	public void givenTheStandInServer_whenGettingALocationPage_thenTheRecordingIsParsed() {
+		LocationPage page = client.getLocationPage("pm25", "MX", null, null, -1, 1);
+
+		assertEquals(7, page.meta().found());
+		assertEquals(2, page.rows().size());
+		assertEquals(15.75, page.rows().get(0).value());
+	}
+
+	/**
+	 * Test that when the stand-in server throttles every request, then the
+	 * client retries them until it runs out of attempts.
+	 */
+	@Test
+	public void givenThrottleInjection_whenGettingTheParameters_thenTheRequestIsRetried() {
+		server.setThrottleRate(1);
+		long throttled = server.getThrottled();
+
+		HttpClientErrorException ex = assertThrows(HttpClientErrorException.class, () -> client.getParametersList());
+
+		assertEquals(429, ex.getStatusCode().value());
+		// Assert that every one of the 3 attempts reached the server.
+		assertEquals(3, server.getThrottled() - throttled);
+
+		server.setThrottleRate(0);
+		InputParameters parameters = client.getParametersList();
+		assertEquals("pm25", parameters.results().get(1).name());
+	}
+
+	private static OpenAQStandInServer startServer() {
+		try {
+			OpenAQStandInServer server = new OpenAQStandInServer(0, null, Duration.ZERO, Duration.ZERO, 0, 0,
+					Duration.ZERO);
+			server.start();
+			return server;
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
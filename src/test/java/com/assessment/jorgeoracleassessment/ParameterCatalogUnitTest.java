@@ -0,0 +1,108 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.assessment.jorgeoracleassessment.config.ExecutorConfig;
+import com.assessment.jorgeoracleassessment.models.input.InputParameter;
+import com.assessment.jorgeoracleassessment.models.input.InputParameters;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
+import com.assessment.jorgeoracleassessment.service.ParameterCatalog;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/ParameterCatalog.java
+ * catalog.
+ * 
+ * @author Jorge Gonzalez
+ */
+@SpringBootTest
+@ContextConfiguration(classes = { ParameterCatalog.class, ExecutorConfig.class })
+@ExtendWith(SpringExtension.class)
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class ParameterCatalogUnitTest {
+	@Autowired
+	private ParameterCatalog catalog;
+
+	@MockBean
+	private OpenAQClient openAQClient;
+
+	/**
+	 * Test that a catalog never loaded is loaded in the background the first
+	 * time it's used, and then answers without calling the REST API client
+	 * again.
+	 */
+	@Test
+	public void givenAParameterList_whenLookingUpParameters_thenTheListIsRequestedOnce() throws Exception {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(new InputParameter("pm25", "PM2.5", "desc", "unit"))));
+
+		// The lookup doesn't wait for the load.
+		catalog.contains("pm25");
+		awaitLoad();
+
+		assertTrue(catalog.contains("pm25"));
+		assertFalse(catalog.contains("XYZ"));
+		assertEquals("PM2.5", catalog.getDisplayName("pm25"));
+		assertEquals("", catalog.getDisplayName("XYZ"));
+
+		Mockito.verify(openAQClient, Mockito.times(1)).getParametersList();
+	}
+
+	/**
+	 * Test that when a refresh fails, the catalog keeps serving the
+	 * previously loaded parameters.
+	 */
+	@Test
+	public void givenALoadedCatalog_whenTheRefreshFails_thenTheLastCatalogIsKept() {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(new InputParameter("pm25", "PM2.5", "desc", "unit"))))
+				.thenThrow(new IllegalStateException("OpenAQ is down"));
+
+		assertTrue(catalog.refresh());
+		assertFalse(catalog.refresh());
+
+		assertTrue(catalog.contains("pm25"));
+		assertEquals("PM2.5", catalog.getDisplayName("pm25"));
+	}
+
+	/**
+	 * Test that while the REST API client fails and the catalog was never
+	 * loaded, the lookups find no parameters and start a single load per
+	 * retry interval.
+	 */
+	@Test
+	public void givenAFailingParameterList_whenLookingUpParameters_thenTheLoadsAreRateLimited() throws Exception {
+		Mockito.when(openAQClient.getParametersList()).thenThrow(new IllegalStateException("OpenAQ is down"));
+
+		assertFalse(catalog.contains("pm25"));
+		Mockito.verify(openAQClient, Mockito.timeout(1000)).getParametersList();
+		assertFalse(catalog.contains("pm25"));
+		assertFalse(catalog.contains("o3"));
+
+		assertFalse(catalog.isLoaded());
+		assertTrue(catalog.getRetryAfter() > 0);
+		Thread.sleep(50);
+		Mockito.verify(openAQClient, Mockito.times(1)).getParametersList();
+	}
+
+	private void awaitLoad() throws InterruptedException {
+		for (int attempt = 0; attempt < 100 && !catalog.isLoaded(); attempt++) {
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.service.SingleFlight;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/SingleFlight.java
+ * coalescer.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class SingleFlightUnitTest {
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Test that concurrent calls with the same key run the computation once
+	 * and all of them get its result.
+	 */
+	@Test
+	public void givenConcurrentCallsOfTheSameKey_whenExecuting_thenTheComputationRunsOnce() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger computations = new AtomicInteger();
+
+		Future<Integer> leader = executor.submit(() -> singleFlight.execute("pm25/MX", () -> {
+			computations.incrementAndGet();
+			await(release);
+			return 42;
+		}));
+		waitUntilInFlight();
+		Future<Integer> follower = submitFollower(() -> singleFlight.execute("pm25/MX", () -> {
+			computations.incrementAndGet();
+			return -1;
+		}));
+
+		release.countDown();
+
+		assertEquals(42, leader.get(5, TimeUnit.SECONDS));
+		assertEquals(42, follower.get(5, TimeUnit.SECONDS));
+		assertEquals(1, computations.get());
+		assertEquals(0, singleFlight.inFlight());
+	}
+
+	/**
+	 * Test that a failure of the leader is thrown to each follower wrapped
+	 * in its own exception, and it's not kept for later calls.
+	 */
+	@Test
+	public void givenAFailingLeader_whenExecuting_thenTheFailureIsNotKept() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<Integer> leader = executor.submit(() -> singleFlight.execute("pm25/MX", () -> {
+			await(release);
+			throw new IllegalStateException("OpenAQ is down");
+		}));
+		waitUntilInFlight();
+		Future<Integer> follower = submitFollower(() -> singleFlight.execute("pm25/MX", () -> -1));
+
+		release.countDown();
+
+		Exception exception = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+		assertEquals(CompletionException.class, exception.getCause().getClass());
+		assertEquals(IllegalStateException.class, exception.getCause().getCause().getClass());
+		Exception leaderException = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+		assertSame(exception.getCause().getCause(), leaderException.getCause());
+		assertEquals(7, singleFlight.execute("pm25/MX", () -> 7));
+	}
+
+	/**
+	 * Test that a follower which stops waiting doesn't affect the leader.
+	 */
+	@Test
+	public void givenAnInterruptedFollower_whenExecuting_thenTheLeaderStillCompletes() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<Integer> leader = executor.submit(() -> singleFlight.execute("pm25/MX", () -> {
+			await(release);
+			return 42;
+		}));
+		waitUntilInFlight();
+		Future<Integer> follower = submitFollower(() -> singleFlight.execute("pm25/MX", () -> -1));
+		follower.cancel(true);
+
+		release.countDown();
+
+		assertThrows(CancellationException.class, follower::get);
+		assertEquals(42, leader.get(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test that when the leader fails because its thread is interrupted, the
+	 * follower runs the computation instead of failing with it.
+	 */
+	@Test
+	public void givenAnInterruptedLeader_whenExecuting_thenAFollowerTakesOver() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<Integer> leader = executor.submit(() -> singleFlight.execute("pm25/MX", () -> {
+			await(release);
+			throw new IllegalStateException("Interrupted while reading the upstream");
+		}));
+		waitUntilInFlight();
+		Future<Integer> follower = submitFollower(() -> singleFlight.execute("pm25/MX", () -> 7));
+
+		leader.cancel(true);
+		release.countDown();
+
+		assertEquals(7, follower.get(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test that a follower stops waiting for a slow leader after the timeout.
+	 */
+	@Test
+	public void givenASlowLeader_whenTheFollowerTimesOut_thenItFailsWithATimeout() throws Exception {
+		SingleFlight<String, Integer> bounded = new SingleFlight<>(50);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<Integer> leader = executor.submit(() -> bounded.execute("pm25/MX", () -> {
+			await(release);
+			return 42;
+		}));
+		while (bounded.inFlight() == 0) {
+			Thread.sleep(5);
+		}
+
+		CompletionException exception = assertThrows(CompletionException.class,
+				() -> bounded.execute("pm25/MX", () -> -1));
+		assertEquals(TimeoutException.class, exception.getCause().getClass());
+
+		release.countDown();
+		assertEquals(42, leader.get(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Method that submits a follower and waits until it's blocked waiting
+	 * for the leader.
+	 */
+	private Future<Integer> submitFollower(Callable<Integer> task) throws InterruptedException {
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		Future<Integer> follower = executor.submit(() -> {
+			thread.set(Thread.currentThread());
+			return task.call();
+		});
+
+		while (thread.get() == null || thread.get().getState() != Thread.State.TIMED_WAITING) {
+			Thread.sleep(5);
+		}
+
+		return follower;
+	}
+
+	private void waitUntilInFlight() throws InterruptedException {
+		while (singleFlight.inFlight() == 0) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
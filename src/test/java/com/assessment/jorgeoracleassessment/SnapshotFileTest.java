@@ -0,0 +1,123 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.assessment.jorgeoracleassessment.models.input.InputMeta;
+import com.assessment.jorgeoracleassessment.models.input.InputParameter;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputResponse;
+import com.assessment.jorgeoracleassessment.models.output.OutputRow;
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.repository.MeasurementSnapshot;
+import com.assessment.jorgeoracleassessment.repository.SharedMeasurementStore.SharedMeasurement;
+import com.assessment.jorgeoracleassessment.repository.SnapshotFile;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/repository/SnapshotFile.java
+ * file.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class SnapshotFileTest {
+	@TempDir
+	private Path directory;
+
+	/**
+	 * Test that when we write a snapshot file, then we read the same
+	 * snapshot and parameters back, and no temporary file is left.
+	 */
+	@Test
+	public void givenAWrittenSnapshot_whenReadingTheFile_thenTheSameSnapshotIsRead() throws IOException {
+		SnapshotFile file = new SnapshotFile(directory.resolve("snapshot.aq"));
+		List<InputParameter> parameters = List.of(new InputParameter("pm25", "PM2.5", "desc", "µg/m³"));
+
+		file.write(snapshot(5), parameters);
+		SnapshotFile.Contents contents = file.read();
+
+		assertEquals(5, contents.snapshot().version());
+		assertEquals(2, contents.snapshot().size());
+		assertEquals(15, contents.snapshot().byCountry("pm25", "MX").value(0));
+		assertEquals(parameters, contents.parameters());
+		assertFalse(Files.exists(directory.resolve("snapshot.aq.tmp")));
+
+		// Assert that writing again replaces the file.
+		file.write(snapshot(6), parameters);
+		assertEquals(6, file.read().snapshot().version());
+	}
+
+	/**
+	 * Test that when nothing was ingested, then the file is written without
+	 * a snapshot, and the parameters and cached measurements are read back.
+	 */
+	@Test
+	public void givenNoSnapshot_whenWritingTheCachedMeasurements_thenTheyAreReadBack() throws IOException {
+		SnapshotFile file = new SnapshotFile(directory.resolve("snapshot.aq"));
+		List<InputParameter> parameters = List.of(new InputParameter("pm25", "PM2.5", "desc", "µg/m³"));
+		OutputResponse response = new OutputResponse(15, 28, "pm25", "PM2.5",
+				new OutputStats(2, 15, 28, 21.5, 21.5, 15, 28),
+				List.of(new OutputRow("19.4326", "-99.1332", 15), new OutputRow("-33.4489", "-70.6693", 28)));
+
+		file.write(null, parameters, Map.of("pm25|MX|||0", new SharedMeasurement(response, 1234)));
+		SnapshotFile.Contents contents = file.read();
+
+		assertNull(contents.snapshot());
+		assertEquals(parameters, contents.parameters());
+		SharedMeasurement measurement = contents.measurements().get("pm25|MX|||0");
+		assertEquals(1234, measurement.loadedAt());
+		assertEquals(28, measurement.value().max());
+		assertEquals(2, measurement.value().dataSet().size());
+		assertEquals("-99.1332", measurement.value().dataSet().get(0).longitude());
+	}
+
+	/**
+	 * Test that when the file doesn't exist, then nothing is read, and that
+	 * when it's truncated or corrupted, then it's rejected.
+	 */
+	@Test
+	public void givenAMissingOrDamagedFile_whenReadingIt_thenItIsRejected() throws IOException {
+		Path path = directory.resolve("snapshot.aq");
+		SnapshotFile file = new SnapshotFile(path);
+		assertNull(file.read());
+
+		file.write(snapshot(1), List.of());
+		try (RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+			raw.seek(raw.length() / 2);
+			int value = raw.read();
+			raw.seek(raw.length() / 2);
+			raw.write(value ^ 0xFF);
+		}
+		assertThrows(IOException.class, file::read);
+
+		file.write(snapshot(1), List.of());
+		try (RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+			raw.setLength(raw.length() - 10);
+		}
+		assertThrows(IOException.class, file::read);
+	}
+
+	private static MeasurementSnapshot snapshot(long version) {
+		MeasurementColumns rows = new MeasurementColumns();
+		rows.add(19.4326, -99.1332, 15);
+		rows.add(-33.4489, -70.6693, 28);
+
+		return new MeasurementSnapshot.Builder()
+				.add("pm25", new LocationPage(new InputMeta(1, 100, 2), rows, new int[] { 1, 2 },
+						new String[] { "MX", "CL" }))
+				.build(version, System.currentTimeMillis());
+	}
+}
@@ -0,0 +1,96 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.config.UpstreamRateLimiter;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.service.StationIndex;
+import com.assessment.jorgeoracleassessment.service.StationIndexCache;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/StationIndexCache.java
+ * cache.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class StationIndexCacheTest {
+	private final MutableClock clock = new MutableClock();
+
+	/**
+	 * Test that when an index is missing, then it's only built in the
+	 * background, and that its answers are flagged as stale once it's older
+	 * than the stale age, until it's rebuilt after its TTL.
+	 */
+	@Test
+	public void givenAnAgingIndex_whenGettingIt_thenItIsFlaggedAsStaleAndRebuilt() {
+		AtomicInteger builds = new AtomicInteger();
+		StationIndexCache cache = new StationIndexCache(true, 10_000, 3000, 1000, UpstreamRateLimiter.unlimited(),
+				Runnable::run, clock);
+
+		// Assert that the first lookup isn't answered, even though the build
+		// finished right away.
+		assertNull(cache.getIfPresent("pm25", () -> stations(builds.incrementAndGet())));
+		StationIndex index = cache.getIfPresent("pm25", () -> stations(builds.incrementAndGet()));
+		assertNotNull(index);
+		assertEquals(1, builds.get());
+		assertEquals(false, cache.isStale(index));
+
+		clock.advance(5000);
+		assertEquals(true, cache.isStale(index));
+		assertEquals(5, cache.getAge(index));
+
+		clock.advance(5000);
+		cache.getIfPresent("pm25", () -> stations(builds.incrementAndGet()));
+		StationIndex rebuilt = cache.getIfPresent("pm25", () -> stations(builds.incrementAndGet()));
+		assertEquals(2, builds.get());
+		assertEquals(false, cache.isStale(rebuilt));
+	}
+
+	private static MeasurementColumns stations(int value) {
+		MeasurementColumns stations = new MeasurementColumns();
+		stations.add(19.4, -99.1, value);
+		return stations;
+	}
+
+	/**
+	 * Clock which only moves when the test advances it.
+	 */
+	private static class MutableClock extends Clock {
+		private long millis;
+
+		void advance(long delta) {
+			millis += delta;
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.service.StationIndex;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/StationIndex.java
+ * spatial index, compared against a linear scan of the same stations.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class StationIndexTest {
+	private final Random random = new Random(42);
+
+	/**
+	 * Test that radius queries find the same stations as a linear scan,
+	 * including queries across the antimeridian and near the poles.
+	 */
+	@Test
+	public void givenRandomStations_whenQueryingARadius_thenTheResultMatchesALinearScan() {
+		MeasurementColumns stations = randomStations(5000);
+		StationIndex index = StationIndex.build(stations, 0);
+
+		assertEquals(5000, index.size());
+		for (int i = 0; i < 200; i++) {
+			double latitude = randomLatitude(), longitude = randomLongitude();
+			double radius = 1000 + random.nextDouble() * 2_000_000;
+
+			assertEquals(linearScan(stations, latitude, longitude, radius),
+					sortedValues(index.withinRadius(latitude, longitude, radius)));
+		}
+		// Around the antimeridian and the north pole.
+		assertEquals(linearScan(stations, 10, 179.9, 500_000),
+				sortedValues(index.withinRadius(10, 179.9, 500_000)));
+		assertEquals(linearScan(stations, 89.5, 0, 300_000),
+				sortedValues(index.withinRadius(89.5, 0, 300_000)));
+	}
+
+	/**
+	 * Test that the nearest stations are the same ones a linear scan finds,
+	 * sorted by distance.
+	 */
+	@Test
+	public void givenRandomStations_whenQueryingTheNearest_thenTheResultMatchesALinearScan() {
+		MeasurementColumns stations = randomStations(5000);
+		StationIndex index = StationIndex.build(stations, 0);
+
+		for (int i = 0; i < 200; i++) {
+			double latitude = randomLatitude(), longitude = randomLongitude();
+			int count = 1 + random.nextInt(20);
+
+			MeasurementColumns nearest = index.nearest(latitude, longitude, count);
+			double[] distances = new double[stations.size()];
+			List<Integer> expected = new ArrayList<>();
+			for (int station = 0; station < stations.size(); station++) {
+				distances[station] = StationIndex.distance(latitude, longitude, stations.latitude(station),
+						stations.longitude(station));
+				expected.add(station);
+			}
+			expected.sort(Comparator.comparingDouble(station -> distances[station]));
+
+			assertEquals(count, nearest.size());
+			for (int j = 0; j < count; j++) {
+				assertEquals(stations.value(expected.get(j)), nearest.value(j));
+			}
+		}
+	}
+
+	/**
+	 * Test that when there are less stations than requested, then we get
+	 * all of them.
+	 */
+	@Test
+	public void givenFewStations_whenQueryingTheNearest_thenAllOfThemAreReturned() {
+		StationIndex index = StationIndex.build(randomStations(3), 0);
+
+		assertEquals(3, index.nearest(0, 0, 10).size());
+		assertEquals(0, StationIndex.build(new MeasurementColumns(), 0).nearest(0, 0, 10).size());
+	}
+
+	/**
+	 * Each station has a unique value, so results can be compared by value.
+	 */
+	private MeasurementColumns randomStations(int count) {
+		MeasurementColumns stations = new MeasurementColumns(count);
+		for (int i = 0; i < count; i++) {
+			stations.add(randomLatitude(), randomLongitude(), i);
+		}
+		return stations;
+	}
+
+	private double randomLatitude() {
+		return random.nextDouble() * 180 - 90;
+	}
+
+	private double randomLongitude() {
+		return random.nextDouble() * 360 - 180;
+	}
+
+	private static List<Double> linearScan(MeasurementColumns stations, double latitude, double longitude,
+			double radius) {
+		List<Double> values = new ArrayList<>();
+		for (int i = 0; i < stations.size(); i++) {
+			if (StationIndex.distance(latitude, longitude, stations.latitude(i), stations.longitude(i)) <= radius) {
+				values.add(stations.value(i));
+			}
+		}
+		values.sort(null);
+		return values;
+	}
+
+	private static List<Double> sortedValues(MeasurementColumns stations) {
+		List<Double> values = new ArrayList<>();
+		for (int i = 0; i < stations.size(); i++) {
+			values.add(stations.value(i));
+		}
+		values.sort(null);
+		return values;
+	}
+}
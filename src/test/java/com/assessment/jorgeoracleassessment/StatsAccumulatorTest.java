@@ -0,0 +1,73 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.models.output.OutputStats;
+import com.assessment.jorgeoracleassessment.service.StatsAccumulator;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/StatsAccumulator.java
+ * accumulator.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class StatsAccumulatorTest {
+
+	/**
+	 * Test that when we accumulate values of both signs, then min, max and
+	 * mean are exact and the percentiles are within the relative accuracy of
+	 * the sketch, even when two accumulators are merged.
+	 */
+	@Test
+	public void givenRandomValues_whenAccumulatingThem_thenTheStatsMatchTheSortedValues() {
+		Random random = new Random(42);
+		double[] values = new double[20000];
+		StatsAccumulator first = new StatsAccumulator(), second = new StatsAccumulator();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextGaussian() * 30 + 10;
+			(i % 2 == 0 ? first : second).add(values[i]);
+		}
+		first.merge(second);
+		OutputStats stats = first.toStats();
+
+		Arrays.sort(values);
+		assertEquals(values.length, stats.count());
+		assertEquals(values[0], stats.min());
+		assertEquals(values[values.length - 1], stats.max());
+		assertEquals(Arrays.stream(values).average().getAsDouble(), stats.mean(), 1e-9);
+		assertQuantile(values, 0.5, stats.p50());
+		assertQuantile(values, 0.95, stats.p95());
+		assertQuantile(values, 0.99, stats.p99());
+	}
+
+	/**
+	 * Test that when there are no values, then every statistic is 0, and
+	 * that negative values give a negative minimum.
+	 */
+	@Test
+	public void givenNoValuesOrNegativeValues_whenAccumulatingThem_thenTheMinIsNotZero() {
+		assertEquals(new OutputStats(0, 0, 0, 0, 0, 0, 0), new StatsAccumulator().toStats());
+
+		StatsAccumulator temperatures = new StatsAccumulator();
+		temperatures.add(-12.5);
+		temperatures.add(-3);
+		temperatures.add(Double.NaN);
+		OutputStats stats = temperatures.toStats();
+
+		assertEquals(2, stats.count());
+		assertEquals(-12.5, stats.min());
+		assertEquals(-3, stats.max());
+		assertEquals(-12.5, stats.p50(), 12.5 * 0.01);
+	}
+
+	private static void assertQuantile(double[] sorted, double quantile, double estimate) {
+		double exact = sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+		assertEquals(exact, estimate, Math.abs(exact) * 0.01 + 1e-3);
+	}
+}
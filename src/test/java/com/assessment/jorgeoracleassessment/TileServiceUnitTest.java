@@ -0,0 +1,168 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.assessment.jorgeoracleassessment.config.ExecutorConfig;
+import com.assessment.jorgeoracleassessment.config.MetricsConfig;
+import com.assessment.jorgeoracleassessment.models.input.InputMeta;
+import com.assessment.jorgeoracleassessment.models.input.InputParameter;
+import com.assessment.jorgeoracleassessment.models.input.InputParameters;
+import com.assessment.jorgeoracleassessment.models.input.LocationPage;
+import com.assessment.jorgeoracleassessment.models.output.MeasurementColumns;
+import com.assessment.jorgeoracleassessment.models.output.OutputTile;
+import com.assessment.jorgeoracleassessment.models.output.OutputTileCell;
+import com.assessment.jorgeoracleassessment.repository.MeasurementSnapshot;
+import com.assessment.jorgeoracleassessment.repository.OpenAQClient;
+import com.assessment.jorgeoracleassessment.service.AQLocationService;
+import com.assessment.jorgeoracleassessment.service.IngestionService;
+import com.assessment.jorgeoracleassessment.service.ParameterCatalog;
+import com.assessment.jorgeoracleassessment.service.StationIndex;
+import com.assessment.jorgeoracleassessment.service.TileService;
+
+import jakarta.validation.ValidationException;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/service/TileService.java
+ * service.
+ * 
+ * @author Jorge Gonzalez
+ */
+@SpringBootTest
+@ContextConfiguration(classes = { TileService.class, ParameterCatalog.class, ExecutorConfig.class, MetricsConfig.class })
+@ExtendWith(SpringExtension.class)
+public class TileServiceUnitTest {
+	@Autowired
+	private TileService tileService;
+
+	@Autowired
+	private ParameterCatalog parameterCatalog;
+
+	@MockBean
+	private IngestionService ingestionService;
+
+	@MockBean
+	private AQLocationService service;
+
+	@MockBean
+	private OpenAQClient openAQClient;
+
+	/**
+	 * Test that when we get a tile, then the stations are binned in its
+	 * cells, even when they are split in parallel chunks, and that the tile
+	 * is cached until the snapshot changes.
+	 */
+	@Test
+	public void givenAnIngestedSnapshot_whenGettingATile_thenStationsAreAggregatedByCell() {
+		mockParameters();
+		// 10000 stations in Mexico City and one in Santiago, so the stations
+		// are binned in several chunks.
+		MeasurementColumns rows = new MeasurementColumns();
+		int[] ids = new int[10001];
+		String[] countries = new String[10001];
+		for (int i = 0; i < 10000; i++) {
+			rows.add(19.4326, -99.1332, i % 2 == 0 ? 10 : 20);
+			ids[i] = i;
+			countries[i] = "MX";
+		}
+		rows.add(-33.4489, -70.6693, 28);
+		ids[10000] = 10000;
+		countries[10000] = "CL";
+		MeasurementSnapshot snapshot = new MeasurementSnapshot.Builder()
+				.add("pm25", new LocationPage(new InputMeta(1, 100, rows.size()), rows, ids, countries))
+				.build(1, System.currentTimeMillis());
+		Mockito.when(ingestionService.getSnapshot("pm25")).thenReturn(snapshot);
+
+		// The whole world: Mexico City is in the upper half, Santiago in the
+		// lower one.
+		OutputTile world = tileService.getTile("pm25", 0, 0, 0);
+		assertEquals(1, world.version());
+		assertEquals(2, world.cells().size());
+		OutputTileCell mexico = world.cells().get(0);
+		assertEquals(10000, mexico.count());
+		assertEquals(20, mexico.max());
+		assertEquals(15, mexico.mean());
+		assertEquals(3, mexico.column());
+		assertEquals(7, mexico.row());
+		assertEquals(28, world.cells().get(1).mean());
+
+		// Assert that the tile of the western hemisphere of the south only has
+		// Santiago, and that the eastern one is empty.
+		assertEquals(1, tileService.getTile("pm25", 1, 0, 1).cells().size());
+		assertEquals(0, tileService.getTile("pm25", 1, 1, 1).cells().size());
+
+		// Assert that the tile is cached for the snapshot.
+		assertSame(world, tileService.getTile("pm25", 0, 0, 0));
+
+		// Assert that a new snapshot invalidates the tiles.
+		MeasurementSnapshot next = new MeasurementSnapshot.Builder()
+				.add("pm25", new LocationPage(new InputMeta(1, 100, 1),
+						MeasurementColumns.of(), new int[0], new String[0]))
+				.build(2, System.currentTimeMillis());
+		Mockito.when(ingestionService.getSnapshot("pm25")).thenReturn(next);
+		assertEquals(0, tileService.getTile("pm25", 0, 0, 0).cells().size());
+	}
+
+	/**
+	 * Test that when the air quality parameter is not ingested, then the
+	 * tile is binned from its station index, and that it's cached until the
+	 * index is built again.
+	 */
+	@Test
+	public void givenNoSnapshot_whenGettingATile_thenTheStationIndexIsBinned() {
+		mockParameters();
+		MeasurementColumns rows = new MeasurementColumns();
+		rows.add(19.4326, -99.1332, 10);
+		rows.add(19.4326, -99.1332, 20);
+		rows.add(-33.4489, -70.6693, 28);
+		Mockito.when(service.getStationIndex("pm25")).thenReturn(StationIndex.build(rows, 1000));
+
+		OutputTile world = tileService.getTile("pm25", 0, 0, 0);
+		assertEquals(1000, world.version());
+		assertEquals(2, world.cells().size());
+		assertEquals(2, world.cells().get(0).count());
+		assertEquals(15, world.cells().get(0).mean());
+		assertSame(world, tileService.getTile("pm25", 0, 0, 0));
+
+		// Assert that a new index invalidates the tiles.
+		Mockito.when(service.getStationIndex("pm25")).thenReturn(StationIndex.build(MeasurementColumns.of(), 2000));
+		OutputTile next = tileService.getTile("pm25", 0, 0, 0);
+		assertEquals(2000, next.version());
+		assertEquals(0, next.cells().size());
+	}
+
+	/**
+	 * Test that when the tile coordinates are invalid, then a validation
+	 * exception is thrown, and that when the air quality parameter is not
+	 * ingested nor indexed, then there is no tile.
+	 */
+	@Test
+	public void givenInvalidCoordinatesOrNoSnapshot_whenGettingATile_thenNoTileIsComputed() {
+		mockParameters();
+
+		assertThrows(ValidationException.class, () -> tileService.getTile("pm25", 2, 4, 0));
+		assertThrows(ValidationException.class, () -> tileService.getTile("pm25", -1, 0, 0));
+		assertThrows(ValidationException.class, () -> tileService.getTile("co2", 0, 0, 0));
+		assertNull(tileService.getTile("pm25", 0, 0, 0));
+	}
+
+	private void mockParameters() {
+		Mockito.when(openAQClient.getParametersList())
+				.thenReturn(new InputParameters(List.of(new InputParameter("pm25", "PM2.5", "desc", "unit"))));
+		parameterCatalog.refresh();
+	}
+}
@@ -0,0 +1,135 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+import com.assessment.jorgeoracleassessment.config.CircuitOpenException;
+import com.assessment.jorgeoracleassessment.config.UpstreamCircuitBreaker;
+import com.assessment.jorgeoracleassessment.config.UpstreamCircuitBreaker.State;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/config/UpstreamCircuitBreaker.java
+ * circuit breaker.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class UpstreamCircuitBreakerTest {
+	private final MutableClock clock = new MutableClock();
+
+	private final UpstreamCircuitBreaker circuitBreaker = new UpstreamCircuitBreaker(4, 4, 0.5,
+			Duration.ofSeconds(1), 0.75, Duration.ofSeconds(30), clock);
+
+	/**
+	 * Test that the circuit opens when half of the requests fail, that it
+	 * fails fast while it's open, and that a single successful probe closes
+	 * it once the open duration elapses.
+	 */
+	@Test
+	public void givenFailingRequests_whenTheFailureRateIsReached_thenTheCircuitOpensAndAProbeClosesIt() {
+		record(false, 10);
+		record(true, 10);
+		record(false, 10);
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		record(true, 10);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+
+		CircuitOpenException ex = assertThrows(CircuitOpenException.class, circuitBreaker::acquire);
+		assertEquals(30000, ex.getRetryAfter());
+
+		clock.advance(30000);
+		// Only the probe is let through.
+		long probe = circuitBreaker.acquire();
+		assertThrows(CircuitOpenException.class, circuitBreaker::acquire);
+		circuitBreaker.onResponse(probe, 200, 10);
+
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		circuitBreaker.acquire();
+	}
+
+	/**
+	 * Test that the circuit opens when the requests are too slow even if
+	 * they succeed, and that a slow probe opens it again.
+	 */
+	@Test
+	public void givenSlowRequests_whenTheSlowCallRateIsReached_thenTheCircuitOpens() {
+		record(false, 1000);
+		record(false, 1500);
+		record(false, 10);
+		record(false, 2000);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+
+		clock.advance(30000);
+		circuitBreaker.onResponse(circuitBreaker.acquire(), 200, 5000);
+
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	/**
+	 * Test that the outcome of a request sent before the circuit opened is
+	 * ignored once the circuit is half-open, so it neither decides the probe
+	 * nor gives its permission back.
+	 */
+	@Test
+	public void givenARequestOfAPreviousGeneration_whenItCompletesWhileHalfOpen_thenItIsIgnored() {
+		long stale = circuitBreaker.acquire();
+		record(true, 10);
+		record(true, 10);
+		record(false, 10);
+		record(false, 10);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+
+		clock.advance(30000);
+		long probe = circuitBreaker.acquire();
+		circuitBreaker.onResponse(stale, 200, 10);
+		circuitBreaker.abandon(stale);
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		assertThrows(CircuitOpenException.class, circuitBreaker::acquire);
+
+		circuitBreaker.onResponse(probe, 503, 10);
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	private void record(boolean failure, long duration) {
+		circuitBreaker.onResult(circuitBreaker.acquire(), failure, duration);
+	}
+
+	/**
+	 * Clock which only moves when the test advances it.
+	 */
+	private static class MutableClock extends Clock {
+		private long millis;
+
+		void advance(long delta) {
+			millis += delta;
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}
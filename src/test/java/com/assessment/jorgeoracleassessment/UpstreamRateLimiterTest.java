@@ -0,0 +1,73 @@
+package com.assessment.jorgeoracleassessment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import com.assessment.jorgeoracleassessment.config.UpstreamRateLimiter;
+
+/**
+ * Unit tests for the
+ * src/main/java/com/assessment/jorgeoracleassessment/config/UpstreamRateLimiter.java
+ * rate limiter.
+ * 
+ * @author Jorge Gonzalez
+ */
+public class UpstreamRateLimiterTest {
+	private final Clock clock = Clock.fixed(Instant.ofEpochSecond(1_700_000_000L), ZoneOffset.UTC);
+
+	/**
+	 * Test that the burst is sent at once and the following requests are
+	 * spaced by the configured rate.
+	 */
+	@Test
+	public void givenABurst_whenReservingMoreRequests_thenTheyAreSpacedByTheRate() {
+		UpstreamRateLimiter limiter = new UpstreamRateLimiter(10, 3, 3, Duration.ofMillis(100),
+				Duration.ofSeconds(1), clock);
+
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		assertEquals(100, limiter.reserve());
+		assertEquals(200, limiter.reserve());
+	}
+
+	/**
+	 * Test that a Retry-After pauses every request, that an exhausted quota
+	 * pauses them until the window resets, and that the backoff of a retry
+	 * is never shorter than the Retry-After.
+	 */
+	@Test
+	public void givenRateLimitHeaders_whenReserving_thenTheRequestsWaitForTheUpstream() {
+		UpstreamRateLimiter limiter = new UpstreamRateLimiter(10, 10, 3, Duration.ofMillis(100),
+				Duration.ofSeconds(1), clock);
+
+		HttpHeaders tooManyRequests = new HttpHeaders();
+		tooManyRequests.set(HttpHeaders.RETRY_AFTER, "2");
+		limiter.onResponse(429, tooManyRequests);
+		assertEquals(2000, limiter.reserve());
+		assertTrue(limiter.backoff(1, tooManyRequests) >= 2000);
+		// Without a Retry-After the backoff is capped by the max delay.
+		assertTrue(limiter.backoff(10, null) <= 1000);
+
+		HttpHeaders exhausted = new HttpHeaders();
+		exhausted.set("X-RateLimit-Remaining", "0");
+		exhausted.set("X-RateLimit-Reset", "5");
+		limiter.onResponse(200, exhausted);
+		assertEquals(5000, limiter.reserve());
+
+		assertTrue(limiter.isRetryable(429));
+		assertTrue(limiter.isRetryable(503));
+		assertFalse(limiter.isRetryable(404));
+		assertTrue(limiter.canRetry(2));
+		assertFalse(limiter.canRetry(3));
+	}
+}